@@ -0,0 +1,81 @@
+package com.glitchcog.starnom.bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.glitchcog.starnom.BatchEnv;
+
+/**
+ * Measures stepping a batch of envs, serially and spread over a pool. Scores are per batch step, so divide by the number
+ * of envs for the cost of each env step.
+ * 
+ * @author Matt Yanos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEnvBenchmark
+{
+    @Param({ "64", "1024" })
+    public int envs;
+
+    @Param({ "16" })
+    public int stars;
+
+    private BatchEnv serial;
+
+    private BatchEnv parallel;
+
+    private ForkJoinPool pool;
+
+    private float[] actions;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        serial = new BatchEnv(envs, stars, 8, 2000L, 1, 1L);
+        serial.reset();
+        pool = new ForkJoinPool();
+        parallel = new BatchEnv(envs, stars, 8, 2000L, 1, 1L);
+        parallel.setParallelism(pool, 32);
+        parallel.reset();
+        actions = new float[envs * BatchEnv.ACTION_SIZE];
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown()
+    {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public BatchEnv stepSerial()
+    {
+        serial.step(actions);
+        return serial;
+    }
+
+    @Benchmark
+    public BatchEnv stepParallel()
+    {
+        parallel.step(actions);
+        return parallel;
+    }
+}
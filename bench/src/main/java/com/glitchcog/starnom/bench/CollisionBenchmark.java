@@ -0,0 +1,67 @@
+package com.glitchcog.starnom.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.glitchcog.starnom.StarNom;
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.collision.BroadphaseType;
+
+/**
+ * Measures a tick's worth of star collision checks for each broadphase across star counts. The stars the guy touches
+ * are only counted, not eaten, so every invocation checks the same sky.
+ *
+ * @author Matt Yanos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollisionBenchmark
+{
+    @Param({ "16", "1024", "65536" })
+    public int stars;
+
+    @Param({ "brute", "grid", "sap" })
+    public String broadphase;
+
+    private World world;
+
+    @Setup
+    public void setup()
+    {
+        world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, stars);
+        world.setBroadphase(BroadphaseType.fromLabel(broadphase));
+        world.reset();
+
+        // Let the stars fly up into the sky, then hang the guy up among them
+        for (int i = 0; i < 200; i++)
+            world.update();
+        world.getGuy().mo.pos.x = StarNom.SCREEN_WIDTH / 2;
+        world.getGuy().mo.pos.y = StarNom.SCREEN_HEIGHT / 3;
+    }
+
+    /**
+     * Find the stars touching the guy
+     *
+     * @return the number of stars found
+     */
+    @Benchmark
+    public int countStarCollisions()
+    {
+        return world.countStarCollisions(0);
+    }
+}
@@ -0,0 +1,93 @@
+package com.glitchcog.starnom.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.glitchcog.starnom.StarNom;
+import com.glitchcog.starnom.TimerWheel;
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.agent.Guy;
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.physics.Vector;
+
+/**
+ * Measures the physics hot paths: integrating an agent's motion, measuring distance between vectors, updating the stars
+ * and running a whole tick of the world
+ * 
+ * @author Matt Yanos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhysicsBenchmark
+{
+    @Param({ "16", "1024", "65536" })
+    public int stars;
+
+    private Guy guy;
+
+    private Vector a;
+
+    private Vector b;
+
+    private TimerWheel timers;
+
+    private StarField starField;
+
+    private World world;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        timers = new TimerWheel();
+        guy = new Guy(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, timers);
+        a = new Vector(12.0f, 34.0f);
+        b = new Vector(56.0f, 78.0f);
+        starField = new StarField(stars, StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, 1L, timers);
+        world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, stars);
+        world.reset();
+    }
+
+    @Benchmark
+    public Guy agentUpdate()
+    {
+        guy.update(1.0f);
+        return guy;
+    }
+
+    @Benchmark
+    public float vectorDistanceSqrd()
+    {
+        return a.distanceSqrd(b);
+    }
+
+    @Benchmark
+    public StarField starFieldUpdate()
+    {
+        timers.advance();
+        starField.update(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT);
+        return starField;
+    }
+
+    @Benchmark
+    public World worldUpdate()
+    {
+        world.update();
+        return world;
+    }
+}
@@ -0,0 +1,134 @@
+package com.glitchcog.starnom.bench;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.glitchcog.starnom.StarNom;
+import com.glitchcog.starnom.TimerWheel;
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.WorldRenderer;
+import com.glitchcog.starnom.agent.Guy;
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.agent.StarSprites;
+
+/**
+ * Measures the render hot paths into an offscreen image: drawing the stars as polygons and as sprites, drawing the guy
+ * and his face and speech bubble, and a whole frame of updating and rendering the world
+ * 
+ * @author Matt Yanos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark
+{
+    @Param({ "16", "1024" })
+    public int stars;
+
+    private BufferedImage image;
+
+    private Graphics2D g2d;
+
+    private StarField starField;
+
+    private StarSprites starSprites;
+
+    private Guy guy;
+
+    private World world;
+
+    private WorldRenderer renderer;
+
+    @Setup
+    public void setup()
+    {
+        image = new BufferedImage(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 16));
+
+        final TimerWheel timers = new TimerWheel();
+        starField = new StarField(stars, StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, 1L, timers);
+        for (int i = 0; i < 150; i++)
+        {
+            timers.advance();
+            starField.update(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT);
+        }
+        starSprites = new StarSprites(WorldRenderer.STAR_SUBPIXEL_STEPS);
+
+        guy = new Guy(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, timers);
+        guy.talk(Guy.INSTRUCTIONS);
+
+        world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, stars);
+        world.reset();
+        renderer = new WorldRenderer(world);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        g2d.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage starPolygons()
+    {
+        starField.draw(g2d, 1.0f);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage starSprites()
+    {
+        starSprites.draw(g2d, starField, 1.0f);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage guyDraw()
+    {
+        guy.draw(g2d);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage guyDrawFace()
+    {
+        guy.drawFace(g2d);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage guyDrawSpeech()
+    {
+        guy.drawSpeech(g2d, guy.speech);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage frame()
+    {
+        world.update();
+        renderer.render(g2d, StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, 1.0f);
+        return image;
+    }
+}
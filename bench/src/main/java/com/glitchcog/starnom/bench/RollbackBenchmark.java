@@ -0,0 +1,80 @@
+package com.glitchcog.starnom.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.glitchcog.starnom.StarNom;
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.net.NetInput;
+import com.glitchcog.starnom.net.RollbackSession;
+
+/**
+ * Measures a rollback session catching up on a remote throw that turned up the specified number of ticks late, which
+ * restores the snapshot before the throw and runs every tick since again, against the number of stars
+ *
+ * @author Matt Yanos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollbackBenchmark
+{
+    @Param({ "16", "1024" })
+    public int stars;
+
+    @Param({ "8", "48" })
+    public int depth;
+
+    private RollbackSession session;
+
+    /**
+     * The tick the next late throw is for
+     */
+    private long lateTick;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        World world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, stars, stars, 1L, 2);
+        session = new RollbackSession(world, 0, 0);
+        lateTick = 0L;
+    }
+
+    /**
+     * Confirm that the remote player didn't throw in the ticks after the latest late throw, then run ahead of them by
+     * the depth
+     */
+    @Setup(Level.Invocation)
+    public void predict()
+    {
+        final long tick = session.getWorld().getTick();
+        for (long t = lateTick + 1L; t < tick; t++)
+            session.addRemoteInput(1, t, NetInput.NONE);
+        for (int t = 0; t < depth; t++)
+            session.advance(NetInput.NONE);
+        lateTick = session.getConfirmedTick() + 1L;
+    }
+
+    @Benchmark
+    public World rollback()
+    {
+        session.addRemoteInput(1, lateTick, NetInput.throwAt(40, -60));
+        session.catchUp();
+        return session.getWorld();
+    }
+}
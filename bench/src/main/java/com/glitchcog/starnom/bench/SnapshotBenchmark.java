@@ -0,0 +1,71 @@
+package com.glitchcog.starnom.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.glitchcog.starnom.StarNom;
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.WorldSnapshot;
+import com.glitchcog.starnom.physics.StarMotion;
+
+/**
+ * Measures saving a world to a snapshot and restoring it, against the number of stars
+ * 
+ * @author Matt Yanos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark
+{
+    @Param({ "16", "1024", "65536" })
+    public int stars;
+
+    @Param({ "integrated", "closed-form" })
+    public String motion;
+
+    private World world;
+
+    private WorldSnapshot snapshot;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, stars, 1L);
+        world.setStarMotion(StarMotion.fromLabel(motion));
+        world.reset();
+        for (int i = 0; i < 200; i++)
+            world.update();
+        snapshot = new WorldSnapshot(ByteBuffer.allocateDirect(WorldSnapshot.size(world)));
+        snapshot.save(world);
+    }
+
+    @Benchmark
+    public int save()
+    {
+        return snapshot.save(world);
+    }
+
+    @Benchmark
+    public World restore()
+    {
+        snapshot.restore(world);
+        return world;
+    }
+}
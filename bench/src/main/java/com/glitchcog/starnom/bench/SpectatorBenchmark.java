@@ -0,0 +1,121 @@
+package com.glitchcog.starnom.bench;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.glitchcog.starnom.StarNom;
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.physics.StarMotion;
+import com.glitchcog.starnom.spectator.SpectatorDecoder;
+import com.glitchcog.starnom.spectator.SpectatorEncoder;
+import com.glitchcog.starnom.spectator.SpectatorFormat;
+
+/**
+ * Measures following a world along for spectators and writing each tick's delta for a viewer who acknowledged the
+ * tick before, and decoding it, against the number of stars. The bytes per tick are reported by running the game with
+ * <code>--spectate</code>.
+ *
+ * @author Matt Yanos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpectatorBenchmark
+{
+    @Param({ "16", "1024", "100000" })
+    public int stars;
+
+    @Param({ "integrated", "closed-form" })
+    public String motion;
+
+    private World world;
+
+    private SpectatorEncoder encoder;
+
+    private SpectatorDecoder decoder;
+
+    private ByteBuffer frame;
+
+    /**
+     * The latest frame the viewer acknowledged
+     */
+    private long ack;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, stars, 1L);
+        world.setStarMotion(StarMotion.fromLabel(motion));
+        world.reset();
+        encoder = new SpectatorEncoder(world);
+        decoder = new SpectatorDecoder(stars);
+        frame = ByteBuffer.allocateDirect(SpectatorFormat.maxFrameSize(stars, world.getPlayers()));
+        ack = -1L;
+        for (int i = 0; i < 200; i++)
+        {
+            world.update();
+            encode();
+            decode();
+        }
+    }
+
+    /**
+     * Run the next tick, which isn't measured
+     */
+    @Setup(Level.Invocation)
+    public void tick()
+    {
+        world.update();
+    }
+
+    /**
+     * Follow the world to the tick and write its frame, which the viewer acknowledges by the next tick
+     *
+     * @return the number of bytes in the frame
+     */
+    @Benchmark
+    public int encode()
+    {
+        encoder.update();
+        frame.clear();
+        encoder.encode(frame, ack);
+        ack = encoder.getFrame();
+        frame.flip();
+        return frame.remaining();
+    }
+
+    /**
+     * Follow the world to the tick, write its frame and decode it
+     *
+     * @return the decoded frame
+     */
+    @Benchmark
+    public long encodeDecode()
+    {
+        encode();
+        decode();
+        return decoder.getFrame();
+    }
+
+    private void decode()
+    {
+        frame.rewind();
+        decoder.decode(frame);
+    }
+}
@@ -0,0 +1,343 @@
+package com.glitchcog.starnom;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import com.glitchcog.starnom.agent.StarSprites;
+import com.glitchcog.starnom.input.MouseInput;
+import com.glitchcog.starnom.net.NetInput;
+import com.glitchcog.starnom.net.RollbackSession;
+import com.glitchcog.starnom.spectator.SpectatorDecoder;
+import com.glitchcog.starnom.spectator.SpectatorEncoder;
+import com.glitchcog.starnom.spectator.SpectatorFormat;
+
+/**
+ * Checks that the steady state tick and paint paths don't allocate, by counting the bytes the current thread allocates
+ * over headless ticks, over steps of a batch of envs, over snapshots saved and restored, over a networked session's
+ * ticks and rollbacks, over ticks streamed to a spectator and over frames rendered to an offscreen image while the game
+ * plays on. Exits with a failure status if any of them allocates at all, so it can guard against allocation creeping
+ * back in from a build.
+ * <p>
+ * Known exceptions, which aren't measured:
+ * <ul>
+ * <li>Rendering only the dirty parts of a frame, as Java2D makes a new clip region every time the graphics are clipped
+ * to one of them.</li>
+ * <li>Laying out the score and speech bubbles the first time, or again after the font changes, and drawing each phrase's
+ * speech bubble the first time it is spoken. The first frames of each renderer are left out of the measurement.</li>
+ * </ul>
+ *
+ * @author Matt Yanos
+ */
+public class AllocationCheck
+{
+    /**
+     * The number of ticks to measure
+     */
+    private static final int TICKS = 10000;
+
+    /**
+     * The number of rounds of every measured path to run before measuring. Java2D allocates a few rectangles for every
+     * image it copies until the copy is compiled, which takes this long to happen for the speech bubble and the score.
+     */
+    private static final int WARM_UP_ROUNDS = 10;
+
+    /**
+     * The number of frames to measure with each way of drawing the stars
+     */
+    private static final int FRAMES = 500;
+
+    /**
+     * The most bytes that may be allocated by any of the measured paths
+     */
+    private static final long BUDGET = 0L;
+
+    /**
+     * The number of stars to run with, enough that anything allocated per star stands out
+     */
+    private static final int STAR_COUNT = 256;
+
+    private static final long SEED = 1L;
+
+    /**
+     * The number of envs to step in a batch
+     */
+    private static final int ENVS = 64;
+
+    /**
+     * The number of batch steps to measure, enough that every env starts a few new episodes
+     */
+    private static final int ENV_STEPS = 2000;
+
+    /**
+     * The number of ticks in each env's episode
+     */
+    private static final long EPISODE_TICKS = 500L;
+
+    /**
+     * The number of stars each env observes
+     */
+    private static final int OBSERVED_STARS = 8;
+
+    /**
+     * The number of times to save a snapshot, run a few ticks and roll back to it
+     */
+    private static final int ROLLBACKS = 2000;
+
+    /**
+     * The number of ticks run before each rollback
+     */
+    private static final int ROLLBACK_TICKS = 8;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    /**
+     * Run the check
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported())
+        {
+            System.out.println("Allocation check skipped, the JVM can't count allocated bytes per thread");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        World world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, STAR_COUNT, SEED);
+        world.reset();
+
+        BatchEnv env = new BatchEnv(ENVS, World.STAR_BATCH_SIZE, OBSERVED_STARS, EPISODE_TICKS, 1, SEED);
+        env.reset();
+        final float[] actions = new float[ENVS * BatchEnv.ACTION_SIZE];
+
+        final WorldSnapshot snapshot = new WorldSnapshot(ByteBuffer.allocateDirect(WorldSnapshot.size(world)));
+
+        final RollbackSession session = new RollbackSession(new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, STAR_COUNT, STAR_COUNT, SEED, 2), 0, 0);
+
+        final SpectatorEncoder encoder = new SpectatorEncoder(world);
+        final SpectatorDecoder decoder = new SpectatorDecoder(world.getStars().getCapacity());
+        final ByteBuffer frame = ByteBuffer.allocateDirect(SpectatorFormat.maxFrameSize(world.getStars().getCapacity(), world.getPlayers()));
+
+        final WorldRenderer polygonRenderer = new WorldRenderer(world, null);
+        final WorldRenderer spriteRenderer = new WorldRenderer(world, new StarSprites(WorldRenderer.STAR_SUBPIXEL_STEPS));
+
+        // Warm up until everything is compiled and every lazily built object has been built, including the speech
+        // bubble of every phrase the guy says
+        for (int i = 0; i < WARM_UP_ROUNDS; i++)
+        {
+            runTicks(world, TICKS);
+            runSteps(env, actions, ENV_STEPS);
+            runRollbacks(world, snapshot, ROLLBACKS);
+            runSession(session, ROLLBACKS);
+            runSpectator(world, encoder, decoder, frame, TICKS);
+            renderFrames(world, polygonRenderer, FRAMES);
+            renderFrames(world, spriteRenderer, FRAMES);
+        }
+
+        final long tickBytes = runTicks(world, TICKS);
+        final long stepBytes = runSteps(env, actions, ENV_STEPS);
+        final long rollbackBytes = runRollbacks(world, snapshot, ROLLBACKS);
+        final long sessionBytes = runSession(session, ROLLBACKS);
+        final long spectatorBytes = runSpectator(world, encoder, decoder, frame, TICKS);
+        final long polygonBytes = renderFrames(world, polygonRenderer, FRAMES);
+        final long spriteBytes = renderFrames(world, spriteRenderer, FRAMES);
+
+        System.out.println(String.format("%d ticks allocated %d bytes (budget %d)", TICKS, tickBytes, BUDGET));
+        System.out.println(String.format("%d steps of %d envs allocated %d bytes (budget %d)", ENV_STEPS, ENVS, stepBytes, BUDGET));
+        System.out.println(String.format("%d rollbacks allocated %d bytes (budget %d)", ROLLBACKS, rollbackBytes, BUDGET));
+        System.out.println(String.format("%d session rollbacks allocated %d bytes (budget %d)", ROLLBACKS, sessionBytes, BUDGET));
+        System.out.println(String.format("%d ticks streamed to a spectator allocated %d bytes (budget %d)", TICKS, spectatorBytes, BUDGET));
+        System.out.println(String.format("%d frames with star polygons allocated %d bytes (budget %d)", FRAMES, polygonBytes, BUDGET));
+        System.out.println(String.format("%d frames with star sprites allocated %d bytes (budget %d)", FRAMES, spriteBytes, BUDGET));
+
+        if (tickBytes > BUDGET || stepBytes > BUDGET || rollbackBytes > BUDGET || sessionBytes > BUDGET || spectatorBytes > BUDGET || polygonBytes > BUDGET || spriteBytes > BUDGET)
+        {
+            System.out.println("Allocation check failed");
+            System.exit(1);
+        }
+        System.out.println("Allocation check passed");
+    }
+
+    /**
+     * Run the specified number of ticks, throwing the guy now and then
+     *
+     * @param world
+     * @param ticks
+     * @return the number of bytes allocated
+     */
+    private static long runTicks(World world, int ticks)
+    {
+        final long before = allocatedBytes();
+        for (int i = 0; i < ticks; i++)
+            runTick(world, i);
+        return allocatedBytes() - before;
+    }
+
+    /**
+     * Run a tick, grabbing the guy on every hundredth tick and throwing him ten ticks later
+     *
+     * @param world
+     * @param i
+     *            the number of ticks run before this one
+     */
+    private static void runTick(World world, int i)
+    {
+        final MouseInput input = world.getInput();
+        if (i % 100 == 0)
+        {
+            final int x = (int) world.getGuy().mo.pos.x;
+            final int y = (int) world.getGuy().mo.pos.y;
+            input.enqueue(MouseInput.PRESS, x, y);
+            input.enqueue(MouseInput.DRAG, x, y);
+        }
+        else if (i % 100 == 10)
+        {
+            input.enqueue(MouseInput.RELEASE, (i * 7) % StarNom.SCREEN_WIDTH, (i * 13) % StarNom.SCREEN_HEIGHT);
+        }
+        world.update();
+    }
+
+    /**
+     * Step a batch of envs the specified number of times, throwing each env's guy now and then
+     *
+     * @param env
+     * @param actions
+     * @param steps
+     * @return the number of bytes allocated
+     */
+    private static long runSteps(BatchEnv env, float[] actions, int steps)
+    {
+        final long before = allocatedBytes();
+        for (int i = 0; i < steps; i++)
+        {
+            for (int e = 0; e < env.getEnvCount(); e++)
+            {
+                final boolean throwNow = (i + e) % 50 == 0;
+                actions[e * BatchEnv.ACTION_SIZE] = throwNow ? (e * 7) % 120 - 60 : 0.0f;
+                actions[e * BatchEnv.ACTION_SIZE + 1] = throwNow ? -(e * 13) % 60 : 0.0f;
+            }
+            env.step(actions);
+        }
+        return allocatedBytes() - before;
+    }
+
+    /**
+     * Save a snapshot, run a few ticks and roll back to the snapshot the specified number of times, running on past each
+     * snapshot before taking the next
+     *
+     * @param world
+     * @param snapshot
+     * @param rollbacks
+     * @return the number of bytes allocated
+     */
+    private static long runRollbacks(World world, WorldSnapshot snapshot, int rollbacks)
+    {
+        final long before = allocatedBytes();
+        for (int i = 0; i < rollbacks; i++)
+        {
+            snapshot.save(world);
+            runTicks(world, ROLLBACK_TICKS);
+            snapshot.restore(world);
+            runTicks(world, ROLLBACK_TICKS + 1);
+        }
+        return allocatedBytes() - before;
+    }
+
+    /**
+     * Run a two player rollback session ahead of the other player's inputs, then have them turn up with a throw in the
+     * first tick, so that the session rolls back and runs the ticks again, the specified number of times
+     *
+     * @param session
+     * @param rollbacks
+     * @return the number of bytes allocated
+     */
+    private static long runSession(RollbackSession session, int rollbacks)
+    {
+        final long before = allocatedBytes();
+        for (int i = 0; i < rollbacks; i++)
+        {
+            final long late = session.getWorld().getTick();
+            for (int t = 0; t < ROLLBACK_TICKS; t++)
+                session.advance(NetInput.NONE);
+            session.addRemoteInput(1, late, NetInput.throwAt(40, -60));
+            for (long t = late + 1L; t < session.getWorld().getTick(); t++)
+                session.addRemoteInput(1, t, NetInput.NONE);
+            session.catchUp();
+        }
+        return allocatedBytes() - before;
+    }
+
+    /**
+     * Run the specified number of ticks, encoding a frame of each for a spectator who acknowledges it straight away, and
+     * decoding it
+     *
+     * @param world
+     * @param encoder
+     *            an encoder following the world
+     * @param decoder
+     * @param frame
+     *            a buffer with room for any frame
+     * @param ticks
+     * @return the number of bytes allocated
+     */
+    private static long runSpectator(World world, SpectatorEncoder encoder, SpectatorDecoder decoder, ByteBuffer frame, int ticks)
+    {
+        final long before = allocatedBytes();
+        for (int i = 0; i < ticks; i++)
+        {
+            world.update();
+            encoder.update();
+            frame.clear();
+            encoder.encode(frame, decoder.getFrame());
+            frame.flip();
+            decoder.decode(frame);
+        }
+        return allocatedBytes() - before;
+    }
+
+    /**
+     * Render the specified number of frames to an offscreen image, running a tick before each, so the frames take in the
+     * score changing and the guy's faces and speech as he eats and is thrown
+     *
+     * @param world
+     * @param renderer
+     * @param frames
+     * @return the number of bytes allocated
+     */
+    private static long renderFrames(World world, WorldRenderer renderer, int frames)
+    {
+        BufferedImage image = new BufferedImage(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        try
+        {
+            // Draw once first so anything built for the new image is left out
+            renderer.render(g2d, StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, 0.5f);
+
+            final long before = allocatedBytes();
+            for (int i = 0; i < frames; i++)
+            {
+                runTick(world, i);
+                renderer.render(g2d, StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, (float) i / frames);
+            }
+            return allocatedBytes() - before;
+        }
+        finally
+        {
+            g2d.dispose();
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread so far
+     *
+     * @return bytes
+     */
+    private static long allocatedBytes()
+    {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
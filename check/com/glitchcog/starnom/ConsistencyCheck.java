@@ -0,0 +1,582 @@
+package com.glitchcog.starnom;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.collision.BroadphaseType;
+import com.glitchcog.starnom.collision.CollisionMode;
+import com.glitchcog.starnom.input.MouseInput;
+import com.glitchcog.starnom.net.NetInput;
+import com.glitchcog.starnom.net.RollbackSession;
+import com.glitchcog.starnom.physics.StarMotion;
+import com.glitchcog.starnom.physics.Timestep;
+import com.glitchcog.starnom.random.SplitMix64;
+
+/**
+ * Checks that the different ways of running a world agree with each other, headlessly, so that a change that breaks one
+ * of them fails the build:
+ * <ul>
+ * <li>Every broadphase, serially and in parallel, plays a game out to exactly the same state.</li>
+ * <li>Swept collision finds at least every star that discrete collision finds, at every tick.</li>
+ * <li>Closed form motion puts every star where integrated motion does, up until the star first respawns, after which
+ * the two are timed differently by design.</li>
+ * <li>A world restored from a snapshot, into itself or into another world, plays on exactly as it did after the
+ * snapshot was saved.</li>
+ * <li>Two rollback sessions whose inputs reach each other late and out of order end up in exactly the state of a world
+ * run straight through with every input on time.</li>
+ * </ul>
+ * Exits with a failure status if any of them disagree.
+ *
+ * @author Matt Yanos
+ */
+public class ConsistencyCheck
+{
+    /**
+     * The number of ticks to play each game for
+     */
+    private static final int TICKS = 6000;
+
+    /**
+     * The number of stars to start each game with, enough that the guy often eats several in a tick, which is when the
+     * order they are found in could make a difference
+     */
+    private static final int STAR_COUNT = 1000;
+
+    /**
+     * The room made for stars, so the population can be raised past the starting count
+     */
+    private static final int STAR_CAPACITY = 2000;
+
+    private static final long SEED = 5L;
+
+    /**
+     * The number of ticks between the population being changed, often enough that it is regularly shrinking while the
+     * guy eats
+     */
+    private static final int POPULATION_INTERVAL = 300;
+
+    /**
+     * The number of ticks between the states of the worlds being compared
+     */
+    private static final int COMPARE_INTERVAL = 16;
+
+    /**
+     * The tick rates to run at, the base rate and rates low enough for stars to pass through the guy within a tick
+     */
+    private static final double[] TICK_RATES = { Timestep.BASE_TICK_RATE, Timestep.BASE_TICK_RATE / 4.0, 17.0 };
+
+    /**
+     * The furthest apart closed form and integrated motion may put a star, in pixels, which only leaves room for their
+     * positions being rounded differently
+     */
+    private static final float MOTION_TOLERANCE = 0.01f;
+
+    /**
+     * The ticks to save a snapshot at
+     */
+    private static final int[] SNAPSHOT_TICKS = { 0, 1, 777, 4321 };
+
+    /**
+     * The number of ticks to play on past a snapshot
+     */
+    private static final int REPLAY_TICKS = 4000;
+
+    /**
+     * The most steps an input can take to reach the other player in a rollback game
+     */
+    private static final int MAX_LAG = 20;
+
+    /**
+     * The ticks after being given that each player's inputs take effect in a rollback game
+     */
+    private static final int INPUT_DELAY = 2;
+
+    /**
+     * One in this many of a bot's inputs is a throw
+     */
+    private static final int THROW_CHANCE = 30;
+
+    /**
+     * The number of threads to update the stars on in parallel, and the most stars in each parallel chunk, small enough
+     * that the stars are split between them
+     */
+    private static final int THREADS = 4;
+
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    private static ForkJoinPool pool;
+
+    /**
+     * Run the check
+     *
+     * @param args
+     */
+    public static void main(String[] args)
+    {
+        pool = new ForkJoinPool(THREADS);
+
+        boolean passed = true;
+        passed &= checkBroadphases();
+        passed &= checkSweptCollision();
+        passed &= checkClosedForm();
+        passed &= checkSnapshots();
+        passed &= checkRollback();
+
+        if (!passed)
+        {
+            System.out.println("Consistency check failed");
+            System.exit(1);
+        }
+        System.out.println("Consistency check passed");
+    }
+
+    /**
+     * Play the same game with every broadphase serially, and in parallel with the first, for each collision mode and
+     * star motion, and compare the states of the worlds as they go. One of them has its stars worked out every tick, as
+     * drawing them would, to check that doing so doesn't change anything.
+     *
+     * @return whether every world stayed in the same state
+     */
+    private static boolean checkBroadphases()
+    {
+        final BroadphaseType[] types = BroadphaseType.values();
+        int mismatches = 0;
+        int compared = 0;
+        for (CollisionMode collisionMode : CollisionMode.values())
+        {
+            for (StarMotion motion : StarMotion.values())
+            {
+                final World[] worlds = new World[types.length + 1];
+                final WorldSnapshot[] snapshots = new WorldSnapshot[worlds.length];
+                for (int w = 0; w < worlds.length; w++)
+                {
+                    worlds[w] = createWorld(SEED, collisionMode, motion, Timestep.BASE_TICK_RATE);
+                    worlds[w].setBroadphase(types[w % types.length]);
+                    if (w == types.length)
+                        worlds[w].setParallelism(pool, PARALLEL_THRESHOLD);
+                    worlds[w].reset();
+                    snapshots[w] = createSnapshot(worlds[w]);
+                }
+
+                for (int t = 0; t < TICKS; t++)
+                {
+                    for (int w = 0; w < worlds.length; w++)
+                    {
+                        play(worlds[w]);
+                        if (w == 1)
+                            worlds[w].getStars().evaluate(true);
+                        worlds[w].update();
+                    }
+
+                    if (t % COMPARE_INTERVAL == 0)
+                    {
+                        final long expected = checksum(worlds[0], snapshots[0]);
+                        for (int w = 1; w < worlds.length; w++)
+                        {
+                            if (checksum(worlds[w], snapshots[w]) != expected)
+                                mismatches++;
+                        }
+                        compared++;
+                    }
+                }
+            }
+        }
+
+        System.out.println(String.format("Broadphases: %d mismatches in %d comparisons of %d worlds", mismatches, compared, types.length + 1));
+        return mismatches == 0;
+    }
+
+    /**
+     * Play a game at each tick rate with each broadphase and star motion, and after every tick find the stars touching
+     * the guy both at the end of the tick and over the whole of it. Sweeping over the tick has to find at least as many.
+     * It has to find more over the game too, or it isn't catching the stars that pass through the guy within a tick.
+     *
+     * @return whether sweeping always found at least as many stars, and found more over every game
+     */
+    private static boolean checkSweptCollision()
+    {
+        int misses = 0;
+        int blindGames = 0;
+        long discreteHits = 0L;
+        long sweptHits = 0L;
+        for (double tickRate : TICK_RATES)
+        {
+            for (BroadphaseType type : BroadphaseType.values())
+            {
+                for (StarMotion motion : StarMotion.values())
+                {
+                    final World world = createWorld(SEED, CollisionMode.DISCRETE, motion, tickRate);
+                    world.setBroadphase(type);
+                    world.reset();
+
+                    long extra = 0L;
+                    for (int t = 0; t < TICKS; t++)
+                    {
+                        play(world);
+                        world.update();
+
+                        final int discrete = world.countStarCollisions(0);
+                        world.setCollisionMode(CollisionMode.SWEPT);
+                        final int swept = world.countStarCollisions(0);
+                        world.setCollisionMode(CollisionMode.DISCRETE);
+
+                        if (swept < discrete)
+                            misses++;
+                        discreteHits += discrete;
+                        sweptHits += swept;
+                        extra += swept - discrete;
+                    }
+                    if (extra <= 0L)
+                        blindGames++;
+                }
+            }
+        }
+
+        System.out.println(String.format("Swept collision: %d ticks missing stars found discretely, %d games finding nothing more, %d stars found discretely and %d swept", misses, blindGames, discreteHits, sweptHits));
+        return misses == 0 && blindGames == 0;
+    }
+
+    /**
+     * Play the same game at each tick rate with closed form and integrated motion, and compare where each star is after
+     * every tick until it first respawns or leaves play in either game. A star only ever moves right while it is flying,
+     * so one that has moved left has respawned.
+     *
+     * @return whether every star was always within {@link #MOTION_TOLERANCE} of itself
+     */
+    private static boolean checkClosedForm()
+    {
+        int strays = 0;
+        long compared = 0L;
+        float furthest = 0.0f;
+        for (double tickRate : TICK_RATES)
+        {
+            final World integrated = createWorld(SEED, CollisionMode.DISCRETE, StarMotion.INTEGRATED, tickRate);
+            final World closedForm = createWorld(SEED, CollisionMode.DISCRETE, StarMotion.CLOSED_FORM, tickRate);
+            integrated.reset();
+            closedForm.reset();
+
+            final StarField a = integrated.getStars();
+            final StarField b = closedForm.getStars();
+            b.evaluate(false);
+            final int count = a.getCount();
+            final float[] lastA = new float[count];
+            final float[] lastB = new float[count];
+            final boolean[] respawned = new boolean[count];
+            System.arraycopy(a.posX, 0, lastA, 0, count);
+            System.arraycopy(b.posX, 0, lastB, 0, count);
+
+            int flying = count;
+            for (int t = 0; t < TICKS && flying > 0; t++)
+            {
+                play(integrated);
+                play(closedForm);
+                integrated.update();
+                closedForm.update();
+                b.evaluate(false);
+
+                for (int i = 0; i < count; i++)
+                {
+                    if (respawned[i])
+                        continue;
+                    if (i >= a.getCount() || i >= b.getCount() || a.posX[i] < lastA[i] || b.posX[i] < lastB[i])
+                    {
+                        respawned[i] = true;
+                        flying--;
+                        continue;
+                    }
+                    lastA[i] = a.posX[i];
+                    lastB[i] = b.posX[i];
+
+                    final float distance = Math.max(Math.abs(a.posX[i] - b.posX[i]), Math.abs(a.posY[i] - b.posY[i]));
+                    if (distance > MOTION_TOLERANCE)
+                        strays++;
+                    furthest = Math.max(furthest, distance);
+                    compared++;
+                }
+            }
+        }
+
+        System.out.println(String.format("Closed form motion: %d of %d star positions further than %.2f px from integrated motion, furthest %.4f px", strays, compared, MOTION_TOLERANCE, furthest));
+        return strays == 0;
+    }
+
+    /**
+     * For each collision mode and star motion, save snapshots at several ticks, with input waiting to be taken in, and
+     * check that the world plays on from each the same as it did the first time, whether it is restored into the same
+     * world or into one that had been playing another game
+     *
+     * @return whether every replay ended up in the same state
+     */
+    private static boolean checkSnapshots()
+    {
+        int mismatches = 0;
+        int replays = 0;
+        for (CollisionMode collisionMode : CollisionMode.values())
+        {
+            for (StarMotion motion : StarMotion.values())
+            {
+                for (int at : SNAPSHOT_TICKS)
+                {
+                    final World world = createWorld(SEED, collisionMode, motion, Timestep.BASE_TICK_RATE);
+                    world.reset();
+                    for (int t = 0; t < at; t++)
+                    {
+                        play(world);
+                        world.update();
+                    }
+                    play(world);
+
+                    final WorldSnapshot snapshot = createSnapshot(world);
+                    final WorldSnapshot after = createSnapshot(world);
+                    snapshot.save(world);
+
+                    final long expected = replay(world, after);
+                    snapshot.restore(world);
+                    if (replay(world, after) != expected)
+                        mismatches++;
+
+                    final World other = createWorld(SEED + 1L, collisionMode, motion, Timestep.BASE_TICK_RATE);
+                    other.reset();
+                    for (int t = 0; t < at / 2 + 333; t++)
+                    {
+                        play(other);
+                        other.update();
+                    }
+                    snapshot.restore(other);
+                    if (replay(other, after) != expected)
+                        mismatches++;
+                    replays += 2;
+                }
+            }
+        }
+
+        System.out.println(String.format("Snapshots: %d of %d replays ended up somewhere else", mismatches, replays));
+        return mismatches == 0;
+    }
+
+    /**
+     * Play a world on for {@link #REPLAY_TICKS} ticks
+     *
+     * @param world
+     * @param snapshot
+     *            a snapshot to take the checksum in
+     * @return the checksum of the state the world ended up in
+     */
+    private static long replay(World world, WorldSnapshot snapshot)
+    {
+        for (int t = 0; t < REPLAY_TICKS; t++)
+        {
+            world.update();
+            play(world);
+        }
+        return checksum(world, snapshot);
+    }
+
+    /**
+     * Play a two player game with rollback sessions for each collision mode and star motion, each player running their
+     * world differently, with every input reaching the other player after a random number of steps, so inputs turn up
+     * late and out of order. Once every input is in, both players have to end up in the state of a world run straight
+     * through with every input on time, without ever having seen the other's checksums disagree.
+     *
+     * @return whether every game converged
+     */
+    private static boolean checkRollback()
+    {
+        final int players = 2;
+        int failures = 0;
+        long rollbacks = 0L;
+        for (CollisionMode collisionMode : CollisionMode.values())
+        {
+            for (StarMotion motion : StarMotion.values())
+            {
+                final RollbackSession[] sessions = new RollbackSession[players];
+                for (int p = 0; p < players; p++)
+                {
+                    final World world = createWorld(SEED, collisionMode, motion, Timestep.BASE_TICK_RATE, players);
+                    world.setBroadphase(BroadphaseType.values()[p % BroadphaseType.values().length]);
+                    if (p == 1)
+                        world.setParallelism(pool, PARALLEL_THRESHOLD);
+                    sessions[p] = new RollbackSession(world, p, INPUT_DELAY);
+                }
+
+                // Every input each player has given, and the step it reaches the other player at, starting with no input
+                // for the ticks before the input delay, which reaches them straight away
+                final int inputCount = TICKS + INPUT_DELAY + 1;
+                final int[][] inputs = new int[players][inputCount];
+                final long[][] arrivals = new long[players][inputCount];
+                final int[] undelivered = new int[players];
+                final long[] sentSyncTicks = { -1L, -1L };
+                final SplitMix64 random = new SplitMix64(SEED);
+
+                long step = 0L;
+                while ((sessions[0].getWorld().getTick() < TICKS || sessions[1].getWorld().getTick() < TICKS) && step < TICKS * 4L)
+                {
+                    for (int p = 0; p < players; p++)
+                    {
+                        final RollbackSession session = sessions[p];
+                        if (session.getWorld().getTick() < TICKS && session.canAdvance())
+                        {
+                            final int input = random.nextInt(THROW_CHANCE) == 0 ? NetInput.throwAt(random.nextInt(121) - 60, -random.nextInt(61)) : NetInput.NONE;
+                            session.advance(input);
+                            inputs[p][(int) session.getLocalTick()] = input;
+                            arrivals[p][(int) session.getLocalTick()] = step + random.nextInt(MAX_LAG + 1);
+                        }
+                        else
+                        {
+                            session.catchUp();
+                        }
+                    }
+                    deliver(sessions, inputs, arrivals, undelivered, sentSyncTicks, step);
+                    step++;
+                }
+                deliver(sessions, inputs, arrivals, undelivered, sentSyncTicks, Long.MAX_VALUE);
+                for (RollbackSession session : sessions)
+                    session.catchUp();
+                deliver(sessions, inputs, arrivals, undelivered, sentSyncTicks, Long.MAX_VALUE);
+
+                // Run the game again straight through with every input on time
+                final World reference = createWorld(SEED, collisionMode, motion, Timestep.BASE_TICK_RATE, players);
+                reference.reset();
+                for (int t = 0; t < TICKS; t++)
+                {
+                    for (int p = 0; p < players; p++)
+                        NetInput.apply(reference, p, inputs[p][t]);
+                    reference.update();
+                }
+                final long expected = checksum(reference, createSnapshot(reference));
+
+                for (RollbackSession session : sessions)
+                {
+                    if (session.getWorld().getTick() != TICKS || session.checksum() != expected || session.getDesyncs() != 0L)
+                        failures++;
+                    rollbacks += session.getRollbacks();
+                }
+            }
+        }
+
+        System.out.println(String.format("Rollback: %d of %d sessions didn't converge, %d rollbacks", failures, CollisionMode.values().length * StarMotion.values().length * players, rollbacks));
+        return failures == 0 && rollbacks > 0L;
+    }
+
+    /**
+     * Hand each player the other's inputs that have reached them by the specified step, and their latest checksum
+     *
+     * @param sessions
+     * @param inputs
+     *            every input each player has given, by tick
+     * @param arrivals
+     *            the step each input reaches the other player at, by tick
+     * @param undelivered
+     *            the earliest tick of each player's whose input hasn't reached the other player
+     * @param sentSyncTicks
+     *            the tick of each player's latest checksum handed over
+     * @param step
+     */
+    private static void deliver(RollbackSession[] sessions, int[][] inputs, long[][] arrivals, int[] undelivered, long[] sentSyncTicks, long step)
+    {
+        for (int p = 0; p < sessions.length; p++)
+        {
+            final RollbackSession from = sessions[p];
+            final RollbackSession to = sessions[(p + 1) % sessions.length];
+
+            for (long tick = undelivered[p]; tick <= from.getLocalTick(); tick++)
+            {
+                final int t = (int) tick;
+                if (arrivals[p][t] >= 0L && arrivals[p][t] <= step && to.addRemoteInput(p, tick, inputs[p][t]))
+                    arrivals[p][t] = -1L;
+            }
+            while (undelivered[p] <= from.getLocalTick() && arrivals[p][undelivered[p]] < 0L)
+                undelivered[p]++;
+
+            if (from.getSyncTick() > sentSyncTicks[p])
+            {
+                sentSyncTicks[p] = from.getSyncTick();
+                to.checkSync(p, from.getSyncTick(), from.getSyncChecksum());
+            }
+        }
+    }
+
+    /**
+     * Create a single player world, which has yet to be reset
+     *
+     * @param seed
+     * @param collisionMode
+     * @param motion
+     * @param tickRate
+     * @return world
+     */
+    private static World createWorld(long seed, CollisionMode collisionMode, StarMotion motion, double tickRate)
+    {
+        return createWorld(seed, collisionMode, motion, tickRate, 1);
+    }
+
+    /**
+     * Create a world, which has yet to be reset
+     *
+     * @param seed
+     * @param collisionMode
+     * @param motion
+     * @param tickRate
+     * @param players
+     * @return world
+     */
+    private static World createWorld(long seed, CollisionMode collisionMode, StarMotion motion, double tickRate, int players)
+    {
+        World world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, STAR_COUNT, STAR_CAPACITY, seed, players);
+        world.setCollisionMode(collisionMode);
+        world.setStarMotion(motion);
+        world.setTimestep(Timestep.dt(tickRate));
+        return world;
+    }
+
+    /**
+     * Create a snapshot with room for the specified world
+     *
+     * @param world
+     * @return snapshot
+     */
+    private static WorldSnapshot createSnapshot(World world)
+    {
+        return new WorldSnapshot(ByteBuffer.allocateDirect(WorldSnapshot.size(world)));
+    }
+
+    /**
+     * Take a checksum of the world's state
+     *
+     * @param world
+     * @param snapshot
+     *            a snapshot to save the world into
+     * @return checksum
+     */
+    private static long checksum(World world, WorldSnapshot snapshot)
+    {
+        snapshot.save(world);
+        return snapshot.checksum();
+    }
+
+    /**
+     * Give the input for the world's next tick, grabbing the guy on every hundredth tick and throwing him ten ticks
+     * later, and change the population every {@link #POPULATION_INTERVAL} ticks
+     *
+     * @param world
+     */
+    private static void play(World world)
+    {
+        final long tick = world.getTick();
+        final MouseInput input = world.getInput();
+        if (tick % 100 == 0)
+        {
+            final int x = (int) world.getGuy().mo.pos.x;
+            final int y = (int) world.getGuy().mo.pos.y;
+            input.enqueue(MouseInput.PRESS, x, y);
+            input.enqueue(MouseInput.DRAG, x, y);
+        }
+        else if (tick % 100 == 10)
+        {
+            input.enqueue(MouseInput.RELEASE, (int) (tick * 7 % StarNom.SCREEN_WIDTH), (int) (tick * 13 % StarNom.SCREEN_HEIGHT));
+        }
+        if (tick % POPULATION_INTERVAL == POPULATION_INTERVAL / 2)
+            world.setStarPopulation((int) (16 + tick * 31 % (STAR_CAPACITY - 16)));
+    }
+}
@@ -0,0 +1,88 @@
+package com.glitchcog.starnom;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * The parts of the frame that never change while the window keeps its size, the sky and the border, drawn once into an
+ * image and then copied into each frame
+ *
+ * @author Matt Yanos
+ */
+public class BackgroundLayer
+{
+    /**
+     * The color of the sky
+     */
+    private static final Color SKY_COLOR = Color.PINK.darker().darker();
+
+    /**
+     * The sky and the border, or null until the first frame
+     */
+    private BufferedImage image;
+
+    /**
+     * Make sure the layer is drawn for the specified size, redrawing it if the size has changed
+     *
+     * @param g2d
+     *            the graphics the layer will be copied onto, which the image is made compatible with
+     * @param width
+     * @param height
+     * @return whether the layer was redrawn
+     */
+    public boolean validate(Graphics2D g2d, int width, int height)
+    {
+        if (image != null && image.getWidth() == width && image.getHeight() == height)
+            return false;
+
+        if (image != null)
+            image.flush();
+        image = g2d.getDeviceConfiguration().createCompatibleImage(width, height, Transparency.OPAQUE);
+
+        Graphics2D ig = image.createGraphics();
+        try
+        {
+            // Clear screen
+            ig.setColor(SKY_COLOR);
+            ig.fillRect(0, 0, width, height);
+
+            // Draw border
+            ig.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            ig.setStroke(WorldRenderer.STROKE);
+            ig.setColor(Color.BLACK);
+            ig.drawRect(0, -10, width - 1, height + 10 - 1);
+        }
+        finally
+        {
+            ig.dispose();
+        }
+        return true;
+    }
+
+    /**
+     * Copy the whole layer into the frame
+     *
+     * @param g2d
+     */
+    public void draw(Graphics2D g2d)
+    {
+        g2d.drawImage(image, 0, 0, null);
+    }
+
+    /**
+     * Copy a part of the layer into the same part of the frame
+     *
+     * @param g2d
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     */
+    public void draw(Graphics2D g2d, int x, int y, int width, int height)
+    {
+        g2d.drawImage(image, x, y, x + width, y + height, x, y, x + width, y + height, null);
+    }
+}
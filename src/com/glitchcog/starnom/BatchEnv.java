@@ -0,0 +1,351 @@
+package com.glitchcog.starnom;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.glitchcog.starnom.agent.Guy;
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.random.SplitMix64;
+
+/**
+ * Steps a batch of independent games in lock-step for training bots to throw the guy. Actions go in and observations,
+ * rewards and done flags come out through flat primitive arrays allocated once up front, so stepping the batch
+ * allocates nothing unless it is spread over a pool.
+ * <p>
+ * Each env's action is the velocity to throw the guy at, which is sped up or slowed down to the range a mouse throw is
+ * held to, or zero to leave him be. Each env's observation is the guy's position and velocity followed by the nearest
+ * stars in flight, each as its position relative to the guy, how far it moved over the latest tick and its size. Stars
+ * beyond the ones in flight are left as zeros. The reward is the points scored over the step. An env whose episode ends
+ * is flagged done and reset straight away with a new seed, so its observation is the first of the next episode.
+ *
+ * @author Matt Yanos
+ */
+public class BatchEnv
+{
+    /**
+     * The number of values observed for the guy: position and velocity
+     */
+    public static final int GUY_FEATURES = 4;
+
+    /**
+     * The number of values observed for each star: position relative to the guy, the latest tick's motion and size
+     */
+    public static final int STAR_FEATURES = 5;
+
+    /**
+     * The number of values in each env's action
+     */
+    public static final int ACTION_SIZE = 2;
+
+    /**
+     * The worlds being stepped
+     */
+    private final World[] worlds;
+
+    /**
+     * The number of stars observed per env
+     */
+    private final int observedStars;
+
+    /**
+     * The number of values in each env's observation
+     */
+    private final int observationSize;
+
+    /**
+     * The number of ticks in an episode
+     */
+    private final long episodeTicks;
+
+    /**
+     * The number of ticks each step runs, with the same action
+     */
+    private final int ticksPerStep;
+
+    /**
+     * The random stream each env's episode seeds are drawn from
+     */
+    private final SplitMix64[] seeds;
+
+    /**
+     * The observations of every env, one after the other
+     */
+    public final float[] observations;
+
+    /**
+     * The points each env scored over the latest step
+     */
+    public final int[] rewards;
+
+    /**
+     * Whether each env's episode ended with the latest step, 1 if so or 0 if not
+     */
+    public final int[] dones;
+
+    /**
+     * The indices of the nearest stars found so far for each env, nearest first
+     */
+    private final int[] nearest;
+
+    /**
+     * The squared distances of the nearest stars found so far for each env
+     */
+    private final float[] nearestDistance;
+
+    /**
+     * The actions of the step in progress
+     */
+    private float[] actions;
+
+    /**
+     * The pool to step the envs on, or null to step them serially
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * The most envs to step as a single task
+     */
+    private int parallelThreshold = 64;
+
+    /**
+     * Construct a batch of envs, each a world of the default screen size
+     *
+     * @param envs
+     *            the number of envs
+     * @param starCount
+     *            the number of stars in each world
+     * @param observedStars
+     *            the number of nearest stars to observe
+     * @param episodeTicks
+     *            the number of ticks before an episode ends
+     * @param ticksPerStep
+     *            the number of ticks each step runs
+     * @param seed
+     *            the seed every env's episode seeds are split from
+     */
+    public BatchEnv(int envs, int starCount, int observedStars, long episodeTicks, int ticksPerStep, long seed)
+    {
+        if (ticksPerStep < 1)
+            throw new IllegalArgumentException("Ticks per step must be at least 1: " + ticksPerStep);
+
+        this.observedStars = observedStars;
+        this.observationSize = GUY_FEATURES + observedStars * STAR_FEATURES;
+        this.episodeTicks = episodeTicks;
+        this.ticksPerStep = ticksPerStep;
+
+        worlds = new World[envs];
+        seeds = new SplitMix64[envs];
+        SplitMix64 root = new SplitMix64(seed);
+        for (int e = 0; e < envs; e++)
+        {
+            seeds[e] = root.split();
+            worlds[e] = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, starCount, seeds[e].nextLong());
+        }
+
+        observations = new float[envs * observationSize];
+        rewards = new int[envs];
+        dones = new int[envs];
+        nearest = new int[envs * observedStars];
+        nearestDistance = new float[envs * observedStars];
+    }
+
+    /**
+     * Step the envs in parallel on the specified pool, or serially if the pool is null. Either way every env plays out
+     * the same.
+     *
+     * @param pool
+     * @param parallelThreshold
+     *            the most envs to step as a single task
+     */
+    public void setParallelism(ForkJoinPool pool, int parallelThreshold)
+    {
+        this.pool = pool;
+        this.parallelThreshold = Math.max(1, parallelThreshold);
+    }
+
+    public int getEnvCount()
+    {
+        return worlds.length;
+    }
+
+    /**
+     * Get the number of values in each env's observation, which are laid out one env after the other
+     *
+     * @return size
+     */
+    public int getObservationSize()
+    {
+        return observationSize;
+    }
+
+    public World getWorld(int env)
+    {
+        return worlds[env];
+    }
+
+    /**
+     * Start a new episode in every env, and observe them
+     */
+    public void reset()
+    {
+        for (int e = 0; e < worlds.length; e++)
+        {
+            worlds[e].reset();
+            rewards[e] = 0;
+            dones[e] = 0;
+            observe(e);
+        }
+    }
+
+    /**
+     * Step every env, filling in the observations, rewards and done flags
+     *
+     * @param actions
+     *            the velocity to throw each env's guy at, as horizontal and vertical pairs one env after the other
+     */
+    public void step(float[] actions)
+    {
+        if (actions.length < worlds.length * ACTION_SIZE)
+            throw new IllegalArgumentException("Expected " + worlds.length * ACTION_SIZE + " action values, got " + actions.length);
+
+        this.actions = actions;
+        if (pool != null && worlds.length > parallelThreshold)
+            pool.invoke(new StepTask(0, worlds.length));
+        else
+            stepRange(0, worlds.length);
+        this.actions = null;
+    }
+
+    /**
+     * Step the envs in the specified range
+     *
+     * @param from
+     *            the first env, inclusive
+     * @param to
+     *            the last env, exclusive
+     */
+    private void stepRange(int from, int to)
+    {
+        for (int e = from; e < to; e++)
+        {
+            final World world = worlds[e];
+            final float throwX = actions[e * ACTION_SIZE];
+            final float throwY = actions[e * ACTION_SIZE + 1];
+            if (throwX != 0.0f || throwY != 0.0f)
+                world.getInput().throwProjectile(throwX, throwY);
+
+            final int pointsBefore = world.getPoints();
+            for (int t = 0; t < ticksPerStep && world.getTick() < episodeTicks; t++)
+                world.update();
+            rewards[e] = world.getPoints() - pointsBefore;
+
+            if (world.getTick() >= episodeTicks)
+            {
+                dones[e] = 1;
+                world.setSeed(seeds[e].nextLong());
+                world.reset();
+            }
+            else
+            {
+                dones[e] = 0;
+            }
+            observe(e);
+        }
+    }
+
+    /**
+     * Fill in the observation of the specified env
+     *
+     * @param e
+     *            env index
+     */
+    private void observe(int e)
+    {
+        final World world = worlds[e];
+        final Guy guy = world.getGuy();
+        final StarField stars = world.getStars();
+        final float guyX = guy.mo.pos.x;
+        final float guyY = guy.mo.pos.y;
+
+        int o = e * observationSize;
+        observations[o++] = guyX;
+        observations[o++] = guyY;
+        observations[o++] = guy.mo.vel.x;
+        observations[o++] = guy.mo.vel.y;
+
+        // Keep the nearest stars in flight in order, by insertion
+        stars.evaluate(true);
+        final int first = e * observedStars;
+        int found = 0;
+        for (int i = 0; i < stars.getCount(); i++)
+        {
+            if (!stars.isInFlight(i))
+                continue;
+            final float dx = stars.posX[i] - guyX;
+            final float dy = stars.posY[i] - guyY;
+            final float distance = dx * dx + dy * dy;
+            if (found == observedStars && (found == 0 || distance >= nearestDistance[first + found - 1]))
+                continue;
+
+            int slot = found < observedStars ? found++ : found - 1;
+            while (slot > 0 && nearestDistance[first + slot - 1] > distance)
+            {
+                nearest[first + slot] = nearest[first + slot - 1];
+                nearestDistance[first + slot] = nearestDistance[first + slot - 1];
+                slot--;
+            }
+            nearest[first + slot] = i;
+            nearestDistance[first + slot] = distance;
+        }
+
+        for (int k = 0; k < observedStars; k++)
+        {
+            if (k < found)
+            {
+                final int i = nearest[first + k];
+                observations[o++] = stars.posX[i] - guyX;
+                observations[o++] = stars.posY[i] - guyY;
+                observations[o++] = stars.posX[i] - stars.prevX[i];
+                observations[o++] = stars.posY[i] - stars.prevY[i];
+                observations[o++] = stars.size[i];
+            }
+            else
+            {
+                for (int f = 0; f < STAR_FEATURES; f++)
+                    observations[o++] = 0.0f;
+            }
+        }
+    }
+
+    /**
+     * Steps a range of envs, splitting it in half until it is small enough
+     */
+    private class StepTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private final int to;
+
+        private StepTask(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= parallelThreshold)
+            {
+                stepRange(from, to);
+            }
+            else
+            {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new StepTask(from, mid), new StepTask(mid, to));
+            }
+        }
+    }
+}
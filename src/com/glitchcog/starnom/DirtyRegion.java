@@ -0,0 +1,270 @@
+package com.glitchcog.starnom;
+
+/**
+ * The parts of the screen that need redrawing for a frame, kept as a handful of disjoint rectangles. Rectangles that
+ * overlap are merged as they are added, and once they cover more than a threshold fraction of the screen the region
+ * gives up and asks for the whole screen to be redrawn, which is cheaper than clipping to many rectangles.
+ *
+ * @author Matt Yanos
+ */
+public class DirtyRegion
+{
+    /**
+     * The most rectangles to keep before merging the closest ones together
+     */
+    public static final int MAX_RECTS = 32;
+
+    /**
+     * The default fraction of the screen above which the whole screen is redrawn
+     */
+    public static final float FULL_REDRAW_THRESHOLD = 0.5f;
+
+    private final int[] left = new int[MAX_RECTS];
+
+    private final int[] top = new int[MAX_RECTS];
+
+    private final int[] right = new int[MAX_RECTS];
+
+    private final int[] bottom = new int[MAX_RECTS];
+
+    /**
+     * The number of rectangles in the region
+     */
+    private int count;
+
+    /**
+     * The total area of the rectangles, which don't overlap
+     */
+    private long area;
+
+    /**
+     * Whether the whole screen needs redrawing
+     */
+    private boolean full;
+
+    /**
+     * The width of the screen the region is on
+     */
+    private int width;
+
+    /**
+     * The height of the screen the region is on
+     */
+    private int height;
+
+    /**
+     * The fraction of the screen above which the whole screen is redrawn
+     */
+    private float threshold = FULL_REDRAW_THRESHOLD;
+
+    /**
+     * Empty the region, for a screen of the specified size
+     *
+     * @param width
+     * @param height
+     */
+    public void clear(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        count = 0;
+        area = 0L;
+        full = false;
+    }
+
+    /**
+     * Set the fraction of the screen above which the whole screen is redrawn
+     *
+     * @param threshold
+     *            0 to always redraw the whole screen, up to 1 to only do so when every pixel is dirty
+     */
+    public void setThreshold(float threshold)
+    {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Mark the whole screen as needing redrawing
+     */
+    public void markFull()
+    {
+        full = true;
+        count = 0;
+    }
+
+    public boolean isFull()
+    {
+        return full;
+    }
+
+    /**
+     * Add a rectangle to the region, clipped to the screen
+     *
+     * @param x
+     * @param y
+     * @param w
+     * @param h
+     */
+    public void add(int x, int y, int w, int h)
+    {
+        addBounds(x, y, x + w, y + h);
+    }
+
+    /**
+     * Add every rectangle of another region to this one
+     *
+     * @param other
+     */
+    public void add(DirtyRegion other)
+    {
+        if (other.full)
+        {
+            markFull();
+            return;
+        }
+        for (int i = 0; i < other.count; i++)
+            addBounds(other.left[i], other.top[i], other.right[i], other.bottom[i]);
+    }
+
+    /**
+     * Add the rectangle with the specified edges, merging it with every rectangle it overlaps
+     *
+     * @param l
+     *            left edge, inclusive
+     * @param t
+     *            top edge, inclusive
+     * @param r
+     *            right edge, exclusive
+     * @param b
+     *            bottom edge, exclusive
+     */
+    private void addBounds(int l, int t, int r, int b)
+    {
+        if (full)
+            return;
+
+        l = Math.max(l, 0);
+        t = Math.max(t, 0);
+        r = Math.min(r, width);
+        b = Math.min(b, height);
+        if (l >= r || t >= b)
+            return;
+
+        // Absorb every rectangle this one overlaps, and start over whenever it grows as it may now overlap others
+        int i = 0;
+        while (i < count)
+        {
+            if (l < right[i] && left[i] < r && t < bottom[i] && top[i] < b)
+            {
+                l = Math.min(l, left[i]);
+                t = Math.min(t, top[i]);
+                r = Math.max(r, right[i]);
+                b = Math.max(b, bottom[i]);
+                remove(i);
+                i = 0;
+            }
+            else
+            {
+                i++;
+            }
+        }
+
+        if (count == MAX_RECTS)
+        {
+            // Fold the new rectangle into whichever one grows the least by taking it in
+            int best = 0;
+            long bestGrowth = Long.MAX_VALUE;
+            for (int j = 0; j < count; j++)
+            {
+                final long growth = (long) (Math.max(r, right[j]) - Math.min(l, left[j])) * (Math.max(b, bottom[j]) - Math.min(t, top[j])) - (long) (right[j] - left[j]) * (bottom[j] - top[j]);
+                if (growth < bestGrowth)
+                {
+                    best = j;
+                    bestGrowth = growth;
+                }
+            }
+            l = Math.min(l, left[best]);
+            t = Math.min(t, top[best]);
+            r = Math.max(r, right[best]);
+            b = Math.max(b, bottom[best]);
+            remove(best);
+            addBounds(l, t, r, b);
+            return;
+        }
+
+        left[count] = l;
+        top[count] = t;
+        right[count] = r;
+        bottom[count] = b;
+        count++;
+        area += (long) (r - l) * (b - t);
+
+        if (area > threshold * width * height)
+            markFull();
+    }
+
+    /**
+     * Remove a rectangle by moving the last one into its place
+     *
+     * @param i
+     */
+    private void remove(int i)
+    {
+        area -= (long) (right[i] - left[i]) * (bottom[i] - top[i]);
+        count--;
+        left[i] = left[count];
+        top[i] = top[count];
+        right[i] = right[count];
+        bottom[i] = bottom[count];
+    }
+
+    /**
+     * Get the number of rectangles, which is zero when the region is full
+     *
+     * @return count
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    public int getX(int i)
+    {
+        return left[i];
+    }
+
+    public int getY(int i)
+    {
+        return top[i];
+    }
+
+    public int getWidth(int i)
+    {
+        return right[i] - left[i];
+    }
+
+    public int getHeight(int i)
+    {
+        return bottom[i] - top[i];
+    }
+
+    /**
+     * Determine whether a rectangle of the region overlaps the specified bounds
+     *
+     * @param i
+     *            rectangle index
+     * @param l
+     *            left edge
+     * @param t
+     *            top edge
+     * @param r
+     *            right edge
+     * @param b
+     *            bottom edge
+     * @return overlaps
+     */
+    public boolean intersects(int i, float l, float t, float r, float b)
+    {
+        return l < right[i] && left[i] < r && t < bottom[i] && top[i] < b;
+    }
+}
@@ -0,0 +1,141 @@
+package com.glitchcog.starnom;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.glitchcog.starnom.physics.Timestep;
+
+/**
+ * Runs the game on its own thread with a fixed timestep. Real time is accumulated and spent in whole ticks of the world,
+ * and each frame is rendered the leftover fraction of a tick past the latest one, so the tick rate can be set
+ * independently of the frame rate and of the base tick rate the game was tuned for. The world is locked while it is
+ * ticked and the renderer is run on the loop's thread after the ticks, so anything that reads the world on another
+ * thread should lock it too, or better yet work from a copy the renderer hands over.
+ * 
+ * @author Matt Yanos
+ */
+public class GameLoop implements Runnable
+{
+    /**
+     * Renders a frame of the game
+     */
+    public interface Renderer
+    {
+        /**
+         * Render a frame, or hand it over to another thread to render, run on the loop's thread
+         * 
+         * @param alpha
+         *            the fraction of the way from the previous tick to the current one to render the world at
+         */
+        public void render(float alpha);
+    }
+
+    /**
+     * The most ticks to run between two frames. If the simulation falls further behind than this, the time is dropped
+     * rather than letting the loop fall ever further behind trying to catch up.
+     */
+    private static final int MAX_TICKS_PER_FRAME = 8;
+
+    /**
+     * The world being ticked
+     */
+    private final World world;
+
+    /**
+     * Renders each frame
+     */
+    private final Renderer renderer;
+
+    /**
+     * The length of a tick in nanoseconds
+     */
+    private final long tickNanos;
+
+    /**
+     * The least time in nanoseconds to spend on each frame
+     */
+    private final long frameNanos;
+
+    /**
+     * Whether the loop should keep running
+     */
+    private volatile boolean running;
+
+    /**
+     * The thread running the loop
+     */
+    private Thread thread;
+
+    /**
+     * Construct a game loop that ticks the specified world, setting the world's timestep to match the tick rate
+     * 
+     * @param world
+     * @param renderer
+     * @param tickRate
+     *            ticks per second
+     * @param frameRate
+     *            the most frames to render per second
+     */
+    public GameLoop(World world, Renderer renderer, double tickRate, double frameRate)
+    {
+        this.world = world;
+        this.renderer = renderer;
+        this.tickNanos = (long) (1e9 / tickRate);
+        this.frameNanos = (long) (1e9 / frameRate);
+        world.setTimestep(Timestep.dt(tickRate));
+    }
+
+    /**
+     * Start running the loop on its own thread
+     */
+    public void start()
+    {
+        running = true;
+        thread = new Thread(this, "StarNom simulation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop running the loop, waiting for the current frame to finish
+     * 
+     * @throws InterruptedException
+     */
+    public void stop() throws InterruptedException
+    {
+        running = false;
+        if (thread != null)
+            thread.join();
+    }
+
+    @Override
+    public void run()
+    {
+        long previous = System.nanoTime();
+        long accumulator = 0L;
+
+        while (running)
+        {
+            final long frameStart = System.nanoTime();
+            accumulator += frameStart - previous;
+            previous = frameStart;
+
+            if (accumulator > MAX_TICKS_PER_FRAME * tickNanos)
+                accumulator = MAX_TICKS_PER_FRAME * tickNanos;
+
+            while (accumulator >= tickNanos)
+            {
+                synchronized (world)
+                {
+                    world.update();
+                }
+                accumulator -= tickNanos;
+            }
+
+            renderer.render((float) accumulator / tickNanos);
+
+            final long idle = frameNanos - (System.nanoTime() - frameStart);
+            if (idle > 0L)
+                LockSupport.parkNanos(idle);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.glitchcog.starnom;
+
+import java.awt.AlphaComposite;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.glitchcog.starnom.agent.Guy;
+
+/**
+ * The text drawn over the game, the score and the guy's speech bubble, each drawn into an image only when the score or
+ * the speech changes and then copied into each frame. The speech bubble's image follows the guy around.
+ * <p>
+ * Neither changing score nor changing speech allocates once the layer is laid out. The score is drawn into the same
+ * image every time, from glyphs laid out once for its label and each digit, and a speech bubble is drawn the first time
+ * each phrase is spoken and kept for when it is spoken again. Everything is laid out again if the font changes.
+ *
+ * @author Matt Yanos
+ */
+public class HudLayer
+{
+    /**
+     * Where the score's text starts from the left of the area
+     */
+    private static final float SCORE_X = StarNom.STROKE_SIZE * 2;
+
+    private static final String SCORE_LABEL = "SCORE: ";
+
+    /**
+     * The most digits a score can have
+     */
+    private static final int MAX_DIGITS = 10;
+
+    /**
+     * The pixels left around the score's text
+     */
+    private static final int SCORE_MARGIN = 2;
+
+    /**
+     * The most speech bubbles to keep, enough for every exclamation and the instructions
+     */
+    private static final int SPEECH_CAPACITY = 32;
+
+    /**
+     * A phrase's speech bubble drawn into an image
+     */
+    private static class SpeechBubble
+    {
+        private final BufferedImage image;
+
+        /**
+         * Where the image is copied to, relative to the guy's position
+         */
+        private final Rectangle offset;
+
+        private SpeechBubble(BufferedImage image, Rectangle offset)
+        {
+            this.image = image;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * The font and rendering context the layer was laid out for, or null until the first frame
+     */
+    private Font font;
+
+    private FontRenderContext frc;
+
+    /**
+     * The glyphs of the score's label and of each digit
+     */
+    private GlyphVector scoreLabel;
+
+    private final GlyphVector[] digitGlyphs = new GlyphVector[10];
+
+    /**
+     * How far the label and each digit move the text along
+     */
+    private float labelAdvance;
+
+    private final float[] digitAdvances = new float[10];
+
+    /**
+     * How far right of where each digit is drawn its pixels reach
+     */
+    private final int[] digitRights = new int[10];
+
+    /**
+     * Where the score's text is drawn within its image
+     */
+    private float scoreTextX;
+
+    private float scoreTextY;
+
+    /**
+     * The digits of the score being drawn, the last digit first
+     */
+    private final int[] digits = new int[MAX_DIGITS];
+
+    /**
+     * The score the score image was drawn for
+     */
+    private int scorePoints = -1;
+
+    /**
+     * The score text, with room for the longest score
+     */
+    private BufferedImage scoreImage;
+
+    /**
+     * Draws into the score image, kept open for as long as the image is used
+     */
+    private Graphics2D scoreGraphics;
+
+    /**
+     * Where the score image is copied to, as wide as the score drawn in it
+     */
+    private final Rectangle scoreBounds = new Rectangle();
+
+    /**
+     * The speech bubble of each phrase spoken, with the least recently spoken first
+     */
+    private final Map<String, SpeechBubble> speechBubbles = new LinkedHashMap<String, SpeechBubble>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SpeechBubble> eldest)
+        {
+            if (size() <= SPEECH_CAPACITY)
+                return false;
+            eldest.getValue().image.flush();
+            return true;
+        }
+    };
+
+    /**
+     * The speech the speech bubble was drawn for
+     */
+    private String speech;
+
+    /**
+     * The speech bubble, or null until the guy first talks
+     */
+    private SpeechBubble speechBubble;
+
+    /**
+     * Make sure the score and the speech bubble are drawn for the world as it stands, redrawing them if they have changed
+     *
+     * @param g2d
+     *            the graphics the layer will be copied onto, which the text is laid out for and the images are made
+     *            compatible with
+     * @param world
+     * @return whether anything was redrawn
+     */
+    public boolean validate(Graphics2D g2d, World world)
+    {
+        boolean changed = false;
+
+        if (font == null || !font.equals(g2d.getFont()) || !frc.equals(g2d.getFontRenderContext()))
+        {
+            layOut(g2d);
+            changed = true;
+        }
+
+        if (world.getPoints() != scorePoints)
+        {
+            drawScore(world.getPoints());
+            changed = true;
+        }
+
+        final Guy guy = world.getGuy();
+        if (guy.isTalking() && (speechBubble == null || guy.speech != speech))
+        {
+            speech = guy.speech;
+            speechBubble = speechBubbles.get(speech);
+            if (speechBubble == null)
+            {
+                speechBubble = drawSpeech(g2d, guy);
+                speechBubbles.put(speech, speechBubble);
+            }
+            changed = true;
+        }
+
+        return changed;
+    }
+
+    /**
+     * Lay out the score's glyphs in the font of the graphics the layer will be copied onto, make the image to draw the
+     * score in, and forget every speech bubble drawn in the previous font
+     *
+     * @param g2d
+     */
+    private void layOut(Graphics2D g2d)
+    {
+        font = g2d.getFont();
+        frc = g2d.getFontRenderContext();
+
+        scoreLabel = font.createGlyphVector(frc, SCORE_LABEL);
+        labelAdvance = (float) scoreLabel.getGlyphPosition(scoreLabel.getNumGlyphs()).getX();
+        final Rectangle labelBounds = scoreLabel.getPixelBounds(null, 0.0f, 0.0f);
+        int top = labelBounds.y;
+        int bottom = labelBounds.y + labelBounds.height;
+        float widest = 0.0f;
+        for (int d = 0; d < digitGlyphs.length; d++)
+        {
+            digitGlyphs[d] = font.createGlyphVector(frc, Integer.toString(d));
+            digitAdvances[d] = (float) digitGlyphs[d].getGlyphPosition(1).getX();
+            final Rectangle digitBounds = digitGlyphs[d].getPixelBounds(null, 0.0f, 0.0f);
+            digitRights[d] = digitBounds.x + digitBounds.width;
+            top = Math.min(top, digitBounds.y);
+            bottom = Math.max(bottom, digitBounds.y + digitBounds.height);
+            widest = Math.max(widest, Math.max(digitAdvances[d], digitRights[d]));
+        }
+
+        final int baseline = g2d.getFontMetrics().getHeight();
+        scoreBounds.x = (int) Math.floor(SCORE_X + labelBounds.x) - SCORE_MARGIN;
+        scoreBounds.y = baseline + top - SCORE_MARGIN;
+        scoreBounds.height = bottom - top + SCORE_MARGIN * 2;
+        scoreTextX = SCORE_X - scoreBounds.x;
+        scoreTextY = baseline - scoreBounds.y;
+
+        if (scoreGraphics != null)
+            scoreGraphics.dispose();
+        if (scoreImage != null)
+            scoreImage.flush();
+        scoreImage = g2d.getDeviceConfiguration().createCompatibleImage((int) Math.ceil(scoreTextX + labelAdvance + widest * MAX_DIGITS) + SCORE_MARGIN, scoreBounds.height, Transparency.TRANSLUCENT);
+        scoreGraphics = createGraphics(g2d, scoreImage);
+        scorePoints = -1;
+
+        for (SpeechBubble bubble : speechBubbles.values())
+            bubble.image.flush();
+        speechBubbles.clear();
+        speechBubble = null;
+    }
+
+    /**
+     * Draw the score text into its image, a digit at a time
+     *
+     * @param points
+     *            the score, which is never negative
+     */
+    private void drawScore(int points)
+    {
+        scorePoints = points;
+
+        int count = 0;
+        int remaining = points;
+        do
+        {
+            digits[count++] = remaining % 10;
+            remaining /= 10;
+        }
+        while (remaining > 0);
+
+        scoreGraphics.setComposite(AlphaComposite.Clear);
+        scoreGraphics.fillRect(0, 0, scoreImage.getWidth(), scoreImage.getHeight());
+        scoreGraphics.setComposite(AlphaComposite.SrcOver);
+        scoreGraphics.setColor(Color.BLACK);
+        scoreGraphics.drawGlyphVector(scoreLabel, scoreTextX, scoreTextY);
+
+        float x = scoreTextX + labelAdvance;
+        int right = (int) Math.ceil(x);
+        for (int i = count - 1; i >= 0; i--)
+        {
+            scoreGraphics.drawGlyphVector(digitGlyphs[digits[i]], x, scoreTextY);
+            right = Math.max(right, (int) Math.ceil(x) + digitRights[digits[i]]);
+            x += digitAdvances[digits[i]];
+        }
+        scoreBounds.width = Math.min(scoreImage.getWidth(), right + SCORE_MARGIN);
+    }
+
+    /**
+     * Draw the guy's speech bubble into a new image
+     *
+     * @param g2d
+     * @param guy
+     * @return the speech bubble
+     */
+    private static SpeechBubble drawSpeech(Graphics2D g2d, Guy guy)
+    {
+        // Lay the bubble out as if the guy were at the origin, then draw it shifted into the image
+        final Rectangle offset = new Rectangle();
+        guy.getSpeechBounds(g2d, 0.0f, 0.0f, offset);
+
+        final BufferedImage image = g2d.getDeviceConfiguration().createCompatibleImage(offset.width, offset.height, Transparency.TRANSLUCENT);
+        Graphics2D ig = createGraphics(g2d, image);
+        try
+        {
+            guy.drawSpeech(ig, guy.speech, -offset.x, -offset.y);
+        }
+        finally
+        {
+            ig.dispose();
+        }
+        return new SpeechBubble(image, offset);
+    }
+
+    /**
+     * Create graphics to draw into a layer image, set up like the graphics the layer will be copied onto
+     *
+     * @param g2d
+     * @param image
+     * @return graphics
+     */
+    private static Graphics2D createGraphics(Graphics2D g2d, BufferedImage image)
+    {
+        Graphics2D ig = image.createGraphics();
+        ig.setFont(g2d.getFont());
+        ig.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        ig.setStroke(WorldRenderer.STROKE);
+        return ig;
+    }
+
+    /**
+     * Get where the score is drawn
+     *
+     * @return bounds
+     */
+    public Rectangle getScoreBounds()
+    {
+        return scoreBounds;
+    }
+
+    /**
+     * Copy the score into the frame
+     *
+     * @param g2d
+     */
+    public void drawScore(Graphics2D g2d)
+    {
+        g2d.drawImage(scoreImage, scoreBounds.x, scoreBounds.y, scoreBounds.x + scoreBounds.width, scoreBounds.y + scoreBounds.height, 0, 0, scoreBounds.width, scoreBounds.height, null);
+    }
+
+    /**
+     * Get where the speech bubble is drawn for the guy at the specified position
+     *
+     * @param x
+     *            horizontal position coordinate of the guy
+     * @param y
+     *            vertical position coordinate of the guy
+     * @param bounds
+     *            set to the bounds
+     */
+    public void getSpeechBounds(float x, float y, Rectangle bounds)
+    {
+        final Rectangle offset = speechBubble.offset;
+        bounds.setBounds((int) Math.floor(x) + offset.x, (int) Math.floor(y) + offset.y, offset.width, offset.height);
+    }
+
+    /**
+     * Copy the speech bubble into the frame over the guy at the specified position
+     *
+     * @param g2d
+     * @param x
+     *            horizontal position coordinate of the guy
+     * @param y
+     *            vertical position coordinate of the guy
+     */
+    public void drawSpeech(Graphics2D g2d, float x, float y)
+    {
+        g2d.drawImage(speechBubble.image, (int) Math.floor(x) + speechBubble.offset.x, (int) Math.floor(y) + speechBubble.offset.y, null);
+    }
+}
@@ -0,0 +1,119 @@
+package com.glitchcog.starnom;
+
+import com.glitchcog.starnom.input.InputRecording;
+import com.glitchcog.starnom.input.MouseInput;
+
+/**
+ * Plays a recorded session out again without a display, feeding the recorded input into the world at the ticks it was
+ * originally applied at and running the ticks in between as fast as possible
+ *
+ * @author Matt Yanos
+ */
+public class InputReplayer
+{
+    /**
+     * The recording being replayed
+     */
+    private final InputRecording recording;
+
+    /**
+     * Construct a replayer for the specified recording
+     *
+     * @param recording
+     */
+    public InputReplayer(InputRecording recording)
+    {
+        this.recording = recording;
+    }
+
+    /**
+     * Construct a world set up like the one the session was recorded in
+     *
+     * @return world
+     */
+    public World createWorld()
+    {
+        World world = new World(recording.getWidth(), recording.getHeight(), recording.getStarCount(), getMaxStarPopulation(), recording.getSeed());
+        world.setTimestep(recording.getTimestep());
+        world.setCollisionMode(recording.getCollisionMode());
+        world.setStarMotion(recording.getStarMotion());
+        return world;
+    }
+
+    /**
+     * Get the most stars the recorded session kept in play at once, which a world must have the capacity for to replay it
+     *
+     * @return population
+     */
+    public int getMaxStarPopulation()
+    {
+        int max = recording.getStarCount();
+        final InputRecording.Reader reader = recording.reader();
+        while (reader.next())
+        {
+            if (reader.type == InputRecording.STARS)
+                max = Math.max(max, reader.x);
+        }
+        return max;
+    }
+
+    /**
+     * Reset the world to the start of the recorded session and replay it to the end. The world must have the capacity for
+     * as many stars as the session kept in play, and is given the recording's seed, tick length, collision mode, star
+     * motion, bounds and star population.
+     *
+     * @param world
+     * @return the number of ticks run
+     * @throws IllegalStateException
+     *             if the replay stops matching the recording
+     */
+    public long replay(World world)
+    {
+        if (world.getStars().getCapacity() < getMaxStarPopulation())
+            throw new IllegalArgumentException("The recording has up to " + getMaxStarPopulation() + " stars, more than the " + world.getStars().getCapacity() + " the world can hold");
+
+        world.setSeed(recording.getSeed());
+        world.setTimestep(recording.getTimestep());
+        world.setCollisionMode(recording.getCollisionMode());
+        world.setStarMotion(recording.getStarMotion());
+        world.setBounds(recording.getWidth(), recording.getHeight());
+        world.setStarPopulation(recording.getStarCount());
+        world.reset();
+
+        final MouseInput input = world.getInput();
+        final InputRecording.Reader reader = recording.reader();
+        long pressTick = -1L;
+        while (reader.next())
+        {
+            while (world.getTick() < reader.tick)
+                world.update();
+
+            switch (reader.type)
+            {
+            case InputRecording.PRESS:
+                pressTick = reader.tick;
+                input.enqueue(reader.type, reader.x, reader.y);
+                break;
+            case InputRecording.DRAG:
+                input.enqueue(reader.type, reader.x, reader.y);
+                break;
+            case InputRecording.RELEASE:
+                // Queued input is applied before the timer counts the tick, so unless a press in the same tick resets it
+                // the timer must already match
+                if (pressTick != reader.tick && input.getMouseTimer() != reader.mouseTimer)
+                    throw new IllegalStateException("Replay diverged at tick " + reader.tick + ": guy held for " + input.getMouseTimer() + " ticks, recorded " + reader.mouseTimer);
+                input.enqueue(reader.type, reader.x, reader.y);
+                break;
+            case InputRecording.BOUNDS:
+                world.setBounds(reader.x, reader.y);
+                break;
+            case InputRecording.STARS:
+                world.setStarPopulation(reader.x);
+                break;
+            case InputRecording.END:
+                return world.getTick();
+            }
+        }
+        return world.getTick();
+    }
+}
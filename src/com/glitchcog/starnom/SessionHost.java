@@ -0,0 +1,316 @@
+package com.glitchcog.starnom;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.glitchcog.starnom.profile.LatencyHistogram;
+
+/**
+ * Runs many independent headless worlds in one JVM, sharing a work-stealing pool. Each session runs a slice of its ticks
+ * at a time and then goes back to the end of the pool's queue, so thousands of sessions share a handful of threads
+ * fairly. A session either runs as fast as it can or is paced to its own tick rate, in which case it waits for its next
+ * tick on a timer rather than holding on to a thread. Every world is only ever ticked by one thread at a time, and
+ * worlds share no state, so each plays out exactly as it would alone.
+ *
+ * @author Matt Yanos
+ */
+public class SessionHost
+{
+    /**
+     * Steers a session's world, such as by queueing mouse input the way a player would
+     */
+    public interface Bot
+    {
+        /**
+         * Called before each tick of the world
+         *
+         * @param world
+         */
+        public void act(World world);
+    }
+
+    /**
+     * The most ticks a session runs before letting the other sessions have a turn
+     */
+    public static final int SLICE_TICKS = 64;
+
+    /**
+     * The pool the sessions are ticked on
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Puts paced sessions back on the pool when their next tick is due
+     */
+    private final ScheduledExecutorService pacer;
+
+    /**
+     * The sessions to run
+     */
+    private final List<Session> sessions = new ArrayList<Session>();
+
+    /**
+     * Counts down the sessions still running
+     */
+    private CountDownLatch running;
+
+    /**
+     * How long the latest run took, in nanoseconds
+     */
+    private long elapsedNanos;
+
+    /**
+     * Construct a host that ticks sessions on the specified number of threads
+     *
+     * @param threads
+     */
+    public SessionHost(int threads)
+    {
+        // Async mode runs queued tasks first in first out, so a session that yields goes behind the others
+        pool = new ForkJoinPool(threads, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        pacer = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "StarNom session pacer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Add a session to be run by the next {@link #run()}. The world is reset when the run starts.
+     *
+     * @param world
+     * @param ticks
+     *            the number of ticks to run
+     * @param tickRate
+     *            ticks per second to pace the session to, or 0 to run it as fast as possible
+     * @param bot
+     *            steers the world, or null to leave it be
+     * @return the session
+     */
+    public Session add(World world, long ticks, double tickRate, Bot bot)
+    {
+        Session session = new Session(world, ticks, tickRate > 0.0 ? Math.round(1e9 / tickRate) : 0L, bot);
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Run every session to the end
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the sessions to finish
+     * @throws IllegalStateException
+     *             if a session failed, once the others have finished
+     */
+    public void run() throws InterruptedException
+    {
+        running = new CountDownLatch(sessions.size());
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < sessions.size(); i++)
+        {
+            // Spread the paced sessions' ticks over a tick's length, so they don't all fall due at once
+            final Session session = sessions.get(i);
+            session.start(startTime + session.tickNanos * i / sessions.size());
+            pool.execute(session);
+        }
+        running.await();
+        elapsedNanos = System.nanoTime() - startTime;
+
+        for (Session session : sessions)
+        {
+            if (session.failure != null)
+                throw new IllegalStateException("A session failed at tick " + session.ticksRun, session.failure);
+        }
+    }
+
+    /**
+     * Stop the threads the sessions ran on
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+        pacer.shutdown();
+    }
+
+    public List<Session> getSessions()
+    {
+        return sessions;
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /**
+     * Get the total number of ticks the sessions ran
+     *
+     * @return ticks
+     */
+    public long getTicks()
+    {
+        long ticks = 0L;
+        for (Session session : sessions)
+            ticks += session.getTicksRun();
+        return ticks;
+    }
+
+    /**
+     * Get the latencies of every tick of every session together
+     *
+     * @return histogram
+     */
+    public LatencyHistogram getLatency()
+    {
+        LatencyHistogram latency = new LatencyHistogram();
+        for (Session session : sessions)
+            latency.add(session.getLatency());
+        return latency;
+    }
+
+    /**
+     * A world run by the host
+     */
+    public class Session implements Runnable
+    {
+        private final World world;
+
+        private final long ticks;
+
+        /**
+         * The length of a tick in nanoseconds, or 0 if the session isn't paced
+         */
+        private final long tickNanos;
+
+        private final Bot bot;
+
+        /**
+         * The number of ticks run so far
+         */
+        private long ticksRun;
+
+        /**
+         * The time the next tick is due, when paced
+         */
+        private long nextTickTime;
+
+        /**
+         * How long each tick took from when it was due, or from when it started when the session isn't paced
+         */
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * What stopped the session short, or null
+         */
+        private RuntimeException failure;
+
+        /**
+         * Puts the session back on the pool once it has waited for its next tick
+         */
+        private final Runnable resume = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pool.execute(Session.this);
+            }
+        };
+
+        private Session(World world, long ticks, long tickNanos, Bot bot)
+        {
+            this.world = world;
+            this.ticks = ticks;
+            this.tickNanos = tickNanos;
+            this.bot = bot;
+        }
+
+        /**
+         * Reset the session for a run starting at the specified time
+         *
+         * @param startTime
+         */
+        private void start(long startTime)
+        {
+            world.reset();
+            ticksRun = 0L;
+            nextTickTime = startTime;
+            latency.clear();
+            failure = null;
+        }
+
+        /**
+         * Run a slice of ticks, then hand the thread back to the other sessions. A session that fails is finished, so
+         * the others can still run to the end.
+         */
+        @Override
+        public void run()
+        {
+            try
+            {
+                runSlice();
+            }
+            catch (RuntimeException e)
+            {
+                failure = e;
+                running.countDown();
+            }
+        }
+
+        /**
+         * Run up to a slice of ticks, as many as are due when paced, and then queue the session to run again
+         */
+        private void runSlice()
+        {
+            long now = System.nanoTime();
+            for (int slice = 0; slice < SLICE_TICKS && ticksRun < ticks; slice++)
+            {
+                if (tickNanos > 0L && now < nextTickTime)
+                {
+                    pacer.schedule(resume, nextTickTime - now, TimeUnit.NANOSECONDS);
+                    return;
+                }
+
+                final long due = tickNanos > 0L ? nextTickTime : now;
+                if (bot != null)
+                    bot.act(world);
+                world.update();
+                ticksRun++;
+                nextTickTime += tickNanos;
+
+                now = System.nanoTime();
+                latency.record(now - due);
+            }
+
+            if (ticksRun < ticks)
+                pool.execute(this);
+            else
+                running.countDown();
+        }
+
+        public World getWorld()
+        {
+            return world;
+        }
+
+        public long getTicksRun()
+        {
+            return ticksRun;
+        }
+
+        public LatencyHistogram getLatency()
+        {
+            return latency;
+        }
+    }
+}
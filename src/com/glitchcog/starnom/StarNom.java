@@ -1,26 +1,28 @@
 package com.glitchcog.starnom;
 
-import java.awt.BasicStroke;
-import java.awt.Color;
-import java.awt.Font;
+import java.awt.EventQueue;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.RenderingHints;
-import java.awt.Stroke;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.util.Random;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
 
 import javax.swing.JPanel;
-import javax.swing.Timer;
 
 import com.glitchcog.starnom.agent.Guy;
-import com.glitchcog.starnom.agent.Star;
-import com.glitchcog.starnom.input.MouseInput;
-import com.glitchcog.starnom.physics.Vector;
+import com.glitchcog.starnom.physics.StarMotion;
+import com.glitchcog.starnom.physics.Timestep;
+import com.glitchcog.starnom.profile.OverlayToggle;
 
 /**
- * The game and render loop logic, and the game logic for StarNom
+ * The game and render loop logic for StarNom, displaying a {@link World} through Swing. The world is ticked on the game
+ * loop's thread, which after each batch of ticks saves it to a snapshot, and each frame is rendered on the Swing event
+ * thread from a copy of the world restored from the latest snapshot, so a slow frame never holds up the ticks. Only the
+ * parts of the copy that changed are rendered, into an image that always holds the whole latest frame, and then Swing
+ * is asked to repaint just those parts, which it does by copying them from the image.
  * 
  * @author Matt Yanos
  */
@@ -39,115 +41,170 @@ public class StarNom extends JPanel
     public static final int SCREEN_HEIGHT = 480;
 
     /**
-     * Used to add randomness to launching stars and to randomize the guy's speech
+     * The default most frames to render per second
      */
-    public static final Random RND = new Random();
+    public static final double FRAME_RATE = 60.0;
 
     /**
-     * For the guy's speech bubble
+     * Runs the game on its own thread, ticking the world at a fixed rate and asking for frames to be painted
      */
-    private static final Font FONT = new Font(Font.SANS_SERIF, Font.BOLD, 16);
+    private GameLoop loop;
 
     /**
-     * Keep score
+     * The game state being displayed
      */
-    private int points;
+    private World world;
 
     /**
-     * Keep track of a small delay by counting down before the guy speaks the instructions at the start of the game
+     * The copy of the world that is rendered, only used on the Swing event thread
      */
-    private int startTimer;
+    private World view;
 
     /**
-     * The delay in milliseconds to wait before the guy speaks the instructions when the game begins
+     * Draws the copy of the world
      */
-    private static final int START_TIMER_MAX = 90;
+    private WorldRenderer renderer;
 
     /**
-     * Keep track of game-time to regulate the update/draw loop. It's generally not a good idea to use a Swing timer for
-     * game loop timing, but this game is simple enough that it doesn't really matter.
+     * Locked while the snapshot and the fields that go with it are passed from the game loop's thread to the event
+     * thread
      */
-    private Timer clock;
+    private final Object handoff = new Object();
 
     /**
-     * The guy who noms the stars
+     * Holds the state of the world after the latest ticks, sized for the world each time it is reset
      */
-    private Guy guy;
+    private WorldSnapshot snapshot;
 
     /**
-     * The stars that the guy noms
+     * The number of bytes the snapshot has room for
      */
-    private Star[] stars;
+    private int snapshotSize;
 
     /**
-     * Coefficient of friction for the guy when he bounces
+     * The fraction of a tick past the snapshot to render it at
      */
-    public static final float FRICTION = 5.0f;
+    private float snapshotAlpha;
 
     /**
-     * Gravitational coefficient that pulls everything downward
+     * How the stars were moving when the snapshot was taken, which the copy of the world has to match to restore it
      */
-    public static final float GRAVITY = 3.0f;
+    private StarMotion snapshotMotion;
 
     /**
-     * The number of stars to keep in the pool
+     * Whether the event thread has been asked to render the snapshot and hasn't got to it yet, so a frame it falls behind
+     * on is just replaced by the next one
      */
-    private static final int STAR_BATCH_SIZE = 16;
+    private boolean snapshotQueued;
 
     /**
-     * Handle all the player input via a MouseAdapter
+     * Renders the latest snapshot on the event thread
      */
-    private MouseInput input;
+    private final Runnable renderSnapshot = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            renderFrame();
+        }
+    };
 
     /**
-     * The color of the sky
+     * Holds the latest frame, which is copied onto the panel whenever Swing paints it
      */
-    private static final Color SKY_COLOR = Color.PINK.darker().darker();
+    private BufferedImage frame;
+
+    /**
+     * Draws into the frame image, kept for as long as the image is
+     */
+    private Graphics2D frameGraphics;
 
     public StarNom()
     {
-        initializeAgents();
+        this(new World());
+    }
+
+    private StarNom(World world)
+    {
+        this(world, new WorldRenderer(new World(world)), Timestep.BASE_TICK_RATE, FRAME_RATE);
+    }
+
+    /**
+     * Construct the game displaying the specified world, drawn by the specified renderer from a copy of it
+     * 
+     * @param world
+     * @param renderer
+     *            bound to a copy of the world, see {@link World#World(World)}
+     * @param tickRate
+     *            ticks per second
+     * @param frameRate
+     *            the most frames to paint per second
+     */
+    public StarNom(World world, WorldRenderer renderer, double tickRate, double frameRate)
+    {
+        if (renderer.getWorld() == world)
+            throw new IllegalArgumentException("The renderer must draw a copy of the world, not the world itself");
+
+        this.world = world;
+        this.view = renderer.getWorld();
+        this.renderer = renderer;
+
+        addMouseListener(world.getInput());
+        addMouseMotionListener(world.getInput());
 
-        input = new MouseInput(guy);
-        addMouseListener(input);
-        addMouseMotionListener(input);
+        // Toggle the profiler overlay from the keyboard
+        setFocusable(true);
+        addKeyListener(new OverlayToggle(world.getProfiler(), world));
 
-        clock = new Timer(24, new ActionListener()
+        addComponentListener(new ComponentAdapter()
         {
-            public void actionPerformed(ActionEvent e)
+            @Override
+            public void componentResized(ComponentEvent e)
             {
-                update();
-                repaint();
+                synchronized (StarNom.this.world)
+                {
+                    StarNom.this.world.setBounds(getWidth(), getHeight());
+                }
             }
         });
-    }
 
-    public void reset()
-    {
-        startTimer = START_TIMER_MAX;
-        points = 0;
-        guy.reset(Math.max(getWidth(), SCREEN_WIDTH), Math.max(getHeight(), SCREEN_HEIGHT));
-        for (int i = 0; i < stars.length; i++)
-            stars[i].reset(getWidth(), getHeight());
+        loop = new GameLoop(world, new GameLoop.Renderer()
+        {
+            public void render(float alpha)
+            {
+                saveFrame(alpha);
+            }
+        }, tickRate, frameRate);
     }
 
-    /**
-     * Construct the agents to set up the game
-     */
-    private void initializeAgents()
+    public void reset()
     {
-        guy = new Guy(SCREEN_WIDTH, SCREEN_HEIGHT);
-
-        stars = new Star[STAR_BATCH_SIZE];
-        for (int i = 0; i < stars.length; i++)
+        synchronized (world)
         {
-            stars[i] = new Star(SCREEN_WIDTH, SCREEN_HEIGHT);
+            world.setBounds(getWidth(), getHeight());
+            world.reset();
+
+            // How big a snapshot is depends on how the stars move, which only changes when the world is reset
+            final int size = WorldSnapshot.size(world);
+            synchronized (handoff)
+            {
+                if (snapshot == null || snapshotSize < size)
+                {
+                    snapshot = new WorldSnapshot(ByteBuffer.allocateDirect(size));
+                    snapshotSize = size;
+                }
+            }
         }
     }
 
     public Guy getGuy()
     {
-        return guy;
+        return world.getGuy();
+    }
+
+    public World getWorld()
+    {
+        return world;
     }
 
     /**
@@ -156,93 +213,92 @@ public class StarNom extends JPanel
     public void start()
     {
         reset();
-        clock.start();
+        requestFocusInWindow();
+        loop.start();
     }
 
     /**
-     * Game update logic, to be run once per update loop cycle
+     * The size of the stroke to use to draw lines
      */
-    private void update()
-    {
-        input.update();
-
-        if (checkStarCollisions(guy.mo.pos))
-            guy.eat();
-
-        guy.update(getWidth(), getHeight());
-
-        for (int i = 0; i < stars.length; i++)
-            stars[i].update(getWidth(), getHeight());
+    public static final float STROKE_SIZE = 4.0f;
 
-        if (startTimer > 0)
+    /**
+     * Save the world to the snapshot and ask the event thread to render it, run on the game loop's thread
+     * 
+     * @param alpha
+     *            the fraction of the way from the previous tick to the current one to render the world at
+     */
+    private void saveFrame(float alpha)
+    {
+        synchronized (world)
         {
-            startTimer--;
-            if (startTimer == 0)
+            synchronized (handoff)
             {
-                guy.lookUp();
-                guy.talk("Ooo, look up there!\nThrow me with your mouse pointer\nso I can catch all these yummy stars!");
+                snapshot.save(world);
+                snapshotAlpha = alpha;
+                snapshotMotion = world.getStarMotion();
+                if (snapshotQueued)
+                    return;
+                snapshotQueued = true;
             }
         }
+        EventQueue.invokeLater(renderSnapshot);
     }
 
     /**
-     * Determine whether the guy has collided with any stars, indicating that the guy should eat it
-     * 
-     * @param guyPos
-     * @return hit
+     * Restore the copy of the world from the latest snapshot, render the parts of the frame that changed into the frame
+     * image and ask Swing to repaint them, run on the event thread
      */
-    private boolean checkStarCollisions(Vector guyPos)
+    private void renderFrame()
     {
-        boolean hit = false;
-        float colDist;
-        for (int i = 0; i < stars.length; i++)
+        final float alpha;
+        synchronized (handoff)
         {
-            colDist = guy.distanceSqrd(stars[i]);
-            if (colDist < guy.getSize() * guy.getSize() + stars[i].getSize() * stars[i].getSize())
+            snapshotQueued = false;
+            if (view.getStarMotion() != snapshotMotion)
             {
-                points += stars[i].getSize() * 10 / Star.MAX_SIZE;
-                stars[i].reset(getWidth(), getHeight());
-                hit = true;
+                view.setStarMotion(snapshotMotion);
+                view.reset();
+                renderer.invalidate();
             }
+            snapshot.restore(view);
+            alpha = snapshotAlpha;
         }
-        return hit;
-    }
 
-    /**
-     * The size of the stroke to use to draw lines
-     */
-    public static final float STROKE_SIZE = 4.0f;
+        final int width = getWidth();
+        final int height = getHeight();
+        final GraphicsConfiguration gc = getGraphicsConfiguration();
+        if (width <= 0 || height <= 0 || gc == null)
+            return;
 
-    /**
-     * The stroke to use to draw lines
-     */
-    protected static final Stroke STROKE = new BasicStroke(STROKE_SIZE, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        if (frame == null || frame.getWidth() != width || frame.getHeight() != height)
+        {
+            if (frameGraphics != null)
+                frameGraphics.dispose();
+            frame = gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+            frameGraphics = frame.createGraphics();
+            renderer.invalidate();
+        }
+
+        final DirtyRegion dirty = renderer.renderDirty(frameGraphics, width, height, alpha);
+        if (dirty.isFull())
+        {
+            repaint();
+        }
+        else
+        {
+            for (int i = 0; i < dirty.getCount(); i++)
+                repaint(dirty.getX(i), dirty.getY(i), dirty.getWidth(i), dirty.getHeight(i));
+        }
+    }
 
     /**
-     * The render logic
+     * Copy the latest frame onto the panel, which Swing clips to the parts being repainted
      */
     public void paint(Graphics g)
     {
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setFont(StarNom.FONT);
-
-        // Clear screen
-        g2d.setColor(SKY_COLOR);
-        g2d.fillRect(0, 0, getWidth(), getHeight());
-
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setStroke(STROKE);
-
-        // Draw border
-        g2d.setColor(Color.BLACK);
-        g2d.drawRect(0, -10, getWidth() - 1, getHeight() + 10 - 1);
-
-        guy.draw(g2d);
-
-        for (int i = 0; i < stars.length; i++)
-            stars[i].draw(g2d);
-
-        g2d.drawString("SCORE: " + points, STROKE_SIZE * 2, g2d.getFontMetrics().getHeight());
+        if (frame != null)
+            g.drawImage(frame, 0, 0, null);
     }
 
 }
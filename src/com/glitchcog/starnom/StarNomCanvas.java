@@ -0,0 +1,355 @@
+package com.glitchcog.starnom;
+
+import java.awt.AWTException;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
+import java.awt.DisplayMode;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.image.BufferStrategy;
+import java.awt.image.VolatileImage;
+
+import com.glitchcog.starnom.profile.OverlayToggle;
+
+/**
+ * Displays a {@link World} by actively rendering it from the game loop's thread, rather than asking Swing to repaint.
+ * Each frame is drawn into a back buffer and then explicitly presented, either by flipping the pages of a BufferStrategy
+ * or by copying a VolatileImage onto the canvas. A VolatileImage keeps its contents between frames, so only the parts of
+ * the frame that changed are rendered into it and copied onto the canvas.
+ * 
+ * @author Matt Yanos
+ */
+public class StarNomCanvas extends Canvas
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of buffers to use for the BufferStrategy, including the front buffer
+     */
+    private static final int BUFFER_COUNT = 2;
+
+    /**
+     * Runs the game on its own thread, ticking the world at a fixed rate and rendering frames
+     */
+    private GameLoop loop;
+
+    /**
+     * The game state being displayed
+     */
+    private World world;
+
+    /**
+     * Draws the world
+     */
+    private WorldRenderer renderer;
+
+    /**
+     * Whether to render into a VolatileImage instead of a BufferStrategy
+     */
+    private final boolean useVolatileImage;
+
+    /**
+     * Whether to flush the display pipeline after presenting each frame, so that the frame rate is paced by the display
+     */
+    private final boolean vsync;
+
+    /**
+     * The buffers flipped to present each frame, when not using a VolatileImage
+     */
+    private BufferStrategy strategy;
+
+    /**
+     * The back buffer rendered into and copied onto the canvas to present each frame, when using a VolatileImage
+     */
+    private VolatileImage backBuffer;
+
+    /**
+     * Construct the game displaying the world drawn by the specified renderer
+     * 
+     * @param renderer
+     * @param tickRate
+     *            ticks per second
+     * @param frameRate
+     *            the most frames to render per second
+     * @param useVolatileImage
+     *            whether to render into a VolatileImage instead of a BufferStrategy
+     * @param vsync
+     *            whether to pace frames to the display
+     */
+    public StarNomCanvas(WorldRenderer renderer, double tickRate, double frameRate, boolean useVolatileImage, boolean vsync)
+    {
+        this.world = renderer.getWorld();
+        this.renderer = renderer;
+        this.useVolatileImage = useVolatileImage;
+        this.vsync = vsync;
+
+        // Frames are presented from the game loop, so never from a system repaint, except to restore parts of the
+        // canvas that were uncovered between the parts of each frame copied from the VolatileImage
+        setIgnoreRepaint(!useVolatileImage);
+
+        addMouseListener(world.getInput());
+        addMouseMotionListener(world.getInput());
+
+        // Toggle the profiler overlay from the keyboard
+        setFocusable(true);
+        addKeyListener(new OverlayToggle(world.getProfiler(), world));
+
+        addComponentListener(new ComponentAdapter()
+        {
+            @Override
+            public void componentResized(ComponentEvent e)
+            {
+                synchronized (StarNomCanvas.this.world)
+                {
+                    StarNomCanvas.this.world.setBounds(getWidth(), getHeight());
+                }
+            }
+        });
+
+        loop = new GameLoop(world, new GameLoop.Renderer()
+        {
+            public void render(float alpha)
+            {
+                renderFrame(alpha);
+            }
+        }, tickRate, vsync ? Math.min(frameRate, displayRefreshRate(frameRate)) : frameRate);
+    }
+
+    public void reset()
+    {
+        synchronized (world)
+        {
+            world.setBounds(getWidth(), getHeight());
+            world.reset();
+        }
+    }
+
+    public World getWorld()
+    {
+        return world;
+    }
+
+    /**
+     * Kick off the gameplay. The canvas must already be displayed so its buffers can be created.
+     */
+    public void start()
+    {
+        if (!useVolatileImage)
+            createStrategy();
+        reset();
+        requestFocusInWindow();
+        loop.start();
+    }
+
+    /**
+     * Create the BufferStrategy, asking for accelerated page flipping and falling back on whatever the platform offers
+     */
+    private void createStrategy()
+    {
+        try
+        {
+            createBufferStrategy(BUFFER_COUNT, new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+        }
+        catch (AWTException e)
+        {
+            createBufferStrategy(BUFFER_COUNT);
+        }
+        strategy = getBufferStrategy();
+    }
+
+    /**
+     * Render a frame and present it, run on the game loop's thread
+     * 
+     * @param alpha
+     *            the fraction of the way from the previous tick to the current one to render the world at
+     */
+    private void renderFrame(float alpha)
+    {
+        if (getWidth() <= 0 || getHeight() <= 0)
+            return;
+
+        if (useVolatileImage)
+            renderVolatileImage(alpha);
+        else
+            renderStrategy(alpha);
+
+        if (vsync)
+            Toolkit.getDefaultToolkit().sync();
+    }
+
+    /**
+     * Render into the BufferStrategy's back buffer and flip it to the front, redoing the frame if the buffers are lost
+     * along the way
+     * 
+     * @param alpha
+     */
+    private void renderStrategy(float alpha)
+    {
+        do
+        {
+            do
+            {
+                Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+                try
+                {
+                    draw(g2d, alpha);
+                }
+                finally
+                {
+                    g2d.dispose();
+                }
+            }
+            while (strategy.contentsRestored());
+
+            strategy.show();
+        }
+        while (strategy.contentsLost());
+    }
+
+    /**
+     * Render the parts of the frame that changed into the VolatileImage back buffer and copy them onto the canvas,
+     * recreating the image if it no longer suits the canvas and redrawing the whole frame if the image's contents are
+     * lost along the way
+     * 
+     * @param alpha
+     */
+    private void renderVolatileImage(float alpha)
+    {
+        final GraphicsConfiguration gc = getGraphicsConfiguration();
+        do
+        {
+            if (backBuffer == null || backBuffer.getWidth() != getWidth() || backBuffer.getHeight() != getHeight())
+            {
+                if (backBuffer != null)
+                    backBuffer.flush();
+                backBuffer = createVolatileImage(getWidth(), getHeight());
+                renderer.invalidate();
+            }
+            else
+            {
+                final int status = backBuffer.validate(gc);
+                if (status == VolatileImage.IMAGE_INCOMPATIBLE)
+                {
+                    backBuffer.flush();
+                    backBuffer = createVolatileImage(getWidth(), getHeight());
+                    renderer.invalidate();
+                }
+                else if (status == VolatileImage.IMAGE_RESTORED)
+                {
+                    renderer.invalidate();
+                }
+            }
+
+            Graphics2D g2d = backBuffer.createGraphics();
+            DirtyRegion dirty;
+            try
+            {
+                synchronized (world)
+                {
+                    dirty = renderer.renderDirty(g2d, getWidth(), getHeight(), alpha);
+                }
+            }
+            finally
+            {
+                g2d.dispose();
+            }
+
+            if (backBuffer.contentsLost())
+                renderer.invalidate();
+            else
+                present(dirty);
+        }
+        while (backBuffer.contentsLost());
+    }
+
+    /**
+     * Restore the canvas from the VolatileImage back buffer when the system asks for it to be repainted
+     */
+    @Override
+    public void paint(Graphics g)
+    {
+        synchronized (world)
+        {
+            if (backBuffer != null)
+                g.drawImage(backBuffer, 0, 0, null);
+        }
+    }
+
+    /**
+     * Repaint without clearing the canvas first, as the whole canvas is painted over
+     */
+    @Override
+    public void update(Graphics g)
+    {
+        paint(g);
+    }
+
+    /**
+     * Copy the parts of the VolatileImage back buffer that changed onto the canvas
+     * 
+     * @param dirty
+     */
+    private void present(DirtyRegion dirty)
+    {
+        Graphics g = getGraphics();
+        if (g == null)
+            return;
+        try
+        {
+            if (dirty.isFull())
+            {
+                g.drawImage(backBuffer, 0, 0, null);
+            }
+            else
+            {
+                int x;
+                int y;
+                for (int i = 0; i < dirty.getCount(); i++)
+                {
+                    x = dirty.getX(i);
+                    y = dirty.getY(i);
+                    g.drawImage(backBuffer, x, y, x + dirty.getWidth(i), y + dirty.getHeight(i), x, y, x + dirty.getWidth(i), y + dirty.getHeight(i), null);
+                }
+            }
+        }
+        finally
+        {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Draw the world into a back buffer
+     * 
+     * @param g2d
+     * @param alpha
+     */
+    private void draw(Graphics2D g2d, float alpha)
+    {
+        synchronized (world)
+        {
+            renderer.render(g2d, getWidth(), getHeight(), alpha);
+        }
+    }
+
+    /**
+     * Get the refresh rate of the default screen
+     * 
+     * @param fallback
+     *            the rate to use if the refresh rate can't be determined
+     * @return frames per second
+     */
+    private static double displayRefreshRate(double fallback)
+    {
+        if (GraphicsEnvironment.isHeadless())
+            return fallback;
+        final int refreshRate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDisplayMode().getRefreshRate();
+        return refreshRate == DisplayMode.REFRESH_RATE_UNKNOWN ? fallback : refreshRate;
+    }
+}
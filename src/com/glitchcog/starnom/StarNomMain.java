@@ -1,7 +1,30 @@
 package com.glitchcog.starnom;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
 import javax.swing.JFrame;
 
+import com.glitchcog.starnom.agent.ExitQueue;
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.agent.StarSprites;
+import com.glitchcog.starnom.collision.BroadphaseType;
+import com.glitchcog.starnom.collision.CollisionMode;
+import com.glitchcog.starnom.input.InputRecording;
+import com.glitchcog.starnom.net.LoopbackMatch;
+import com.glitchcog.starnom.net.NetPeer;
+import com.glitchcog.starnom.net.RollbackSession;
+import com.glitchcog.starnom.physics.StarMotion;
+import com.glitchcog.starnom.physics.Timestep;
+import com.glitchcog.starnom.profile.LatencyHistogram;
+import com.glitchcog.starnom.random.SplitMix64;
+import com.glitchcog.starnom.spectator.SpectatorDecoder;
+import com.glitchcog.starnom.spectator.SpectatorEncoder;
+import com.glitchcog.starnom.spectator.SpectatorFormat;
+import com.glitchcog.starnom.telemetry.TelemetryWriter;
+
 /**
  * Houses the main class for StarNom
  * 
@@ -10,27 +33,739 @@ import javax.swing.JFrame;
 public class StarNomMain
 {
     /**
-     * Run the game
-     * 
+     * The number of ticks to run headlessly when no count is specified
+     */
+    private static final long DEFAULT_HEADLESS_TICKS = 1000000L;
+
+    /**
+     * The number of ticks to play a networked match for when no count is specified
+     */
+    private static final long DEFAULT_NETPLAY_TICKS = 1000L;
+
+    /**
+     * The number of ticks to stream to a spectator when no count is specified
+     */
+    private static final long DEFAULT_SPECTATE_TICKS = 2000L;
+
+    /**
+     * The command line options, grouped by what they set
+     */
+    private static final String USAGE = ""
+            + "Usage: StarNomMain [options]\n"
+            + "\n"
+            + "Modes, playing the game in a window if none is given:\n"
+            + "  --headless [ticks]                   run the game logic without a display, " + DEFAULT_HEADLESS_TICKS + " ticks by default\n"
+            + "  --sessions <count>                   with --headless, run independent games side by side on the\n"
+            + "                                       --threads threads, each with its own seed\n"
+            + "  --paced                              with --sessions, pace each game to the tick rate rather than\n"
+            + "                                       running it as fast as possible\n"
+            + "  --replay <file>                      play a recorded session out again headlessly as fast as possible\n"
+            + "  --netplay [ticks]                    play a two player match over UDP on the loopback interface, " + DEFAULT_NETPLAY_TICKS + "\n"
+            + "                                       ticks by default, and check it ends up the same for both players,\n"
+            + "                                       each with their own broadphase and the second with its stars\n"
+            + "                                       updated on the --threads threads\n"
+            + "  --spectate [ticks]                   stream the game to a spectator, " + DEFAULT_SPECTATE_TICKS + " ticks by default, and check\n"
+            + "                                       the frames the spectator decodes against the game\n"
+            + "\n"
+            + "Simulation:\n"
+            + "  --stars <count>                      the number of stars in play\n"
+            + "  --max-stars <count>                  the room made in the pool of stars, which a headless run ramps\n"
+            + "                                       the population up to evenly over its ticks\n"
+            + "  --broadphase brute|grid|sap          how the stars near the guy are found\n"
+            + "  --collision discrete|swept           test the guy against the stars only at the end of each tick, or\n"
+            + "                                       over the whole of it\n"
+            + "  --star-motion integrated|closed-form move the stars a step at a time, or work them out from their launch\n"
+            + "  --hz <rate>                          ticks per second, the base tick rate the game was tuned for by\n"
+            + "                                       default\n"
+            + "  --threads <count>                    update the stars in parallel on this many threads\n"
+            + "  --parallel-threshold <count>         the most stars in each chunk updated in parallel\n"
+            + "  --seed <seed>                        the seed every random stream is split from, so a headless run with\n"
+            + "                                       the same seed and options plays out exactly the same\n"
+            + "\n"
+            + "Display:\n"
+            + "  --fps <rate>                         the most frames painted per second\n"
+            + "  --render passive|buffer|volatile     paint passively through Swing, or render actively\n"
+            + "  --vsync                              pace active rendering to the display\n"
+            + "  --sprites <steps>                    blit stars from sprites pre-rendered at this many sub-pixel offsets\n"
+            + "                                       per axis, or draw them as polygons with 0\n"
+            + "  --full-redraw-threshold <fraction>   redraw the whole frame once the parts that changed cover more of\n"
+            + "                                       the window than this\n"
+            + "\n"
+            + "Recording:\n"
+            + "  --record <file>                      write the input of the session to a file on exit\n"
+            + "  --telemetry <directory>              write every tick of a single game or replay to memory mapped\n"
+            + "                                       segment files\n"
+            + "\n"
+            + "Network, for --netplay and --spectate:\n"
+            + "  --latency <ms>                       hold each packet back this long, 50 by default\n"
+            + "  --jitter <ms>                        and up to this much longer, 10 by default\n"
+            + "  --loss <chance>                      drop packets, or spectator frames, with this chance, 0.05 by default\n"
+            + "  --input-delay <ticks>                have each player's inputs take effect this many ticks after they\n"
+            + "                                       are given, 2 by default\n"
+            + "\n"
+            + "  --help                               print this and exit\n";
+
+    /**
+     * Run the game, or one of the modes that run it without a display, with the options set out in {@link #USAGE}. An
+     * unknown option, an option missing its value, a value that can't be read or is out of range, or an option given
+     * without the mode it goes with prints the usage and exits with status 2.
+     *
      * @param args
+     * @throws IOException
+     *             if a recording can't be read, the telemetry directory can't be created or a socket can't be bound
+     */
+    public static void main(String[] args) throws IOException
+    {
+        boolean headless = false;
+        long ticks = DEFAULT_HEADLESS_TICKS;
+        int starCount = World.STAR_BATCH_SIZE;
+        int starCapacity = 0;
+        BroadphaseType broadphase = BroadphaseType.BRUTE;
+        CollisionMode collisionMode = CollisionMode.DISCRETE;
+        StarMotion starMotion = StarMotion.INTEGRATED;
+        double tickRate = Timestep.BASE_TICK_RATE;
+        double frameRate = StarNom.FRAME_RATE;
+        String render = "passive";
+        boolean vsync = false;
+        int sessions = 0;
+        boolean paced = false;
+        int spriteSteps = WorldRenderer.STAR_SUBPIXEL_STEPS;
+        int threads = 1;
+        int parallelThreshold = StarField.PARALLEL_THRESHOLD;
+        Long seed = null;
+        File recordFile = null;
+        File replayFile = null;
+        File telemetryDirectory = null;
+        float fullRedrawThreshold = DirtyRegion.FULL_REDRAW_THRESHOLD;
+        boolean netplay = false;
+        long netplayTicks = DEFAULT_NETPLAY_TICKS;
+        double latency = 50.0;
+        double jitter = 10.0;
+        double loss = 0.05;
+        int inputDelay = 2;
+        boolean spectate = false;
+        long spectateTicks = DEFAULT_SPECTATE_TICKS;
+        int i = 0;
+        try
+        {
+            for (; i < args.length; i++)
+            {
+                if ("--headless".equals(args[i]))
+                {
+                    headless = true;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--"))
+                        ticks = Long.parseLong(args[++i]);
+                }
+                else if ("--stars".equals(args[i]) && i + 1 < args.length)
+                {
+                    starCount = Integer.parseInt(args[++i]);
+                }
+                else if ("--max-stars".equals(args[i]) && i + 1 < args.length)
+                {
+                    starCapacity = Integer.parseInt(args[++i]);
+                }
+                else if ("--broadphase".equals(args[i]) && i + 1 < args.length)
+                {
+                    broadphase = BroadphaseType.fromLabel(args[++i]);
+                }
+                else if ("--collision".equals(args[i]) && i + 1 < args.length)
+                {
+                    collisionMode = CollisionMode.fromLabel(args[++i]);
+                }
+                else if ("--star-motion".equals(args[i]) && i + 1 < args.length)
+                {
+                    starMotion = StarMotion.fromLabel(args[++i]);
+                }
+                else if ("--hz".equals(args[i]) && i + 1 < args.length)
+                {
+                    tickRate = Double.parseDouble(args[++i]);
+                }
+                else if ("--fps".equals(args[i]) && i + 1 < args.length)
+                {
+                    frameRate = Double.parseDouble(args[++i]);
+                }
+                else if ("--render".equals(args[i]) && i + 1 < args.length)
+                {
+                    render = args[++i];
+                }
+                else if ("--vsync".equals(args[i]))
+                {
+                    vsync = true;
+                }
+                else if ("--sessions".equals(args[i]) && i + 1 < args.length)
+                {
+                    sessions = Integer.parseInt(args[++i]);
+                }
+                else if ("--paced".equals(args[i]))
+                {
+                    paced = true;
+                }
+                else if ("--sprites".equals(args[i]) && i + 1 < args.length)
+                {
+                    spriteSteps = Integer.parseInt(args[++i]);
+                }
+                else if ("--threads".equals(args[i]) && i + 1 < args.length)
+                {
+                    threads = Integer.parseInt(args[++i]);
+                }
+                else if ("--parallel-threshold".equals(args[i]) && i + 1 < args.length)
+                {
+                    parallelThreshold = Integer.parseInt(args[++i]);
+                }
+                else if ("--seed".equals(args[i]) && i + 1 < args.length)
+                {
+                    seed = Long.decode(args[++i]);
+                }
+                else if ("--record".equals(args[i]) && i + 1 < args.length)
+                {
+                    recordFile = new File(args[++i]);
+                }
+                else if ("--replay".equals(args[i]) && i + 1 < args.length)
+                {
+                    replayFile = new File(args[++i]);
+                }
+                else if ("--telemetry".equals(args[i]) && i + 1 < args.length)
+                {
+                    telemetryDirectory = new File(args[++i]);
+                }
+                else if ("--full-redraw-threshold".equals(args[i]) && i + 1 < args.length)
+                {
+                    fullRedrawThreshold = Float.parseFloat(args[++i]);
+                }
+                else if ("--netplay".equals(args[i]))
+                {
+                    netplay = true;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--"))
+                        netplayTicks = Long.parseLong(args[++i]);
+                }
+                else if ("--latency".equals(args[i]) && i + 1 < args.length)
+                {
+                    latency = Double.parseDouble(args[++i]);
+                }
+                else if ("--jitter".equals(args[i]) && i + 1 < args.length)
+                {
+                    jitter = Double.parseDouble(args[++i]);
+                }
+                else if ("--loss".equals(args[i]) && i + 1 < args.length)
+                {
+                    loss = Double.parseDouble(args[++i]);
+                }
+                else if ("--input-delay".equals(args[i]) && i + 1 < args.length)
+                {
+                    inputDelay = Integer.parseInt(args[++i]);
+                }
+                else if ("--spectate".equals(args[i]))
+                {
+                    spectate = true;
+                    if (i + 1 < args.length && !args[i + 1].startsWith("--"))
+                        spectateTicks = Long.parseLong(args[++i]);
+                }
+                else if ("--help".equals(args[i]))
+                {
+                    System.out.print(USAGE);
+                    return;
+                }
+                else
+                {
+                    usage(i + 1 < args.length || !args[i].startsWith("--") ? "Unknown option: " + args[i] : "Unknown option or missing value: " + args[i]);
+                }
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            // Every value is read after its option is stepped past
+            usage("Bad value for " + args[i - 1] + ": " + args[i]);
+        }
+
+        // Values that read fine but that the game can't be run with
+        if (ticks < 0L || netplayTicks < 0L || spectateTicks < 0L)
+            usage("The number of ticks to run can't be negative");
+        if (starCount < 0 || starCapacity < 0)
+            usage("--stars and --max-stars can't be negative");
+        if (starMotion == StarMotion.CLOSED_FORM && Math.max(starCount, starCapacity) > ExitQueue.MAX_STARS)
+            usage("--star-motion closed-form can't run more than " + ExitQueue.MAX_STARS + " stars");
+        if (!isPositive(tickRate) || !isPositive(frameRate))
+            usage("--hz and --fps must be finite and more than 0");
+        if (!"passive".equals(render) && !"buffer".equals(render) && !"volatile".equals(render))
+            usage("Unknown render mode: " + render);
+        if (sessions < 0)
+            usage("--sessions can't be negative");
+        if (sessions > 0 && !headless)
+            usage("--sessions only runs with --headless");
+        if (paced && sessions == 0)
+            usage("--paced only runs with --headless and --sessions");
+        if (spriteSteps < 0)
+            usage("--sprites can't be negative");
+        if (threads < 1 || parallelThreshold < 1)
+            usage("--threads and --parallel-threshold must be at least 1");
+        if (!(fullRedrawThreshold >= 0.0f && fullRedrawThreshold <= 1.0f))
+            usage("--full-redraw-threshold must be from 0 to 1");
+        if (!(latency >= 0.0 && latency < Double.POSITIVE_INFINITY) || !(jitter >= 0.0 && jitter < Double.POSITIVE_INFINITY))
+            usage("--latency and --jitter must be finite and not negative");
+        if (!(loss >= 0.0 && loss <= 1.0))
+            usage("--loss must be from 0 to 1");
+        if (inputDelay < 0 || inputDelay > RollbackSession.MAX_INPUT_DELAY)
+            usage("--input-delay must be from 0 to " + RollbackSession.MAX_INPUT_DELAY);
+
+        if (replayFile != null)
+        {
+            InputReplayer replayer = new InputReplayer(InputRecording.load(replayFile));
+            World world = replayer.createWorld();
+            world.setBroadphase(broadphase);
+            if (threads > 1)
+                world.setParallelism(new ForkJoinPool(threads), parallelThreshold);
+            if (telemetryDirectory != null)
+                telemetry(world, telemetryDirectory);
+            runReplay(world, replayer);
+            return;
+        }
+
+        if (netplay)
+        {
+            final long matchSeed = seed != null ? seed : SplitMix64.mix64(System.nanoTime());
+            World[] worlds = new World[LoopbackMatch.PLAYERS + 1];
+            for (int w = 0; w < worlds.length; w++)
+            {
+                worlds[w] = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, starCount, Math.max(starCount, starCapacity), matchSeed, LoopbackMatch.PLAYERS);
+
+                // The players needn't agree on how their worlds are run, so each runs them differently to check that
+                worlds[w].setBroadphase(BroadphaseType.values()[(broadphase.ordinal() + w) % BroadphaseType.values().length]);
+                if (threads > 1 && w == 1)
+                    worlds[w].setParallelism(new ForkJoinPool(threads), parallelThreshold);
+                worlds[w].setCollisionMode(collisionMode);
+                worlds[w].setStarMotion(starMotion);
+                worlds[w].setTimestep(Timestep.dt(tickRate));
+            }
+
+            World[] players = new World[LoopbackMatch.PLAYERS];
+            System.arraycopy(worlds, 0, players, 0, players.length);
+            LoopbackMatch match = new LoopbackMatch(players, worlds[players.length], inputDelay, Math.round(latency * 1e6), Math.round(jitter * 1e6), loss, matchSeed);
+            try
+            {
+                runNetplay(match, netplayTicks, tickRate);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                match.close();
+            }
+            return;
+        }
+
+        if (headless && sessions > 0)
+        {
+            SessionHost host = new SessionHost(threads);
+            SplitMix64 seeds = new SplitMix64(seed != null ? seed : SplitMix64.mix64(System.nanoTime()));
+            for (int s = 0; s < sessions; s++)
+            {
+                World world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, starCount, seeds.nextLong());
+                world.setBroadphase(broadphase);
+                world.setCollisionMode(collisionMode);
+                world.setStarMotion(starMotion);
+                world.setTimestep(Timestep.dt(tickRate));
+                host.add(world, ticks, paced ? tickRate : 0.0, null);
+            }
+            try
+            {
+                runSessions(host);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                host.shutdown();
+            }
+            return;
+        }
+
+        World world = new World(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, starCount, Math.max(starCount, starCapacity), seed != null ? seed : SplitMix64.mix64(System.nanoTime()));
+        world.setBroadphase(broadphase);
+        world.setCollisionMode(collisionMode);
+        world.setStarMotion(starMotion);
+        if (threads > 1)
+            world.setParallelism(new ForkJoinPool(threads), parallelThreshold);
+        if (recordFile != null)
+            record(world, recordFile);
+        if (telemetryDirectory != null)
+            telemetry(world, telemetryDirectory);
+
+        if (spectate)
+        {
+            world.setTimestep(Timestep.dt(tickRate));
+            runSpectate(world, spectateTicks, loss);
+            return;
+        }
+
+        if (headless)
+        {
+            world.setTimestep(Timestep.dt(tickRate));
+            runHeadless(world, ticks, Math.max(starCount, starCapacity));
+            return;
+        }
+
+        // The passive game renders a copy of the world on the event thread while the world ticks on its own
+        final boolean passive = "passive".equals(render);
+        WorldRenderer renderer = new WorldRenderer(passive ? new World(world) : world, spriteSteps > 0 ? new StarSprites(spriteSteps) : null);
+        renderer.setFullRedrawThreshold(fullRedrawThreshold);
+
+        if (passive)
+        {
+            StarNom game = new StarNom(world, renderer, tickRate, frameRate);
+            JFrame window = guiSetup();
+            window.add(game);
+            window.setVisible(true);
+            game.start();
+        }
+        else if ("buffer".equals(render) || "volatile".equals(render))
+        {
+            StarNomCanvas game = new StarNomCanvas(renderer, tickRate, frameRate, "volatile".equals(render), vsync);
+            JFrame window = guiSetup();
+            window.setIgnoreRepaint(true);
+            window.add(game);
+            window.setVisible(true);
+            game.start();
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown render mode: " + render);
+        }
+    }
+
+    /**
+     * Run the game logic for the specified number of ticks as fast as possible, with no display, and report the tick
+     * rate
+     * 
+     * @param world
+     *            The world to run
+     * @param ticks
+     *            The number of ticks to run
+     */
+    public static void runHeadless(World world, long ticks)
+    {
+        runHeadless(world, ticks, world.getStars().getPopulation());
+    }
+
+    /**
+     * Run the game logic for the specified number of ticks as fast as possible, with no display, ramping the star
+     * population evenly from its starting size up to the specified size over the run, and report the tick rate
+     * 
+     * @param world
+     *            The world to run
+     * @param ticks
+     *            The number of ticks to run
+     * @param rampTo
+     *            The star population to reach by the last tick
+     */
+    public static void runHeadless(World world, long ticks, int rampTo)
+    {
+        world.reset();
+
+        final int rampFrom = world.getStars().getPopulation();
+        final long startTime = System.nanoTime();
+        for (long i = 0; i < ticks; i++)
+        {
+            if (rampTo != rampFrom)
+                world.setStarPopulation(rampFrom + (int) ((rampTo - rampFrom) * (i + 1) / ticks));
+            world.update();
+        }
+        final long elapsed = System.nanoTime() - startTime;
+
+        System.out.println(String.format("Ran %d ticks in %.1f ms (%.0f ticks/sec), score %d, %d stars in play (high-water mark %d), seed %d", ticks, elapsed / 1e6, ticks * 1e9 / Math.max(elapsed, 1L), world.getPoints(), world.getStars().getCount(), world.getStars().getHighWaterMark(), world.getSeed()));
+    }
+
+    /**
+     * Run every session of the specified host to the end, and report the total tick rate and the latency of the sessions'
+     * ticks
+     * 
+     * @param host
+     *            The host with the sessions to run
+     * @throws InterruptedException
+     *             if interrupted while waiting for the sessions to finish
+     */
+    public static void runSessions(SessionHost host) throws InterruptedException
+    {
+        host.run();
+
+        final long ticks = host.getTicks();
+        final long elapsed = host.getElapsedNanos();
+        final LatencyHistogram latency = host.getLatency();
+        long worst = 0L;
+        long points = 0L;
+        for (SessionHost.Session session : host.getSessions())
+        {
+            worst = Math.max(worst, session.getLatency().percentile(0.99));
+            points += session.getWorld().getPoints();
+        }
+
+        System.out.println(String.format("Ran %d sessions for %d ticks in %.1f ms (%.0f ticks/sec), total score %d", host.getSessions().size(), ticks, elapsed / 1e6, ticks * 1e9 / Math.max(elapsed, 1L), points));
+        System.out.println(String.format("Tick latency median %.1f us, 99th percentile %.1f us, max %.1f us, worst session 99th percentile %.1f us", latency.percentile(0.5) / 1e3, latency.percentile(0.99) / 1e3, latency.getMax() / 1e3, worst / 1e3));
+    }
+
+    /**
+     * Play a networked match to the end, report how often and how deep each player rolled back and how long it took, and
+     * exit with an error if the players didn't end up in the same state
+     * 
+     * @param match
+     *            The match to play
+     * @param ticks
+     *            The number of ticks to play
+     * @param tickRate
+     *            Ticks per second to pace the players to
+     * @throws InterruptedException
+     *             if interrupted while waiting for the match to finish
+     */
+    public static void runNetplay(LoopbackMatch match, long ticks, double tickRate) throws InterruptedException
+    {
+        final boolean same = match.run(ticks, tickRate);
+
+        System.out.println(String.format("Played %d ticks of a %d player match over loopback UDP in %.1f s", ticks, LoopbackMatch.PLAYERS, match.getElapsedNanos() / 1e9));
+        for (int p = 0; p < LoopbackMatch.PLAYERS; p++)
+        {
+            final RollbackSession session = match.getSession(p);
+            final NetPeer peer = match.getPeer(p);
+            final LatencyHistogram rollback = session.getRollbackLatency();
+            final LatencyHistogram frame = match.getFrameLatency(p);
+            System.out.println(String.format("Player %d: score %d, %d rollbacks of up to %d ticks (%d ticks run again), rollback median %.1f us, 99th percentile %.1f us, max %.1f us, frame 99th percentile %.1f us, max %.1f us, %d ticks stalled", p, session.getWorld().getPoints(p), session.getRollbacks(), session.getMaxRollback(), session.getRolledBackTicks(), rollback.percentile(0.5) / 1e3, rollback.percentile(0.99) / 1e3, rollback.getMax() / 1e3, frame.percentile(0.99) / 1e3, frame.getMax() / 1e3, match.getStalls(p)));
+            System.out.println(String.format("Player %d: %d packets sent, %d dropped, %d received, %d desyncs, checksum %016x", p, peer.getLink().getSent(), peer.getLink().getDropped(), peer.getReceived(), session.getDesyncs(), match.getChecksum(p)));
+        }
+        System.out.println(String.format("Reference checksum %016x", match.getReferenceChecksum()));
+
+        if (!same)
+        {
+            System.out.println("Netplay check FAILED: the players didn't end up in the same state");
+            System.exit(1);
+        }
+        System.out.println("Netplay check passed");
+    }
+
+    /**
+     * Run the game logic for the specified number of ticks, streaming every tick to a spectator who acknowledges each
+     * frame they decode a tick later, report the bytes and time spent encoding each tick, and exit with an error if any
+     * frame the spectator decoded doesn't match the game
+     * 
+     * @param world
+     *            The world to run
+     * @param ticks
+     *            The number of ticks to run
+     * @param loss
+     *            The chance of each frame being dropped on its way to the spectator, from 0 to 1
+     */
+    public static void runSpectate(World world, long ticks, double loss)
+    {
+        world.reset();
+
+        final StarField stars = world.getStars();
+        final SpectatorEncoder encoder = new SpectatorEncoder(world);
+        final SpectatorDecoder decoder = new SpectatorDecoder(stars.getCapacity());
+        final ByteBuffer frame = ByteBuffer.allocateDirect(SpectatorFormat.maxFrameSize(stars.getCapacity(), world.getPlayers()));
+        final SplitMix64 random = new SplitMix64(SplitMix64.mix64(world.getSeed()));
+        final LatencyHistogram encodeLatency = new LatencyHistogram();
+        final LatencyHistogram decodeLatency = new LatencyHistogram();
+        long ack = -1L;
+        long keyframes = 0L;
+        long keyframeBytes = 0L;
+        long deltas = 0L;
+        long deltaBytes = 0L;
+        long starsSeen = 0L;
+        long dropped = 0L;
+        long mismatches = 0L;
+        for (long i = 0; i < ticks; i++)
+        {
+            world.update();
+
+            long start = System.nanoTime();
+            encoder.update();
+            frame.clear();
+            final boolean keyframe = encoder.encode(frame, ack);
+            encodeLatency.record(System.nanoTime() - start);
+            frame.flip();
+            if (keyframe)
+            {
+                keyframes++;
+                keyframeBytes += frame.remaining();
+            }
+            else
+            {
+                deltas++;
+                deltaBytes += frame.remaining();
+                starsSeen += stars.getCount();
+            }
+
+            // Take 53 random bits as a fraction from 0 to 1
+            if (loss > 0.0 && (random.nextLong() >>> 11) * 0x1.0p-53 < loss)
+            {
+                dropped++;
+                continue;
+            }
+            start = System.nanoTime();
+            if (decoder.decode(frame))
+            {
+                decodeLatency.record(System.nanoTime() - start);
+                mismatches += compare(world, encoder, decoder);
+            }
+            ack = decoder.getFrame();
+        }
+
+        System.out.println(String.format("Streamed %d ticks of %d stars to a spectator, %d frames dropped, %d new tracks for respawns and %d for stars that strayed", ticks, stars.getCount(), dropped, encoder.getRespawns(), encoder.getCorrections()));
+        System.out.println(String.format("%d keyframes of %.0f bytes, %d deltas of %.1f bytes per tick (%.3f bytes per star against %d for a pair of floats)", keyframes, keyframeBytes / (double) Math.max(keyframes, 1L), deltas, deltaBytes / (double) Math.max(deltas, 1L), deltaBytes / (double) Math.max(starsSeen, 1L), 2 * Float.BYTES));
+        System.out.println(String.format("Encode median %.1f us, 99th percentile %.1f us, max %.1f us; decode median %.1f us, 99th percentile %.1f us", encodeLatency.percentile(0.5) / 1e3, encodeLatency.percentile(0.99) / 1e3, encodeLatency.getMax() / 1e3, decodeLatency.percentile(0.5) / 1e3, decodeLatency.percentile(0.99) / 1e3));
+
+        if (mismatches > 0L)
+        {
+            System.out.println("Spectator check FAILED: " + mismatches + " positions decoded didn't match the game");
+            System.exit(1);
+        }
+        System.out.println("Spectator check passed");
+    }
+
+    /**
+     * Count the stars and guys whose quantized positions, sizes, colours or scores a spectator decoded differently from
+     * the game
+     * 
+     * @param world
+     * @param encoder
+     * @param decoder
+     * @return mismatches
+     */
+    private static long compare(World world, SpectatorEncoder encoder, SpectatorDecoder decoder)
+    {
+        final StarField stars = world.getStars();
+        final int width = encoder.getWidth();
+        final int height = encoder.getHeight();
+        long mismatches = decoder.getCount() == stars.getCount() ? 0L : 1L;
+        for (int i = 0; i < Math.min(decoder.getCount(), stars.getCount()); i++)
+        {
+            if (decoder.getStarX(i) != SpectatorFormat.quantize(stars.posX[i], width) || decoder.getStarY(i) != SpectatorFormat.quantize(stars.posY[i], height) || decoder.getStarSize(i) != stars.size[i] || decoder.getStarColor(i) != stars.color[i])
+                mismatches++;
+        }
+        for (int p = 0; p < world.getPlayers(); p++)
+        {
+            if (decoder.getGuyX(p) != SpectatorFormat.quantize(world.getGuy(p).mo.pos.x, width) || decoder.getGuyY(p) != SpectatorFormat.quantize(world.getGuy(p).mo.pos.y, height) || decoder.getPoints(p) != world.getPoints(p))
+                mismatches++;
+        }
+        return mismatches;
+    }
+
+    /**
+     * Replay a recorded session as fast as possible, with no display, and report the tick rate
+     * 
+     * @param world
+     *            The world to replay the session in
+     * @param replayer
+     *            The recorded session
+     */
+    public static void runReplay(World world, InputReplayer replayer)
+    {
+        final long startTime = System.nanoTime();
+        final long ticks = replayer.replay(world);
+        final long elapsed = System.nanoTime() - startTime;
+
+        System.out.println(String.format("Replayed %d ticks in %.1f ms (%.0f ticks/sec), score %d, seed %d", ticks, elapsed / 1e6, ticks * 1e9 / Math.max(elapsed, 1L), world.getPoints(), world.getSeed()));
+    }
+
+    /**
+     * Record the input that steers the world, and write the recording to the specified file when the program exits
+     * 
+     * @param world
+     * @param file
+     */
+    private static void record(final World world, final File file)
+    {
+        final InputRecording recording = new InputRecording();
+        world.setRecording(recording);
+        Runtime.getRuntime().addShutdownHook(new Thread("StarNom recording")
+        {
+            @Override
+            public void run()
+            {
+                synchronized (world)
+                {
+                    world.setRecording(null);
+                    recording.end(world.getTick());
+                }
+                try
+                {
+                    recording.save(file);
+                    System.out.println(String.format("Recorded %d ticks of input in %d bytes to %s", world.getTick(), recording.size(), file));
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether a rate is more than 0 and finite
+     *
+     * @param rate
+     * @return whether the rate can be run at
+     */
+    private static boolean isPositive(double rate)
+    {
+        return rate > 0.0 && rate < Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Print what was wrong with the command line and the usage, and exit
+     *
+     * @param problem
+     */
+    private static void usage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println();
+        System.err.print(USAGE);
+        System.exit(2);
+    }
+
+    /**
+     * Write every tick of the world to telemetry segments in the specified directory, and finish writing them when the
+     * program exits
+     * 
+     * @param world
+     * @param directory
+     * @throws IOException
+     *             if the directory can't be created
      */
-    public static void main(String[] args)
+    private static void telemetry(final World world, final File directory) throws IOException
     {
-        StarNom game = new StarNom();
-        JFrame window = guiSetup(game);
-        window.add(game);
-        window.setVisible(true);
-        game.start();
+        final TelemetryWriter telemetry = new TelemetryWriter(directory, world.getStars().getCapacity());
+        world.setTelemetry(telemetry);
+        Runtime.getRuntime().addShutdownHook(new Thread("StarNom telemetry")
+        {
+            @Override
+            public void run()
+            {
+                synchronized (world)
+                {
+                    world.setTelemetry(null);
+                }
+                try
+                {
+                    telemetry.close();
+                    System.out.println(String.format("Wrote %d ticks of telemetry to %s, %d dropped", telemetry.getWritten(), directory, telemetry.getDropped()));
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        });
     }
 
     /**
      * Construct and configure the Window for the game
      * 
-     * @param ml
-     *            The mouse listener to add to the window for the game control
      * @return window
      */
-    public static JFrame guiSetup(StarNom game)
+    public static JFrame guiSetup()
     {
         JFrame window = new JFrame();
         window.setSize(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT);
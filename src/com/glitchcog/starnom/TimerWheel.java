@@ -0,0 +1,372 @@
+package com.glitchcog.starnom;
+
+import java.util.Arrays;
+
+/**
+ * Fires timers at the tick they are due, for countdowns that only exist to change something at a future tick. Each
+ * tick costs the same however many timers are waiting, plus a little for each timer that comes due.
+ * <p>
+ * The timers are kept in a hierarchical timing wheel. Each level is a ring of slots, each slot spanning 64 times the
+ * ticks of a slot on the level below. A timer waits on the level whose span covers how far off it is due, and drops down
+ * a level each time the ring below comes around to its slot, until it reaches the bottom level and fires. The timers are
+ * plain indices into primitive arrays, linked into their slots, so scheduling, cancelling and firing never allocate.
+ * <p>
+ * Timers are registered in blocks, each with the listener its timers fire on. Listeners of timers due at the same tick
+ * mustn't depend on which fires first. The wheel isn't thread safe.
+ *
+ * @author Matt Yanos
+ */
+public class TimerWheel
+{
+    /**
+     * Fired when a timer comes due
+     */
+    public interface Listener
+    {
+        /**
+         * Called when the specified timer comes due, on the tick it is due. The timer isn't scheduled any more, so it can
+         * be scheduled again straight away.
+         *
+         * @param timer
+         *            the index of the timer within the block it was registered in
+         */
+        void expired(int timer);
+    }
+
+    /**
+     * The number of bits of the tick each slot of a level spans over a slot of the level below
+     */
+    private static final int SLOT_BITS = 6;
+
+    /**
+     * The number of slots in each level's ring
+     */
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    /**
+     * The number of levels, which together span 2^24 ticks. Timers due further off than that wait on the top level and
+     * are put back on it until they come into range.
+     */
+    private static final int LEVELS = 4;
+
+    /**
+     * The furthest off a timer can be placed directly
+     */
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS);
+
+    /**
+     * Marks the end of a slot's list, or a timer that isn't scheduled
+     */
+    private static final int NONE = -1;
+
+    /**
+     * The first timer in each slot, by level and then slot
+     */
+    private final int[] head = new int[LEVELS * SLOTS];
+
+    /**
+     * The last timer in each slot, so timers fire in the order they were scheduled, other than after a restore
+     */
+    private final int[] tail = new int[LEVELS * SLOTS];
+
+    /**
+     * The tick each timer is due at
+     */
+    private long[] deadline = new long[0];
+
+    /**
+     * The next timer in each timer's slot
+     */
+    private int[] next = new int[0];
+
+    /**
+     * The previous timer in each timer's slot
+     */
+    private int[] prev = new int[0];
+
+    /**
+     * The slot each timer is waiting in, or {@link #NONE}
+     */
+    private int[] slot = new int[0];
+
+    /**
+     * The block each timer was registered in
+     */
+    private int[] block = new int[0];
+
+    /**
+     * The first timer of each block
+     */
+    private int[] blockStart = new int[0];
+
+    /**
+     * The listener of each block
+     */
+    private Listener[] listeners = new Listener[0];
+
+    /**
+     * The number of timers registered
+     */
+    private int count;
+
+    /**
+     * The latest tick advanced to
+     */
+    private long tick;
+
+    /**
+     * Construct a wheel with no timers, at tick 0
+     */
+    public TimerWheel()
+    {
+        Arrays.fill(head, NONE);
+        Arrays.fill(tail, NONE);
+    }
+
+    /**
+     * Register a block of timers that fire on the specified listener
+     *
+     * @param timers
+     *            the number of timers in the block
+     * @param listener
+     * @return the first timer of the block, which the block's timers are numbered on from
+     */
+    public int register(int timers, Listener listener)
+    {
+        final int start = count;
+        count += timers;
+        deadline = Arrays.copyOf(deadline, count);
+        next = Arrays.copyOf(next, count);
+        prev = Arrays.copyOf(prev, count);
+        slot = Arrays.copyOf(slot, count);
+        block = Arrays.copyOf(block, count);
+        Arrays.fill(slot, start, count, NONE);
+        Arrays.fill(block, start, count, listeners.length);
+
+        blockStart = Arrays.copyOf(blockStart, listeners.length + 1);
+        blockStart[listeners.length] = start;
+        listeners = Arrays.copyOf(listeners, listeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        return start;
+    }
+
+    /**
+     * Cancel every timer and go back to tick 0
+     */
+    public void clear()
+    {
+        Arrays.fill(head, NONE);
+        Arrays.fill(tail, NONE);
+        Arrays.fill(slot, NONE);
+        tick = 0L;
+    }
+
+    /**
+     * Save the tick and when each timer is due to a snapshot. Only what the timers are waiting for is saved, not the
+     * order they wait in their slots, so two wheels with the same timers pending save the same bytes however they got
+     * there.
+     *
+     * @param snapshot
+     */
+    void save(WorldSnapshot snapshot)
+    {
+        snapshot.putInt(count);
+        snapshot.putLong(tick);
+        for (int timer = 0; timer < count; timer++)
+            snapshot.putLong(slot[timer] == NONE ? NONE : deadline[timer]);
+    }
+
+    /**
+     * Restore the tick and when each timer is due from a snapshot, placing the pending timers back in their slots in
+     * order of index. Timers due at the same tick may then fire in a different order than they would have without the
+     * snapshot, so listeners mustn't depend on the order.
+     *
+     * @param snapshot
+     */
+    void restore(WorldSnapshot snapshot)
+    {
+        final int timers = snapshot.getInt();
+        if (timers != count)
+            throw new IllegalArgumentException("The snapshot has " + timers + " timers, the world has " + count);
+
+        Arrays.fill(head, NONE);
+        Arrays.fill(tail, NONE);
+        tick = snapshot.getLong();
+        for (int timer = 0; timer < count; timer++)
+        {
+            final long due = snapshot.getLong();
+            if (due == NONE)
+            {
+                slot[timer] = NONE;
+            }
+            else
+            {
+                deadline[timer] = due;
+                link(timer);
+            }
+        }
+    }
+
+    /**
+     * Get the latest tick advanced to, which is the tick being run while the world updates
+     *
+     * @return tick
+     */
+    public long getTick()
+    {
+        return tick;
+    }
+
+    /**
+     * Schedule a timer to fire at the specified tick, replacing when it was due if it was already scheduled. A timer due
+     * by the current tick fires at the next one.
+     *
+     * @param timer
+     * @param due
+     *            the tick to fire at
+     */
+    public void schedule(int timer, long due)
+    {
+        if (slot[timer] != NONE)
+            unlink(timer);
+        deadline[timer] = Math.max(due, tick + 1L);
+        link(timer);
+    }
+
+    /**
+     * Cancel a timer, if it is scheduled
+     *
+     * @param timer
+     */
+    public void cancel(int timer)
+    {
+        if (slot[timer] != NONE)
+            unlink(timer);
+    }
+
+    /**
+     * Whether a timer is scheduled and hasn't fired yet
+     *
+     * @param timer
+     * @return pending
+     */
+    public boolean isPending(int timer)
+    {
+        return slot[timer] != NONE;
+    }
+
+    /**
+     * Get the tick a timer is due at, which is only meaningful while it is pending
+     *
+     * @param timer
+     * @return tick
+     */
+    public long getDeadline(int timer)
+    {
+        return deadline[timer];
+    }
+
+    /**
+     * Get the number of ticks until a timer fires
+     *
+     * @param timer
+     * @return ticks, or 0 if it isn't pending
+     */
+    public int getRemaining(int timer)
+    {
+        return slot[timer] == NONE ? 0 : (int) Math.min(Integer.MAX_VALUE, deadline[timer] - tick);
+    }
+
+    /**
+     * Advance to the next tick and fire every timer due at it
+     */
+    public void advance()
+    {
+        tick++;
+
+        // Each time a ring comes back around to its first slot, drop the timers in the next level's current slot down
+        for (int level = 1; level < LEVELS && ((tick >>> (SLOT_BITS * (level - 1))) & SLOT_MASK) == 0; level++)
+            cascade(level * SLOTS + (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK));
+
+        final int due = (int) (tick & SLOT_MASK);
+        int timer;
+        while ((timer = head[due]) != NONE)
+        {
+            unlink(timer);
+            final int b = block[timer];
+            listeners[b].expired(timer - blockStart[b]);
+        }
+    }
+
+    /**
+     * Take every timer out of a slot and place it again for how far off it is now
+     *
+     * @param index
+     *            slot index
+     */
+    private void cascade(int index)
+    {
+        int timer = head[index];
+        head[index] = NONE;
+        tail[index] = NONE;
+        while (timer != NONE)
+        {
+            final int following = next[timer];
+            link(timer);
+            timer = following;
+        }
+    }
+
+    /**
+     * Add a timer to the end of the slot for its deadline
+     *
+     * @param timer
+     */
+    private void link(int timer)
+    {
+        final long delta = deadline[timer] - tick;
+        int index;
+        if (delta >= SPAN)
+        {
+            // Wait in the top level slot that comes around last, then be placed again
+            index = (LEVELS - 1) * SLOTS + (int) (((tick + SPAN - 1L) >>> (SLOT_BITS * (LEVELS - 1))) & SLOT_MASK);
+        }
+        else
+        {
+            int level = 0;
+            while (delta >= 1L << (SLOT_BITS * (level + 1)))
+                level++;
+            index = level * SLOTS + (int) ((deadline[timer] >>> (SLOT_BITS * level)) & SLOT_MASK);
+        }
+
+        slot[timer] = index;
+        next[timer] = NONE;
+        prev[timer] = tail[index];
+        if (tail[index] == NONE)
+            head[index] = timer;
+        else
+            next[tail[index]] = timer;
+        tail[index] = timer;
+    }
+
+    /**
+     * Take a timer out of its slot
+     *
+     * @param timer
+     */
+    private void unlink(int timer)
+    {
+        final int index = slot[timer];
+        if (prev[timer] == NONE)
+            head[index] = next[timer];
+        else
+            next[prev[timer]] = next[timer];
+        if (next[timer] == NONE)
+            tail[index] = prev[timer];
+        else
+            prev[next[timer]] = prev[timer];
+        slot[timer] = NONE;
+    }
+}
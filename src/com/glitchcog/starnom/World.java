@@ -0,0 +1,777 @@
+package com.glitchcog.starnom;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import com.glitchcog.starnom.agent.Guy;
+import com.glitchcog.starnom.agent.Star;
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.collision.Broadphase;
+import com.glitchcog.starnom.collision.BroadphaseType;
+import com.glitchcog.starnom.collision.CollisionMode;
+import com.glitchcog.starnom.collision.SweptCollision;
+import com.glitchcog.starnom.input.InputRecording;
+import com.glitchcog.starnom.input.MouseInput;
+import com.glitchcog.starnom.physics.StarMotion;
+import com.glitchcog.starnom.physics.Timestep;
+import com.glitchcog.starnom.physics.Vector;
+import com.glitchcog.starnom.profile.Phase;
+import com.glitchcog.starnom.profile.Profiler;
+import com.glitchcog.starnom.random.SplitMix64;
+import com.glitchcog.starnom.telemetry.TelemetryWriter;
+
+/**
+ * The game logic for StarNom, kept free of any display so it can be ticked by the Swing game or headlessly
+ *
+ * @author Matt Yanos
+ */
+public class World
+{
+    /**
+     * Coefficient of friction for the guy when he bounces
+     */
+    public static final float FRICTION = 5.0f;
+
+    /**
+     * Gravitational coefficient that pulls everything downward
+     */
+    public static final float GRAVITY = 3.0f;
+
+    /**
+     * The number of stars to keep in play by default
+     */
+    public static final int STAR_BATCH_SIZE = 16;
+
+    /**
+     * The number of base ticks to wait before the guy speaks the instructions when the game begins
+     */
+    private static final int START_TIMER_MAX = 90;
+
+    /**
+     * Keep score, per player
+     */
+    private final int[] points;
+
+    /**
+     * Fires the timers of everything in the world at the ticks they are due
+     */
+    private final TimerWheel timers = new TimerWheel();
+
+    /**
+     * The timer for a small delay before the guys speak the instructions at the start of the game
+     */
+    private final int startTimer;
+
+    /**
+     * The guys who nom the stars, one per player
+     */
+    private final Guy[] guys;
+
+    /**
+     * The stars that the guys nom
+     */
+    private StarField stars;
+
+    /**
+     * Narrows down which stars need to be checked for collisions with the guy
+     */
+    private Broadphase broadphase;
+
+    /**
+     * Indices of the stars the broadphase finds near the guy
+     */
+    private int[] candidates;
+
+    /**
+     * How the guy is tested against the stars
+     */
+    private CollisionMode collisionMode = CollisionMode.DISCRETE;
+
+    /**
+     * Handle each player's input via a MouseAdapter
+     */
+    private final MouseInput[] inputs;
+
+    /**
+     * Logs the input that steers the game so the session can be replayed, or null to not record it
+     */
+    private InputRecording recording;
+
+    /**
+     * Records every tick for analysis offline, or null to not record them
+     */
+    private TelemetryWriter telemetry;
+
+    /**
+     * Times the phases of each tick, and of each frame the world is painted in
+     */
+    private final Profiler profiler;
+
+    /**
+     * The width of the play area the agents are bounded by
+     */
+    private int width;
+
+    /**
+     * The height of the play area the agents are bounded by
+     */
+    private int height;
+
+    /**
+     * The seed every random stream in the world is split from, so a run can be reproduced exactly from it
+     */
+    private long seed;
+
+    /**
+     * The number of ticks run since the last reset
+     */
+    private long tick;
+
+    /**
+     * The length of a tick in base ticks, see {@link Timestep}
+     */
+    private float dt = 1.0f;
+
+    /**
+     * Construct a world bounded by the default screen size, with an arbitrary seed
+     */
+    public World()
+    {
+        this(StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT, STAR_BATCH_SIZE);
+    }
+
+    /**
+     * Construct a world bounded by the specified play area size, with an arbitrary seed
+     *
+     * @param width
+     * @param height
+     * @param starCount
+     *            the number of stars to keep in play
+     */
+    public World(int width, int height, int starCount)
+    {
+        this(width, height, starCount, SplitMix64.mix64(System.nanoTime()));
+    }
+
+    /**
+     * Construct a world bounded by the specified play area size
+     *
+     * @param width
+     * @param height
+     * @param starCount
+     *            the number of stars to keep in play
+     * @param seed
+     *            the seed every random stream in the world is split from
+     */
+    public World(int width, int height, int starCount, long seed)
+    {
+        this(width, height, starCount, starCount, seed);
+    }
+
+    /**
+     * Construct a world bounded by the specified play area size, with room for the star population to grow
+     *
+     * @param width
+     * @param height
+     * @param starCount
+     *            the number of stars to keep in play
+     * @param starCapacity
+     *            the most stars the population can grow to, all allocated up front
+     * @param seed
+     *            the seed every random stream in the world is split from
+     */
+    public World(int width, int height, int starCount, int starCapacity, long seed)
+    {
+        this(width, height, starCount, starCapacity, seed, 1);
+    }
+
+    /**
+     * Construct a world bounded by the specified play area size, with room for the star population to grow, where each
+     * of the specified number of players throws their own guy after the same stars
+     *
+     * @param width
+     * @param height
+     * @param starCount
+     *            the number of stars to keep in play
+     * @param starCapacity
+     *            the most stars the population can grow to, all allocated up front
+     * @param seed
+     *            the seed every random stream in the world is split from
+     * @param players
+     *            the number of players
+     */
+    public World(int width, int height, int starCount, int starCapacity, long seed, int players)
+    {
+        this(width, height, starCount, starCapacity, seed, players, new Profiler());
+    }
+
+    /**
+     * Construct a world to hold copies of the specified world restored from snapshots of it, so it can be drawn on
+     * another thread while the original carries on ticking. The copy has the same size, players and star capacity, and
+     * shares the original's profiler, so the frames it is drawn in are timed alongside the original's ticks.
+     *
+     * @param original
+     */
+    World(World original)
+    {
+        this(original.width, original.height, original.stars.getPopulation(), original.stars.getCapacity(), original.seed, original.guys.length, original.profiler);
+    }
+
+    private World(int width, int height, int starCount, int starCapacity, long seed, int players, Profiler profiler)
+    {
+        if (players < 1)
+            throw new IllegalArgumentException("A world needs at least 1 player: " + players);
+
+        this.width = width;
+        this.height = height;
+        this.seed = seed;
+        this.profiler = profiler;
+
+        guys = new Guy[players];
+        inputs = new MouseInput[players];
+        points = new int[players];
+        initializeAgents(starCount, starCapacity);
+
+        startTimer = timers.register(1, new TimerWheel.Listener()
+        {
+            @Override
+            public void expired(int timer)
+            {
+                for (Guy guy : guys)
+                {
+                    guy.lookUp();
+                    guy.talk(Guy.INSTRUCTIONS);
+                }
+            }
+        });
+
+        setBroadphase(BroadphaseType.BRUTE);
+
+        for (int p = 0; p < players; p++)
+            inputs[p] = new MouseInput(guys[p]);
+    }
+
+    /**
+     * Construct the agents to set up the game. The other players' guys come after the stars, so a single player world
+     * registers its timers just as it always has.
+     */
+    private void initializeAgents(int starCount, int starCapacity)
+    {
+        guys[0] = new Guy(width, height, timers);
+
+        stars = new StarField(starCount, starCapacity, width, height, seed, timers);
+        candidates = new int[starCapacity];
+
+        for (int p = 1; p < guys.length; p++)
+            guys[p] = new Guy(width, height, timers);
+    }
+
+    /**
+     * Reset the game to its initial state
+     */
+    public void reset()
+    {
+        SplitMix64 root = new SplitMix64(seed);
+        guys[0].seed(root.nextLong());
+        stars.seed(root.nextLong());
+        for (int p = 1; p < guys.length; p++)
+            guys[p].seed(root.nextLong());
+
+        tick = 0;
+        timers.clear();
+        timers.schedule(startTimer, Timestep.ticks(START_TIMER_MAX, dt));
+
+        // Spread the guys evenly across the middle of the screen
+        final int resetWidth = Math.max(width, StarNom.SCREEN_WIDTH);
+        final int resetHeight = Math.max(height, StarNom.SCREEN_HEIGHT);
+        for (int p = 0; p < guys.length; p++)
+        {
+            points[p] = 0;
+            guys[p].resetAt(resetWidth * (p + 1) / (guys.length + 1), resetHeight >> 1);
+        }
+        stars.reset(width, height);
+
+        if (recording != null)
+            recording.begin(seed, dt, collisionMode, stars.getMotion(), stars.getCount(), width, height);
+    }
+
+    /**
+     * Save the state of the world to a snapshot, see {@link WorldSnapshot}
+     *
+     * @param snapshot
+     */
+    void save(WorldSnapshot snapshot)
+    {
+        snapshot.putLong(seed);
+        snapshot.putLong(tick);
+        snapshot.putInt(guys.length);
+        for (int p = 0; p < guys.length; p++)
+            snapshot.putInt(points[p]);
+        snapshot.putInt(width);
+        snapshot.putInt(height);
+        snapshot.putFloat(dt);
+        timers.save(snapshot);
+        for (int p = 0; p < guys.length; p++)
+        {
+            guys[p].save(snapshot);
+            inputs[p].save(snapshot);
+        }
+        stars.save(snapshot);
+    }
+
+    /**
+     * Restore the state of the world from a snapshot, see {@link WorldSnapshot}. A recording in progress isn't told, so
+     * it should be stopped first.
+     *
+     * @param snapshot
+     */
+    void restore(WorldSnapshot snapshot)
+    {
+        seed = snapshot.getLong();
+        tick = snapshot.getLong();
+        final int players = snapshot.getInt();
+        if (players != guys.length)
+            throw new IllegalArgumentException("The snapshot has " + players + " players, the world has " + guys.length);
+        for (int p = 0; p < players; p++)
+            points[p] = snapshot.getInt();
+        width = snapshot.getInt();
+        height = snapshot.getInt();
+        setTimestep(snapshot.getFloat());
+        timers.restore(snapshot);
+        for (int p = 0; p < players; p++)
+        {
+            guys[p].restore(snapshot);
+            inputs[p].restore(snapshot);
+        }
+        stars.restore(snapshot);
+    }
+
+    /**
+     * Set the seed every random stream in the world is split from, which takes effect at the next reset
+     *
+     * @param seed
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Set the size of the play area, typically to follow the size of the window the game is displayed in
+     *
+     * @param width
+     * @param height
+     */
+    public void setBounds(int width, int height)
+    {
+        if (recording != null && (width != this.width || height != this.height))
+            recording.bounds(tick, width, height);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Set the number of stars to keep in play, up to the capacity the world was constructed with. New stars launch after
+     * a random delay, and surplus stars leave play once they fly off or are eaten.
+     *
+     * @param population
+     */
+    public void setStarPopulation(int population)
+    {
+        if (recording != null && population != stars.getPopulation())
+            recording.stars(tick, population);
+        stars.setPopulation(population, width, height);
+    }
+
+    /**
+     * Record the input that steers the game from the next reset on, so that the session can be replayed exactly. Only a
+     * single player's input can be recorded.
+     *
+     * @param recording
+     *            the recording to log to, or null to stop recording
+     * @throws IllegalStateException
+     *             if the world has more than one player
+     */
+    public void setRecording(InputRecording recording)
+    {
+        if (recording != null && guys.length > 1)
+            throw new IllegalStateException("Only single player worlds can be recorded, this one has " + guys.length + " players");
+        this.recording = recording;
+        inputs[0].setRecording(recording);
+    }
+
+    /**
+     * Record every tick from the next one on to the specified telemetry
+     *
+     * @param telemetry
+     *            the telemetry to record to, with room for at least as many stars as the world, or null to stop
+     *            recording
+     */
+    public void setTelemetry(TelemetryWriter telemetry)
+    {
+        if (telemetry != null && telemetry.getStarCapacity() < stars.getCapacity())
+            throw new IllegalArgumentException("Telemetry has room for " + telemetry.getStarCapacity() + " stars, the world has room for " + stars.getCapacity());
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * Set the length of a tick, which scales the motion and timers of everything in the world so that the game plays the
+     * same at any tick rate
+     *
+     * @param dt
+     *            the length of a tick in base ticks, see {@link Timestep}
+     */
+    public void setTimestep(float dt)
+    {
+        this.dt = dt;
+        for (int p = 0; p < guys.length; p++)
+        {
+            guys[p].setTimestep(dt);
+            inputs[p].setTimestep(dt);
+        }
+        stars.setTimestep(dt);
+    }
+
+    /**
+     * Update the stars in parallel on the specified pool, or serially if the pool is null. Either way the game plays out
+     * the same.
+     *
+     * @param pool
+     * @param parallelThreshold
+     *            the most stars to update as a single task
+     */
+    public void setParallelism(ForkJoinPool pool, int parallelThreshold)
+    {
+        stars.setParallelism(pool, parallelThreshold);
+    }
+
+    /**
+     * Set the broadphase strategy used to find the stars near the guy. Every strategy finds the same collisions.
+     *
+     * @param type
+     */
+    public void setBroadphase(BroadphaseType type)
+    {
+        broadphase = type.create();
+    }
+
+    /**
+     * Set how the guy is tested against the stars. Swept collisions catch the stars the guy passes through within a tick,
+     * so the game can run at a lower tick rate without missing any. A recording notes the mode in effect when it began,
+     * so the mode should be set before the world is reset.
+     *
+     * @param mode
+     */
+    public void setCollisionMode(CollisionMode mode)
+    {
+        collisionMode = mode;
+    }
+
+    public CollisionMode getCollisionMode()
+    {
+        return collisionMode;
+    }
+
+    /**
+     * Set how the stars are moved, which takes effect at the next reset. Closed form motion only works out where the
+     * stars are when they are tested against the guy or drawn, and respawns each star at the tick it was worked out to
+     * fly off, so a tick costs next to nothing per star.
+     *
+     * @param motion
+     */
+    public void setStarMotion(StarMotion motion)
+    {
+        stars.setMotion(motion);
+    }
+
+    public StarMotion getStarMotion()
+    {
+        return stars.getMotion();
+    }
+
+    /**
+     * Game update logic, to be run once per update loop cycle
+     */
+    public void update()
+    {
+        long phaseStart = profiler.begin(Phase.TIMERS, tick);
+        timers.advance();
+        profiler.end(Phase.TIMERS, phaseStart);
+
+        // Swept collisions test the motion of the latest tick, so they run before it is forgotten
+        if (collisionMode == CollisionMode.SWEPT)
+        {
+            phaseStart = profiler.begin(Phase.COLLISION, tick);
+            for (int turn = 0; turn < guys.length; turn++)
+            {
+                final int p = player(turn);
+                if (eatStars(p, findSweptStarCollisions(p)))
+                    guys[p].eat();
+            }
+            profiler.end(Phase.COLLISION, phaseStart);
+        }
+
+        for (int p = 0; p < guys.length; p++)
+            guys[p].savePosition();
+        stars.savePositions();
+
+        phaseStart = profiler.begin(Phase.INPUT, tick);
+        for (int p = 0; p < guys.length; p++)
+            inputs[p].update(tick);
+        profiler.end(Phase.INPUT, phaseStart);
+
+        if (collisionMode == CollisionMode.DISCRETE)
+        {
+            phaseStart = profiler.begin(Phase.COLLISION, tick);
+            for (int turn = 0; turn < guys.length; turn++)
+            {
+                final int p = player(turn);
+                if (eatStars(p, findStarCollisions(p)))
+                    guys[p].eat();
+            }
+            profiler.end(Phase.COLLISION, phaseStart);
+        }
+
+        phaseStart = profiler.begin(Phase.GUY_UPDATE, tick);
+        for (int p = 0; p < guys.length; p++)
+            guys[p].update(width, height);
+        profiler.end(Phase.GUY_UPDATE, phaseStart);
+
+        phaseStart = profiler.begin(Phase.STAR_UPDATE, tick);
+        stars.update(width, height);
+        profiler.end(Phase.STAR_UPDATE, phaseStart);
+
+        if (telemetry != null)
+        {
+            phaseStart = profiler.begin(Phase.TELEMETRY, tick);
+            telemetry.record(this);
+            profiler.end(Phase.TELEMETRY, phaseStart);
+        }
+
+        profiler.countTick();
+        tick++;
+    }
+
+    /**
+     * Get the player whose turn it is to test their guy against the stars. The first turn passes from player to player
+     * each tick, so no player always gets to a star both guys reach in the same tick first.
+     *
+     * @param turn
+     * @return player
+     */
+    private int player(int turn)
+    {
+        return (int) ((tick + turn) % guys.length);
+    }
+
+    /**
+     * Count the stars a player's guy is touching, the same way a tick finds the stars for him to eat with the current
+     * broadphase and collision mode, but without eating them. This leaves the world as it was, so the collision checks
+     * can be measured on their own.
+     *
+     * @param player
+     * @return the number of stars touching the guy
+     */
+    public int countStarCollisions(int player)
+    {
+        return collisionMode == CollisionMode.SWEPT ? findSweptStarCollisions(player) : findStarCollisions(player);
+    }
+
+    /**
+     * Find the stars a player's guy has collided with, indicating that the guy should eat them, and gather them at the
+     * start of the candidates
+     *
+     * @param player
+     * @return the number of stars found
+     */
+    private int findStarCollisions(int player)
+    {
+        final Guy guy = guys[player];
+        final Vector guyPos = guy.mo.pos;
+        final float[] posX = stars.posX;
+        final float[] posY = stars.posY;
+        final int[] size = stars.size;
+        stars.evaluate(false);
+        final int guySizeSqrd = guy.getSize() * guy.getSize();
+
+        broadphase.build(stars);
+        final int found = broadphase.query(guyPos.x, guyPos.y, guy.getSize() + Star.MAX_SIZE, candidates);
+
+        float dx;
+        float dy;
+        int i;
+        int hits = 0;
+        for (int c = 0; c < found; c++)
+        {
+            i = candidates[c];
+            dx = posX[i] - guyPos.x;
+            dy = posY[i] - guyPos.y;
+            if (dx * dx + dy * dy < guySizeSqrd + size[i] * size[i])
+                candidates[hits++] = i;
+        }
+        return hits;
+    }
+
+    /**
+     * Find the stars a player's guy collided with at any time during the latest tick, indicating that the guy should eat
+     * them, and gather them at the start of the candidates. The broadphase looks for stars that ended the tick close
+     * enough to the box around the guy's path that they could have touched him on the way.
+     *
+     * @param player
+     * @return the number of stars found
+     */
+    private int findSweptStarCollisions(int player)
+    {
+        final Guy guy = guys[player];
+        final int[] size = stars.size;
+        stars.evaluate(true);
+        final int guySizeSqrd = guy.getSize() * guy.getSize();
+
+        float minX = guy.getPathX(0);
+        float maxX = minX;
+        float minY = guy.getPathY(0);
+        float maxY = minY;
+        for (int p = 1; p < guy.getPathCount(); p++)
+        {
+            minX = Math.min(minX, guy.getPathX(p));
+            maxX = Math.max(maxX, guy.getPathX(p));
+            minY = Math.min(minY, guy.getPathY(p));
+            maxY = Math.max(maxY, guy.getPathY(p));
+        }
+
+        stars.measureSteps();
+        final float reachX = guy.getSize() + Star.MAX_SIZE + stars.getMaxStepX();
+        final float reachY = guy.getSize() + Star.MAX_SIZE + stars.getMaxStepY();
+
+        broadphase.build(stars);
+        final int found = broadphase.queryBox(minX - reachX, minY - reachY, maxX + reachX, maxY + reachY, candidates);
+
+        int i;
+        int hits = 0;
+        for (int c = 0; c < found; c++)
+        {
+            i = candidates[c];
+            if (SweptCollision.touched(guy, stars, i, guySizeSqrd + size[i] * size[i]))
+                candidates[hits++] = i;
+        }
+        return hits;
+    }
+
+    /**
+     * Have a player's guy eat the stars gathered at the start of the candidates. They are eaten in order of index, as
+     * which of them are respawned and which are retired while the population is shrinking depends on the order, and
+     * each broadphase gathers them in its own order.
+     *
+     * @param player
+     * @param hits
+     *            the number of stars to eat
+     * @return whether any were eaten
+     */
+    private boolean eatStars(int player, int hits)
+    {
+        if (hits > 1)
+            Arrays.sort(candidates, 0, hits);
+
+        final int[] size = stars.size;
+        int i;
+        for (int h = 0; h < hits; h++)
+        {
+            i = candidates[h];
+            if (telemetry != null)
+                telemetry.eaten(i);
+            points[player] += size[i] * 10 / Star.MAX_SIZE;
+            stars.retire(i, width, height);
+        }
+        return hits > 0;
+    }
+
+    /**
+     * Get the first player's guy
+     *
+     * @return guy
+     */
+    public Guy getGuy()
+    {
+        return guys[0];
+    }
+
+    public Guy getGuy(int player)
+    {
+        return guys[player];
+    }
+
+    public int getPlayers()
+    {
+        return guys.length;
+    }
+
+    public StarField getStars()
+    {
+        return stars;
+    }
+
+    public TimerWheel getTimers()
+    {
+        return timers;
+    }
+
+    /**
+     * Get the first player's input
+     *
+     * @return input
+     */
+    public MouseInput getInput()
+    {
+        return inputs[0];
+    }
+
+    public MouseInput getInput(int player)
+    {
+        return inputs[player];
+    }
+
+    public InputRecording getRecording()
+    {
+        return recording;
+    }
+
+    public TelemetryWriter getTelemetry()
+    {
+        return telemetry;
+    }
+
+    public Profiler getProfiler()
+    {
+        return profiler;
+    }
+
+    /**
+     * Get the first player's score
+     *
+     * @return points
+     */
+    public int getPoints()
+    {
+        return points[0];
+    }
+
+    public int getPoints(int player)
+    {
+        return points[player];
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public long getTick()
+    {
+        return tick;
+    }
+
+    public float getTimestep()
+    {
+        return dt;
+    }
+}
@@ -0,0 +1,462 @@
+package com.glitchcog.starnom;
+
+import java.awt.BasicStroke;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+
+import com.glitchcog.starnom.agent.Guy;
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.agent.StarSprites;
+import com.glitchcog.starnom.physics.Timestep;
+import com.glitchcog.starnom.profile.Phase;
+import com.glitchcog.starnom.profile.Profiler;
+import com.glitchcog.starnom.profile.ProfilerOverlay;
+
+/**
+ * The render logic for StarNom, which draws a {@link World} onto any Graphics2D, whether it belongs to a Swing component
+ * being painted or to a back buffer being rendered actively. A back buffer that keeps its contents between frames can
+ * be rendered with {@link #renderDirty(Graphics2D, int, int, float)}, which only redraws the parts of the frame that
+ * changed.
+ * <p>
+ * Each frame is composited from three layers: the background, which is cached until the area changes size, the guy and
+ * the stars, which are drawn every frame, and the score and speech bubble over them, which are cached until they
+ * change.
+ *
+ * @author Matt Yanos
+ */
+public class WorldRenderer
+{
+    /**
+     * For the guy's speech bubble
+     */
+    private static final Font FONT = new Font(Font.SANS_SERIF, Font.BOLD, 16);
+
+    /**
+     * The stroke to use to draw lines
+     */
+    protected static final Stroke STROKE = new BasicStroke(StarNom.STROKE_SIZE, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+
+    /**
+     * The default number of sub-pixel offsets along each axis to pre-render the star sprites at
+     */
+    public static final int STAR_SUBPIXEL_STEPS = 2;
+
+    /**
+     * The world to render
+     */
+    private final World world;
+
+    /**
+     * Pre-rendered stars to blit, or null to draw each star's polygon
+     */
+    private final StarSprites starSprites;
+
+    /**
+     * The sky and the border
+     */
+    private final BackgroundLayer background = new BackgroundLayer();
+
+    /**
+     * The score and the speech bubble
+     */
+    private final HudLayer hud = new HudLayer();
+
+    /**
+     * Draws the profiler's overlay when it is shown
+     */
+    private final ProfilerOverlay overlay = new ProfilerOverlay();
+
+    /**
+     * The bounds of everything drawn in the latest frame rendered with {@link #renderDirty(Graphics2D, int, int, float)}
+     */
+    private DirtyRegion drawnBounds = new DirtyRegion();
+
+    /**
+     * The bounds of everything being drawn in the frame being rendered
+     */
+    private DirtyRegion frameBounds = new DirtyRegion();
+
+    /**
+     * The parts of the frame being rendered that need redrawing
+     */
+    private final DirtyRegion dirty = new DirtyRegion();
+
+    /**
+     * Whether the back buffer no longer holds the latest frame, so the next frame must be redrawn in full
+     */
+    private boolean invalid = true;
+
+    /**
+     * The width of the latest frame rendered with {@link #renderDirty(Graphics2D, int, int, float)}
+     */
+    private int drawnWidth;
+
+    /**
+     * The height of the latest frame rendered with {@link #renderDirty(Graphics2D, int, int, float)}
+     */
+    private int drawnHeight;
+
+    /**
+     * The score shown in the latest frame rendered with {@link #renderDirty(Graphics2D, int, int, float)}
+     */
+    private int drawnPoints;
+
+    /**
+     * The bounds of the score shown in the latest frame rendered with {@link #renderDirty(Graphics2D, int, int, float)}
+     */
+    private final Rectangle drawnScoreBounds = new Rectangle();
+
+    /**
+     * Whether the profiler's overlay was shown in the latest frame rendered with
+     * {@link #renderDirty(Graphics2D, int, int, float)}
+     */
+    private boolean drawnOverlay;
+
+    /**
+     * The bounds of the guy in the frame being rendered
+     */
+    private final Rectangle guyBounds = new Rectangle();
+
+    /**
+     * The bounds of the speech bubble in the frame being rendered, while the guy is talking
+     */
+    private final Rectangle speechBounds = new Rectangle();
+
+    /**
+     * The bounds of the profiler's overlay
+     */
+    private final Rectangle overlayBounds = new Rectangle();
+
+    /**
+     * Construct a renderer for the specified world that blits pre-rendered stars
+     *
+     * @param world
+     */
+    public WorldRenderer(World world)
+    {
+        this(world, new StarSprites(STAR_SUBPIXEL_STEPS));
+    }
+
+    /**
+     * Construct a renderer for the specified world
+     *
+     * @param world
+     * @param starSprites
+     *            pre-rendered stars to blit, or null to draw each star's polygon
+     */
+    public WorldRenderer(World world, StarSprites starSprites)
+    {
+        this.world = world;
+        this.starSprites = starSprites;
+    }
+
+    public World getWorld()
+    {
+        return world;
+    }
+
+    /**
+     * Set the fraction of the area above which {@link #renderDirty(Graphics2D, int, int, float)} gives up on redrawing
+     * just the dirty parts and redraws the whole frame
+     *
+     * @param threshold
+     *            0 to always redraw the whole frame, up to 1
+     */
+    public void setFullRedrawThreshold(float threshold)
+    {
+        dirty.setThreshold(threshold);
+    }
+
+    /**
+     * Redraw the whole of the next frame rendered with {@link #renderDirty(Graphics2D, int, int, float)}, to be called
+     * when the back buffer's contents are lost
+     */
+    public void invalidate()
+    {
+        invalid = true;
+    }
+
+    /**
+     * Render the world the specified fraction of the way from the previous tick to the current one, timing each phase
+     * with the world's profiler and drawing the profiler's overlay on top when it is shown. The world should be locked
+     * while it is rendered.
+     *
+     * @param g2d
+     * @param width
+     *            the width of the area to render
+     * @param height
+     *            the height of the area to render
+     * @param alpha
+     */
+    public void render(Graphics2D g2d, int width, int height, float alpha)
+    {
+        world.getStars().evaluate(true);
+        renderFull(g2d, width, height, alpha);
+
+        // Whatever g2d belongs to, it isn't known to hold this frame for the next dirty one
+        invalid = true;
+    }
+
+    /**
+     * Render the world onto a back buffer that still holds the latest frame rendered with this method, redrawing only the
+     * parts where something was drawn in the latest frame or is drawn in this one. The whole frame is redrawn when the
+     * buffer was invalidated, the area changed size or the dirty parts cover too much of it. The world should be locked
+     * while it is rendered.
+     *
+     * @param g2d
+     * @param width
+     *            the width of the area to render
+     * @param height
+     *            the height of the area to render
+     * @param alpha
+     * @return the parts of the area that were redrawn, which stay valid until the next frame is rendered
+     */
+    public DirtyRegion renderDirty(Graphics2D g2d, int width, int height, float alpha)
+    {
+        world.getStars().evaluate(true);
+
+        // Set up before laying out any text, as antialiasing changes the font render context
+        g2d.setFont(FONT);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        hud.validate(g2d, world);
+
+        frameBounds.clear(width, height);
+        collectBounds(g2d, frameBounds, width, height, alpha);
+
+        dirty.clear(width, height);
+        final boolean overlayVisible = world.getProfiler().isOverlayVisible();
+        if (background.validate(g2d, width, height) || invalid || width != drawnWidth || height != drawnHeight || overlayVisible != drawnOverlay)
+        {
+            dirty.markFull();
+        }
+        else
+        {
+            dirty.add(drawnBounds);
+            dirty.add(frameBounds);
+            if (world.getPoints() != drawnPoints)
+            {
+                final Rectangle scoreBounds = hud.getScoreBounds();
+                dirty.add(drawnScoreBounds.x, drawnScoreBounds.y, drawnScoreBounds.width, drawnScoreBounds.height);
+                dirty.add(scoreBounds.x, scoreBounds.y, scoreBounds.width, scoreBounds.height);
+            }
+        }
+
+        if (dirty.isFull())
+            renderFull(g2d, width, height, alpha);
+        else
+            renderRegion(g2d, width, height, alpha, dirty);
+
+        final DirtyRegion swap = drawnBounds;
+        drawnBounds = frameBounds;
+        frameBounds = swap;
+        drawnWidth = width;
+        drawnHeight = height;
+        drawnPoints = world.getPoints();
+        drawnScoreBounds.setBounds(hud.getScoreBounds());
+        drawnOverlay = overlayVisible;
+        invalid = false;
+
+        return dirty;
+    }
+
+    /**
+     * Render the whole frame
+     *
+     * @param g2d
+     * @param width
+     * @param height
+     * @param alpha
+     */
+    private void renderFull(Graphics2D g2d, int width, int height, float alpha)
+    {
+        final Profiler profiler = world.getProfiler();
+        final long tick = world.getTick();
+
+        // Set up before laying out any text, as antialiasing changes the font render context
+        g2d.setFont(FONT);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        long phaseStart = profiler.begin(Phase.BACKGROUND, tick);
+        background.validate(g2d, width, height);
+        background.draw(g2d);
+        profiler.end(Phase.BACKGROUND, phaseStart);
+
+        g2d.setStroke(STROKE);
+
+        phaseStart = profiler.begin(Phase.GUY_DRAW, tick);
+        final Guy guy = world.getGuy();
+        guy.drawBody(g2d, alpha);
+        profiler.end(Phase.GUY_DRAW, phaseStart);
+
+        phaseStart = profiler.begin(Phase.STAR_DRAW, tick);
+        if (starSprites != null)
+            starSprites.draw(g2d, world.getStars(), alpha);
+        else
+            world.getStars().draw(g2d, alpha);
+        profiler.end(Phase.STAR_DRAW, phaseStart);
+
+        phaseStart = profiler.begin(Phase.HUD, tick);
+        hud.validate(g2d, world);
+        if (guy.isTalking())
+            hud.drawSpeech(g2d, guy.renderX(alpha), guy.renderY(alpha));
+        hud.drawScore(g2d);
+        profiler.end(Phase.HUD, phaseStart);
+
+        if (profiler.isOverlayVisible())
+            overlay.draw(g2d, profiler, Timestep.BASE_TICK_RATE / world.getTimestep(), width);
+    }
+
+    /**
+     * Render only the specified parts of the frame. The parts don't overlap, so each layer can be drawn into every part
+     * before moving on to the next layer.
+     *
+     * @param g2d
+     * @param width
+     * @param height
+     * @param alpha
+     * @param region
+     */
+    private void renderRegion(Graphics2D g2d, int width, int height, float alpha, DirtyRegion region)
+    {
+        final Profiler profiler = world.getProfiler();
+        final long tick = world.getTick();
+        final int count = region.getCount();
+
+        long phaseStart = profiler.begin(Phase.BACKGROUND, tick);
+        for (int r = 0; r < count; r++)
+            background.draw(g2d, region.getX(r), region.getY(r), region.getWidth(r), region.getHeight(r));
+        profiler.end(Phase.BACKGROUND, phaseStart);
+
+        g2d.setStroke(STROKE);
+
+        phaseStart = profiler.begin(Phase.GUY_DRAW, tick);
+        final Guy guy = world.getGuy();
+        for (int r = 0; r < count; r++)
+        {
+            if (!region.intersects(r, guyBounds.x, guyBounds.y, guyBounds.x + guyBounds.width, guyBounds.y + guyBounds.height))
+                continue;
+            clip(g2d, region, r);
+            guy.drawBody(g2d, alpha);
+        }
+        profiler.end(Phase.GUY_DRAW, phaseStart);
+
+        phaseStart = profiler.begin(Phase.STAR_DRAW, tick);
+        final StarField stars = world.getStars();
+        final float[] posX = stars.posX;
+        final float[] posY = stars.posY;
+        final float[] prevX = stars.prevX;
+        final float[] prevY = stars.prevY;
+        for (int r = 0; r < count; r++)
+        {
+            clip(g2d, region, r);
+            for (int i = 0; i < stars.getCount(); i++)
+            {
+                final float x = prevX[i] + (posX[i] - prevX[i]) * alpha;
+                final float y = prevY[i] + (posY[i] - prevY[i]) * alpha;
+                final int reach = starReach(stars.size[i]);
+                if (!region.intersects(r, x - reach, y - reach, x + reach + 1, y + reach + 1))
+                    continue;
+                if (starSprites != null)
+                    starSprites.draw(g2d, x, y, stars.size[i], stars.color[i]);
+                else
+                    stars.drawStar(g2d, i, alpha);
+            }
+        }
+        profiler.end(Phase.STAR_DRAW, phaseStart);
+
+        phaseStart = profiler.begin(Phase.HUD, tick);
+        final Rectangle scoreBounds = hud.getScoreBounds();
+        for (int r = 0; r < count; r++)
+        {
+            final boolean speech = guy.isTalking() && region.intersects(r, speechBounds.x, speechBounds.y, speechBounds.x + speechBounds.width, speechBounds.y + speechBounds.height);
+            final boolean score = region.intersects(r, scoreBounds.x, scoreBounds.y, scoreBounds.x + scoreBounds.width, scoreBounds.y + scoreBounds.height);
+            if (!speech && !score)
+                continue;
+            clip(g2d, region, r);
+            if (speech)
+                hud.drawSpeech(g2d, guy.renderX(alpha), guy.renderY(alpha));
+            if (score)
+                hud.drawScore(g2d);
+        }
+        profiler.end(Phase.HUD, phaseStart);
+
+        if (profiler.isOverlayVisible())
+        {
+            for (int r = 0; r < count; r++)
+            {
+                if (!region.intersects(r, overlayBounds.x, overlayBounds.y, overlayBounds.x + overlayBounds.width, overlayBounds.y + overlayBounds.height))
+                    continue;
+                clip(g2d, region, r);
+                overlay.draw(g2d, profiler, Timestep.BASE_TICK_RATE / world.getTimestep(), width);
+            }
+        }
+
+        g2d.setClip(null);
+    }
+
+    /**
+     * Clip drawing to a part of the region
+     *
+     * @param g2d
+     * @param region
+     * @param r
+     *            the index of the part
+     */
+    private static void clip(Graphics2D g2d, DirtyRegion region, int r)
+    {
+        g2d.setClip(region.getX(r), region.getY(r), region.getWidth(r), region.getHeight(r));
+    }
+
+    /**
+     * Add the bounds of everything drawn in the frame to the specified region
+     *
+     * @param g2d
+     * @param bounds
+     * @param width
+     * @param height
+     * @param alpha
+     */
+    private void collectBounds(Graphics2D g2d, DirtyRegion bounds, int width, int height, float alpha)
+    {
+        final Guy guy = world.getGuy();
+        guy.getDrawBounds(g2d, guy.renderX(alpha), guy.renderY(alpha), guyBounds);
+        bounds.add(guyBounds.x, guyBounds.y, guyBounds.width, guyBounds.height);
+        if (guy.isTalking())
+        {
+            // The speech bubble's image snaps to whole pixels a little differently than the bubble is laid out
+            hud.getSpeechBounds(guy.renderX(alpha), guy.renderY(alpha), speechBounds);
+            bounds.add(speechBounds.x, speechBounds.y, speechBounds.width, speechBounds.height);
+        }
+
+        final StarField stars = world.getStars();
+        final float[] posX = stars.posX;
+        final float[] posY = stars.posY;
+        final float[] prevX = stars.prevX;
+        final float[] prevY = stars.prevY;
+        for (int i = 0; i < stars.getCount(); i++)
+        {
+            final float x = prevX[i] + (posX[i] - prevX[i]) * alpha;
+            final float y = prevY[i] + (posY[i] - prevY[i]) * alpha;
+            final int reach = starReach(stars.size[i]);
+            bounds.add((int) Math.floor(x) - reach, (int) Math.floor(y) - reach, reach * 2 + 2, reach * 2 + 2);
+        }
+
+        overlay.getBounds(width, overlayBounds);
+        if (world.getProfiler().isOverlayVisible())
+            bounds.add(overlayBounds.x, overlayBounds.y, overlayBounds.width, overlayBounds.height);
+    }
+
+    /**
+     * Get how far from its center a star of the specified size can be drawn, counting its outline and antialiasing
+     *
+     * @param size
+     * @return reach
+     */
+    private static int starReach(int size)
+    {
+        return size + size / 10 + 2;
+    }
+}
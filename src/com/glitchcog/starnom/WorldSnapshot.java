@@ -0,0 +1,404 @@
+package com.glitchcog.starnom;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import com.glitchcog.starnom.random.SplitMix64;
+
+/**
+ * Saves the whole state of a world into a buffer and restores it, so a game can be rolled back or searched ahead from
+ * any tick and play out exactly as it did from there the first time. A world restored from a snapshot can be any world
+ * built with the same star capacity and star motion, not just the one the snapshot was taken from.
+ * <p>
+ * A snapshot is bound to the buffer it is constructed with, which a direct buffer from
+ * {@link ByteBuffer#allocateDirect(int)} suits best. The buffer's contents are laid out in a fixed little endian
+ * layout that starts with {@link #MAGIC} and {@link #VERSION}. Each part of the world then writes its state in turn, and
+ * the per star arrays are each copied in one bulk pass through views of the buffer made when the snapshot is constructed,
+ * so saving and restoring never allocate. Configuration such as the world's recording and parallelism isn't part of
+ * the snapshot.
+ *
+ * @author Matt Yanos
+ */
+public class WorldSnapshot
+{
+    /**
+     * The first int of every snapshot, "SNOM" in ASCII
+     */
+    public static final int MAGIC = 0x534e4f4d;
+
+    /**
+     * The version of the layout, to be bumped whenever the state the parts of the world save changes
+     */
+    public static final int VERSION = 3;
+
+    /**
+     * The buffer the snapshot is saved to, or null when only measuring how big a snapshot is
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * The buffer viewed as floats, for copying float arrays in bulk
+     */
+    private final FloatBuffer floats;
+
+    /**
+     * The buffer viewed as ints
+     */
+    private final IntBuffer ints;
+
+    /**
+     * The buffer viewed as longs
+     */
+    private final LongBuffer longs;
+
+    /**
+     * The byte offset of the next value to save or restore
+     */
+    private int position;
+
+    /**
+     * Construct a snapshot that saves to and restores from the specified buffer. Its position, limit and byte order are
+     * left alone.
+     *
+     * @param buffer
+     */
+    public WorldSnapshot(ByteBuffer buffer)
+    {
+        bytes = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        bytes.clear();
+        floats = bytes.asFloatBuffer();
+        ints = bytes.asIntBuffer();
+        longs = bytes.asLongBuffer();
+    }
+
+    /**
+     * Construct a snapshot that only measures how many bytes the state takes up
+     */
+    private WorldSnapshot()
+    {
+        bytes = null;
+        floats = null;
+        ints = null;
+        longs = null;
+    }
+
+    /**
+     * Get the number of bytes a snapshot of the specified world takes up at most, however many of its stars are in play
+     *
+     * @param world
+     * @return bytes
+     */
+    public static int size(World world)
+    {
+        WorldSnapshot measure = new WorldSnapshot();
+        measure.putInt(MAGIC);
+        measure.putInt(VERSION);
+        world.save(measure);
+        return measure.position;
+    }
+
+    /**
+     * Save the state of the specified world, from the start of the buffer
+     *
+     * @param world
+     * @return the number of bytes saved
+     * @throws IllegalArgumentException
+     *             if the buffer is too small for the world, see {@link #size(World)}
+     */
+    public int save(World world)
+    {
+        position = 0;
+        try
+        {
+            putInt(MAGIC);
+            putInt(VERSION);
+            world.save(this);
+        }
+        catch (IndexOutOfBoundsException | BufferOverflowException | IllegalArgumentException e)
+        {
+            throw new IllegalArgumentException("A snapshot of this world needs " + size(world) + " bytes, the buffer only has " + bytes.capacity(), e);
+        }
+        return position;
+    }
+
+    /**
+     * Restore the specified world to the state saved at the start of the buffer
+     *
+     * @param world
+     * @throws IllegalArgumentException
+     *             if the buffer doesn't hold a snapshot of this version, or the snapshot was taken of a world that isn't
+     *             built the same way
+     */
+    public void restore(World world)
+    {
+        position = 0;
+        final int magic = getInt();
+        if (magic != MAGIC)
+            throw new IllegalArgumentException(String.format("Not a world snapshot: %08x", magic));
+        final int version = getInt();
+        if (version != VERSION)
+            throw new IllegalArgumentException("Unsupported snapshot version " + version + ", expected " + VERSION);
+
+        try
+        {
+            world.restore(this);
+        }
+        catch (IndexOutOfBoundsException | BufferUnderflowException e)
+        {
+            throw new IllegalArgumentException("The snapshot runs past the end of the buffer", e);
+        }
+    }
+
+    public void putBoolean(boolean value)
+    {
+        putByte((byte) (value ? 1 : 0));
+    }
+
+    public boolean getBoolean()
+    {
+        return getByte() != 0;
+    }
+
+    public void putByte(byte value)
+    {
+        if (bytes != null)
+            bytes.put(position, value);
+        position += Byte.BYTES;
+    }
+
+    public byte getByte()
+    {
+        final byte value = bytes.get(position);
+        position += Byte.BYTES;
+        return value;
+    }
+
+    public void putInt(int value)
+    {
+        if (bytes != null)
+            bytes.putInt(position, value);
+        position += Integer.BYTES;
+    }
+
+    public int getInt()
+    {
+        final int value = bytes.getInt(position);
+        position += Integer.BYTES;
+        return value;
+    }
+
+    public void putLong(long value)
+    {
+        if (bytes != null)
+            bytes.putLong(position, value);
+        position += Long.BYTES;
+    }
+
+    public long getLong()
+    {
+        final long value = bytes.getLong(position);
+        position += Long.BYTES;
+        return value;
+    }
+
+    public void putFloat(float value)
+    {
+        if (bytes != null)
+            bytes.putFloat(position, value);
+        position += Float.BYTES;
+    }
+
+    public float getFloat()
+    {
+        final float value = bytes.getFloat(position);
+        position += Float.BYTES;
+        return value;
+    }
+
+    /**
+     * Save the first values of an array in one pass. When measuring, room is made for the whole array.
+     *
+     * @param values
+     * @param count
+     *            the number of values to save
+     */
+    public void putBytes(byte[] values, int count)
+    {
+        pad();
+        if (bytes == null)
+        {
+            position += values.length;
+            return;
+        }
+        bytes.position(position);
+        bytes.put(values, 0, count);
+        position += count;
+    }
+
+    /**
+     * Restore the first values of an array in one pass
+     *
+     * @param values
+     * @param count
+     *            the number of values to restore
+     */
+    public void getBytes(byte[] values, int count)
+    {
+        align();
+        bytes.position(position);
+        bytes.get(values, 0, count);
+        position += count;
+    }
+
+    /**
+     * Save the first values of an array in one pass. When measuring, room is made for the whole array.
+     *
+     * @param values
+     * @param count
+     *            the number of values to save
+     */
+    public void putInts(int[] values, int count)
+    {
+        pad();
+        if (ints == null)
+        {
+            position += values.length * Integer.BYTES;
+            return;
+        }
+        ints.position(position / Integer.BYTES);
+        ints.put(values, 0, count);
+        position += count * Integer.BYTES;
+    }
+
+    /**
+     * Restore the first values of an array in one pass
+     *
+     * @param values
+     * @param count
+     *            the number of values to restore
+     */
+    public void getInts(int[] values, int count)
+    {
+        align();
+        ints.position(position / Integer.BYTES);
+        ints.get(values, 0, count);
+        position += count * Integer.BYTES;
+    }
+
+    /**
+     * Save the first values of an array in one pass. When measuring, room is made for the whole array.
+     *
+     * @param values
+     * @param count
+     *            the number of values to save
+     */
+    public void putLongs(long[] values, int count)
+    {
+        pad();
+        if (longs == null)
+        {
+            position += values.length * Long.BYTES;
+            return;
+        }
+        longs.position(position / Long.BYTES);
+        longs.put(values, 0, count);
+        position += count * Long.BYTES;
+    }
+
+    /**
+     * Restore the first values of an array in one pass
+     *
+     * @param values
+     * @param count
+     *            the number of values to restore
+     */
+    public void getLongs(long[] values, int count)
+    {
+        align();
+        longs.position(position / Long.BYTES);
+        longs.get(values, 0, count);
+        position += count * Long.BYTES;
+    }
+
+    /**
+     * Save the first values of an array in one pass. When measuring, room is made for the whole array.
+     *
+     * @param values
+     * @param count
+     *            the number of values to save
+     */
+    public void putFloats(float[] values, int count)
+    {
+        pad();
+        if (floats == null)
+        {
+            position += values.length * Float.BYTES;
+            return;
+        }
+        floats.position(position / Float.BYTES);
+        floats.put(values, 0, count);
+        position += count * Float.BYTES;
+    }
+
+    /**
+     * Restore the first values of an array in one pass
+     *
+     * @param values
+     * @param count
+     *            the number of values to restore
+     */
+    public void getFloats(float[] values, int count)
+    {
+        align();
+        floats.position(position / Float.BYTES);
+        floats.get(values, 0, count);
+        position += count * Float.BYTES;
+    }
+
+    /**
+     * Hash the snapshot most recently saved or restored, so that two worlds can be told to be in the same state by
+     * comparing a single number. The parts of the world save the state they play out from rather than how they happen to
+     * hold it, such as the order timers wait in or which positions were last worked out, so two worlds in the same
+     * state hash the same whatever their broadphase or parallelism.
+     *
+     * @return checksum
+     */
+    public long checksum()
+    {
+        long hash = 0L;
+        int i = 0;
+        for (; i + Long.BYTES <= position; i += Long.BYTES)
+            hash = SplitMix64.mix64(hash ^ bytes.getLong(i));
+        for (; i < position; i++)
+            hash = SplitMix64.mix64(hash ^ bytes.get(i));
+        return hash;
+    }
+
+    /**
+     * Move on to the next multiple of 8 bytes, so every array starts on a whole element of each view
+     */
+    private void align()
+    {
+        position = (position + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    /**
+     * Move on to the next multiple of 8 bytes before saving an array, zeroing the bytes skipped over so that snapshots
+     * of the same state are the same byte for byte
+     */
+    private void pad()
+    {
+        final int aligned = (position + Long.BYTES - 1) & -Long.BYTES;
+        if (bytes != null)
+        {
+            while (position < aligned)
+                bytes.put(position++, (byte) 0);
+        }
+        position = aligned;
+    }
+}
@@ -17,6 +17,11 @@ public abstract class Agent
      */
     public Motion mo;
 
+    /**
+     * The agent's position as of the start of the latest tick, so rendering can interpolate between ticks
+     */
+    public Vector prevPos = new Vector();
+
     /**
      * Construct an agent with default motion
      */
@@ -51,17 +56,61 @@ public abstract class Agent
     }
 
     /**
-     * Update the agent's motion
+     * Update the agent's motion by one base tick
      */
     public void update()
+    {
+        update(1.0f);
+    }
+
+    /**
+     * Update the agent's motion by one tick of the specified length
+     * 
+     * @param dt
+     *            the length of the tick in base ticks
+     */
+    public void update(float dt)
     {
         // Add acceleration to velocity
-        mo.vel.x += mo.acc.x;
-        mo.vel.y += mo.acc.y;
+        mo.vel.x += mo.acc.x * dt;
+        mo.vel.y += mo.acc.y * dt;
 
         // Add velocity to position
-        mo.pos.x += mo.vel.x;
-        mo.pos.y += mo.vel.y;
+        mo.pos.x += mo.vel.x * dt;
+        mo.pos.y += mo.vel.y * dt;
+    }
+
+    /**
+     * Remember the current position as the previous position, to be run at the start of each tick
+     */
+    public void savePosition()
+    {
+        prevPos.x = mo.pos.x;
+        prevPos.y = mo.pos.y;
+    }
+
+    /**
+     * Get the horizontal position to render at the specified fraction of the way from the previous tick to the current
+     * one
+     * 
+     * @param alpha
+     * @return horizontal position
+     */
+    public float renderX(float alpha)
+    {
+        return prevPos.x + (mo.pos.x - prevPos.x) * alpha;
+    }
+
+    /**
+     * Get the vertical position to render at the specified fraction of the way from the previous tick to the current
+     * one
+     * 
+     * @param alpha
+     * @return vertical position
+     */
+    public float renderY(float alpha)
+    {
+        return prevPos.y + (mo.pos.y - prevPos.y) * alpha;
     }
 
     /**
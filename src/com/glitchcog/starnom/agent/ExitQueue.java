@@ -0,0 +1,145 @@
+package com.glitchcog.starnom.agent;
+
+/**
+ * A priority queue of the ticks stars are due to fly out of bounds at, kept as a binary min-heap of primitive longs so
+ * scheduling and popping never allocate. Each entry packs the tick into the high bits and the star index into the low
+ * bits, so entries for the same tick come out in index order and a run plays out the same every time.
+ * <p>
+ * Entries are never removed early. A star that is respawned or moved before its exit tick just gets a new entry, and
+ * the old one is recognized as stale when it comes up because the star's exit tick no longer matches it.
+ * 
+ * @author Matt Yanos
+ */
+public class ExitQueue
+{
+    /**
+     * The number of low bits of an entry that hold the star index
+     */
+    public static final int INDEX_BITS = 24;
+
+    /**
+     * The most stars the queue can index
+     */
+    public static final int MAX_STARS = 1 << INDEX_BITS;
+
+    private static final long INDEX_MASK = MAX_STARS - 1;
+
+    /**
+     * The entries, with the earliest at the root
+     */
+    private final long[] heap;
+
+    /**
+     * The number of entries
+     */
+    private int size;
+
+    /**
+     * Construct a queue with room for the specified number of entries
+     * 
+     * @param capacity
+     */
+    public ExitQueue(int capacity)
+    {
+        heap = new long[capacity];
+    }
+
+    /**
+     * Remove every entry
+     */
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Whether the queue has run out of room, after which it has to be cleared and rebuilt from the stars' exit ticks
+     * 
+     * @return full
+     */
+    public boolean isFull()
+    {
+        return size == heap.length;
+    }
+
+    /**
+     * Schedule the specified star to exit at the specified tick
+     * 
+     * @param tick
+     * @param index
+     *            star index
+     */
+    public void add(long tick, int index)
+    {
+        final long entry = (tick << INDEX_BITS) | index;
+        int child = size++;
+        while (child > 0)
+        {
+            final int parent = (child - 1) >>> 1;
+            if (heap[parent] <= entry)
+                break;
+            heap[child] = heap[parent];
+            child = parent;
+        }
+        heap[child] = entry;
+    }
+
+    /**
+     * Determine whether the earliest entry is due by the specified tick
+     * 
+     * @param tick
+     * @return due
+     */
+    public boolean isDue(long tick)
+    {
+        return size > 0 && (heap[0] >>> INDEX_BITS) <= tick;
+    }
+
+    /**
+     * Remove the earliest entry
+     * 
+     * @return the entry, see {@link #tick(long)} and {@link #index(long)}
+     */
+    public long poll()
+    {
+        final long first = heap[0];
+        final long last = heap[--size];
+        int parent = 0;
+        while (true)
+        {
+            int child = parent * 2 + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && heap[child + 1] < heap[child])
+                child++;
+            if (last <= heap[child])
+                break;
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = last;
+        return first;
+    }
+
+    /**
+     * Get the tick of an entry
+     * 
+     * @param entry
+     * @return tick
+     */
+    public static long tick(long entry)
+    {
+        return entry >>> INDEX_BITS;
+    }
+
+    /**
+     * Get the star index of an entry
+     * 
+     * @param entry
+     * @return star index
+     */
+    public static int index(long entry)
+    {
+        return (int) (entry & INDEX_MASK);
+    }
+}
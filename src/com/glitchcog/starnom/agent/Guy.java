@@ -3,9 +3,16 @@ package com.glitchcog.starnom.agent;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
-import java.util.StringTokenizer;
+import java.awt.Rectangle;
+import java.awt.geom.PathIterator;
 
 import com.glitchcog.starnom.StarNom;
+import com.glitchcog.starnom.TimerWheel;
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.WorldSnapshot;
+import com.glitchcog.starnom.physics.Timestep;
+import com.glitchcog.starnom.random.SplitMix64;
+import com.glitchcog.starnom.text.TextLayoutCache;
 
 /**
  * The guy that noms on the stars
@@ -30,17 +37,22 @@ public class Guy extends Agent
     public static Color MOUTH_COLOR = Color.RED.darker().darker().darker();
 
     /**
-     * The count to set the hit count timer to when the guy hits a border
+     * The color to draw the guy's body
+     */
+    private static final Color BODY_COLOR = Color.CYAN.darker().darker();
+
+    /**
+     * The number of base ticks the guy looks startled for when he hits a border
      */
     private static final int HIT_MAX = 24;
 
     /**
-     * The count to set the floor count timer to when the guy hits the floor
+     * The number of base ticks the guy looks settled for when he hits the floor
      */
     private static final int FLOOR_MAX = 5;
 
     /**
-     * The count to set the eat timer to when the guy eats
+     * The number of base ticks the guy chews for when he eats
      */
     private static final int EAT_COUNT_MAX = 16;
 
@@ -50,19 +62,59 @@ public class Guy extends Agent
     private boolean left;
 
     /**
-     * Count timer for when the guy hits a border
+     * The guy's timer for looking startled after hitting a border, within his block of timers
+     */
+    private static final int HIT_TIMER = 0;
+
+    /**
+     * The guy's timer for settling after hitting the floor
+     */
+    private static final int FLOOR_TIMER = 1;
+
+    /**
+     * The guy's timer for chewing after eating
+     */
+    private static final int EAT_TIMER = 2;
+
+    /**
+     * The guy's timer for how long the thing being spoken should be displayed
+     */
+    private static final int SPEECH_TIMER = 3;
+
+    /**
+     * The number of timers the guy registers
      */
-    private int hit;
+    private static final int TIMER_COUNT = 4;
 
     /**
-     * Count timer for when the guy hits the floor
+     * Whether the guy has hit a border lately
      */
-    private int floor;
+    private boolean hit;
 
     /**
-     * Count timer for when the guy eats
+     * Whether the guy has hit the floor lately
      */
-    private int eatCount;
+    private boolean floor;
+
+    /**
+     * Whether the guy is chewing
+     */
+    private boolean eating;
+
+    /**
+     * Whether the guy is displaying his speech bubble
+     */
+    private boolean talking;
+
+    /**
+     * The world's timers, which the guy's timers run on
+     */
+    private final TimerWheel timers;
+
+    /**
+     * The first of the guy's timers
+     */
+    private final int timerBase;
 
     /**
      * The phrase being spoken in the guy's speech bubble
@@ -70,19 +122,117 @@ public class Guy extends Agent
     public String speech = "";
 
     /**
-     * The timer for how long the thing being spoken should be displayed
+     * Which of the guy's phrases is being spoken, so a snapshot can hold it as a number: an index into
+     * {@link #EXCLAMATIONS}, {@link #INSTRUCTIONS_PHRASE}, {@link #NO_PHRASE} or {@link #OTHER_PHRASE}
+     */
+    private int phrase = NO_PHRASE;
+
+    /**
+     * Marks that the guy hasn't spoken yet
+     */
+    private static final int NO_PHRASE = -1;
+
+    /**
+     * Marks that the guy is speaking something other than his own phrases
      */
-    public int speechTimer;
+    private static final int OTHER_PHRASE = -2;
+
+    /**
+     * Marks that the guy is speaking the instructions
+     */
+    private static final int INSTRUCTIONS_PHRASE = Integer.MAX_VALUE;
+
+    /**
+     * The length of a tick in base ticks, see {@link Timestep}
+     */
+    private float dt = 1.0f;
+
+    /**
+     * The stroke to outline the guy with
+     */
+    private final BasicStroke stroke;
+
+    /**
+     * The path each part of the guy is traced into to be filled or outlined, so that drawing him doesn't allocate
+     */
+    private final ReusablePath shape = new ReusablePath(PathIterator.WIND_NON_ZERO, 10);
+
+    /**
+     * The guy's own random stream, which randomizes what he says
+     */
+    private final SplitMix64 rng = new SplitMix64(0L);
+
+    /**
+     * The most points along the guy's path over a tick: where he starts, where he hits a side, where he hits the floor
+     * and where he ends
+     */
+    private static final int MAX_PATH_POINTS = 4;
+
+    /**
+     * The fraction of the way through the latest tick of each point along the guy's path
+     */
+    private final float[] pathT = new float[MAX_PATH_POINTS];
+
+    /**
+     * The horizontal position of each point along the guy's path over the latest tick
+     */
+    private final float[] pathX = new float[MAX_PATH_POINTS];
+
+    /**
+     * The vertical position of each point along the guy's path over the latest tick
+     */
+    private final float[] pathY = new float[MAX_PATH_POINTS];
+
+    /**
+     * The number of points along the guy's path over the latest tick, which is straight between each pair of points
+     */
+    private int pathCount;
+
+    /**
+     * The fraction of the way through the latest tick the guy hit a side at, or 1 if he didn't
+     */
+    private float sideContact;
+
+    /**
+     * The fraction of the way through the latest tick the guy hit the floor at, or 1 if he didn't
+     */
+    private float floorContact;
 
     /**
      * Construct a guy to be initialized at the center of a screen of the specified dimensions
      * 
      * @param screenWidth
      * @param screenHeight
+     * @param timers
+     *            the timers to run the guy's expressions and speech on
      */
-    public Guy(int screenWidth, int screenHeight)
+    public Guy(int screenWidth, int screenHeight, TimerWheel timers)
     {
         this.radius = 32;
+        this.stroke = new BasicStroke(radius / 8, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        this.timers = timers;
+        this.timerBase = timers.register(TIMER_COUNT, new TimerWheel.Listener()
+        {
+            @Override
+            public void expired(int timer)
+            {
+                switch (timer)
+                {
+                case HIT_TIMER:
+                    hit = false;
+                    break;
+                case FLOOR_TIMER:
+                    floor = false;
+                    break;
+                case EAT_TIMER:
+                    eating = false;
+                    break;
+                case SPEECH_TIMER:
+                    talking = false;
+                    break;
+                }
+            }
+        });
         reset(screenWidth, screenHeight);
     }
 
@@ -97,6 +247,27 @@ public class Guy extends Agent
         return radius;
     }
 
+    /**
+     * Reseed the guy's random stream
+     * 
+     * @param seed
+     */
+    public void seed(long seed)
+    {
+        rng.setState(seed);
+    }
+
+    /**
+     * Set the length of a tick, which scales the guy's motion and timers
+     * 
+     * @param dt
+     *            the length of a tick in base ticks, see {@link Timestep}
+     */
+    public void setTimestep(float dt)
+    {
+        this.dt = dt;
+    }
+
     /**
      * Update the guy logic, to be run once per update loop cycle
      * 
@@ -105,32 +276,31 @@ public class Guy extends Agent
      */
     public void update(int screenWidth, int screenHeight)
     {
-        super.update();
-
-        // Keep the guy on the screen, bouncing him around as appropriate
-        enforceBoundaries(screenWidth, screenHeight);
+        final float startX = mo.pos.x;
+        final float startY = mo.pos.y;
 
-        // Reduce the timers if any are active
+        super.update(dt);
 
-        if (hit > 0)
-        {
-            hit--;
-        }
+        final float freeX = mo.pos.x;
+        final float freeY = mo.pos.y;
 
-        if (floor > 0)
-        {
-            floor--;
-        }
+        // Keep the guy on the screen, bouncing him around as appropriate
+        enforceBoundaries(screenWidth, screenHeight, startX, startY);
 
-        if (eatCount > 0)
-        {
-            eatCount--;
-        }
+        tracePath(startX, startY, freeX, freeY);
+    }
 
-        if (speechTimer > 0)
-        {
-            speechTimer--;
-        }
+    /**
+     * Start one of the guy's timers, or restart it if it is already running
+     * 
+     * @param timer
+     *            the timer within the guy's block
+     * @param baseTicks
+     *            how long it runs for, in base ticks
+     */
+    private void start(int timer, int baseTicks)
+    {
+        timers.schedule(timerBase + timer, timers.getTick() + Timestep.ticks(baseTicks, dt));
     }
 
     /**
@@ -145,12 +315,35 @@ public class Guy extends Agent
         "Do I detect\na hint of helium?"
     };
 
+    /**
+     * What the guy says to explain how to play
+     */
+    public static final String INSTRUCTIONS = "Ooo, look up there!\nThrow me with your mouse pointer\nso I can catch all these yummy stars!";
+
     /**
      * Make the guy speak one of the random exclamations
      */
     private void talk()
     {
-        talk(EXCLAMATIONS[StarNom.RND.nextInt(EXCLAMATIONS.length)]);
+        talk(EXCLAMATIONS[rng.nextInt(EXCLAMATIONS.length)]);
+    }
+
+    /**
+     * Find which of the guy's phrases the specified speech text is
+     * 
+     * @param speech
+     * @return phrase
+     */
+    private static int phraseOf(String speech)
+    {
+        if (INSTRUCTIONS.equals(speech))
+            return INSTRUCTIONS_PHRASE;
+        for (int i = 0; i < EXCLAMATIONS.length; i++)
+        {
+            if (EXCLAMATIONS[i].equals(speech))
+                return i;
+        }
+        return OTHER_PHRASE;
     }
 
     /**
@@ -162,40 +355,56 @@ public class Guy extends Agent
     public void talk(String speech)
     {
         this.speech = speech;
-        this.speechTimer = speech.length() * 3;
+        this.phrase = phraseOf(speech);
+        talking = true;
+        start(SPEECH_TIMER, speech.length() * 3);
     }
 
     /**
-     * Modify the guy's position and velocity so boundaries are not traversed
+     * Modify the guy's position and velocity so boundaries are not traversed, noting how far through the tick he reached
+     * each boundary he hit
      * 
      * @param width
      *            The width of the boundaries to enforce, typically the screen's width
      * @param height
      *            The height of the boundaries to enforce, typically the screen's height
+     * @param startX
+     *            The horizontal position the guy started the tick at
+     * @param startY
+     *            The vertical position the guy started the tick at
      */
-    private void enforceBoundaries(int width, int height)
+    private void enforceBoundaries(int width, int height, float startX, float startY)
     {
+        sideContact = 1.0f;
+        floorContact = 1.0f;
+
         // Keep the guy within the sides
         if (mo.pos.x < radius + StarNom.STROKE_SIZE)
         {
+            sideContact = contact(startX, mo.pos.x, radius + StarNom.STROKE_SIZE);
             mo.pos.x = radius + StarNom.STROKE_SIZE;
             mo.vel.x = -mo.vel.x * elasticity;
-            hit = HIT_MAX;
+            hit = true;
+            start(HIT_TIMER, HIT_MAX);
             left = true;
         }
         else if (mo.pos.x > width - radius - StarNom.STROKE_SIZE)
         {
+            sideContact = contact(startX, mo.pos.x, width - radius - StarNom.STROKE_SIZE);
             mo.pos.x = width - radius - StarNom.STROKE_SIZE;
             mo.vel.x = -mo.vel.x * elasticity;
-            hit = HIT_MAX;
+            hit = true;
+            start(HIT_TIMER, HIT_MAX);
             left = false;
         }
 
         // On the bottom of the screen
         if (mo.pos.y > height - radius - StarNom.STROKE_SIZE)
         {
-            floor = FLOOR_MAX;
+            floor = true;
+            start(FLOOR_TIMER, FLOOR_MAX);
 
+            floorContact = contact(startY, mo.pos.y, height - radius - StarNom.STROKE_SIZE);
             mo.pos.y = height - radius - StarNom.STROKE_SIZE;
 
             mo.vel.y = -mo.vel.y * elasticity; // Absorb a quarter of the impact
@@ -203,36 +412,202 @@ public class Guy extends Agent
             // Friction is annoying like this, because it always acts opposite the direction...
             if (mo.vel.x < 0.0)
             {
-                mo.vel.x += StarNom.FRICTION;
+                mo.vel.x += World.FRICTION * dt;
                 if (mo.vel.x > 0.0) // ...so you have to check if you passed it when incrementing
                     mo.vel.x = 0.0f;
             }
             if (mo.vel.x > 0.0)
             {
-                mo.vel.x -= StarNom.FRICTION;
+                mo.vel.x -= World.FRICTION * dt;
                 if (mo.vel.x < 0.0)
                     mo.vel.x = 0.0f;
             }
         }
     }
 
+    /**
+     * Get how far through a tick a coordinate moving from one value to another reaches a boundary it ends up past
+     * 
+     * @param from
+     *            the coordinate at the start of the tick
+     * @param to
+     *            the coordinate at the end of the tick, past the boundary
+     * @param boundary
+     * @return the fraction of the way through the tick, 0 if the coordinate started past the boundary
+     */
+    private static float contact(float from, float to, float boundary)
+    {
+        final float t = (boundary - from) / (to - from);
+        return t > 0.0f ? Math.min(t, 1.0f) : 0.0f;
+    }
+
+    /**
+     * Lay out the guy's path over the latest tick. He moves in a straight line from where he started toward where he
+     * would have ended up without the boundaries, and stops moving along each axis once he reaches its boundary, so the
+     * path bends wherever he hit a side or the floor.
+     * 
+     * @param startX
+     *            the horizontal position the guy started the tick at
+     * @param startY
+     *            the vertical position the guy started the tick at
+     * @param freeX
+     *            the horizontal position the guy would have ended the tick at without the boundaries
+     * @param freeY
+     *            the vertical position the guy would have ended the tick at without the boundaries
+     */
+    private void tracePath(float startX, float startY, float freeX, float freeY)
+    {
+        pathCount = 0;
+        addPathPoint(0.0f, startX, startY, freeX, freeY);
+
+        final float first = Math.min(sideContact, floorContact);
+        final float second = Math.max(sideContact, floorContact);
+        if (first > 0.0f && first < 1.0f)
+            addPathPoint(first, startX, startY, freeX, freeY);
+        if (second > first && second < 1.0f)
+            addPathPoint(second, startX, startY, freeX, freeY);
+
+        addPathPoint(1.0f, startX, startY, freeX, freeY);
+    }
+
+    /**
+     * Add the point the guy was at the specified fraction of the way through the latest tick to his path
+     * 
+     * @param t
+     * @param startX
+     * @param startY
+     * @param freeX
+     * @param freeY
+     */
+    private void addPathPoint(float t, float startX, float startY, float freeX, float freeY)
+    {
+        pathT[pathCount] = t;
+        pathX[pathCount] = t < sideContact ? startX + (freeX - startX) * t : mo.pos.x;
+        pathY[pathCount] = t < floorContact ? startY + (freeY - startY) * t : mo.pos.y;
+        pathCount++;
+    }
+
+    /**
+     * Get the number of points along the guy's path over the latest tick, which is straight between each pair of points.
+     * There are always at least two, where he started and where he ended.
+     * 
+     * @return count
+     */
+    public int getPathCount()
+    {
+        return pathCount;
+    }
+
+    /**
+     * Get the fraction of the way through the latest tick the guy was at the specified point along his path
+     * 
+     * @param i
+     *            point index
+     * @return fraction of the tick
+     */
+    public float getPathT(int i)
+    {
+        return pathT[i];
+    }
+
+    /**
+     * Get the horizontal position of the specified point along the guy's path over the latest tick
+     * 
+     * @param i
+     *            point index
+     * @return horizontal position
+     */
+    public float getPathX(int i)
+    {
+        return pathX[i];
+    }
+
+    /**
+     * Get the vertical position of the specified point along the guy's path over the latest tick
+     * 
+     * @param i
+     *            point index
+     * @return vertical position
+     */
+    public float getPathY(int i)
+    {
+        return pathY[i];
+    }
+
     /**
      * Render a the guy on the specified Graphics2D object
      */
     public void draw(Graphics2D g2d)
     {
-        g2d.setStroke(new BasicStroke(radius / 8, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        draw(g2d, mo.pos.x, mo.pos.y);
+    }
+
+    /**
+     * Render the guy on the specified Graphics2D object at the specified fraction of the way from his previous position
+     * to his current one
+     * 
+     * @param g2d
+     * @param alpha
+     */
+    public void draw(Graphics2D g2d, float alpha)
+    {
+        draw(g2d, renderX(alpha), renderY(alpha));
+    }
+
+    /**
+     * Render the guy on the specified Graphics2D object at the specified position
+     * 
+     * @param g2d
+     * @param x
+     *            horizontal position coordinate
+     * @param y
+     *            vertical position coordinate
+     */
+    public void draw(Graphics2D g2d, float x, float y)
+    {
+        draw(g2d, x, y, true);
+    }
+
+    /**
+     * Render the guy without his speech bubble at the specified fraction of the way from his previous position to his
+     * current one, for when the speech bubble is drawn separately
+     * 
+     * @param g2d
+     * @param alpha
+     */
+    public void drawBody(Graphics2D g2d, float alpha)
+    {
+        draw(g2d, renderX(alpha), renderY(alpha), false);
+    }
+
+    /**
+     * Render the guy on the specified Graphics2D object at the specified position
+     * 
+     * @param g2d
+     * @param x
+     *            horizontal position coordinate
+     * @param y
+     *            vertical position coordinate
+     * @param withSpeech
+     *            whether to draw his speech bubble too while he is talking
+     */
+    private void draw(Graphics2D g2d, float x, float y, boolean withSpeech)
+    {
+        g2d.setStroke(stroke);
 
-        g2d.setColor(Color.CYAN.darker().darker());
-        g2d.fillRoundRect((int) (mo.pos.x - radius), (int) (mo.pos.y - radius), radius * 2, radius * 2, 25, 25);
+        g2d.setColor(BODY_COLOR);
+        fillRoundRect(g2d, (int) (x - radius), (int) (y - radius), radius * 2, radius * 2, 25, 25);
 
         g2d.setColor(Color.ORANGE);
-        g2d.fillRoundRect((int) (mo.pos.x - radius), (int) (mo.pos.y - radius), radius * 2, radius, 25, 25);
+        fillRoundRect(g2d, (int) (x - radius), (int) (y - radius), radius * 2, radius, 25, 25);
 
         g2d.setColor(Color.BLACK);
-        g2d.drawRoundRect((int) (mo.pos.x - radius), (int) (mo.pos.y - radius), radius * 2, radius * 2, 25, 25);
+        drawRoundRect(g2d, (int) (x - radius), (int) (y - radius), radius * 2, radius * 2, 25, 25);
+
+        drawFeatures(g2d, x, y);
 
-        drawFace(g2d);
+        if (withSpeech && talking)
+            drawSpeech(g2d, speech, x, y);
     }
 
     /**
@@ -241,66 +616,109 @@ public class Guy extends Agent
      * @param g2d
      */
     public void drawFace(Graphics2D g2d)
+    {
+        drawFace(g2d, mo.pos.x, mo.pos.y);
+    }
+
+    /**
+     * Render the guy's face at the specified position
+     * 
+     * @param g2d
+     * @param x
+     *            horizontal position coordinate
+     * @param y
+     *            vertical position coordinate
+     */
+    public void drawFace(Graphics2D g2d, float x, float y)
+    {
+        drawFeatures(g2d, x, y);
+
+        if (talking)
+            drawSpeech(g2d, speech, x, y);
+    }
+
+    /**
+     * Render the guy's eyes and mouth at the specified position
+     * 
+     * @param g2d
+     * @param x
+     *            horizontal position coordinate
+     * @param y
+     *            vertical position coordinate
+     */
+    private void drawFeatures(Graphics2D g2d, float x, float y)
     {
         final int eyeSize;
         final int pupilSize = 6;
         final int mouthSize = 10;
 
-        if (eatCount > 0)
+        if (eating)
         {
             eyeSize = radius / 16;
             g2d.setColor(Color.WHITE);
-            g2d.fillOval((int) (mo.pos.x - radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
-            g2d.fillOval((int) (mo.pos.x + radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            fillOval(g2d, (int) (x - radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            fillOval(g2d, (int) (x + radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
             g2d.setColor(Color.BLACK);
-            g2d.drawOval((int) (mo.pos.x - radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
-            g2d.drawOval((int) (mo.pos.x + radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            drawOval(g2d, (int) (x - radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            drawOval(g2d, (int) (x + radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
 
-            int growMouthSize = eatCount * radius / 32 + 3;
+            int growMouthSize = Math.round(timers.getRemaining(timerBase + EAT_TIMER) * dt) * radius / 32 + 3;
 
             g2d.setColor(MOUTH_COLOR);
-            g2d.fillOval((int) (mo.pos.x - growMouthSize / 2), (int) (mo.pos.y + radius / 2), growMouthSize, growMouthSize);
+            fillOval(g2d, (int) (x - growMouthSize / 2), (int) (y + radius / 2), growMouthSize, growMouthSize);
 
             g2d.setColor(Color.BLACK);
-            g2d.drawOval((int) (mo.pos.x - growMouthSize / 2), (int) (mo.pos.y + radius / 2), growMouthSize, growMouthSize);
+            drawOval(g2d, (int) (x - growMouthSize / 2), (int) (y + radius / 2), growMouthSize, growMouthSize);
         }
-        else if (hit > 0 && floor <= 0)
+        else if (hit && !floor)
         {
             eyeSize = radius / 3;
             g2d.setColor(Color.WHITE);
-            g2d.fillOval((int) (mo.pos.x - radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
-            g2d.fillOval((int) (mo.pos.x + radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            fillOval(g2d, (int) (x - radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            fillOval(g2d, (int) (x + radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
             g2d.setColor(Color.BLACK);
-            g2d.drawOval((int) (mo.pos.x - radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
-            g2d.drawOval((int) (mo.pos.x + radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            drawOval(g2d, (int) (x - radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            drawOval(g2d, (int) (x + radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
 
             int offset = left ? -2 : 2;
-            g2d.fillOval((int) (mo.pos.x - radius / 2) - pupilSize / 2 + offset, (int) (mo.pos.y - radius / 2) - pupilSize / 2, pupilSize, pupilSize);
-            g2d.fillOval((int) (mo.pos.x + radius / 2) - pupilSize / 2 + offset, (int) (mo.pos.y - radius / 2) - pupilSize / 2, pupilSize, pupilSize);
+            fillOval(g2d, (int) (x - radius / 2) - pupilSize / 2 + offset, (int) (y - radius / 2) - pupilSize / 2, pupilSize, pupilSize);
+            fillOval(g2d, (int) (x + radius / 2) - pupilSize / 2 + offset, (int) (y - radius / 2) - pupilSize / 2, pupilSize, pupilSize);
 
             g2d.setColor(MOUTH_COLOR);
-            g2d.fillOval((int) (mo.pos.x - mouthSize / 2), (int) (mo.pos.y + radius / 2), mouthSize, mouthSize);
+            fillOval(g2d, (int) (x - mouthSize / 2), (int) (y + radius / 2), mouthSize, mouthSize);
 
             g2d.setColor(Color.WHITE);
-            g2d.fillRoundRect((int) (mo.pos.x - mouthSize / 2), (int) (mo.pos.y + radius / 2), mouthSize, mouthSize / 2, 5, 5);
+            fillRoundRect(g2d, (int) (x - mouthSize / 2), (int) (y + radius / 2), mouthSize, mouthSize / 2, 5, 5);
 
             g2d.setColor(Color.BLACK);
-            g2d.drawOval((int) (mo.pos.x - mouthSize / 2), (int) (mo.pos.y + radius / 2), mouthSize, mouthSize);
+            drawOval(g2d, (int) (x - mouthSize / 2), (int) (y + radius / 2), mouthSize, mouthSize);
         }
         else
         {
             eyeSize = 6;
             g2d.setColor(Color.BLACK);
-            g2d.drawArc((int) (mo.pos.x - radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize, 0, 180);
-            g2d.drawArc((int) (mo.pos.x + radius / 2) - eyeSize / 2, (int) (mo.pos.y - radius / 2) - eyeSize / 2, eyeSize, eyeSize, 0, 180);
+            drawUpperArc(g2d, (int) (x - radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
+            drawUpperArc(g2d, (int) (x + radius / 2) - eyeSize / 2, (int) (y - radius / 2) - eyeSize / 2, eyeSize, eyeSize);
 
-            g2d.drawLine((int) (mo.pos.x - mouthSize / 2), (int) (mo.pos.y + radius / 2 + mouthSize / 2), (int) (mo.pos.x + mouthSize / 2), (int) (mo.pos.y + radius / 2 + mouthSize / 2));
+            drawLine(g2d, (int) (x - mouthSize / 2), (int) (y + radius / 2 + mouthSize / 2), (int) (x + mouthSize / 2), (int) (y + radius / 2 + mouthSize / 2));
         }
-
-        if (speechTimer > 0)
-            drawSpeech(g2d, speech);
     }
 
+    /**
+     * The most speech layouts to keep, enough for every exclamation and the instructions
+     */
+    private static final int SPEECH_LAYOUT_CAPACITY = 32;
+
+    /**
+     * The speech laid out as the guy has spoken it
+     */
+    private final TextLayoutCache speechLayouts = new TextLayoutCache(SPEECH_LAYOUT_CAPACITY);
+
+    /**
+     * The layout of the speech bubble's text as it was last drawn, reused until the speech changes
+     */
+    private TextLayoutCache.Layout speechLayout;
+
     /**
      * Horizontal polygon points of the speech bubble's triangle
      */
@@ -311,6 +729,90 @@ public class Guy extends Agent
      */
     private int[] speechTriangleY = new int[3];
 
+    /**
+     * Half the width of the speech bubble's triangle
+     */
+    private static final int SPEECH_TRIANGLE_HALF_WIDTH = 5;
+
+    /**
+     * The height of the speech bubble's triangle
+     */
+    private static final int SPEECH_TRIANGLE_HEIGHT = 16;
+
+    /**
+     * The space between the speech bubble's outline and its text
+     */
+    private static final int SPEECH_BUFFER = 10 + (int) StarNom.STROKE_SIZE;
+
+    /**
+     * How far outside a shape its outline and antialiasing can reach
+     */
+    private static final int OUTLINE_REACH = (int) StarNom.STROKE_SIZE;
+
+    /**
+     * Get the bounds of everything drawn for the guy at the specified position, including his speech bubble while he is
+     * talking
+     * 
+     * @param g2d
+     *            the graphics the guy will be drawn on, which the speech is laid out for
+     * @param x
+     *            horizontal position coordinate
+     * @param y
+     *            vertical position coordinate
+     * @param bounds
+     *            set to the bounds
+     */
+    public void getDrawBounds(Graphics2D g2d, float x, float y, Rectangle bounds)
+    {
+        // The mouth grows out the bottom of the body when he eats
+        final int bottom = Math.max(radius, radius / 2 + (EAT_COUNT_MAX + 1) * radius / 32 + 3);
+        bounds.setBounds((int) (x - radius) - OUTLINE_REACH, (int) (y - radius) - OUTLINE_REACH, radius * 2 + OUTLINE_REACH * 2 + 1, radius + bottom + OUTLINE_REACH * 2 + 1);
+
+        if (talking)
+        {
+            final int bodyX = bounds.x;
+            final int bodyY = bounds.y;
+            final int bodyWidth = bounds.width;
+            final int bodyHeight = bounds.height;
+            getSpeechBounds(g2d, x, y, bounds);
+            bounds.add(bodyX, bodyY);
+            bounds.add(bodyX + bodyWidth, bodyY + bodyHeight);
+        }
+    }
+
+    /**
+     * Whether the guy is talking, and so has a speech bubble to draw
+     * 
+     * @return talking
+     */
+    public boolean isTalking()
+    {
+        return talking;
+    }
+
+    /**
+     * Get the bounds of the guy's speech bubble, with whatever he is saying inside it, when he is at the specified
+     * position
+     * 
+     * @param g2d
+     *            the graphics the speech bubble will be drawn on, which the speech is laid out for
+     * @param x
+     *            horizontal position coordinate of the guy
+     * @param y
+     *            vertical position coordinate of the guy
+     * @param bounds
+     *            set to the bounds
+     */
+    public void getSpeechBounds(Graphics2D g2d, float x, float y, Rectangle bounds)
+    {
+        if (speechLayout == null || !speechLayout.matches(speech, g2d))
+            speechLayout = speechLayouts.get(speech, g2d);
+
+        final int cornerX = (int) (x - (speechLayout.width + SPEECH_BUFFER) / 2);
+        final int cornerY = (int) (y - (speechLayout.height + SPEECH_BUFFER) / 2) - radius - speechLayout.height - SPEECH_TRIANGLE_HEIGHT;
+        bounds.setBounds(cornerX - OUTLINE_REACH, cornerY - OUTLINE_REACH, speechLayout.width + SPEECH_BUFFER + OUTLINE_REACH * 2 + 1, speechLayout.height + SPEECH_BUFFER + SPEECH_TRIANGLE_HEIGHT + OUTLINE_REACH * 2 + 1);
+    }
+
     /**
      * Draw the guy's speech bubble with the specified text inside it
      * 
@@ -319,33 +821,41 @@ public class Guy extends Agent
      */
     public void drawSpeech(Graphics2D g2d, String text)
     {
-        final int triAngle = 5;
-        final int triAngleHeight = 16;
+        drawSpeech(g2d, text, mo.pos.x, mo.pos.y);
+    }
 
-        StringTokenizer tokenizer = new StringTokenizer(text, "\n");
-        String[] lines = new String[tokenizer.countTokens()];
+    /**
+     * Draw the guy's speech bubble with the specified text inside it, over the guy at the specified position
+     * 
+     * @param g2d
+     * @param text
+     * @param x
+     *            horizontal position coordinate of the guy
+     * @param y
+     *            vertical position coordinate of the guy
+     */
+    public void drawSpeech(Graphics2D g2d, String text, float x, float y)
+    {
+        final int triAngle = SPEECH_TRIANGLE_HALF_WIDTH;
+        final int triAngleHeight = SPEECH_TRIANGLE_HEIGHT;
 
-        int pixelHeight = (int) (g2d.getFontMetrics().getHeight() * (tokenizer.countTokens() + 0.5f));
-        int pixelWidth = 0;
-        for (int i = 0; i < lines.length; i++)
-        {
-            lines[i] = tokenizer.nextToken();
-            int w = g2d.getFontMetrics().charsWidth(lines[i].toCharArray(), 0, lines[i].length());
-            if (pixelWidth < w)
-                pixelWidth = w;
-        }
+        if (speechLayout == null || !speechLayout.matches(text, g2d))
+            speechLayout = speechLayouts.get(text, g2d);
+
+        final int pixelHeight = speechLayout.height;
+        final int pixelWidth = speechLayout.width;
 
-        int buffer = 10 + (int) StarNom.STROKE_SIZE;
+        int buffer = SPEECH_BUFFER;
 
-        int cornerX = (int) (mo.pos.x - (pixelWidth + buffer) / 2);
-        int cornerY = (int) (mo.pos.y - (pixelHeight + buffer) / 2) - radius - pixelHeight - triAngleHeight;
+        int cornerX = (int) (x - (pixelWidth + buffer) / 2);
+        int cornerY = (int) (y - (pixelHeight + buffer) / 2) - radius - pixelHeight - triAngleHeight;
 
         g2d.setColor(Color.WHITE);
-        g2d.fillRoundRect(cornerX, cornerY, pixelWidth + buffer, pixelHeight + buffer, buffer * 2, buffer * 2);
+        fillRoundRect(g2d, cornerX, cornerY, pixelWidth + buffer, pixelHeight + buffer, buffer * 2, buffer * 2);
         g2d.setColor(Color.BLACK);
-        g2d.drawRoundRect(cornerX, cornerY, pixelWidth + buffer, pixelHeight + buffer, buffer * 2, buffer * 2);
+        drawRoundRect(g2d, cornerX, cornerY, pixelWidth + buffer, pixelHeight + buffer, buffer * 2, buffer * 2);
 
-        speechTriangleX[0] = (int) (mo.pos.x - triAngle);
+        speechTriangleX[0] = (int) (x - triAngle);
         speechTriangleX[1] = speechTriangleX[0] + triAngle;
         speechTriangleX[2] = speechTriangleX[1] + triAngle;
 
@@ -354,7 +864,7 @@ public class Guy extends Agent
         speechTriangleY[2] = speechTriangleY[0];
 
         g2d.setColor(Color.BLACK);
-        g2d.drawPolygon(speechTriangleX, speechTriangleY, speechTriangleX.length);
+        drawPolygon(g2d, speechTriangleX, speechTriangleY);
 
         speechTriangleX[0] -= 1;
         speechTriangleY[0] -= 5;
@@ -362,20 +872,227 @@ public class Guy extends Agent
         speechTriangleY[2] -= 5;
 
         g2d.setColor(Color.WHITE);
-        g2d.fillPolygon(speechTriangleX, speechTriangleY, speechTriangleX.length);
+        fillPolygon(g2d, speechTriangleX, speechTriangleY);
 
         buffer /= 2;
 
         int center;
         g2d.setColor(Color.BLACK);
-        for (int i = 0; i < lines.length; i++)
+        for (int i = 0; i < speechLayout.glyphs.length; i++)
         {
-            center = (pixelWidth - g2d.getFontMetrics().charsWidth(lines[i].toCharArray(), 0, lines[i].length())) / 2;
-            g2d.drawString(lines[i], cornerX + buffer + center, cornerY + buffer + (i + 1) * g2d.getFontMetrics().getHeight());
+            center = (pixelWidth - speechLayout.lineWidths[i]) / 2;
+            g2d.drawGlyphVector(speechLayout.glyphs[i], cornerX + buffer + center, cornerY + buffer + (i + 1) * speechLayout.lineHeight);
         }
 
     }
 
+    /**
+     * Fill an oval, the same as {@link Graphics2D#fillOval(int, int, int, int)}
+     *
+     * @param g2d
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     */
+    private void fillOval(Graphics2D g2d, int x, int y, int width, int height)
+    {
+        shape.setOval(x, y, width, height);
+        g2d.fill(shape);
+    }
+
+    /**
+     * Outline an oval, the same as {@link Graphics2D#drawOval(int, int, int, int)}
+     *
+     * @param g2d
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     */
+    private void drawOval(Graphics2D g2d, int x, int y, int width, int height)
+    {
+        shape.setOval(x, y, width, height);
+        g2d.draw(shape);
+    }
+
+    /**
+     * Outline the upper half of an oval, the same as {@link Graphics2D#drawArc(int, int, int, int, int, int)} from 0 to
+     * 180 degrees
+     *
+     * @param g2d
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     */
+    private void drawUpperArc(Graphics2D g2d, int x, int y, int width, int height)
+    {
+        shape.setUpperArc(x, y, width, height);
+        g2d.draw(shape);
+    }
+
+    /**
+     * Fill a rectangle with rounded corners, the same as {@link Graphics2D#fillRoundRect(int, int, int, int, int, int)}
+     *
+     * @param g2d
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @param arcWidth
+     * @param arcHeight
+     */
+    private void fillRoundRect(Graphics2D g2d, int x, int y, int width, int height, int arcWidth, int arcHeight)
+    {
+        shape.setRoundRect(x, y, width, height, arcWidth, arcHeight);
+        g2d.fill(shape);
+    }
+
+    /**
+     * Outline a rectangle with rounded corners, the same as {@link Graphics2D#drawRoundRect(int, int, int, int, int, int)}
+     *
+     * @param g2d
+     * @param x
+     * @param y
+     * @param width
+     * @param height
+     * @param arcWidth
+     * @param arcHeight
+     */
+    private void drawRoundRect(Graphics2D g2d, int x, int y, int width, int height, int arcWidth, int arcHeight)
+    {
+        shape.setRoundRect(x, y, width, height, arcWidth, arcHeight);
+        g2d.draw(shape);
+    }
+
+    /**
+     * Draw a line, the same as {@link Graphics2D#drawLine(int, int, int, int)}
+     *
+     * @param g2d
+     * @param x1
+     * @param y1
+     * @param x2
+     * @param y2
+     */
+    private void drawLine(Graphics2D g2d, int x1, int y1, int x2, int y2)
+    {
+        shape.setLine(x1, y1, x2, y2);
+        g2d.draw(shape);
+    }
+
+    /**
+     * Fill a closed polygon through the specified points
+     *
+     * @param g2d
+     * @param xPoints
+     * @param yPoints
+     */
+    private void fillPolygon(Graphics2D g2d, int[] xPoints, int[] yPoints)
+    {
+        tracePolygon(xPoints, yPoints);
+        g2d.fill(shape);
+    }
+
+    /**
+     * Outline a closed polygon through the specified points
+     *
+     * @param g2d
+     * @param xPoints
+     * @param yPoints
+     */
+    private void drawPolygon(Graphics2D g2d, int[] xPoints, int[] yPoints)
+    {
+        tracePolygon(xPoints, yPoints);
+        g2d.draw(shape);
+    }
+
+    /**
+     * Trace a closed polygon through the specified points into the shape
+     *
+     * @param xPoints
+     * @param yPoints
+     */
+    private void tracePolygon(int[] xPoints, int[] yPoints)
+    {
+        shape.reset();
+        shape.moveTo(xPoints[0], yPoints[0]);
+        for (int i = 1; i < xPoints.length; i++)
+            shape.lineTo(xPoints[i], yPoints[i]);
+        shape.closePath();
+    }
+
+    /**
+     * Save the guy's motion, expressions, speech and random stream to a snapshot. His timers are saved along with the rest
+     * of the world's timers.
+     * 
+     * @param snapshot
+     * @throws IllegalStateException
+     *             if he is speaking something other than his own phrases, which a snapshot can't hold
+     */
+    public void save(WorldSnapshot snapshot)
+    {
+        if (phrase == OTHER_PHRASE)
+            throw new IllegalStateException("Can't snapshot the guy saying something other than his own phrases: " + speech);
+
+        snapshot.putFloat(mo.pos.x);
+        snapshot.putFloat(mo.pos.y);
+        snapshot.putFloat(mo.vel.x);
+        snapshot.putFloat(mo.vel.y);
+        snapshot.putFloat(mo.acc.x);
+        snapshot.putFloat(mo.acc.y);
+        snapshot.putFloat(prevPos.x);
+        snapshot.putFloat(prevPos.y);
+        snapshot.putLong(rng.getState());
+        snapshot.putInt(phrase);
+        snapshot.putBoolean(left);
+        snapshot.putBoolean(hit);
+        snapshot.putBoolean(floor);
+        snapshot.putBoolean(eating);
+        snapshot.putBoolean(talking);
+
+        // The swept collisions of the next tick test the path of the latest one
+        snapshot.putInt(pathCount);
+        snapshot.putFloats(pathT, pathCount);
+        snapshot.putFloats(pathX, pathCount);
+        snapshot.putFloats(pathY, pathCount);
+    }
+
+    /**
+     * Restore the guy's motion, expressions, speech and random stream from a snapshot
+     * 
+     * @param snapshot
+     */
+    public void restore(WorldSnapshot snapshot)
+    {
+        mo.pos.x = snapshot.getFloat();
+        mo.pos.y = snapshot.getFloat();
+        mo.vel.x = snapshot.getFloat();
+        mo.vel.y = snapshot.getFloat();
+        mo.acc.x = snapshot.getFloat();
+        mo.acc.y = snapshot.getFloat();
+        prevPos.x = snapshot.getFloat();
+        prevPos.y = snapshot.getFloat();
+        rng.setState(snapshot.getLong());
+        phrase = snapshot.getInt();
+        if (phrase == NO_PHRASE)
+            speech = "";
+        else if (phrase == INSTRUCTIONS_PHRASE)
+            speech = INSTRUCTIONS;
+        else
+            speech = EXCLAMATIONS[phrase];
+        left = snapshot.getBoolean();
+        hit = snapshot.getBoolean();
+        floor = snapshot.getBoolean();
+        eating = snapshot.getBoolean();
+        talking = snapshot.getBoolean();
+
+        pathCount = snapshot.getInt();
+        snapshot.getFloats(pathT, pathCount);
+        snapshot.getFloats(pathX, pathCount);
+        snapshot.getFloats(pathY, pathCount);
+    }
+
     /**
      * Reset the guy to the initial game state
      * 
@@ -384,16 +1101,35 @@ public class Guy extends Agent
      */
     public void reset(int screenWidth, int screenHeight)
     {
-        speechTimer = 0;
-        hit = 0;
-        floor = 0;
+        resetAt(screenWidth >> 1, screenHeight >> 1);
+    }
+
+    /**
+     * Reset the guy to the initial game state, at the specified position
+     * 
+     * @param x
+     * @param y
+     */
+    public void resetAt(float x, float y)
+    {
+        for (int timer = 0; timer < TIMER_COUNT; timer++)
+            timers.cancel(timerBase + timer);
+        talking = false;
+        hit = false;
+        floor = false;
         left = false;
-        eatCount = 0;
-        mo.pos.x = screenWidth >> 1;
-        mo.pos.y = screenHeight >> 1;
+        eating = false;
+        mo.pos.x = x;
+        mo.pos.y = y;
         mo.vel.reset();
         mo.acc.x = 0.0f;
-        mo.acc.y = StarNom.GRAVITY;
+        mo.acc.y = World.GRAVITY;
+        savePosition();
+
+        // He hasn't moved yet, so his path is just where he is
+        sideContact = 1.0f;
+        floorContact = 1.0f;
+        tracePath(mo.pos.x, mo.pos.y, mo.pos.x, mo.pos.y);
     }
 
     /**
@@ -401,8 +1137,9 @@ public class Guy extends Agent
      */
     public void eat()
     {
-        eatCount = EAT_COUNT_MAX;
-        if (StarNom.RND.nextInt(10) == 0)
+        eating = true;
+        start(EAT_TIMER, EAT_COUNT_MAX);
+        if (rng.nextInt(10) == 0)
         {
             talk();
         }
@@ -413,6 +1150,7 @@ public class Guy extends Agent
      */
     public void lookUp()
     {
-        eatCount = EAT_COUNT_MAX;
+        eating = true;
+        start(EAT_TIMER, EAT_COUNT_MAX);
     }
 }
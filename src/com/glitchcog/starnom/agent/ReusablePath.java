@@ -0,0 +1,377 @@
+package com.glitchcog.starnom.agent;
+
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.FlatteningPathIterator;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * A path of lines and curves that can be traced again and again without allocating, for shapes that are filled and
+ * outlined every frame. Java2D asks a shape for a new iterator over its outline every time it is filled or drawn, and
+ * {@link Path2D} and the shapes behind methods like {@link java.awt.Graphics#fillOval(int, int, int, int)} make a new
+ * one each time, so this path hands out the same iterator every time instead. That means only one iterator over the
+ * path can be in use at once, which is all Java2D needs to fill or draw it.
+ * <p>
+ * The path holds up to a fixed number of segments, and is traced into from scratch for each shape drawn with it.
+ *
+ * @author Matt Yanos
+ */
+public class ReusablePath implements Shape
+{
+    /**
+     * How far along its tangent the control points of a cubic curve are placed to round off a quarter of an ellipse, as
+     * a fraction of the radius
+     */
+    private static final float QUARTER = 0.5522848f;
+
+    /**
+     * The most coordinates of any segment
+     */
+    private static final int SEGMENT_COORDS = 6;
+
+    private final int windingRule;
+
+    /**
+     * The type of each segment, see {@link PathIterator}
+     */
+    private final int[] types;
+
+    /**
+     * The coordinates of each segment, {@link #SEGMENT_COORDS} apiece
+     */
+    private final float[] coords;
+
+    /**
+     * The number of segments
+     */
+    private int count;
+
+    private final Iterator iterator = new Iterator();
+
+    /**
+     * Construct an empty path with room for the specified number of segments
+     *
+     * @param windingRule
+     *            see {@link PathIterator#getWindingRule()}
+     * @param capacity
+     *            the most segments the path can hold
+     */
+    public ReusablePath(int windingRule, int capacity)
+    {
+        this.windingRule = windingRule;
+        types = new int[capacity];
+        coords = new float[capacity * SEGMENT_COORDS];
+    }
+
+    /**
+     * Remove every segment
+     */
+    public void reset()
+    {
+        count = 0;
+    }
+
+    public void moveTo(float x, float y)
+    {
+        add(PathIterator.SEG_MOVETO, x, y, 0.0f, 0.0f, 0.0f, 0.0f);
+    }
+
+    public void lineTo(float x, float y)
+    {
+        add(PathIterator.SEG_LINETO, x, y, 0.0f, 0.0f, 0.0f, 0.0f);
+    }
+
+    public void curveTo(float x1, float y1, float x2, float y2, float x3, float y3)
+    {
+        add(PathIterator.SEG_CUBICTO, x1, y1, x2, y2, x3, y3);
+    }
+
+    public void closePath()
+    {
+        add(PathIterator.SEG_CLOSE, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f, 0.0f);
+    }
+
+    /**
+     * Trace a line from one point to another
+     *
+     * @param x1
+     * @param y1
+     * @param x2
+     * @param y2
+     */
+    public void setLine(float x1, float y1, float x2, float y2)
+    {
+        reset();
+        moveTo(x1, y1);
+        lineTo(x2, y2);
+    }
+
+    /**
+     * Trace the ellipse that fits the specified box
+     *
+     * @param x
+     *            left edge of the box
+     * @param y
+     *            top edge of the box
+     * @param width
+     * @param height
+     */
+    public void setOval(float x, float y, float width, float height)
+    {
+        setUpperArc(x, y, width, height);
+        final float rx = width / 2.0f;
+        final float ry = height / 2.0f;
+        final float cx = x + rx;
+        final float cy = y + ry;
+        curveTo(x, cy + ry * QUARTER, cx - rx * QUARTER, y + height, cx, y + height);
+        curveTo(cx + rx * QUARTER, y + height, x + width, cy + ry * QUARTER, x + width, cy);
+        closePath();
+    }
+
+    /**
+     * Trace the upper half of the ellipse that fits the specified box, from its right end round to its left, the same
+     * as an arc from 0 to 180 degrees
+     *
+     * @param x
+     *            left edge of the box
+     * @param y
+     *            top edge of the box
+     * @param width
+     * @param height
+     */
+    public void setUpperArc(float x, float y, float width, float height)
+    {
+        reset();
+        final float rx = width / 2.0f;
+        final float ry = height / 2.0f;
+        final float cx = x + rx;
+        final float cy = y + ry;
+        moveTo(x + width, cy);
+        curveTo(x + width, cy - ry * QUARTER, cx + rx * QUARTER, y, cx, y);
+        curveTo(cx - rx * QUARTER, y, x, cy - ry * QUARTER, x, cy);
+    }
+
+    /**
+     * Trace a rectangle with rounded corners, the same as
+     * {@link java.awt.Graphics#fillRoundRect(int, int, int, int, int, int)} does
+     *
+     * @param x
+     *            left edge
+     * @param y
+     *            top edge
+     * @param width
+     * @param height
+     * @param arcWidth
+     *            the width of the ellipse the corners are rounded with
+     * @param arcHeight
+     *            the height of the ellipse the corners are rounded with
+     */
+    public void setRoundRect(float x, float y, float width, float height, float arcWidth, float arcHeight)
+    {
+        reset();
+        final float rx = Math.min(width, Math.abs(arcWidth)) / 2.0f;
+        final float ry = Math.min(height, Math.abs(arcHeight)) / 2.0f;
+        final float kx = rx * (1.0f - QUARTER);
+        final float ky = ry * (1.0f - QUARTER);
+        final float right = x + width;
+        final float bottom = y + height;
+        moveTo(x, y + ry);
+        lineTo(x, bottom - ry);
+        curveTo(x, bottom - ky, x + kx, bottom, x + rx, bottom);
+        lineTo(right - rx, bottom);
+        curveTo(right - kx, bottom, right, bottom - ky, right, bottom - ry);
+        lineTo(right, y + ry);
+        curveTo(right, y + ky, right - kx, y, right - rx, y);
+        lineTo(x + rx, y);
+        curveTo(x + kx, y, x, y + ky, x, y + ry);
+        closePath();
+    }
+
+    private void add(int type, float x1, float y1, float x2, float y2, float x3, float y3)
+    {
+        final int c = count * SEGMENT_COORDS;
+        types[count++] = type;
+        coords[c] = x1;
+        coords[c + 1] = y1;
+        coords[c + 2] = x2;
+        coords[c + 3] = y2;
+        coords[c + 4] = x3;
+        coords[c + 5] = y3;
+    }
+
+    /**
+     * Get the number of points each segment type has
+     *
+     * @param type
+     * @return points
+     */
+    private static int points(int type)
+    {
+        switch (type)
+        {
+        case PathIterator.SEG_MOVETO:
+        case PathIterator.SEG_LINETO:
+            return 1;
+        case PathIterator.SEG_QUADTO:
+            return 2;
+        case PathIterator.SEG_CUBICTO:
+            return 3;
+        default:
+            return 0;
+        }
+    }
+
+    /**
+     * Get the box around every point of the path, control points included, which the path lies within
+     *
+     * @return bounds
+     */
+    @Override
+    public Rectangle2D getBounds2D()
+    {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int s = 0; s < count; s++)
+        {
+            for (int p = 0; p < points(types[s]); p++)
+            {
+                final float px = coords[s * SEGMENT_COORDS + p * 2];
+                final float py = coords[s * SEGMENT_COORDS + p * 2 + 1];
+                minX = Math.min(minX, px);
+                minY = Math.min(minY, py);
+                maxX = Math.max(maxX, px);
+                maxY = Math.max(maxY, py);
+            }
+        }
+        if (minX > maxX)
+            return new Rectangle2D.Float();
+        return new Rectangle2D.Float(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    @Override
+    public Rectangle getBounds()
+    {
+        return getBounds2D().getBounds();
+    }
+
+    @Override
+    public boolean contains(double x, double y)
+    {
+        return Path2D.contains(getPathIterator(null), x, y);
+    }
+
+    @Override
+    public boolean contains(Point2D p)
+    {
+        return contains(p.getX(), p.getY());
+    }
+
+    @Override
+    public boolean intersects(double x, double y, double w, double h)
+    {
+        return Path2D.intersects(getPathIterator(null), x, y, w, h);
+    }
+
+    @Override
+    public boolean intersects(Rectangle2D r)
+    {
+        return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+    }
+
+    @Override
+    public boolean contains(double x, double y, double w, double h)
+    {
+        return Path2D.contains(getPathIterator(null), x, y, w, h);
+    }
+
+    @Override
+    public boolean contains(Rectangle2D r)
+    {
+        return contains(r.getX(), r.getY(), r.getWidth(), r.getHeight());
+    }
+
+    /**
+     * Get the path's iterator, rewound to its first segment. It is the same iterator every time, so it stops being
+     * valid the next time this is called.
+     *
+     * @param at
+     *            transform to apply to the coordinates, or null
+     * @return iterator
+     */
+    @Override
+    public PathIterator getPathIterator(AffineTransform at)
+    {
+        iterator.segment = 0;
+        iterator.transform = at == null || at.isIdentity() ? null : at;
+        return iterator;
+    }
+
+    @Override
+    public PathIterator getPathIterator(AffineTransform at, double flatness)
+    {
+        return new FlatteningPathIterator(getPathIterator(at), flatness);
+    }
+
+    /**
+     * Walks the segments of the path
+     */
+    private class Iterator implements PathIterator
+    {
+        private int segment;
+
+        private AffineTransform transform;
+
+        @Override
+        public int getWindingRule()
+        {
+            return windingRule;
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return segment >= count;
+        }
+
+        @Override
+        public void next()
+        {
+            segment++;
+        }
+
+        @Override
+        public int currentSegment(float[] out)
+        {
+            final int type = types[segment];
+            final int points = points(type);
+            if (transform == null)
+                System.arraycopy(coords, segment * SEGMENT_COORDS, out, 0, points * 2);
+            else
+                transform.transform(coords, segment * SEGMENT_COORDS, out, 0, points);
+            return type;
+        }
+
+        @Override
+        public int currentSegment(double[] out)
+        {
+            final int type = types[segment];
+            final int points = points(type);
+            if (transform == null)
+            {
+                for (int c = 0; c < points * 2; c++)
+                    out[c] = coords[segment * SEGMENT_COORDS + c];
+            }
+            else
+            {
+                transform.transform(coords, segment * SEGMENT_COORDS, out, 0, points);
+            }
+            return type;
+        }
+    }
+}
@@ -3,115 +3,64 @@ package com.glitchcog.starnom.agent;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
-
-import com.glitchcog.starnom.StarNom;
+import java.awt.geom.PathIterator;
 
 /**
- * A star that flies through the sky in an arc to potentially be eaten by the guy
- * 
+ * The look and the launch ranges of a star that flies through the sky in an arc to potentially be eaten by the guy. The
+ * state of every star in the game is held in the parallel arrays of a {@link StarField}.
+ *
  * @author Matt Yanos
  */
-public class Star extends Agent
+public final class Star
 {
     /**
      * The largest a Star can be
      */
     public static final int MAX_SIZE = 20;
 
-    /**
-     * How large is the star, which influences its physical size and how many points it is worth
-     */
-    private int size;
-
-    /**
-     * How long to delay the star's initialization
-     */
-    private int delay;
-
     /**
      * Variation in the star's size
      */
-    private static int sizeVariation = 10;
+    static final int SIZE_VARIATION = 10;
 
     /**
-     * The color to draw the star
+     * The colors to draw the stars, indexed by the color of each star in a {@link StarField}
      */
-    private static Color[] COLORS = new Color[] { Color.PINK, Color.CYAN.darker(), Color.ORANGE.brighter() };
-
-    private Color color;
+    static final Color[] COLORS = new Color[] { Color.PINK, Color.CYAN.darker(), Color.ORANGE.brighter() };
 
     /**
-     * Construct a star for the given width and height boundaries
-     * 
-     * @param screenWidth
-     * @param screenHeight
+     * The number of points on a star's polygon, counting the inner corners
      */
-    public Star(int screenWidth, int screenHeight)
-    {
-        reset(screenWidth, screenHeight);
-    }
+    static final int POINTS = 10;
 
     /**
-     * Get the size of this star
-     * 
-     * @return size
+     * Construct a path to trace star polygons into with {@link #draw(Graphics2D, float, float, int, Color, ReusablePath)}
+     *
+     * @return polygon
      */
-    @Override
-    public int getSize()
+    static ReusablePath createPolygon()
     {
-        return size;
+        return new ReusablePath(PathIterator.WIND_EVEN_ODD, POINTS + 1);
     }
 
     /**
-     * Reset the star to shoot again
-     * 
-     * @param screenWidth
-     * @param screenHeight
+     * The strokes to outline the stars with, indexed by a fifth of the star's size
      */
-    public void reset(int screenWidth, int screenHeight)
-    {
-        delay = StarNom.RND.nextInt(100);
-        mo.pos.x = -100.0f;
-        mo.pos.y = screenHeight - 175.0f - StarNom.RND.nextInt(85);
-        mo.vel.x = 7.5f + StarNom.RND.nextInt(5);
-        mo.vel.y = -7.0f - StarNom.RND.nextInt(3);
-        mo.acc.x = 0.0f;
-        mo.acc.y = 0.25f;
-        color = COLORS[StarNom.RND.nextInt(COLORS.length)];
-        size = MAX_SIZE - sizeVariation + StarNom.RND.nextInt(sizeVariation);
-    }
+    private static final BasicStroke[] STROKES = new BasicStroke[MAX_SIZE / 5 + 1];
 
-    /**
-     * Update the star logic, to be run once per update loop cycle
-     * 
-     * @param screenWidth
-     * @param screenHeight
-     */
-    public void update(int screenWidth, int screenHeight)
+    static
     {
-        if (delay > 0)
-        {
-            delay--;
-            return;
-        }
-        if (mo.pos.x + size + 20 > screenWidth || mo.pos.y > screenHeight)
-        {
-            reset(screenWidth, screenHeight);
-        }
-        super.update();
+        for (int i = 0; i < STROKES.length; i++)
+            STROKES[i] = new BasicStroke(i, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
     }
 
-    /**
-     * Draw the star
-     */
-    public void draw(Graphics2D g2d)
+    private Star()
     {
-        Star.draw(g2d, mo.pos.x, mo.pos.y, size, color);
     }
 
     /**
      * Render a star on the specified Graphics2D object with the specified position and size
-     * 
+     *
      * @param g2d
      * @param x
      *            horizontal position coordinate
@@ -121,27 +70,36 @@ public class Star extends Agent
      *            star size
      * @param color
      *            star color
+     * @param polygon
+     *            the path to trace the star's polygon into, which is reused from star to star
      */
-    private static void draw(Graphics2D g2d, float x, float y, int radius, Color color)
+    static void draw(Graphics2D g2d, float x, float y, int radius, Color color, ReusablePath polygon)
     {
-        g2d.setStroke(new BasicStroke(radius / 5, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-
-        int[] xPts = new int[10];
-        int[] yPts = new int[10];
+        g2d.setStroke(radius / 5 < STROKES.length ? STROKES[radius / 5] : new BasicStroke(radius / 5, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
 
         final float thirtySixDegrees = 0.62831853f;
 
         float theta;
-        for (int i = 0; i < xPts.length; i++)
+        int pointX;
+        int pointY;
+        polygon.reset();
+        for (int i = 0; i < POINTS; i++)
         {
             theta = (float) Math.PI * 3.0f / 2.0f + thirtySixDegrees * i;
-            xPts[i] = (int) (x + Math.cos(theta) * radius / (i % 2 + 1));
-            yPts[i] = (int) (y + Math.sin(theta) * radius / (i % 2 + 1));
+            pointX = (int) (x + Math.cos(theta) * radius / (i % 2 + 1));
+            pointY = (int) (y + Math.sin(theta) * radius / (i % 2 + 1));
+            if (i == 0)
+                polygon.moveTo(pointX, pointY);
+            else
+                polygon.lineTo(pointX, pointY);
         }
+        polygon.closePath();
 
+        // Filled and drawn as a reusable path rather than with fillPolygon, which copies the points into a new Polygon each
+        // time, or a Path2D, which makes a new iterator over its points each time
         g2d.setColor(color);
-        g2d.fillPolygon(xPts, yPts, xPts.length);
+        g2d.fill(polygon);
         g2d.setColor(Color.BLACK);
-        g2d.drawPolygon(xPts, yPts, xPts.length);
+        g2d.draw(polygon);
     }
 }
@@ -0,0 +1,1139 @@
+package com.glitchcog.starnom.agent;
+
+import java.awt.Graphics2D;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.glitchcog.starnom.TimerWheel;
+import com.glitchcog.starnom.WorldSnapshot;
+import com.glitchcog.starnom.physics.StarMotion;
+import com.glitchcog.starnom.physics.Timestep;
+import com.glitchcog.starnom.random.SplitMix64;
+
+/**
+ * All the stars that fly through the sky, stored as parallel primitive arrays indexed by star rather than as one object
+ * per star, so that updating, colliding and drawing large numbers of stars walks dense memory
+ * <p>
+ * The arrays are a pool allocated once for the most stars the field can hold. The stars in play are packed at the
+ * front of the arrays and the slots after them are free, so the population can grow and shrink at runtime without
+ * allocating anything. A star is acquired from the free slots when it spawns. When it flies off or is eaten while the
+ * population is above its target, it is released by moving the last star in play into its slot. Otherwise it is
+ * respawned in place.
+ * <p>
+ * With {@link StarMotion#CLOSED_FORM} motion the stars aren't moved every tick. Each star's position is worked out from
+ * its launch whenever {@link #evaluate(boolean)} is called, and its respawn is scheduled for the tick it flies out of bounds.
+ *
+ * @author Matt Yanos
+ */
+public class StarField
+{
+    /**
+     * The default most stars to update as a single parallel task
+     */
+    public static final int PARALLEL_THRESHOLD = 8192;
+
+    /**
+     * Horizontal position of each star
+     */
+    public final float[] posX;
+
+    /**
+     * Vertical position of each star
+     */
+    public final float[] posY;
+
+    /**
+     * Horizontal position of each star as of the start of the latest tick, so rendering can interpolate between ticks
+     */
+    public final float[] prevX;
+
+    /**
+     * Vertical position of each star as of the start of the latest tick
+     */
+    public final float[] prevY;
+
+    /**
+     * Horizontal velocity of each star
+     */
+    public final float[] velX;
+
+    /**
+     * Vertical velocity of each star
+     */
+    public final float[] velY;
+
+    /**
+     * Horizontal acceleration of each star
+     */
+    public final float[] accX;
+
+    /**
+     * Vertical acceleration of each star
+     */
+    public final float[] accY;
+
+    /**
+     * How large each star is, which influences its physical size and how many points it is worth
+     */
+    public final int[] size;
+
+    /**
+     * How long each star was given to wait before its launch, while it is still waiting, or 0 once it is launched. Each
+     * waiting star has a timer that launches it when it is due.
+     */
+    public final int[] delay;
+
+    /**
+     * The index into {@link Star#COLORS} to draw each star
+     */
+    public final byte[] color;
+
+    /**
+     * The state of each star's own random stream, which it draws its launches from
+     */
+    public final long[] rng;
+
+    /**
+     * Marks the launch delay of a star that has been eaten and is waiting to be released
+     */
+    private static final int RETIRED = -1;
+
+    /**
+     * The number of stars in play
+     */
+    private int count;
+
+    /**
+     * The number of stars to keep in play, which the stars in play drain down to as they leave play
+     */
+    private int population;
+
+    /**
+     * The number of stars marked {@link #RETIRED}
+     */
+    private int retired;
+
+    /**
+     * The most stars that have been in play at once
+     */
+    private int highWaterMark;
+
+    /**
+     * The furthest any star moved horizontally over the latest tick, as of the latest {@link #measureSteps()}
+     */
+    private float maxStepX;
+
+    /**
+     * The furthest any star moved vertically over the latest tick, as of the latest {@link #measureSteps()}
+     */
+    private float maxStepY;
+
+    /**
+     * How the stars are moved, as of the latest reset
+     */
+    private StarMotion motion = StarMotion.INTEGRATED;
+
+    /**
+     * How the stars are to be moved from the next reset on
+     */
+    private StarMotion nextMotion = StarMotion.INTEGRATED;
+
+    /**
+     * Horizontal position each star was launched from, with closed form motion
+     */
+    private float[] launchX;
+
+    /**
+     * Vertical position each star was launched from, with closed form motion
+     */
+    private float[] launchY;
+
+    /**
+     * The tick before each star's first move, with closed form motion, so that after tick t a star has moved t minus this
+     * many times
+     */
+    private long[] launchTick;
+
+    /**
+     * The tick each star is due to be respawned at for flying out of bounds, with closed form motion
+     */
+    private long[] exitTick;
+
+    /**
+     * The stars' exit ticks in order, with closed form motion
+     */
+    private ExitQueue exits;
+
+    /**
+     * The number of ticks run since the latest reset
+     */
+    private long tick;
+
+    /**
+     * The tick the positions were last worked out for with closed form motion, or -1 if they are out of date
+     */
+    private long evaluatedTick = -1L;
+
+    /**
+     * The tick the previous positions were last worked out for with closed form motion, or -1 if they are out of date
+     */
+    private long evaluatedPreviousTick = -1L;
+
+    /**
+     * The path to trace the polygon of the star being drawn into
+     */
+    private final ReusablePath polygon = Star.createPolygon();
+
+    /**
+     * The length of a tick in base ticks, see {@link Timestep}
+     */
+    private float dt = 1.0f;
+
+    /**
+     * The pool to update the stars on in parallel, or null to update them serially
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Whether the stars are being updated in parallel, so their launch timers have to be scheduled one at a time
+     */
+    private boolean updatingInParallel;
+
+    /**
+     * The world's timers, which the stars' launch timers run on
+     */
+    private final TimerWheel timers;
+
+    /**
+     * The launch timer of the first star, which the other stars' launch timers follow on from
+     */
+    private final int timerBase;
+
+    /**
+     * The most stars to update as a single parallel task, below which the update isn't split any further
+     */
+    private int parallelThreshold;
+
+    /**
+     * Construct the specified number of stars for the given width and height boundaries, with no room for more
+     *
+     * @param count
+     * @param screenWidth
+     * @param screenHeight
+     * @param seed
+     *            the seed each star's random stream is split from
+     * @param timers
+     *            the timers to run the stars' launch delays on
+     */
+    public StarField(int count, int screenWidth, int screenHeight, long seed, TimerWheel timers)
+    {
+        this(count, count, screenWidth, screenHeight, seed, timers);
+    }
+
+    /**
+     * Construct the specified number of stars for the given width and height boundaries, in a pool that can hold up to the
+     * specified capacity
+     *
+     * @param count
+     * @param capacity
+     *            the most stars the population can grow to
+     * @param screenWidth
+     * @param screenHeight
+     * @param seed
+     *            the seed each star's random stream is split from
+     * @param timers
+     *            the timers to run the stars' launch delays on
+     */
+    public StarField(int count, int capacity, int screenWidth, int screenHeight, long seed, TimerWheel timers)
+    {
+        if (count < 0 || count > capacity)
+            throw new IllegalArgumentException("Star count " + count + " must be from 0 to the capacity " + capacity);
+
+        this.population = count;
+        posX = new float[capacity];
+        posY = new float[capacity];
+        prevX = new float[capacity];
+        prevY = new float[capacity];
+        velX = new float[capacity];
+        velY = new float[capacity];
+        accX = new float[capacity];
+        accY = new float[capacity];
+        size = new int[capacity];
+        delay = new int[capacity];
+        color = new byte[capacity];
+        rng = new long[capacity];
+        SplitMix64.seed(rng, seed);
+        this.timers = timers;
+        this.timerBase = timers.register(capacity, new TimerWheel.Listener()
+        {
+            @Override
+            public void expired(int i)
+            {
+                // A retired star keeps its mark until it is released
+                if (delay[i] > 0)
+                    delay[i] = 0;
+            }
+        });
+        reset(screenWidth, screenHeight);
+    }
+
+    /**
+     * Get the number of stars in play, which are the stars at indices up to but not including it
+     *
+     * @return count
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Get the most stars the pool can hold
+     *
+     * @return capacity
+     */
+    public int getCapacity()
+    {
+        return rng.length;
+    }
+
+    /**
+     * Get the number of stars to keep in play
+     *
+     * @return population
+     */
+    public int getPopulation()
+    {
+        return population;
+    }
+
+    /**
+     * Get the most stars that have been in play at once since the field was constructed
+     *
+     * @return high-water mark
+     */
+    public int getHighWaterMark()
+    {
+        return highWaterMark;
+    }
+
+    /**
+     * Check whether the specified star has launched and is moving, rather than waiting out its launch delay or waiting to
+     * be released after being eaten. With closed form motion the delay is waited out by launching the star at a later
+     * tick instead, so a star only counts once it has made its first move.
+     *
+     * @param i
+     *            star index
+     * @return whether the star is in flight
+     */
+    public boolean isInFlight(int i)
+    {
+        if (delay[i] != 0)
+            return false;
+        return motion == StarMotion.INTEGRATED || launchTick[i] < tick;
+    }
+
+    /**
+     * Set the number of stars to keep in play. Growing the population acquires the new stars straight away, each with a
+     * random launch delay like a respawned star. Shrinking it lets the stars already in play finish their flights, and
+     * releases them as they fly off or are eaten until the population is reached.
+     *
+     * @param population
+     * @param screenWidth
+     * @param screenHeight
+     */
+    public void setPopulation(int population, int screenWidth, int screenHeight)
+    {
+        if (population < 0 || population > getCapacity())
+            throw new IllegalArgumentException("Star population " + population + " must be from 0 to the capacity " + getCapacity());
+
+        this.population = population;
+
+        // Stars eaten while there were too many are only released while there still are, so respawn them instead
+        if (retired > 0 && count - retired < population)
+        {
+            for (int i = 0; i < count; i++)
+            {
+                if (delay[i] == RETIRED)
+                    reset(i, screenWidth, screenHeight);
+            }
+            retired = 0;
+        }
+
+        while (count < population)
+            acquire(screenWidth, screenHeight);
+    }
+
+    /**
+     * Bring a star into play from the free slots
+     *
+     * @param screenWidth
+     * @param screenHeight
+     */
+    private void acquire(int screenWidth, int screenHeight)
+    {
+        final int i = count++;
+        highWaterMark = Math.max(highWaterMark, count);
+        reset(i, screenWidth, screenHeight);
+    }
+
+    /**
+     * Take the specified star out of play, moving the last star in play into its slot
+     *
+     * @param i
+     *            star index
+     */
+    private void release(int i)
+    {
+        final int last = --count;
+        posX[i] = posX[last];
+        posY[i] = posY[last];
+        prevX[i] = prevX[last];
+        prevY[i] = prevY[last];
+        velX[i] = velX[last];
+        velY[i] = velY[last];
+        accX[i] = accX[last];
+        accY[i] = accY[last];
+        size[i] = size[last];
+        delay[i] = delay[last];
+        color[i] = color[last];
+
+        // Swap rather than copy the random streams, so the freed slot keeps a stream of its own for when it is reused
+        final long state = rng[i];
+        rng[i] = rng[last];
+        rng[last] = state;
+
+        if (timers.isPending(timerBase + last))
+        {
+            timers.schedule(timerBase + i, timers.getDeadline(timerBase + last));
+            timers.cancel(timerBase + last);
+        }
+        else
+        {
+            timers.cancel(timerBase + i);
+        }
+
+        if (motion == StarMotion.CLOSED_FORM && i != last)
+        {
+            launchX[i] = launchX[last];
+            launchY[i] = launchY[last];
+            launchTick[i] = launchTick[last];
+            exitTick[i] = exitTick[last];
+            schedule(i);
+        }
+    }
+
+    /**
+     * Take the specified star out of play once it has been eaten. If the population is above its target, the star is
+     * released at the start of the next update, so the indices of the other stars don't change in the meantime.
+     * Otherwise it is respawned straight away.
+     *
+     * @param i
+     *            star index
+     * @param screenWidth
+     * @param screenHeight
+     */
+    public void retire(int i, int screenWidth, int screenHeight)
+    {
+        if (count - retired > population)
+        {
+            delay[i] = RETIRED;
+            retired++;
+            timers.cancel(timerBase + i);
+        }
+        else
+        {
+            reset(i, screenWidth, screenHeight);
+        }
+    }
+
+    /**
+     * Release the retired stars, and the stars that have flown off while there are still more in play than the
+     * population. With closed form motion the stars that fly off are instead released as their exits come up. The stars
+     * are visited from the last one down, so the star moved into a released slot has already been visited.
+     *
+     * @param screenWidth
+     * @param screenHeight
+     */
+    private void releaseExcess(int screenWidth, int screenHeight)
+    {
+        int excess = count - retired - population;
+        for (int i = count - 1; i >= 0; i--)
+        {
+            if (delay[i] == RETIRED)
+            {
+                release(i);
+            }
+            else if (motion == StarMotion.INTEGRATED && excess > 0 && delay[i] <= 0 && (posX[i] + size[i] + 20 > screenWidth || posY[i] > screenHeight))
+            {
+                release(i);
+                excess--;
+            }
+        }
+        retired = 0;
+    }
+
+    /**
+     * Set the length of a tick, which scales the stars' motion and launch delays
+     *
+     * @param dt
+     *            the length of a tick in base ticks, see {@link Timestep}
+     */
+    public void setTimestep(float dt)
+    {
+        this.dt = dt;
+    }
+
+    /**
+     * Update the stars in parallel on the specified pool, splitting them into chunks of no more than the specified number
+     * of stars. The stars end up exactly as they would have serially.
+     *
+     * @param pool
+     *            the pool to update the stars on, or null to update them serially
+     * @param parallelThreshold
+     *            the most stars to update as a single task
+     */
+    public void setParallelism(ForkJoinPool pool, int parallelThreshold)
+    {
+        this.pool = pool;
+        this.parallelThreshold = Math.max(1, parallelThreshold);
+    }
+
+    /**
+     * Set how the stars are moved, which takes effect at the next reset. Closed form motion doesn't play out exactly like
+     * integrated motion, as the positions are rounded differently, and a star that flies off waits out its launch delay
+     * before it moves again rather than moving straight away.
+     *
+     * @param motion
+     */
+    public void setMotion(StarMotion motion)
+    {
+        if (motion == StarMotion.CLOSED_FORM && getCapacity() > ExitQueue.MAX_STARS)
+            throw new IllegalArgumentException("Closed form motion can't schedule more than " + ExitQueue.MAX_STARS + " stars");
+        nextMotion = motion;
+    }
+
+    public StarMotion getMotion()
+    {
+        return motion;
+    }
+
+    /**
+     * Reseed every star's random stream, each split from the specified seed
+     *
+     * @param seed
+     */
+    public void seed(long seed)
+    {
+        SplitMix64.seed(rng, seed);
+    }
+
+    /**
+     * Save the state of every star to a snapshot. The stars in play are copied array by array, along with every slot's
+     * random stream, as the free slots keep theirs for when they are reused. With closed form motion the positions and
+     * the queue of exits are left out, as they are worked out from the launches, so the same stars always save the same
+     * bytes however often they were drawn or how their exits happened to be queued.
+     *
+     * @param snapshot
+     */
+    public void save(WorldSnapshot snapshot)
+    {
+        snapshot.putInt(getCapacity());
+        snapshot.putByte((byte) motion.ordinal());
+        snapshot.putInt(count);
+        snapshot.putInt(population);
+        snapshot.putInt(retired);
+        snapshot.putInt(highWaterMark);
+        snapshot.putLong(tick);
+
+        if (motion == StarMotion.INTEGRATED)
+        {
+            snapshot.putFloats(posX, count);
+            snapshot.putFloats(posY, count);
+            snapshot.putFloats(prevX, count);
+            snapshot.putFloats(prevY, count);
+        }
+        snapshot.putFloats(velX, count);
+        snapshot.putFloats(velY, count);
+        snapshot.putFloats(accX, count);
+        snapshot.putFloats(accY, count);
+        snapshot.putInts(size, count);
+        snapshot.putInts(delay, count);
+        snapshot.putBytes(color, count);
+        snapshot.putLongs(rng, getCapacity());
+
+        if (motion == StarMotion.CLOSED_FORM)
+        {
+            snapshot.putFloats(launchX, count);
+            snapshot.putFloats(launchY, count);
+            snapshot.putLongs(launchTick, count);
+            snapshot.putLongs(exitTick, count);
+        }
+    }
+
+    /**
+     * Restore the state of every star from a snapshot. The launch timers are restored along with the rest of the world's
+     * timers. With closed form motion the queue of exits is rebuilt from the stars' exit ticks, and the positions are
+     * worked out again when they are next needed.
+     *
+     * @param snapshot
+     */
+    public void restore(WorldSnapshot snapshot)
+    {
+        final int capacity = snapshot.getInt();
+        if (capacity != getCapacity())
+            throw new IllegalArgumentException("The snapshot has room for " + capacity + " stars, the field has room for " + getCapacity());
+        final int motionOrdinal = snapshot.getByte();
+        if (motionOrdinal != motion.ordinal())
+            throw new IllegalArgumentException("The snapshot was taken with " + StarMotion.values()[motionOrdinal] + " motion, the field has " + motion + " motion");
+
+        count = snapshot.getInt();
+        population = snapshot.getInt();
+        retired = snapshot.getInt();
+        highWaterMark = snapshot.getInt();
+        tick = snapshot.getLong();
+        evaluatedTick = -1L;
+        evaluatedPreviousTick = -1L;
+
+        if (motion == StarMotion.INTEGRATED)
+        {
+            snapshot.getFloats(posX, count);
+            snapshot.getFloats(posY, count);
+            snapshot.getFloats(prevX, count);
+            snapshot.getFloats(prevY, count);
+        }
+        snapshot.getFloats(velX, count);
+        snapshot.getFloats(velY, count);
+        snapshot.getFloats(accX, count);
+        snapshot.getFloats(accY, count);
+        snapshot.getInts(size, count);
+        snapshot.getInts(delay, count);
+        snapshot.getBytes(color, count);
+        snapshot.getLongs(rng, getCapacity());
+
+        if (motion == StarMotion.CLOSED_FORM)
+        {
+            snapshot.getFloats(launchX, count);
+            snapshot.getFloats(launchY, count);
+            snapshot.getLongs(launchTick, count);
+            snapshot.getLongs(exitTick, count);
+            exits.clear();
+            for (int i = 0; i < count; i++)
+            {
+                if (exitTick[i] != NEVER)
+                    exits.add(exitTick[i], i);
+            }
+        }
+    }
+
+    /**
+     * Reset all the stars to shoot again, with exactly the population in play
+     *
+     * @param screenWidth
+     * @param screenHeight
+     */
+    public void reset(int screenWidth, int screenHeight)
+    {
+        motion = nextMotion;
+        if (motion == StarMotion.CLOSED_FORM && launchX == null)
+        {
+            launchX = new float[getCapacity()];
+            launchY = new float[getCapacity()];
+            launchTick = new long[getCapacity()];
+            exitTick = new long[getCapacity()];
+            exits = new ExitQueue(getCapacity() * 2 + 16);
+        }
+        if (exits != null)
+            exits.clear();
+        tick = 0L;
+        evaluatedTick = -1L;
+        evaluatedPreviousTick = -1L;
+
+        count = population;
+        retired = 0;
+        highWaterMark = Math.max(highWaterMark, count);
+        for (int i = 0; i < count; i++)
+            reset(i, screenWidth, screenHeight);
+    }
+
+    /**
+     * Reset the specified star to shoot again
+     *
+     * @param i
+     *            star index
+     * @param screenWidth
+     * @param screenHeight
+     */
+    public void reset(int i, int screenWidth, int screenHeight)
+    {
+        delay[i] = Timestep.ticks(SplitMix64.nextInt(rng, i, 100), dt);
+        posX[i] = -100.0f;
+        posY[i] = screenHeight - 175.0f - SplitMix64.nextInt(rng, i, 85);
+        velX[i] = 7.5f + SplitMix64.nextInt(rng, i, 5);
+        velY[i] = -7.0f - SplitMix64.nextInt(rng, i, 3);
+        accX[i] = 0.0f;
+        accY[i] = 0.25f;
+        color[i] = (byte) SplitMix64.nextInt(rng, i, Star.COLORS.length);
+        size[i] = Star.MAX_SIZE - Star.SIZE_VARIATION + SplitMix64.nextInt(rng, i, Star.SIZE_VARIATION);
+        prevX[i] = posX[i];
+        prevY[i] = posY[i];
+
+        if (motion == StarMotion.CLOSED_FORM)
+            launch(i, screenWidth, screenHeight);
+        else
+            scheduleLaunch(i);
+    }
+
+    /**
+     * Set the specified star's launch timer to go off once it has waited out its delay, which starts with the next
+     * update, or cancel it if there is no delay
+     *
+     * @param i
+     *            star index
+     */
+    private void scheduleLaunch(int i)
+    {
+        if (delay[i] <= 0)
+        {
+            timers.cancel(timerBase + i);
+        }
+        else if (updatingInParallel)
+        {
+            synchronized (timers)
+            {
+                timers.schedule(timerBase + i, tick + delay[i] + 1);
+            }
+        }
+        else
+        {
+            timers.schedule(timerBase + i, tick + delay[i] + 1);
+        }
+    }
+
+    /**
+     * Record where and when the specified star, just reset, is launched from, and schedule it to respawn when it flies out
+     * of bounds
+     *
+     * @param i
+     *            star index
+     * @param screenWidth
+     * @param screenHeight
+     */
+    private void launch(int i, int screenWidth, int screenHeight)
+    {
+        launchX[i] = posX[i];
+        launchY[i] = posY[i];
+        launchTick[i] = tick + delay[i];
+        delay[i] = 0;
+
+        // Bounds are checked at the start of a tick, so a star that has moved n times is caught in the tick after that
+        final long moves = Math.min(movesUntilPast(launchX[i], velX[i], accX[i], screenWidth - size[i] - 20), movesUntilPast(launchY[i], velY[i], accY[i], screenHeight));
+        exitTick[i] = moves == NEVER ? NEVER : launchTick[i] + moves + 1;
+        schedule(i);
+    }
+
+    /**
+     * Add the specified star's exit to the queue, rebuilding the queue from the exit ticks of the stars in play if it has
+     * filled up with stale entries
+     *
+     * @param i
+     *            star index
+     */
+    private void schedule(int i)
+    {
+        if (exitTick[i] == NEVER)
+            return;
+
+        if (exits.isFull())
+        {
+            exits.clear();
+            for (int j = 0; j < count; j++)
+            {
+                if (j != i && exitTick[j] != NEVER)
+                    exits.add(exitTick[j], j);
+            }
+        }
+        exits.add(exitTick[i], i);
+    }
+
+    /**
+     * Marks a star that never flies out of bounds
+     */
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * The most moves ahead to look for a star flying out of bounds
+     */
+    private static final long MAX_MOVES = 1L << 30;
+
+    /**
+     * Work out where a star launched from the specified position coordinate is along one axis after the specified number
+     * of moves, the same as adding the acceleration to the velocity and then the velocity to the position that many
+     * times
+     *
+     * @param launch
+     *            launch position coordinate
+     * @param vel
+     *            launch velocity
+     * @param acc
+     *            acceleration
+     * @param moves
+     * @return position coordinate
+     */
+    private float position(float launch, float vel, float acc, long moves)
+    {
+        final float n = moves;
+        return launch + n * (vel * dt + acc * dt * dt * 0.5f * (n + 1.0f));
+    }
+
+    /**
+     * Work out the fewest moves after which a star launched from the specified position coordinate is past the specified
+     * limit along one axis
+     *
+     * @param launch
+     *            launch position coordinate
+     * @param vel
+     *            launch velocity
+     * @param acc
+     *            acceleration
+     * @param limit
+     * @return the number of moves, or {@link #NEVER}
+     */
+    private long movesUntilPast(float launch, float vel, float acc, float limit)
+    {
+        if (launch > limit)
+            return 0L;
+
+        // Solve a n^2 + b n + c = 0 for the position after n moves reaching the limit
+        final double a = acc * dt * dt * 0.5;
+        final double b = vel * dt + a;
+        final double c = launch - limit;
+        final double root;
+        if (a == 0.0)
+        {
+            if (b <= 0.0)
+                return NEVER;
+            root = -c / b;
+        }
+        else
+        {
+            final double discriminant = b * b - 4.0 * a * c;
+            if (discriminant < 0.0)
+                return NEVER;
+            root = (-b + Math.sqrt(discriminant)) / (2.0 * a);
+        }
+        if (!(root < MAX_MOVES))
+            return NEVER;
+
+        // The positions are worked out in floats, so settle on the first move they actually put past the limit
+        long moves = Math.max(0L, (long) Math.ceil(root));
+        while (moves > 0L && position(launch, vel, acc, moves - 1L) > limit)
+            moves--;
+        for (int step = 0; step < 4 && position(launch, vel, acc, moves) <= limit; step++)
+            moves++;
+        return position(launch, vel, acc, moves) > limit ? moves : NEVER;
+    }
+
+    /**
+     * Work out every star's position, if it hasn't been worked out since the latest tick. This does nothing with
+     * integrated motion, where the positions are always up to date.
+     *
+     * @param previous
+     *            whether each star's position as of the start of the latest tick is needed too, for drawing the stars
+     *            in between ticks or sweeping them over the tick
+     */
+    public void evaluate(boolean previous)
+    {
+        if (motion != StarMotion.CLOSED_FORM)
+            return;
+
+        if (evaluatedTick != tick)
+        {
+            evaluate(posX, posY, tick);
+            evaluatedTick = tick;
+        }
+        if (previous && evaluatedPreviousTick != tick)
+        {
+            evaluate(prevX, prevY, tick - 1L);
+            evaluatedPreviousTick = tick;
+        }
+    }
+
+    /**
+     * Work out every star's current velocity. With integrated motion this is just a copy of the velocities, and with
+     * closed form motion it is worked out from each star's launch velocity and the moves it has made since.
+     *
+     * @param x
+     *            the horizontal velocities to fill in
+     * @param y
+     *            the vertical velocities to fill in
+     */
+    public void evaluateVelocities(float[] x, float[] y)
+    {
+        if (motion != StarMotion.CLOSED_FORM)
+        {
+            System.arraycopy(velX, 0, x, 0, count);
+            System.arraycopy(velY, 0, y, 0, count);
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            final float moves = Math.max(0L, tick - launchTick[i]);
+            x[i] = velX[i] + accX[i] * dt * moves;
+            y[i] = velY[i] + accY[i] * dt * moves;
+        }
+    }
+
+    /**
+     * Work out where every star is as of the specified tick, clamped to its launch position before it was launched
+     *
+     * @param x
+     *            the horizontal position coordinates to fill in
+     * @param y
+     *            the vertical position coordinates to fill in
+     * @param at
+     *            tick
+     */
+    private void evaluate(float[] x, float[] y, long at)
+    {
+        for (int i = 0; i < count; i++)
+        {
+            final long moves = Math.max(0L, at - launchTick[i]);
+            x[i] = position(launchX[i], velX[i], accX[i], moves);
+            y[i] = position(launchY[i], velY[i], accY[i], moves);
+        }
+    }
+
+    /**
+     * Update the star logic for all the stars, to be run once per update loop cycle
+     *
+     * @param screenWidth
+     * @param screenHeight
+     */
+    public void update(int screenWidth, int screenHeight)
+    {
+        if (count > population)
+            releaseExcess(screenWidth, screenHeight);
+
+        tick++;
+        if (motion == StarMotion.CLOSED_FORM)
+        {
+            respawnExits(screenWidth, screenHeight);
+            return;
+        }
+
+        if (pool != null && count > parallelThreshold)
+        {
+            updateParallel(screenWidth, screenHeight);
+            return;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            if (delay[i] > 0)
+                continue;
+            if (posX[i] + size[i] + 20 > screenWidth || posY[i] > screenHeight)
+            {
+                reset(i, screenWidth, screenHeight);
+            }
+            integrate(i);
+        }
+    }
+
+    /**
+     * Respawn every star whose exit has come up, or release it while there are more stars in play than the population
+     *
+     * @param screenWidth
+     * @param screenHeight
+     */
+    private void respawnExits(int screenWidth, int screenHeight)
+    {
+        while (exits.isDue(tick))
+        {
+            final long entry = exits.poll();
+            final int i = ExitQueue.index(entry);
+            if (i >= count || exitTick[i] != ExitQueue.tick(entry))
+                continue;
+
+            if (count > population)
+                release(i);
+            else
+                reset(i, screenWidth, screenHeight);
+        }
+    }
+
+    /**
+     * Update the stars in parallel. Each star respawns from its own random stream, so the order the chunks run in makes
+     * no difference.
+     *
+     * @param screenWidth
+     * @param screenHeight
+     */
+    private void updateParallel(int screenWidth, int screenHeight)
+    {
+        updatingInParallel = true;
+        try
+        {
+            pool.invoke(new UpdateTask(0, count, screenWidth, screenHeight));
+        }
+        finally
+        {
+            updatingInParallel = false;
+        }
+    }
+
+    /**
+     * Update the stars in the specified range
+     *
+     * @param from
+     *            the first star index, inclusive
+     * @param to
+     *            the last star index, exclusive
+     * @param screenWidth
+     * @param screenHeight
+     */
+    private void updateRange(int from, int to, int screenWidth, int screenHeight)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (delay[i] > 0)
+                continue;
+            if (posX[i] + size[i] + 20 > screenWidth || posY[i] > screenHeight)
+            {
+                reset(i, screenWidth, screenHeight);
+            }
+            integrate(i);
+        }
+    }
+
+    /**
+     * Update the specified star's motion by one tick
+     *
+     * @param i
+     *            star index
+     */
+    private void integrate(int i)
+    {
+        // Add acceleration to velocity
+        velX[i] += accX[i] * dt;
+        velY[i] += accY[i] * dt;
+
+        // Add velocity to position
+        posX[i] += velX[i] * dt;
+        posY[i] += velY[i] * dt;
+    }
+
+    /**
+     * Updates a range of stars, splitting it in half until it is small enough
+     */
+    private class UpdateTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+
+        private final int to;
+
+        private final int screenWidth;
+
+        private final int screenHeight;
+
+        private UpdateTask(int from, int to, int screenWidth, int screenHeight)
+        {
+            this.from = from;
+            this.to = to;
+            this.screenWidth = screenWidth;
+            this.screenHeight = screenHeight;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from <= parallelThreshold)
+            {
+                updateRange(from, to, screenWidth, screenHeight);
+            }
+            else
+            {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new UpdateTask(from, mid, screenWidth, screenHeight), new UpdateTask(mid, to, screenWidth, screenHeight));
+            }
+        }
+    }
+
+    /**
+     * Remember the current positions as the previous positions, to be run at the start of each tick
+     */
+    public void savePositions()
+    {
+        // Closed form motion works the previous positions out along with the current ones
+        if (motion == StarMotion.CLOSED_FORM)
+            return;
+
+        System.arraycopy(posX, 0, prevX, 0, count);
+        System.arraycopy(posY, 0, prevY, 0, count);
+    }
+
+    /**
+     * Measure the furthest any star moved along each axis over the latest tick, from its previous position to its
+     * current one
+     */
+    public void measureSteps()
+    {
+        float stepX = 0.0f;
+        float stepY = 0.0f;
+        for (int i = 0; i < count; i++)
+        {
+            stepX = Math.max(stepX, Math.abs(posX[i] - prevX[i]));
+            stepY = Math.max(stepY, Math.abs(posY[i] - prevY[i]));
+        }
+        maxStepX = stepX;
+        maxStepY = stepY;
+    }
+
+    public float getMaxStepX()
+    {
+        return maxStepX;
+    }
+
+    public float getMaxStepY()
+    {
+        return maxStepY;
+    }
+
+    /**
+     * Draw all the stars
+     *
+     * @param g2d
+     */
+    public void draw(Graphics2D g2d)
+    {
+        draw(g2d, 1.0f);
+    }
+
+    /**
+     * Draw all the stars at the specified fraction of the way from their previous positions to their current ones
+     *
+     * @param g2d
+     * @param alpha
+     */
+    public void draw(Graphics2D g2d, float alpha)
+    {
+        for (int i = 0; i < count; i++)
+            drawStar(g2d, i, alpha);
+    }
+
+    /**
+     * Draw the specified star at the specified fraction of the way from its previous position to its current one
+     *
+     * @param g2d
+     * @param i
+     *            star index
+     * @param alpha
+     */
+    public void drawStar(Graphics2D g2d, int i, float alpha)
+    {
+        Star.draw(g2d, prevX[i] + (posX[i] - prevX[i]) * alpha, prevY[i] + (posY[i] - prevY[i]) * alpha, size[i], Star.COLORS[color[i]], polygon);
+    }
+}
@@ -0,0 +1,167 @@
+package com.glitchcog.starnom.agent;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * An atlas of every star pre-rendered once for each size and color, so drawing a star is a single image blit rather than
+ * building, filling and stroking its polygon. Each star can also be pre-rendered at several sub-pixel offsets, so stars
+ * drawn at fractional positions still line up closely with where the polygon would have been drawn.
+ * 
+ * @author Matt Yanos
+ */
+public class StarSprites
+{
+    /**
+     * The smallest size a star can be
+     */
+    private static final int MIN_SIZE = Star.MAX_SIZE - Star.SIZE_VARIATION;
+
+    /**
+     * The number of sizes a star can be
+     */
+    private static final int SIZE_COUNT = Star.SIZE_VARIATION;
+
+    /**
+     * How far a sprite's center is from its cell's top left corner, leaving room for the outline and a sub-pixel offset
+     */
+    private static final int HALF_CELL = Star.MAX_SIZE + 4;
+
+    /**
+     * The width and height of each sprite's cell in the atlas
+     */
+    private static final int CELL_SIZE = HALF_CELL * 2;
+
+    /**
+     * The number of sub-pixel offsets along each axis
+     */
+    private final int subpixelSteps;
+
+    /**
+     * Every sprite, with a row per size and color and a column per sub-pixel offset
+     */
+    private final BufferedImage atlas;
+
+    /**
+     * The path to trace the polygon of a star drawn without a sprite into
+     */
+    private final ReusablePath polygon = Star.createPolygon();
+
+    /**
+     * Pre-render all the stars with the specified number of sub-pixel offsets along each axis
+     * 
+     * @param subpixelSteps
+     *            1 to snap stars to whole pixels, or more for smoother motion at the cost of a larger atlas
+     */
+    public StarSprites(int subpixelSteps)
+    {
+        if (subpixelSteps < 1)
+            throw new IllegalArgumentException("Sub-pixel steps must be at least 1: " + subpixelSteps);
+
+        this.subpixelSteps = subpixelSteps;
+        this.atlas = new BufferedImage(CELL_SIZE * subpixelSteps * subpixelSteps, CELL_SIZE * SIZE_COUNT * Star.COLORS.length, BufferedImage.TYPE_INT_ARGB_PRE);
+
+        Graphics2D g2d = atlas.createGraphics();
+        try
+        {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            for (int size = MIN_SIZE; size < MIN_SIZE + SIZE_COUNT; size++)
+            {
+                for (int color = 0; color < Star.COLORS.length; color++)
+                {
+                    final int top = row(size, color) * CELL_SIZE;
+                    for (int sy = 0; sy < subpixelSteps; sy++)
+                    {
+                        for (int sx = 0; sx < subpixelSteps; sx++)
+                        {
+                            final int left = column(sx, sy) * CELL_SIZE;
+                            g2d.setClip(left, top, CELL_SIZE, CELL_SIZE);
+                            Star.draw(g2d, left + HALF_CELL + (float) sx / subpixelSteps, top + HALF_CELL + (float) sy / subpixelSteps, size, Star.COLORS[color], polygon);
+                        }
+                    }
+                }
+            }
+        }
+        finally
+        {
+            g2d.dispose();
+        }
+    }
+
+    /**
+     * Draw all the stars in the specified field at the specified fraction of the way from their previous positions to
+     * their current ones
+     * 
+     * @param g2d
+     * @param stars
+     * @param alpha
+     */
+    public void draw(Graphics2D g2d, StarField stars, float alpha)
+    {
+        final float[] posX = stars.posX;
+        final float[] posY = stars.posY;
+        final float[] prevX = stars.prevX;
+        final float[] prevY = stars.prevY;
+        for (int i = 0; i < stars.getCount(); i++)
+            draw(g2d, prevX[i] + (posX[i] - prevX[i]) * alpha, prevY[i] + (posY[i] - prevY[i]) * alpha, stars.size[i], stars.color[i]);
+    }
+
+    /**
+     * Draw a star by blitting its sprite
+     * 
+     * @param g2d
+     * @param x
+     *            horizontal position coordinate
+     * @param y
+     *            vertical position coordinate
+     * @param size
+     *            star size
+     * @param color
+     *            index into the star colors
+     */
+    public void draw(Graphics2D g2d, float x, float y, int size, int color)
+    {
+        if (size < MIN_SIZE || size >= MIN_SIZE + SIZE_COUNT)
+        {
+            Star.draw(g2d, x, y, size, Star.COLORS[color], polygon);
+            return;
+        }
+
+        final int pixelX = (int) Math.floor(x);
+        final int pixelY = (int) Math.floor(y);
+        final int sx = Math.min((int) ((x - pixelX) * subpixelSteps), subpixelSteps - 1);
+        final int sy = Math.min((int) ((y - pixelY) * subpixelSteps), subpixelSteps - 1);
+
+        final int srcX = column(sx, sy) * CELL_SIZE;
+        final int srcY = row(size, color) * CELL_SIZE;
+        final int dstX = pixelX - HALF_CELL;
+        final int dstY = pixelY - HALF_CELL;
+
+        g2d.drawImage(atlas, dstX, dstY, dstX + CELL_SIZE, dstY + CELL_SIZE, srcX, srcY, srcX + CELL_SIZE, srcY + CELL_SIZE, null);
+    }
+
+    /**
+     * Get the atlas row of a star's sprites
+     * 
+     * @param size
+     * @param color
+     * @return row
+     */
+    private static int row(int size, int color)
+    {
+        return (size - MIN_SIZE) * Star.COLORS.length + color;
+    }
+
+    /**
+     * Get the atlas column of a sub-pixel offset
+     * 
+     * @param sx
+     * @param sy
+     * @return column
+     */
+    private int column(int sx, int sy)
+    {
+        return sy * subpixelSteps + sx;
+    }
+}
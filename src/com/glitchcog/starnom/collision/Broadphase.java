@@ -0,0 +1,53 @@
+package com.glitchcog.starnom.collision;
+
+import com.glitchcog.starnom.agent.StarField;
+
+/**
+ * Narrows down which stars could be touching a circle so that only those need an exact distance check
+ * 
+ * @author Matt Yanos
+ */
+public interface Broadphase
+{
+    /**
+     * Prepare the broadphase for queries against the current star positions, to be run once per update loop cycle
+     * before querying
+     * 
+     * @param stars
+     */
+    public void build(StarField stars);
+
+    /**
+     * Collect the indices of the stars whose centers may be within the specified distance of the specified point. Every
+     * star that is within the distance is collected, but stars that are not may be collected too.
+     * 
+     * @param x
+     *            horizontal position coordinate
+     * @param y
+     *            vertical position coordinate
+     * @param distance
+     *            the distance from the point to a star's center to look within
+     * @param candidates
+     *            filled with the indices of the candidate stars, must be at least as long as the number of stars
+     * @return the number of candidates collected
+     */
+    public int query(float x, float y, float distance, int[] candidates);
+
+    /**
+     * Collect the indices of the stars whose centers may be within the specified box. Every star that is within the box
+     * is collected, but stars that are not may be collected too.
+     * 
+     * @param minX
+     *            left edge of the box
+     * @param minY
+     *            top edge of the box
+     * @param maxX
+     *            right edge of the box
+     * @param maxY
+     *            bottom edge of the box
+     * @param candidates
+     *            filled with the indices of the candidate stars, must be at least as long as the number of stars
+     * @return the number of candidates collected
+     */
+    public int queryBox(float minX, float minY, float maxX, float maxY, int[] candidates);
+}
@@ -0,0 +1,76 @@
+package com.glitchcog.starnom.collision;
+
+/**
+ * The available broadphase strategies, selectable by name for a run
+ * 
+ * @author Matt Yanos
+ */
+public enum BroadphaseType
+{
+    /**
+     * Check every star, see {@link BruteForceBroadphase}
+     */
+    BRUTE("brute"),
+
+    /**
+     * Uniform spatial hash grid, see {@link GridBroadphase}
+     */
+    GRID("grid"),
+
+    /**
+     * Sweep and prune along the horizontal axis, see {@link SweepAndPruneBroadphase}
+     */
+    SAP("sap");
+
+    /**
+     * The name used to select this strategy
+     */
+    private final String label;
+
+    private BroadphaseType(String label)
+    {
+        this.label = label;
+    }
+
+    /**
+     * Construct a new broadphase of this type
+     * 
+     * @return broadphase
+     */
+    public Broadphase create()
+    {
+        switch (this)
+        {
+        case GRID:
+            return new GridBroadphase();
+        case SAP:
+            return new SweepAndPruneBroadphase();
+        default:
+            return new BruteForceBroadphase();
+        }
+    }
+
+    /**
+     * Get the type with the specified name
+     * 
+     * @param label
+     * @return type
+     * @throws IllegalArgumentException
+     *             if no type has the specified name
+     */
+    public static BroadphaseType fromLabel(String label)
+    {
+        for (BroadphaseType type : values())
+        {
+            if (type.label.equalsIgnoreCase(label))
+                return type;
+        }
+        throw new IllegalArgumentException("Unknown broadphase: " + label);
+    }
+
+    @Override
+    public String toString()
+    {
+        return label;
+    }
+}
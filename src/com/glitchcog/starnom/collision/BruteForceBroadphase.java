@@ -0,0 +1,36 @@
+package com.glitchcog.starnom.collision;
+
+import com.glitchcog.starnom.agent.StarField;
+
+/**
+ * The reference broadphase, which collects every star as a candidate
+ * 
+ * @author Matt Yanos
+ */
+public class BruteForceBroadphase implements Broadphase
+{
+    /**
+     * The number of stars as of the last build
+     */
+    private int count;
+
+    @Override
+    public void build(StarField stars)
+    {
+        count = stars.getCount();
+    }
+
+    @Override
+    public int query(float x, float y, float distance, int[] candidates)
+    {
+        for (int i = 0; i < count; i++)
+            candidates[i] = i;
+        return count;
+    }
+
+    @Override
+    public int queryBox(float minX, float minY, float maxX, float maxY, int[] candidates)
+    {
+        return query(0.0f, 0.0f, 0.0f, candidates);
+    }
+}
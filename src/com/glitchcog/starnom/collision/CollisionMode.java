@@ -0,0 +1,54 @@
+package com.glitchcog.starnom.collision;
+
+/**
+ * The available ways of testing the guy against the stars, selectable by name for a run
+ * 
+ * @author Matt Yanos
+ */
+public enum CollisionMode
+{
+    /**
+     * Test only where the guy and the stars are at the end of each tick, which can miss a star the guy passes clean
+     * through within a tick
+     */
+    DISCRETE("discrete"),
+
+    /**
+     * Test the whole of the guy's path over each tick against the whole of each star's, see {@link SweptCollision}
+     */
+    SWEPT("swept");
+
+    /**
+     * The name used to select this mode
+     */
+    private final String label;
+
+    private CollisionMode(String label)
+    {
+        this.label = label;
+    }
+
+    /**
+     * Get the mode with the specified name
+     * 
+     * @param label
+     * @return mode
+     * @throws IllegalArgumentException
+     *             if no mode has the specified name
+     */
+    public static CollisionMode fromLabel(String label)
+    {
+        for (CollisionMode mode : values())
+        {
+            if (mode.label.equalsIgnoreCase(label))
+                return mode;
+        }
+        throw new IllegalArgumentException("Unknown collision mode: " + label);
+    }
+
+    @Override
+    public String toString()
+    {
+        return label;
+    }
+}
@@ -0,0 +1,216 @@
+package com.glitchcog.starnom.collision;
+
+import java.util.Arrays;
+
+import com.glitchcog.starnom.agent.Star;
+import com.glitchcog.starnom.agent.StarField;
+
+/**
+ * A uniform grid broadphase that hashes each star's cell into a table of buckets, so a query only has to look through
+ * the stars in the few cells that overlap it. The grid is unbounded, so stars waiting off screen to launch are hashed
+ * like any other.
+ * 
+ * @author Matt Yanos
+ */
+public class GridBroadphase implements Broadphase
+{
+    /**
+     * The width and height of a grid cell, big enough to hold the largest star
+     */
+    public static final float CELL_SIZE = Star.MAX_SIZE * 2;
+
+    /**
+     * The most cells a single query may visit, any more are rejected as a misuse of the grid
+     */
+    private static final int MAX_QUERY_CELLS = 64;
+
+    /**
+     * For each bucket, the index into {@link #sorted} where its stars begin, with one extra entry marking the end of the
+     * last bucket
+     */
+    private int[] bucketStart = new int[1];
+
+    /**
+     * Where the next star of each bucket goes while building
+     */
+    private int[] bucketCursor = new int[0];
+
+    /**
+     * The bucket each star was hashed into
+     */
+    private int[] starBucket = new int[0];
+
+    /**
+     * Star indices grouped by bucket, in increasing index order within each bucket
+     */
+    private int[] sorted = new int[0];
+
+    /**
+     * Buckets already collected by the current query, so that two cells sharing a bucket aren't collected twice
+     */
+    private final int[] visited = new int[MAX_QUERY_CELLS];
+
+    /**
+     * One less than the number of buckets, which is always a power of two
+     */
+    private int mask;
+
+    /**
+     * The number of stars as of the last build
+     */
+    private int count;
+
+    @Override
+    public void build(StarField stars)
+    {
+        count = stars.getCount();
+        ensureCapacity(count, stars.getCapacity());
+
+        Arrays.fill(bucketStart, 0, mask + 2, 0);
+
+        final float[] posX = stars.posX;
+        final float[] posY = stars.posY;
+        int b;
+        for (int i = 0; i < count; i++)
+        {
+            b = bucket(cell(posX[i]), cell(posY[i]));
+            starBucket[i] = b;
+            bucketStart[b + 1]++;
+        }
+
+        for (int i = 0; i < mask + 1; i++)
+        {
+            bucketStart[i + 1] += bucketStart[i];
+            bucketCursor[i] = bucketStart[i];
+        }
+
+        for (int i = 0; i < count; i++)
+            sorted[bucketCursor[starBucket[i]]++] = i;
+    }
+
+    @Override
+    public int query(float x, float y, float distance, int[] candidates)
+    {
+        final int minCellX = cell(x - distance);
+        final int maxCellX = cell(x + distance);
+        final int minCellY = cell(y - distance);
+        final int maxCellY = cell(y + distance);
+
+        if ((maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > MAX_QUERY_CELLS)
+            throw new IllegalArgumentException("Query distance " + distance + " is too large for the grid cell size " + CELL_SIZE);
+
+        return collect(minCellX, minCellY, maxCellX, maxCellY, candidates);
+    }
+
+    /**
+     * {@inheritDoc} A box spanning more cells than a query may visit collects every star, as it would cover most of the
+     * buckets anyway.
+     */
+    @Override
+    public int queryBox(float minX, float minY, float maxX, float maxY, int[] candidates)
+    {
+        final int minCellX = cell(minX);
+        final int maxCellX = cell(maxX);
+        final int minCellY = cell(minY);
+        final int maxCellY = cell(maxY);
+
+        if ((long) (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1) > MAX_QUERY_CELLS)
+        {
+            for (int i = 0; i < count; i++)
+                candidates[i] = i;
+            return count;
+        }
+
+        return collect(minCellX, minCellY, maxCellX, maxCellY, candidates);
+    }
+
+    /**
+     * Collect the stars in every bucket the specified range of cells hashes to
+     * 
+     * @param minCellX
+     * @param minCellY
+     * @param maxCellX
+     * @param maxCellY
+     * @param candidates
+     * @return the number of candidates collected
+     */
+    private int collect(int minCellX, int minCellY, int maxCellX, int maxCellY, int[] candidates)
+    {
+        int found = 0;
+        int visitedCount = 0;
+        for (int cy = minCellY; cy <= maxCellY; cy++)
+        {
+            for (int cx = minCellX; cx <= maxCellX; cx++)
+            {
+                final int b = bucket(cx, cy);
+
+                boolean seen = false;
+                for (int v = 0; v < visitedCount && !seen; v++)
+                    seen = visited[v] == b;
+                if (seen)
+                    continue;
+                visited[visitedCount++] = b;
+
+                for (int s = bucketStart[b]; s < bucketStart[b + 1]; s++)
+                    candidates[found++] = sorted[s];
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Make sure the arrays can hold as many stars as the field can, so the population can change without reallocating
+     * them, and size the grid's buckets to the stars in play
+     * 
+     * @param count
+     *            the number of stars in play
+     * @param capacity
+     *            the most stars the field can hold
+     */
+    private void ensureCapacity(int count, int capacity)
+    {
+        if (sorted.length < capacity)
+        {
+            final int buckets = buckets(capacity);
+            bucketStart = new int[buckets + 1];
+            bucketCursor = new int[buckets];
+            starBucket = new int[capacity];
+            sorted = new int[capacity];
+        }
+        mask = buckets(count) - 1;
+    }
+
+    /**
+     * Get the number of buckets to hash the specified number of stars into, a power of two
+     * 
+     * @param count
+     * @return buckets
+     */
+    private static int buckets(int count)
+    {
+        return Math.max(16, Integer.highestOneBit(Math.max(1, count - 1)) << 1);
+    }
+
+    /**
+     * Get the grid cell coordinate of the specified position coordinate
+     * 
+     * @param coordinate
+     * @return cell coordinate
+     */
+    private static int cell(float coordinate)
+    {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    /**
+     * Hash the specified cell into a bucket
+     * 
+     * @param cellX
+     * @param cellY
+     * @return bucket
+     */
+    private int bucket(int cellX, int cellY)
+    {
+        return ((cellX * 73856093) ^ (cellY * 19349663)) & mask;
+    }
+}
@@ -0,0 +1,177 @@
+package com.glitchcog.starnom.collision;
+
+import java.util.Arrays;
+
+import com.glitchcog.starnom.agent.StarField;
+
+/**
+ * A sweep and prune broadphase that keeps the stars sorted along the horizontal axis, so a query only has to look at the
+ * stars within its horizontal span. Stars all fly left to right at similar speeds, so the order barely changes between
+ * ticks. It is repaired by sorting only the stars that fell out of order and merging them back in, rather than by
+ * sorting from scratch.
+ * 
+ * @author Matt Yanos
+ */
+public class SweepAndPruneBroadphase implements Broadphase
+{
+    /**
+     * Each star's horizontal position in the high bits, made to order as a signed int, and its index in the low bits,
+     * kept sorted
+     */
+    private long[] entries = new long[0];
+
+    /**
+     * Where the entries are merged back into order, swapped with {@link #entries} after each build
+     */
+    private long[] merged = new long[0];
+
+    /**
+     * Entries that fell out of order since the last build, typically stars respawned back on the left
+     */
+    private long[] displaced = new long[0];
+
+    /**
+     * The stars being swept, as of the last build
+     */
+    private StarField stars;
+
+    /**
+     * The number of stars sorted by the last build. The entries are sized to the most stars the field can hold, and are
+     * sorted from scratch whenever the number of stars in play changes.
+     */
+    private int count;
+
+    @Override
+    public void build(StarField stars)
+    {
+        this.stars = stars;
+        final float[] posX = stars.posX;
+
+        if (entries.length < stars.getCapacity())
+        {
+            entries = new long[stars.getCapacity()];
+            merged = new long[stars.getCapacity()];
+            displaced = new long[stars.getCapacity()];
+            count = -1;
+        }
+
+        if (count != stars.getCount())
+        {
+            count = stars.getCount();
+            for (int i = 0; i < count; i++)
+                entries[i] = entry(posX[i], i);
+            Arrays.sort(entries, 0, count);
+            return;
+        }
+
+        // Pull out the entries that are now smaller than one before them, leaving the rest in order
+        int kept = 0;
+        int displacedCount = 0;
+        long last = Long.MIN_VALUE;
+        for (int p = 0; p < count; p++)
+        {
+            final int i = (int) entries[p];
+            final long e = entry(posX[i], i);
+            if (e < last)
+            {
+                displaced[displacedCount++] = e;
+            }
+            else
+            {
+                entries[kept++] = e;
+                last = e;
+            }
+        }
+
+        if (displacedCount == 0)
+            return;
+
+        // Then merge the few displaced entries back in
+        Arrays.sort(displaced, 0, displacedCount);
+        int k = 0;
+        int d = 0;
+        for (int p = 0; p < count; p++)
+        {
+            if (d == displacedCount || (k < kept && entries[k] <= displaced[d]))
+                merged[p] = entries[k++];
+            else
+                merged[p] = displaced[d++];
+        }
+
+        final long[] swap = entries;
+        entries = merged;
+        merged = swap;
+    }
+
+    @Override
+    public int query(float x, float y, float distance, int[] candidates)
+    {
+        final float[] posX = stars.posX;
+        final float[] posY = stars.posY;
+        final float maxX = x + distance;
+
+        int found = 0;
+        for (int p = firstAtOrAfter(entry(x - distance, 0)); p < count; p++)
+        {
+            final int i = (int) entries[p];
+            if (posX[i] > maxX)
+                break;
+            if (Math.abs(posY[i] - y) <= distance)
+                candidates[found++] = i;
+        }
+        return found;
+    }
+
+    @Override
+    public int queryBox(float minX, float minY, float maxX, float maxY, int[] candidates)
+    {
+        final float[] posX = stars.posX;
+        final float[] posY = stars.posY;
+
+        int found = 0;
+        for (int p = firstAtOrAfter(entry(minX, 0)); p < count; p++)
+        {
+            final int i = (int) entries[p];
+            if (posX[i] > maxX)
+                break;
+            if (posY[i] >= minY && posY[i] <= maxY)
+                candidates[found++] = i;
+        }
+        return found;
+    }
+
+    /**
+     * Binary search for the first sorted entry that is not less than the specified entry
+     * 
+     * @param e
+     * @return position in the entries
+     */
+    private int firstAtOrAfter(long e)
+    {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi)
+        {
+            final int mid = (lo + hi) >>> 1;
+            if (entries[mid] < e)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Pack a horizontal position and a star index into an entry that sorts by position, then index
+     * 
+     * @param x
+     * @param index
+     * @return entry
+     */
+    private static long entry(float x, int index)
+    {
+        int bits = Float.floatToIntBits(x);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | (index & 0xffffffffL);
+    }
+}
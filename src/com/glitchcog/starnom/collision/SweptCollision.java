@@ -0,0 +1,76 @@
+package com.glitchcog.starnom.collision;
+
+import com.glitchcog.starnom.agent.Guy;
+import com.glitchcog.starnom.agent.StarField;
+
+/**
+ * Tests whether the guy and a star came close enough to touch at any time during the latest tick, rather than only at
+ * its end. Each star moves in a straight line from its previous position to its current one, and the guy moves along
+ * his path, which is straight between the points where he hit a boundary. Along each straight piece of the guy's path
+ * both are moving at constant velocities, so the distance between them is closest either at one end of the piece or
+ * at the one time in between where their relative motion is perpendicular to the gap between them.
+ * 
+ * @author Matt Yanos
+ */
+public final class SweptCollision
+{
+    private SweptCollision()
+    {
+    }
+
+    /**
+     * Determine whether the guy and the specified star were ever within the specified distance of each other during
+     * the latest tick
+     * 
+     * @param guy
+     * @param stars
+     * @param i
+     *            star index
+     * @param distanceSqrd
+     *            the squared distance between their centers within which they touch
+     * @return whether they touched
+     */
+    public static boolean touched(Guy guy, StarField stars, int i, float distanceSqrd)
+    {
+        final float fromX = stars.prevX[i];
+        final float fromY = stars.prevY[i];
+        final float stepX = stars.posX[i] - fromX;
+        final float stepY = stars.posY[i] - fromY;
+
+        // The gap from the guy to the star at the start of the first piece of his path
+        float t = guy.getPathT(0);
+        float gapX = fromX + stepX * t - guy.getPathX(0);
+        float gapY = fromY + stepY * t - guy.getPathY(0);
+        if (gapX * gapX + gapY * gapY < distanceSqrd)
+            return true;
+
+        for (int p = 1; p < guy.getPathCount(); p++)
+        {
+            t = guy.getPathT(p);
+            final float endX = fromX + stepX * t - guy.getPathX(p);
+            final float endY = fromY + stepY * t - guy.getPathY(p);
+            if (endX * endX + endY * endY < distanceSqrd)
+                return true;
+
+            // Find the closest approach within the piece, if it isn't at either end
+            final float dx = endX - gapX;
+            final float dy = endY - gapY;
+            final float lengthSqrd = dx * dx + dy * dy;
+            if (lengthSqrd > 0.0f)
+            {
+                final float u = -(gapX * dx + gapY * dy) / lengthSqrd;
+                if (u > 0.0f && u < 1.0f)
+                {
+                    final float closestX = gapX + dx * u;
+                    final float closestY = gapY + dy * u;
+                    if (closestX * closestX + closestY * closestY < distanceSqrd)
+                        return true;
+                }
+            }
+
+            gapX = endX;
+            gapY = endY;
+        }
+        return false;
+    }
+}
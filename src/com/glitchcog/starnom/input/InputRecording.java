@@ -0,0 +1,497 @@
+package com.glitchcog.starnom.input;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import com.glitchcog.starnom.collision.CollisionMode;
+import com.glitchcog.starnom.physics.StarMotion;
+import com.glitchcog.starnom.io.Varint;
+
+/**
+ * A compact log of the input that steered a session, which together with the world's seed is enough to play the session
+ * out again exactly. Only the input that actually changes the game is recorded: presses, the drag that picks the guy
+ * up, the release that throws him and any change to the play area's bounds or the star population. Each record is the
+ * number of ticks since the previous record followed by its type and coordinates, all as varints, with the release
+ * stored relative to the point the drag started from.
+ *
+ * @author Matt Yanos
+ */
+public class InputRecording
+{
+    /**
+     * Marks the start of a recording file, "SNIR"
+     */
+    public static final int MAGIC = 0x534e4952;
+
+    /**
+     * The version of the recording format. Older recordings can still be read: version 1 has no star population records
+     * and version 2 has no collision mode, which was always discrete. Version 3 has no star motion, which was always
+     * integrated.
+     */
+    public static final int VERSION = 4;
+
+    /**
+     * The record type of a mouse button press
+     */
+    public static final int PRESS = MouseInput.PRESS;
+
+    /**
+     * The record type of the drag that picks the guy up, with the coordinates it starts from
+     */
+    public static final int DRAG = MouseInput.DRAG;
+
+    /**
+     * The record type of the release that throws the guy, with the coordinates relative to the drag and the number of
+     * ticks the guy was held
+     */
+    public static final int RELEASE = MouseInput.RELEASE;
+
+    /**
+     * The record type of a change to the play area's bounds, with the new width and height
+     */
+    public static final int BOUNDS = 3;
+
+    /**
+     * The record type marking the tick the recording ends at
+     */
+    public static final int END = 4;
+
+    /**
+     * The record type of a change to the number of stars to keep in play, with the new population
+     */
+    public static final int STARS = 5;
+
+    /**
+     * The encoded recording, grown as records are added
+     */
+    private ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.BIG_ENDIAN);
+
+    /**
+     * The tick of the latest record
+     */
+    private long lastTick;
+
+    /**
+     * The horizontal coordinate of the latest drag, which the release is stored relative to
+     */
+    private int dragX;
+
+    /**
+     * The vertical coordinate of the latest drag
+     */
+    private int dragY;
+
+    /**
+     * The seed of the recorded session
+     */
+    private long seed;
+
+    /**
+     * The length of a tick of the recorded session, in base ticks
+     */
+    private float dt;
+
+    /**
+     * How the guy was tested against the stars in the recorded session
+     */
+    private CollisionMode collisionMode;
+
+    /**
+     * How the stars were moved in the recorded session
+     */
+    private StarMotion starMotion;
+
+    /**
+     * The number of stars in the recorded session
+     */
+    private int starCount;
+
+    /**
+     * The number of bytes before the first record
+     */
+    private int headerLength;
+
+    /**
+     * The width of the play area at the start of the recorded session
+     */
+    private int width;
+
+    /**
+     * The height of the play area at the start of the recorded session
+     */
+    private int height;
+
+    /**
+     * Whether the recording has been ended, after which no more records can be added
+     */
+    private boolean ended;
+
+    /**
+     * Start a new recording, discarding anything recorded so far
+     *
+     * @param seed
+     *            the seed the world was reset with
+     * @param dt
+     *            the length of a tick in base ticks
+     * @param collisionMode
+     * @param starMotion
+     * @param starCount
+     * @param width
+     * @param height
+     */
+    public void begin(long seed, float dt, CollisionMode collisionMode, StarMotion starMotion, int starCount, int width, int height)
+    {
+        this.seed = seed;
+        this.dt = dt;
+        this.collisionMode = collisionMode;
+        this.starMotion = starMotion;
+        this.starCount = starCount;
+        this.width = width;
+        this.height = height;
+
+        buffer.clear();
+        buffer.putInt(MAGIC);
+        buffer.put((byte) VERSION);
+        buffer.putLong(seed);
+        buffer.putFloat(dt);
+        buffer.put((byte) collisionMode.ordinal());
+        buffer.put((byte) starMotion.ordinal());
+        Varint.putUnsigned(buffer, starCount);
+        Varint.putUnsigned(buffer, width);
+        Varint.putUnsigned(buffer, height);
+        headerLength = buffer.position();
+
+        lastTick = 0L;
+        dragX = 0;
+        dragY = 0;
+        ended = false;
+    }
+
+    /**
+     * Record a mouse button press
+     *
+     * @param tick
+     */
+    public void press(long tick)
+    {
+        putRecord(tick, PRESS);
+    }
+
+    /**
+     * Record the drag that picks the guy up
+     *
+     * @param tick
+     * @param x
+     * @param y
+     */
+    public void drag(long tick, int x, int y)
+    {
+        putRecord(tick, DRAG);
+        Varint.putSigned(buffer, x);
+        Varint.putSigned(buffer, y);
+        dragX = x;
+        dragY = y;
+    }
+
+    /**
+     * Record the release that throws the guy
+     *
+     * @param tick
+     * @param x
+     * @param y
+     * @param mouseTimer
+     *            the number of ticks the guy was held, to check the replay against
+     */
+    public void release(long tick, int x, int y, int mouseTimer)
+    {
+        putRecord(tick, RELEASE);
+        Varint.putSigned(buffer, x - dragX);
+        Varint.putSigned(buffer, y - dragY);
+        Varint.putUnsigned(buffer, mouseTimer);
+    }
+
+    /**
+     * Record a change to the play area's bounds
+     *
+     * @param tick
+     * @param width
+     * @param height
+     */
+    public void bounds(long tick, int width, int height)
+    {
+        putRecord(tick, BOUNDS);
+        Varint.putUnsigned(buffer, width);
+        Varint.putUnsigned(buffer, height);
+    }
+
+    /**
+     * Record a change to the number of stars to keep in play
+     *
+     * @param tick
+     * @param population
+     */
+    public void stars(long tick, int population)
+    {
+        putRecord(tick, STARS);
+        Varint.putUnsigned(buffer, population);
+    }
+
+    /**
+     * End the recording at the specified tick, so a replay runs for as long as the session did. Nothing more can be
+     * recorded until the next {@link #begin(long, float, CollisionMode, StarMotion, int, int, int)}.
+     *
+     * @param tick
+     */
+    public void end(long tick)
+    {
+        putRecord(tick, END);
+        ended = true;
+    }
+
+    /**
+     * Write the start of a record, growing the buffer first if it might not hold the whole record
+     *
+     * @param tick
+     * @param type
+     */
+    private void putRecord(long tick, int type)
+    {
+        if (ended)
+            throw new IllegalStateException("The recording has ended");
+
+        if (buffer.remaining() < 1 + 4 * Varint.MAX_BYTES)
+        {
+            ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() * 2).order(ByteOrder.BIG_ENDIAN);
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+
+        Varint.putUnsigned(buffer, tick - lastTick);
+        buffer.put((byte) type);
+        lastTick = tick;
+    }
+
+    /**
+     * Get the number of bytes recorded so far
+     *
+     * @return size
+     */
+    public int size()
+    {
+        return buffer.position();
+    }
+
+    /**
+     * Write the recording to the specified stream
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    /**
+     * Write the recording to the specified file
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void save(File file) throws IOException
+    {
+        try (OutputStream out = new FileOutputStream(file))
+        {
+            writeTo(out);
+        }
+    }
+
+    /**
+     * Load a recording from the specified file
+     *
+     * @param file
+     * @return the recording
+     * @throws IOException
+     *             if the file can't be read or isn't a recording
+     */
+    public static InputRecording load(File file) throws IOException
+    {
+        final byte[] bytes = Files.readAllBytes(file.toPath());
+        final ByteBuffer data = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        InputRecording recording = new InputRecording();
+        try
+        {
+            if (data.getInt() != MAGIC)
+                throw new IOException("Not an input recording: " + file);
+            final int version = data.get();
+            if (version < 1 || version > VERSION)
+                throw new IOException("Unsupported input recording version " + version + ": " + file);
+
+            recording.seed = data.getLong();
+            recording.dt = data.getFloat();
+            recording.collisionMode = CollisionMode.DISCRETE;
+            if (version >= 3)
+            {
+                final int mode = data.get();
+                if (mode < 0 || mode >= CollisionMode.values().length)
+                    throw new IOException("Unknown collision mode " + mode + ": " + file);
+                recording.collisionMode = CollisionMode.values()[mode];
+            }
+            recording.starMotion = StarMotion.INTEGRATED;
+            if (version >= 4)
+            {
+                final int motion = data.get();
+                if (motion < 0 || motion >= StarMotion.values().length)
+                    throw new IOException("Unknown star motion " + motion + ": " + file);
+                recording.starMotion = StarMotion.values()[motion];
+            }
+            recording.starCount = (int) Varint.getUnsigned(data);
+            recording.width = (int) Varint.getUnsigned(data);
+            recording.height = (int) Varint.getUnsigned(data);
+            recording.headerLength = data.position();
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IOException("Truncated input recording: " + file);
+        }
+        data.position(bytes.length);
+        recording.buffer = data;
+        recording.ended = true;
+        return recording;
+    }
+
+    /**
+     * Get a cursor over the records, starting just after the header
+     *
+     * @return reader
+     */
+    public Reader reader()
+    {
+        ByteBuffer data = ByteBuffer.wrap(buffer.array(), 0, buffer.position()).order(ByteOrder.BIG_ENDIAN);
+        data.position(headerLength);
+        return new Reader(data);
+    }
+
+    public long getSeed()
+    {
+        return seed;
+    }
+
+    public float getTimestep()
+    {
+        return dt;
+    }
+
+    public CollisionMode getCollisionMode()
+    {
+        return collisionMode;
+    }
+
+    public StarMotion getStarMotion()
+    {
+        return starMotion;
+    }
+
+    public int getStarCount()
+    {
+        return starCount;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Reads the records of a recording one at a time, decoding each into public fields
+     */
+    public static class Reader
+    {
+        private final ByteBuffer data;
+
+        /**
+         * The tick of the current record
+         */
+        public long tick;
+
+        /**
+         * The type of the current record
+         */
+        public int type;
+
+        /**
+         * The horizontal coordinate of a drag or release, the width of a change of bounds, or the new star population
+         */
+        public int x;
+
+        /**
+         * The vertical coordinate of a drag or release, or the height of a change of bounds
+         */
+        public int y;
+
+        /**
+         * The number of ticks the guy was held for a release
+         */
+        public int mouseTimer;
+
+        private int dragX;
+
+        private int dragY;
+
+        private Reader(ByteBuffer data)
+        {
+            this.data = data;
+        }
+
+        /**
+         * Advance to the next record
+         *
+         * @return whether there was another record, false once the end of the recording is reached
+         */
+        public boolean next()
+        {
+            if (!data.hasRemaining())
+                return false;
+
+            tick += Varint.getUnsigned(data);
+            type = data.get();
+            switch (type)
+            {
+            case PRESS:
+            case END:
+                break;
+            case DRAG:
+                x = dragX = (int) Varint.getSigned(data);
+                y = dragY = (int) Varint.getSigned(data);
+                break;
+            case RELEASE:
+                x = dragX + (int) Varint.getSigned(data);
+                y = dragY + (int) Varint.getSigned(data);
+                mouseTimer = (int) Varint.getUnsigned(data);
+                break;
+            case BOUNDS:
+                x = (int) Varint.getUnsigned(data);
+                y = (int) Varint.getUnsigned(data);
+                break;
+            case STARS:
+                x = (int) Varint.getUnsigned(data);
+                break;
+            default:
+                throw new IllegalStateException("Corrupt input recording, unknown record type " + type);
+            }
+            return true;
+        }
+    }
+}
@@ -1,35 +1,110 @@
 package com.glitchcog.starnom.input;
 
-import java.awt.Point;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 
+import com.glitchcog.starnom.WorldSnapshot;
 import com.glitchcog.starnom.agent.Agent;
 
+/**
+ * Throws a game Agent with the mouse. Mouse events arrive on the Swing event thread, so they are queued and only applied
+ * to the agent when {@link #update(long)} is run by the simulation at the start of a tick. The events that change the
+ * game can be logged to an {@link InputRecording} as they are applied.
+ */
 public class MouseInput extends MouseAdapter
 {
+    /**
+     * The type of a queued mouse button press
+     */
+    public static final int PRESS = 0;
+
+    /**
+     * The type of a queued mouse drag
+     */
+    public static final int DRAG = 1;
+
+    /**
+     * The type of a queued mouse button release
+     */
+    public static final int RELEASE = 2;
+
+    /**
+     * The most events that can be queued between ticks, beyond which further events are dropped
+     */
+    private static final int MAX_PENDING = 64;
+
+    /**
+     * Room kept in the queue for presses and releases, which must not be crowded out by a flurry of drags
+     */
+    private static final int RESERVED_PENDING = 4;
+
     private final float minSpeed = 48.0f;
 
     private final float maxSpeed = 72.0f;
 
     /**
-     * Stores the point the mouse is first pressed
+     * Whether the mouse has been dragged from over the object and not yet released
      */
-    private Point mouseStart;
+    private boolean dragging;
 
     /**
-     * Keep track of how long the mouse button is held
+     * Horizontal coordinate of the point the mouse is first dragged from
+     */
+    private int mouseStartX;
+
+    /**
+     * Vertical coordinate of the point the mouse is first dragged from
+     */
+    private int mouseStartY;
+
+    /**
+     * Keep track of how long the mouse button is held, in ticks
      */
     private int mouseTimer;
 
+    /**
+     * The length of a tick in base ticks, which converts the throw into a velocity per base tick
+     */
+    private float dt = 1.0f;
+
+    /**
+     * The types of the events waiting for the next tick
+     */
+    private final int[] pendingType = new int[MAX_PENDING];
+
+    /**
+     * The horizontal coordinates of the events waiting for the next tick
+     */
+    private final int[] pendingX = new int[MAX_PENDING];
+
+    /**
+     * The vertical coordinates of the events waiting for the next tick
+     */
+    private final int[] pendingY = new int[MAX_PENDING];
+
+    /**
+     * The number of events waiting for the next tick
+     */
+    private int pendingCount;
+
     /**
      * The game Agent being thrown by this mouse input
      */
     private Agent projectile;
 
+    /**
+     * Logs the events that change the game, or null to not record them
+     */
+    private InputRecording recording;
+
+    /**
+     * The tick the events are being applied at, for the recording
+     */
+    private long tick;
+
     /**
      * Construct a MouseInput object for the specified game Agent projectile
-     * 
+     *
      * @param projectile
      */
     public MouseInput(Agent projectile)
@@ -37,60 +112,227 @@ public class MouseInput extends MouseAdapter
         this.projectile = projectile;
     }
 
-    public void update()
+    /**
+     * Set the length of a tick
+     *
+     * @param dt
+     *            the length of a tick in base ticks
+     */
+    public void setTimestep(float dt)
+    {
+        this.dt = dt;
+    }
+
+    /**
+     * Set the recording to log the events that change the game to as they are applied
+     *
+     * @param recording
+     *            the recording, or null to stop recording
+     */
+    public void setRecording(InputRecording recording)
+    {
+        this.recording = recording;
+    }
+
+    /**
+     * Get the number of ticks the mouse has been held for
+     *
+     * @return mouseTimer
+     */
+    public int getMouseTimer()
+    {
+        return mouseTimer;
+    }
+
+    /**
+     * Save the state of a throw in progress and the events waiting for the next tick to a snapshot
+     *
+     * @param snapshot
+     */
+    public void save(WorldSnapshot snapshot)
     {
-        if (mouseStart != null)
+        snapshot.putBoolean(dragging);
+        snapshot.putInt(mouseStartX);
+        snapshot.putInt(mouseStartY);
+        snapshot.putInt(mouseTimer);
+        synchronized (pendingType)
         {
-            mouseTimer++;
+            snapshot.putInt(pendingCount);
+            snapshot.putInts(pendingType, pendingCount);
+            snapshot.putInts(pendingX, pendingCount);
+            snapshot.putInts(pendingY, pendingCount);
         }
     }
 
-    @Override
-    public void mouseReleased(MouseEvent e)
+    /**
+     * Restore the state of a throw in progress and the events waiting for the next tick from a snapshot, replacing any
+     * events queued since it was taken
+     *
+     * @param snapshot
+     */
+    public void restore(WorldSnapshot snapshot)
     {
-        // Make sure the mouse press was originally over the object
-        if (mouseStart != null)
+        dragging = snapshot.getBoolean();
+        mouseStartX = snapshot.getInt();
+        mouseStartY = snapshot.getInt();
+        mouseTimer = snapshot.getInt();
+        synchronized (pendingType)
         {
-            // And set the velocity accordingly
-            projectile.mo.vel.x = (int) ((e.getPoint().getX() - mouseStart.getX()) / (float) mouseTimer);
-            projectile.mo.vel.y = (int) ((e.getPoint().getY() - mouseStart.getY()) / (float) mouseTimer);
+            pendingCount = snapshot.getInt();
+            snapshot.getInts(pendingType, pendingCount);
+            snapshot.getInts(pendingX, pendingCount);
+            snapshot.getInts(pendingY, pendingCount);
+        }
+    }
 
-            final float totalSpeed = Math.abs(projectile.mo.vel.x) + Math.abs(projectile.mo.vel.y);
+    /**
+     * Apply the events queued since the last tick and count the time the mouse is held, to be run once at the start of
+     * each tick
+     *
+     * @param tick
+     *            the tick being run
+     */
+    public void update(long tick)
+    {
+        this.tick = tick;
+
+        synchronized (pendingType)
+        {
+            for (int i = 0; i < pendingCount; i++)
+                apply(pendingType[i], pendingX[i], pendingY[i]);
+            pendingCount = 0;
+        }
 
-            if (totalSpeed > 0.0f)
+        if (dragging)
+        {
+            mouseTimer++;
+        }
+    }
+
+    /**
+     * Apply a mouse event to the projectile
+     *
+     * @param type
+     *            {@link #PRESS}, {@link #DRAG} or {@link #RELEASE}
+     * @param x
+     *            horizontal coordinate of the mouse
+     * @param y
+     *            vertical coordinate of the mouse
+     */
+    public void apply(int type, int x, int y)
+    {
+        switch (type)
+        {
+        case PRESS:
+            if (recording != null)
+                recording.press(tick);
+            mouseTimer = 0;
+            break;
+        case DRAG:
+            if (!dragging && isOnProjectile(x, y))
             {
-                float speed = (float) Math.sqrt((projectile.mo.vel.x * projectile.mo.vel.x) + (projectile.mo.vel.y * projectile.mo.vel.y));
-                if (speed > maxSpeed)
-                {
-                    projectile.mo.vel.x = maxSpeed * projectile.mo.vel.x / totalSpeed;
-                    projectile.mo.vel.y = maxSpeed * projectile.mo.vel.y / totalSpeed;
-                }
-                else if (speed < minSpeed)
-                {
-                    projectile.mo.vel.x = minSpeed * projectile.mo.vel.x / totalSpeed;
-                    projectile.mo.vel.y = minSpeed * projectile.mo.vel.y / totalSpeed;
-                }
+                if (recording != null)
+                    recording.drag(tick, x, y);
+                dragging = true;
+                mouseStartX = x;
+                mouseStartY = y;
             }
-            mouseStart = null;
+            break;
+        case RELEASE:
+            // Make sure the mouse press was originally over the object
+            if (dragging)
+            {
+                if (recording != null)
+                    recording.release(tick, x, y, mouseTimer);
+
+                // And set the velocity accordingly
+                final float heldTime = Math.max(mouseTimer, 1) * dt;
+                throwProjectile((int) ((x - mouseStartX) / heldTime), (int) ((y - mouseStartY) / heldTime));
+                dragging = false;
+            }
+            break;
         }
     }
 
-    @Override
-    public void mouseDragged(MouseEvent e)
+    /**
+     * Throw the projectile with the specified velocity, sped up or slowed down to the range of speeds a throw is held to.
+     * A velocity of zero stops the projectile dead.
+     *
+     * @param velX
+     *            horizontal velocity per base tick
+     * @param velY
+     *            vertical velocity per base tick
+     */
+    public void throwProjectile(float velX, float velY)
     {
-        if (mouseStart == null)
+        projectile.mo.vel.x = velX;
+        projectile.mo.vel.y = velY;
+
+        final float totalSpeed = Math.abs(projectile.mo.vel.x) + Math.abs(projectile.mo.vel.y);
+
+        if (totalSpeed > 0.0f)
         {
-            if (isOnProjectile(e))
+            float speed = (float) Math.sqrt((projectile.mo.vel.x * projectile.mo.vel.x) + (projectile.mo.vel.y * projectile.mo.vel.y));
+            if (speed > maxSpeed)
             {
-                mouseStart = e.getPoint();
+                projectile.mo.vel.x = maxSpeed * projectile.mo.vel.x / totalSpeed;
+                projectile.mo.vel.y = maxSpeed * projectile.mo.vel.y / totalSpeed;
             }
-            else
+            else if (speed < minSpeed)
+            {
+                projectile.mo.vel.x = minSpeed * projectile.mo.vel.x / totalSpeed;
+                projectile.mo.vel.y = minSpeed * projectile.mo.vel.y / totalSpeed;
+            }
+        }
+    }
+
+    /**
+     * Queue a mouse event to be applied at the next tick, from any thread
+     *
+     * @param type
+     *            {@link #PRESS}, {@link #DRAG} or {@link #RELEASE}
+     * @param x
+     *            horizontal coordinate of the mouse
+     * @param y
+     *            vertical coordinate of the mouse
+     */
+    public void enqueue(int type, int x, int y)
+    {
+        synchronized (pendingType)
+        {
+            if (pendingCount < (type == DRAG ? MAX_PENDING - RESERVED_PENDING : MAX_PENDING))
             {
-                mouseStart = null;
+                pendingType[pendingCount] = type;
+                pendingX[pendingCount] = x;
+                pendingY[pendingCount] = y;
+                pendingCount++;
             }
         }
     }
 
+    /**
+     * Queue a mouse event to be applied at the next tick
+     *
+     * @param type
+     * @param e
+     */
+    private void enqueue(int type, MouseEvent e)
+    {
+        enqueue(type, e.getX(), e.getY());
+    }
+
+    @Override
+    public void mouseReleased(MouseEvent e)
+    {
+        enqueue(RELEASE, e);
+    }
+
+    @Override
+    public void mouseDragged(MouseEvent e)
+    {
+        enqueue(DRAG, e);
+    }
+
     @Override
     public void mouseExited(MouseEvent e)
     {
@@ -100,14 +342,14 @@ public class MouseInput extends MouseAdapter
     @Override
     public void mousePressed(MouseEvent e)
     {
-        mouseTimer = 0;
+        enqueue(PRESS, e);
     }
 
-    private boolean isOnProjectile(MouseEvent e)
+    private boolean isOnProjectile(int x, int y)
     {
         // Check to make sure the mouse is over the guy
-        float dx = (float) e.getPoint().getX() - projectile.mo.pos.x;
-        float dy = (float) e.getPoint().getY() - projectile.mo.pos.y;
+        float dx = x - projectile.mo.pos.x;
+        float dy = y - projectile.mo.pos.y;
         float distanceSquared = dx * dx + dy * dy;
 
         return (distanceSquared < projectile.getSize() * projectile.getSize());
@@ -0,0 +1,87 @@
+package com.glitchcog.starnom.io;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes and reads integers in a variable number of bytes, seven bits to a byte with the high bit set on every byte but
+ * the last, so small numbers take up a single byte. Signed numbers are zigzag encoded first so that small negative
+ * numbers are small too.
+ * 
+ * @author Matt Yanos
+ */
+public final class Varint
+{
+    /**
+     * The most bytes a varint can take up
+     */
+    public static final int MAX_BYTES = 10;
+
+    private Varint()
+    {
+    }
+
+    /**
+     * Write a number that is never negative
+     * 
+     * @param buffer
+     * @param value
+     */
+    public static void putUnsigned(ByteBuffer buffer, long value)
+    {
+        while ((value & ~0x7fL) != 0L)
+        {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Write a number that may be negative
+     * 
+     * @param buffer
+     * @param value
+     */
+    public static void putSigned(ByteBuffer buffer, long value)
+    {
+        putUnsigned(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Read a number written by {@link #putUnsigned(ByteBuffer, long)}
+     * 
+     * @param buffer
+     * @return value
+     * @throws BufferUnderflowException
+     *             if the buffer ends partway through the number
+     */
+    public static long getUnsigned(ByteBuffer buffer)
+    {
+        long value = 0L;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0 && shift < 64);
+        return value;
+    }
+
+    /**
+     * Read a number written by {@link #putSigned(ByteBuffer, long)}
+     * 
+     * @param buffer
+     * @return value
+     * @throws BufferUnderflowException
+     *             if the buffer ends partway through the number
+     */
+    public static long getSigned(ByteBuffer buffer)
+    {
+        final long zigzag = getUnsigned(buffer);
+        return (zigzag >>> 1) ^ -(zigzag & 1L);
+    }
+}
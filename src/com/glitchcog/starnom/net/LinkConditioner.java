@@ -0,0 +1,201 @@
+package com.glitchcog.starnom.net;
+
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import com.glitchcog.starnom.random.SplitMix64;
+
+/**
+ * Makes a fast, reliable link such as the loopback interface behave like the internet, by holding each packet sent back
+ * for a latency plus a random jitter, and dropping packets at random. Packets held back are sent by
+ * {@link #flush(DatagramChannel, long)} once they are due, in the order they fall due, so jitter can reorder them.
+ * Packets are copied into buffers allocated up front, so sending doesn't allocate.
+ *
+ * @author Matt Yanos
+ */
+public class LinkConditioner
+{
+    /**
+     * The most packets that can be held back at once, beyond which further packets are dropped
+     */
+    public static final int MAX_HELD = 256;
+
+    /**
+     * How long every packet is held back, in nanoseconds
+     */
+    private final long latencyNanos;
+
+    /**
+     * The most a packet is held back on top of the latency, in nanoseconds
+     */
+    private final long jitterNanos;
+
+    /**
+     * The chance of a packet being dropped, from 0 to 1
+     */
+    private final double loss;
+
+    /**
+     * Draws the packets to drop and the jitter of the rest
+     */
+    private final SplitMix64 random;
+
+    /**
+     * Copies of the packets held back
+     */
+    private final ByteBuffer[] held = new ByteBuffer[MAX_HELD];
+
+    /**
+     * The time each packet held back is due to be sent
+     */
+    private final long[] due = new long[MAX_HELD];
+
+    /**
+     * Whether each buffer holds a packet
+     */
+    private final boolean[] holding = new boolean[MAX_HELD];
+
+    /**
+     * The number of packets held back
+     */
+    private int heldCount;
+
+    /**
+     * The number of packets sent on
+     */
+    private long sent;
+
+    /**
+     * The number of packets dropped, at random or for lack of room to hold them back
+     */
+    private long dropped;
+
+    /**
+     * Construct a link that holds packets of up to the specified size
+     *
+     * @param latencyNanos
+     *            how long every packet is held back
+     * @param jitterNanos
+     *            the most a packet is held back on top of the latency
+     * @param loss
+     *            the chance of a packet being dropped, from 0 to 1
+     * @param seed
+     *            the seed of the random stream that drops packets and jitters them
+     * @param maxPacketSize
+     *            the most bytes in a packet
+     */
+    public LinkConditioner(long latencyNanos, long jitterNanos, double loss, long seed, int maxPacketSize)
+    {
+        if (latencyNanos < 0L || jitterNanos < 0L)
+            throw new IllegalArgumentException("Latency and jitter can't be negative: " + latencyNanos + ", " + jitterNanos);
+        if (loss < 0.0 || loss > 1.0)
+            throw new IllegalArgumentException("Loss must be from 0 to 1: " + loss);
+
+        this.latencyNanos = latencyNanos;
+        this.jitterNanos = jitterNanos;
+        this.loss = loss;
+        this.random = new SplitMix64(seed);
+        for (int h = 0; h < MAX_HELD; h++)
+            held[h] = ByteBuffer.allocateDirect(maxPacketSize);
+    }
+
+    /**
+     * Send a packet over a connected channel once it has been held back, unless it is dropped
+     *
+     * @param channel
+     * @param packet
+     *            the packet, from its position to its limit, which is consumed
+     * @param now
+     *            the time in nanoseconds, from {@link System#nanoTime()}
+     * @throws IOException
+     *             if the channel can't send
+     */
+    public void send(DatagramChannel channel, ByteBuffer packet, long now) throws IOException
+    {
+        // Take 53 random bits as a fraction from 0 to 1
+        if (loss > 0.0 && (random.nextLong() >>> 11) * 0x1.0p-53 < loss)
+        {
+            packet.position(packet.limit());
+            dropped++;
+            return;
+        }
+
+        final long delay = latencyNanos + (jitterNanos > 0L ? Math.floorMod(random.nextLong(), jitterNanos + 1L) : 0L);
+        if (delay == 0L)
+        {
+            write(channel, packet);
+            return;
+        }
+
+        for (int h = 0; h < MAX_HELD; h++)
+        {
+            if (!holding[h])
+            {
+                held[h].clear();
+                held[h].put(packet);
+                held[h].flip();
+                due[h] = now + delay;
+                holding[h] = true;
+                heldCount++;
+                return;
+            }
+        }
+        packet.position(packet.limit());
+        dropped++;
+    }
+
+    /**
+     * Send on every packet held back that is due
+     *
+     * @param channel
+     * @param now
+     *            the time in nanoseconds, from {@link System#nanoTime()}
+     * @throws IOException
+     *             if the channel can't send
+     */
+    public void flush(DatagramChannel channel, long now) throws IOException
+    {
+        for (int h = 0; h < MAX_HELD && heldCount > 0; h++)
+        {
+            if (holding[h] && due[h] - now <= 0L)
+            {
+                write(channel, held[h]);
+                holding[h] = false;
+                heldCount--;
+            }
+        }
+    }
+
+    /**
+     * Send a packet straight away. A packet the other end isn't listening for yet is dropped.
+     *
+     * @param channel
+     * @param packet
+     * @throws IOException
+     *             if the channel can't send
+     */
+    private void write(DatagramChannel channel, ByteBuffer packet) throws IOException
+    {
+        try
+        {
+            channel.write(packet);
+            sent++;
+        }
+        catch (PortUnreachableException e)
+        {
+            dropped++;
+        }
+    }
+
+    public long getSent()
+    {
+        return sent;
+    }
+
+    public long getDropped()
+    {
+        return dropped;
+    }
+}
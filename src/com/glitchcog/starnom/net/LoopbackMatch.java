@@ -0,0 +1,435 @@
+package com.glitchcog.starnom.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.WorldSnapshot;
+import com.glitchcog.starnom.profile.LatencyHistogram;
+import com.glitchcog.starnom.random.SplitMix64;
+
+/**
+ * Plays a two player match over UDP on the loopback interface, each player on their own thread with their own world,
+ * session and socket, as though they were on different machines. Every packet goes through a {@link LinkConditioner},
+ * so the match can be tested over a link with as much latency and loss as the internet. Each player is steered by a bot
+ * that throws their guy every so often at random, paced to the tick rate as a player would be.
+ * <p>
+ * Once both players have every input, the match checks that they ended up in exactly the same state, and that it is
+ * the state a world run straight through with every input from the start ends up in.
+ *
+ * @author Matt Yanos
+ */
+public class LoopbackMatch implements Closeable
+{
+    /**
+     * The number of players in a match
+     */
+    public static final int PLAYERS = 2;
+
+    /**
+     * The mean number of ticks between a bot's throws
+     */
+    private static final int THROW_INTERVAL = 40;
+
+    /**
+     * The longest a player waits before checking for packets again, in nanoseconds
+     */
+    private static final long POLL_NANOS = 500000L;
+
+    /**
+     * How long a match can overrun its ticks before it is given up on, in nanoseconds
+     */
+    private static final long TIMEOUT_NANOS = 30000000000L;
+
+    private final Player[] players = new Player[PLAYERS];
+
+    /**
+     * A world built the same way as the players', run straight through to check theirs against
+     */
+    private final World reference;
+
+    /**
+     * The checksum of the reference world at the end of the latest run
+     */
+    private long referenceChecksum;
+
+    /**
+     * Set to stop the players' threads
+     */
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    /**
+     * The number of players who have every input and whose every input the other has acknowledged
+     */
+    private final AtomicInteger finished = new AtomicInteger();
+
+    /**
+     * How long the latest run took, in nanoseconds
+     */
+    private long elapsedNanos;
+
+    /**
+     * Construct a match between two worlds, binding a socket for each player on the loopback interface
+     *
+     * @param worlds
+     *            a world for each player, with {@link #PLAYERS} players each, built and set up the same way
+     * @param reference
+     *            another world built and set up the same way
+     * @param inputDelay
+     *            the number of ticks after being given that each player's inputs take effect
+     * @param latencyNanos
+     *            how long each packet is held back
+     * @param jitterNanos
+     *            the most each packet is held back on top of the latency
+     * @param loss
+     *            the chance of each packet being dropped, from 0 to 1
+     * @param seed
+     *            the seed the bots and the links are split from
+     * @throws IOException
+     *             if a socket can't be bound
+     */
+    public LoopbackMatch(World[] worlds, World reference, int inputDelay, long latencyNanos, long jitterNanos, double loss, long seed) throws IOException
+    {
+        if (worlds.length != PLAYERS || reference.getPlayers() != PLAYERS)
+            throw new IllegalArgumentException("A match is between " + PLAYERS + " players");
+
+        this.reference = reference;
+
+        final DatagramChannel[] channels = new DatagramChannel[PLAYERS];
+        for (int p = 0; p < PLAYERS; p++)
+            channels[p] = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+
+        SplitMix64 seeds = new SplitMix64(seed);
+        for (int p = 0; p < PLAYERS; p++)
+        {
+            final int other = (p + 1) % PLAYERS;
+            channels[p].connect(channels[other].getLocalAddress());
+            RollbackSession session = new RollbackSession(worlds[p], p, inputDelay);
+            LinkConditioner link = new LinkConditioner(latencyNanos, jitterNanos, loss, seeds.nextLong(), NetPeer.MAX_PACKET_SIZE);
+            players[p] = new Player(session, new NetPeer(session, other, channels[p], link), seeds.nextLong());
+        }
+    }
+
+    /**
+     * Play the match for the specified number of ticks, and wait for both players to finish
+     *
+     * @param ticks
+     * @param tickRate
+     *            ticks per second to pace the players to
+     * @return whether both players ended up in the same state as the reference world
+     * @throws InterruptedException
+     *             if interrupted while waiting for the players to finish
+     * @throws IllegalStateException
+     *             if a player failed or the match timed out
+     */
+    public boolean run(long ticks, double tickRate) throws InterruptedException
+    {
+        stopped.set(false);
+        finished.set(0);
+        final long startTime = System.nanoTime();
+        final long tickNanos = Math.round(1e9 / tickRate);
+        final Thread[] threads = new Thread[PLAYERS];
+        for (int p = 0; p < PLAYERS; p++)
+        {
+            players[p].start(ticks, tickNanos, startTime, startTime + ticks * tickNanos + TIMEOUT_NANOS);
+            threads[p] = new Thread(players[p], "StarNom player " + p);
+            threads[p].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        elapsedNanos = System.nanoTime() - startTime;
+
+        for (int p = 0; p < PLAYERS; p++)
+        {
+            if (players[p].failure != null)
+                throw new IllegalStateException("Player " + p + " failed at tick " + players[p].session.getWorld().getTick(), players[p].failure);
+        }
+        if (finished.get() < PLAYERS)
+            throw new IllegalStateException("The match didn't finish in time");
+
+        // Run the match again straight through with every player's inputs, as they were given
+        reference.reset();
+        for (long tick = 0L; tick < ticks; tick++)
+        {
+            for (int p = 0; p < PLAYERS; p++)
+                NetInput.apply(reference, p, players[p].inputs[(int) tick]);
+            reference.update();
+        }
+        WorldSnapshot snapshot = new WorldSnapshot(ByteBuffer.allocateDirect(WorldSnapshot.size(reference)));
+        snapshot.save(reference);
+        referenceChecksum = snapshot.checksum();
+
+        boolean same = true;
+        for (Player player : players)
+            same &= player.checksum == referenceChecksum && player.session.getDesyncs() == 0L;
+        return same;
+    }
+
+    /**
+     * Close the players' sockets
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+        for (Player player : players)
+            player.peer.close();
+    }
+
+    public RollbackSession getSession(int player)
+    {
+        return players[player].session;
+    }
+
+    public NetPeer getPeer(int player)
+    {
+        return players[player].peer;
+    }
+
+    /**
+     * Get how long each of a player's frames took to run, from catching up to running the next tick
+     *
+     * @param player
+     * @return histogram
+     */
+    public LatencyHistogram getFrameLatency(int player)
+    {
+        return players[player].frameLatency;
+    }
+
+    /**
+     * Get the number of ticks a player had to wait for the other's inputs before running
+     *
+     * @param player
+     * @return ticks
+     */
+    public long getStalls(int player)
+    {
+        return players[player].stalls;
+    }
+
+    /**
+     * Get the checksum of a player's world at the end of the latest run
+     *
+     * @param player
+     * @return checksum
+     */
+    public long getChecksum(int player)
+    {
+        return players[player].checksum;
+    }
+
+    public long getReferenceChecksum()
+    {
+        return referenceChecksum;
+    }
+
+    public long getElapsedNanos()
+    {
+        return elapsedNanos;
+    }
+
+    /**
+     * A player in the match, running their session on their own thread
+     */
+    private class Player implements Runnable
+    {
+        private final RollbackSession session;
+
+        private final NetPeer peer;
+
+        /**
+         * Decides when the bot throws the guy, and how hard
+         */
+        private final SplitMix64 bot;
+
+        /**
+         * The seed of the bot's random stream, so every run throws the same way
+         */
+        private final long botSeed;
+
+        /**
+         * The inputs given for each tick
+         */
+        private int[] inputs;
+
+        private long ticks;
+
+        private long tickNanos;
+
+        /**
+         * The time the next tick is due
+         */
+        private long nextTickTime;
+
+        /**
+         * The time the next packet is due to be sent
+         */
+        private long nextSendTime;
+
+        /**
+         * The time after which the match is given up on
+         */
+        private long deadline;
+
+        /**
+         * The latest tick that had to wait for the other player's inputs
+         */
+        private long stalledTick;
+
+        private long stalls;
+
+        /**
+         * Whether every input is in and the other player has acknowledged every local one
+         */
+        private boolean done;
+
+        /**
+         * The checksum of the world once every input is in
+         */
+        private long checksum;
+
+        private final LatencyHistogram frameLatency = new LatencyHistogram();
+
+        /**
+         * What stopped the player short, or null
+         */
+        private Exception failure;
+
+        private Player(RollbackSession session, NetPeer peer, long botSeed)
+        {
+            this.session = session;
+            this.peer = peer;
+            this.botSeed = botSeed;
+            this.bot = new SplitMix64(botSeed);
+        }
+
+        /**
+         * Reset the player for a run starting at the specified time
+         */
+        private void start(long ticks, long tickNanos, long startTime, long deadline)
+        {
+            session.reset();
+            bot.setState(botSeed);
+            this.ticks = ticks;
+            this.tickNanos = tickNanos;
+            this.deadline = deadline;
+            inputs = new int[(int) ticks + session.getInputDelay()];
+            nextTickTime = startTime;
+            nextSendTime = startTime;
+            stalledTick = -1L;
+            stalls = 0L;
+            done = false;
+            checksum = 0L;
+            frameLatency.clear();
+            failure = null;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                play();
+            }
+            catch (IOException | RuntimeException e)
+            {
+                failure = e;
+            }
+            finally
+            {
+                stopped.set(true);
+            }
+        }
+
+        /**
+         * Run a tick each time one is due, and keep exchanging inputs until both players are done
+         *
+         * @throws IOException
+         *             if the socket fails
+         */
+        private void play() throws IOException
+        {
+            final World world = session.getWorld();
+            while (!stopped.get() && finished.get() < PLAYERS)
+            {
+                long now = System.nanoTime();
+                if (now - deadline > 0L)
+                    return;
+
+                peer.flush(now);
+                peer.receive();
+
+                if (world.getTick() < ticks)
+                {
+                    if (now - nextTickTime >= 0L)
+                    {
+                        if (session.canAdvance())
+                        {
+                            session.advance(nextInput());
+                            frameLatency.record(System.nanoTime() - now);
+                            nextTickTime += tickNanos;
+                        }
+                        else
+                        {
+                            if (stalledTick != world.getTick())
+                                stalls++;
+                            stalledTick = world.getTick();
+                            session.catchUp();
+                        }
+                    }
+                }
+                else if (!done)
+                {
+                    session.catchUp();
+                    if (session.getConfirmedTick() >= ticks - 1L && peer.getRemoteAck() >= ticks - 1L)
+                    {
+                        done = true;
+                        checksum = session.checksum();
+                        finished.incrementAndGet();
+                    }
+                }
+
+                now = System.nanoTime();
+                if (now - nextSendTime >= 0L)
+                {
+                    peer.send(now);
+                    nextSendTime = now + tickNanos;
+                }
+
+                // While waiting on the other player there is nothing to do until a packet turns up
+                long wake = nextSendTime;
+                if (world.getTick() < ticks && session.canAdvance())
+                    wake = Math.min(wake, nextTickTime);
+                final long wait = Math.min(wake - System.nanoTime(), POLL_NANOS);
+                if (wait > 0L)
+                    LockSupport.parkNanos(wait);
+            }
+        }
+
+        /**
+         * Have the bot decide on the input for the tick after the session's input delay, and keep a note of it
+         *
+         * @return input
+         */
+        private int nextInput()
+        {
+            int input = NetInput.NONE;
+            if (bot.nextInt(THROW_INTERVAL) == 0)
+                input = NetInput.throwAt(bot.nextInt(121) - 60, bot.nextInt(101) - 80);
+
+            final long tick = session.getLocalTick() + 1L;
+            if (tick < inputs.length)
+                inputs[(int) tick] = input;
+            return input;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.glitchcog.starnom.net;
+
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.input.MouseInput;
+
+/**
+ * Packs the input a player gives in a tick into an int, which is all that players exchange to keep their worlds in
+ * step. An input is either nothing, or a throw of the player's guy at the velocity {@link MouseInput} works out when
+ * the mouse is released, in whole pixels per base tick along each axis.
+ *
+ * @author Matt Yanos
+ */
+public final class NetInput
+{
+    /**
+     * The input of a tick in which the player didn't throw their guy
+     */
+    public static final int NONE = 0;
+
+    /**
+     * The most a throw's velocity can be along each axis, so that each fits in 15 bits
+     */
+    public static final int MAX_VELOCITY = (1 << 14) - 1;
+
+    /**
+     * Set in every throw, so that a throw at zero velocity, which stops the guy dead, isn't taken for no throw at all
+     */
+    private static final int THROW = 1 << 31;
+
+    private NetInput()
+    {
+    }
+
+    /**
+     * Pack a throw at the specified velocity, which is clamped to {@link #MAX_VELOCITY}
+     *
+     * @param velX
+     *            horizontal velocity per base tick
+     * @param velY
+     *            vertical velocity per base tick
+     * @return input
+     */
+    public static int throwAt(int velX, int velY)
+    {
+        velX = Math.max(-MAX_VELOCITY, Math.min(MAX_VELOCITY, velX));
+        velY = Math.max(-MAX_VELOCITY, Math.min(MAX_VELOCITY, velY));
+        return THROW | (velX & 0x7fff) << 15 | velY & 0x7fff;
+    }
+
+    public static boolean isThrow(int input)
+    {
+        return (input & THROW) != 0;
+    }
+
+    public static int getVelX(int input)
+    {
+        return input << 2 >> 17;
+    }
+
+    public static int getVelY(int input)
+    {
+        return input << 17 >> 17;
+    }
+
+    /**
+     * Apply an input to a player's guy, ahead of the tick it is for
+     *
+     * @param world
+     * @param player
+     * @param input
+     */
+    public static void apply(World world, int player, int input)
+    {
+        if (isThrow(input))
+            world.getInput(player).throwProjectile(getVelX(input), getVelY(input));
+    }
+}
@@ -0,0 +1,242 @@
+package com.glitchcog.starnom.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+
+/**
+ * Exchanges inputs between a rollback session and another player's over UDP. Every packet sent carries each of the
+ * local player's inputs the other player hasn't yet acknowledged, so a packet that is lost costs nothing once the next
+ * one gets through, and packets can arrive in any order. Packets also acknowledge the other player's inputs, and carry
+ * the latest checksum the session has taken so that the players can check they are in step.
+ * <p>
+ * A packet is laid out in little endian as {@link #MAGIC}, the sending player as a byte, the latest tick through which
+ * the sender has every input of the receiver's, the tick and checksum of the sender's latest checksum, the tick of the
+ * first input, the number of inputs as a short, and then the inputs. Neither sending nor receiving allocates.
+ *
+ * @author Matt Yanos
+ */
+public class NetPeer implements Closeable
+{
+    /**
+     * The first int of every packet, "SNNP" in ASCII
+     */
+    public static final int MAGIC = 0x534e4e50;
+
+    /**
+     * The number of bytes in a packet before its inputs
+     */
+    private static final int HEADER_SIZE = 39;
+
+    /**
+     * The most bytes in a packet, with every input a session keeps
+     */
+    public static final int MAX_PACKET_SIZE = HEADER_SIZE + RollbackSession.INPUT_HISTORY * Integer.BYTES;
+
+    private static final int PLAYER_OFFSET = 4;
+
+    private static final int ACK_OFFSET = 5;
+
+    private static final int SYNC_TICK_OFFSET = 13;
+
+    private static final int SYNC_CHECKSUM_OFFSET = 21;
+
+    private static final int FIRST_TICK_OFFSET = 29;
+
+    private static final int COUNT_OFFSET = 37;
+
+    /**
+     * The session whose inputs are exchanged
+     */
+    private final RollbackSession session;
+
+    /**
+     * The player at the other end
+     */
+    private final int remotePlayer;
+
+    /**
+     * The channel, connected to the other player
+     */
+    private final DatagramChannel channel;
+
+    /**
+     * Holds back and drops the packets sent, to test over a link as bad as the internet
+     */
+    private final LinkConditioner link;
+
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * The latest tick through which the other player has every local input
+     */
+    private long remoteAck = -1L;
+
+    /**
+     * The number of packets received
+     */
+    private long received;
+
+    /**
+     * The number of packets received that weren't from the other player's session, and were ignored
+     */
+    private long ignored;
+
+    /**
+     * Construct a peer that exchanges the inputs of a session with another player's over a channel connected to them,
+     * which is made non-blocking
+     *
+     * @param session
+     * @param remotePlayer
+     *            the player at the other end
+     * @param channel
+     *            a channel connected to the other player
+     * @param link
+     *            holds back and drops the packets sent
+     * @throws IOException
+     *             if the channel can't be made non-blocking
+     */
+    public NetPeer(RollbackSession session, int remotePlayer, DatagramChannel channel, LinkConditioner link) throws IOException
+    {
+        if (remotePlayer == session.getLocalPlayer() || remotePlayer < 0 || remotePlayer >= session.getWorld().getPlayers())
+            throw new IllegalArgumentException("Player " + remotePlayer + " isn't another player in the session");
+
+        this.session = session;
+        this.remotePlayer = remotePlayer;
+        this.channel = channel;
+        this.link = link;
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Take in every packet that has arrived, passing their inputs and checksums to the session
+     *
+     * @throws IOException
+     *             if the channel can't receive
+     */
+    public void receive() throws IOException
+    {
+        while (true)
+        {
+            receiveBuffer.clear();
+            final int length;
+            try
+            {
+                length = channel.read(receiveBuffer);
+            }
+            catch (PortUnreachableException e)
+            {
+                // A packet sent before the other player was listening bounced
+                continue;
+            }
+            if (length <= 0)
+                return;
+
+            received++;
+            if (length < HEADER_SIZE || receiveBuffer.getInt(0) != MAGIC || receiveBuffer.get(PLAYER_OFFSET) != remotePlayer)
+            {
+                ignored++;
+                continue;
+            }
+            final int count = receiveBuffer.getShort(COUNT_OFFSET);
+            if (count < 0 || length < HEADER_SIZE + count * Integer.BYTES)
+            {
+                ignored++;
+                continue;
+            }
+
+            remoteAck = Math.max(remoteAck, receiveBuffer.getLong(ACK_OFFSET));
+            final long syncTick = receiveBuffer.getLong(SYNC_TICK_OFFSET);
+            if (syncTick >= 0L)
+                session.checkSync(remotePlayer, syncTick, receiveBuffer.getLong(SYNC_CHECKSUM_OFFSET));
+
+            final long firstTick = receiveBuffer.getLong(FIRST_TICK_OFFSET);
+            for (int i = 0; i < count; i++)
+                session.addRemoteInput(remotePlayer, firstTick + i, receiveBuffer.getInt(HEADER_SIZE + i * Integer.BYTES));
+        }
+    }
+
+    /**
+     * Send the other player every local input they haven't acknowledged, along with the latest acknowledgement and
+     * checksum
+     *
+     * @param now
+     *            the time in nanoseconds, from {@link System#nanoTime()}
+     * @throws IOException
+     *             if the channel can't send
+     */
+    public void send(long now) throws IOException
+    {
+        final long lastTick = session.getLocalTick();
+        final long firstTick = Math.max(remoteAck + 1L, lastTick - RollbackSession.INPUT_HISTORY + 1L);
+        final int count = (int) Math.max(0L, lastTick - firstTick + 1L);
+
+        sendBuffer.clear();
+        sendBuffer.putInt(0, MAGIC);
+        sendBuffer.put(PLAYER_OFFSET, (byte) session.getLocalPlayer());
+        sendBuffer.putLong(ACK_OFFSET, session.getConfirmedTick(remotePlayer));
+        sendBuffer.putLong(SYNC_TICK_OFFSET, session.getSyncTick());
+        sendBuffer.putLong(SYNC_CHECKSUM_OFFSET, session.getSyncChecksum());
+        sendBuffer.putLong(FIRST_TICK_OFFSET, firstTick);
+        sendBuffer.putShort(COUNT_OFFSET, (short) count);
+        for (int i = 0; i < count; i++)
+            sendBuffer.putInt(HEADER_SIZE + i * Integer.BYTES, session.getLocalInput(firstTick + i));
+        sendBuffer.limit(HEADER_SIZE + count * Integer.BYTES);
+
+        link.send(channel, sendBuffer, now);
+    }
+
+    /**
+     * Send on the packets held back by the link that are due
+     *
+     * @param now
+     *            the time in nanoseconds, from {@link System#nanoTime()}
+     * @throws IOException
+     *             if the channel can't send
+     */
+    public void flush(long now) throws IOException
+    {
+        link.flush(channel, now);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    public int getRemotePlayer()
+    {
+        return remotePlayer;
+    }
+
+    /**
+     * Get the latest tick through which the other player has acknowledged every local input
+     *
+     * @return tick
+     */
+    public long getRemoteAck()
+    {
+        return remoteAck;
+    }
+
+    public LinkConditioner getLink()
+    {
+        return link;
+    }
+
+    public long getReceived()
+    {
+        return received;
+    }
+
+    public long getIgnored()
+    {
+        return ignored;
+    }
+}
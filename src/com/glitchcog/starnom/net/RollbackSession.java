@@ -0,0 +1,538 @@
+package com.glitchcog.starnom.net;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.WorldSnapshot;
+import com.glitchcog.starnom.profile.LatencyHistogram;
+
+/**
+ * Keeps one player's copy of a multiplayer world in step with every other player's, by rollback. Players only exchange
+ * their inputs, see {@link NetInput}, and nobody waits for anybody else's input to run a tick. A player who hasn't been
+ * heard from for a tick is predicted not to have thrown their guy in it, which is what players do nearly every tick.
+ * When an input turns up that the prediction got wrong, the world is restored to the snapshot taken before the tick it
+ * was for and every tick since is run again with it, all within the frame the input turned up in, so the game carries
+ * on as though it had been known all along.
+ * <p>
+ * A snapshot is saved before every tick for as many ticks as the world can run ahead of the inputs it has, into buffers
+ * allocated up front, so neither running a tick nor rolling back allocates. Since every world plays out exactly the
+ * same from the same inputs, every player ends up in the same state once they have every input. That is checked as
+ * the game goes, by comparing checksums of the snapshots of every {@link #SYNC_INTERVAL}th tick once its inputs are
+ * all in. The checksums only cover the game state, see {@link WorldSnapshot#checksum()}, so players can run their worlds
+ * with different broadphases and parallelism.
+ *
+ * @author Matt Yanos
+ */
+public class RollbackSession
+{
+    /**
+     * The number of ticks of inputs kept for each player, a power of two
+     */
+    public static final int INPUT_HISTORY = 128;
+
+    /**
+     * The most ticks the world can run ahead of the latest tick every player's inputs are in for, beyond which it waits
+     * for them, which is also the most ticks a rollback runs again
+     */
+    public static final int MAX_PREDICTION = 48;
+
+    /**
+     * The most ticks the local player's inputs can be delayed by
+     */
+    public static final int MAX_INPUT_DELAY = 8;
+
+    /**
+     * The number of ticks between the snapshots checked against the other players'
+     */
+    public static final int SYNC_INTERVAL = 16;
+
+    /**
+     * The number of snapshots kept, a power of two more than {@link #MAX_PREDICTION}
+     */
+    private static final int SNAPSHOTS = 64;
+
+    /**
+     * The number of checksums kept
+     */
+    private static final int SYNC_HISTORY = 16;
+
+    /**
+     * The world the session runs
+     */
+    private final World world;
+
+    /**
+     * The player whose inputs are given to this session
+     */
+    private final int localPlayer;
+
+    /**
+     * The number of ticks after being given that the local player's inputs take effect, which gives them time to reach
+     * the other players before they are due and so saves rolling back for them
+     */
+    private final int inputDelay;
+
+    /**
+     * The state of the world before each of the latest ticks, in a ring by tick
+     */
+    private final WorldSnapshot[] snapshots = new WorldSnapshot[SNAPSHOTS];
+
+    /**
+     * Each player's inputs, in rings by tick
+     */
+    private final int[][] inputs;
+
+    /**
+     * The tick each input in the rings is for, or -1 if there isn't one
+     */
+    private final long[][] inputTicks;
+
+    /**
+     * The latest tick through which every one of each player's inputs is in
+     */
+    private final long[] confirmed;
+
+    /**
+     * The latest tick the local player has given an input for
+     */
+    private long localTick;
+
+    /**
+     * The earliest tick that was run with a prediction that turned out wrong, or {@link Long#MAX_VALUE} if there is none
+     */
+    private long rollbackTick;
+
+    /**
+     * The ticks of the latest checksums, in a ring
+     */
+    private final long[] syncTicks = new long[SYNC_HISTORY];
+
+    /**
+     * The checksums of the snapshots of the latest ticks every input was in for, in a ring
+     */
+    private final long[] syncChecksums = new long[SYNC_HISTORY];
+
+    /**
+     * The next tick to take a checksum of once every input before it is in
+     */
+    private long nextSyncTick;
+
+    /**
+     * The tick of the latest checksum taken, or -1 if none has been yet
+     */
+    private long syncTick;
+
+    /**
+     * The latest tick of each player's that has been checked against this session's
+     */
+    private final long[] checkedSyncTicks;
+
+    /**
+     * The latest tick each player has sent the checksum of, which may not have been checked yet
+     */
+    private final long[] remoteSyncTicks;
+
+    /**
+     * The latest checksum each player has sent
+     */
+    private final long[] remoteSyncChecksums;
+
+    /**
+     * The number of rollbacks
+     */
+    private long rollbacks;
+
+    /**
+     * The number of ticks run again by rollbacks
+     */
+    private long rolledBackTicks;
+
+    /**
+     * The most ticks a single rollback ran again
+     */
+    private int maxRollback;
+
+    /**
+     * The number of checksums that didn't match another player's
+     */
+    private long desyncs;
+
+    /**
+     * The earliest tick whose checksum didn't match another player's, or -1
+     */
+    private long desyncTick;
+
+    /**
+     * How long each rollback took, restoring the snapshot and running every tick again
+     */
+    private final LatencyHistogram rollbackLatency = new LatencyHistogram();
+
+    /**
+     * Construct a session that runs the specified world for one of its players, and reset it
+     *
+     * @param world
+     *            a world with a player for everybody in the game, built and set up the same way as every other player's
+     * @param localPlayer
+     *            the player whose inputs are given to this session
+     * @param inputDelay
+     *            the number of ticks after being given that the local player's inputs take effect, up to
+     *            {@link #MAX_INPUT_DELAY}
+     */
+    public RollbackSession(World world, int localPlayer, int inputDelay)
+    {
+        if (localPlayer < 0 || localPlayer >= world.getPlayers())
+            throw new IllegalArgumentException("No player " + localPlayer + " in a world of " + world.getPlayers());
+        if (inputDelay < 0 || inputDelay > MAX_INPUT_DELAY)
+            throw new IllegalArgumentException("Input delay must be from 0 to " + MAX_INPUT_DELAY + " ticks: " + inputDelay);
+
+        this.world = world;
+        this.localPlayer = localPlayer;
+        this.inputDelay = inputDelay;
+
+        final int players = world.getPlayers();
+        inputs = new int[players][INPUT_HISTORY];
+        inputTicks = new long[players][INPUT_HISTORY];
+        confirmed = new long[players];
+        checkedSyncTicks = new long[players];
+        remoteSyncTicks = new long[players];
+        remoteSyncChecksums = new long[players];
+
+        // Settings such as the star motion only take effect once the world is reset, so it is measured after
+        reset();
+        final int snapshotSize = WorldSnapshot.size(world);
+        for (int s = 0; s < SNAPSHOTS; s++)
+            snapshots[s] = new WorldSnapshot(ByteBuffer.allocateDirect(snapshotSize));
+    }
+
+    /**
+     * Reset the world and start the game over. The local player gives no input in the ticks before their inputs take
+     * effect.
+     */
+    public void reset()
+    {
+        world.reset();
+
+        for (int p = 0; p < inputTicks.length; p++)
+        {
+            Arrays.fill(inputTicks[p], -1L);
+            confirmed[p] = -1L;
+            checkedSyncTicks[p] = -1L;
+            remoteSyncTicks[p] = -1L;
+        }
+        localTick = -1L;
+        for (int t = 0; t < inputDelay; t++)
+            store(localPlayer, ++localTick, NetInput.NONE);
+        rollbackTick = Long.MAX_VALUE;
+
+        Arrays.fill(syncTicks, -1L);
+        nextSyncTick = 0L;
+        syncTick = -1L;
+        rollbacks = 0L;
+        rolledBackTicks = 0L;
+        maxRollback = 0;
+        desyncs = 0L;
+        desyncTick = -1L;
+        rollbackLatency.clear();
+    }
+
+    /**
+     * Whether the next tick can run without getting more than {@link #MAX_PREDICTION} ticks ahead of the inputs
+     *
+     * @return whether to call {@link #advance(int)}
+     */
+    public boolean canAdvance()
+    {
+        return world.getTick() - getConfirmedTick() <= MAX_PREDICTION;
+    }
+
+    /**
+     * Run the next tick, first rolling back if any input has turned up that the world was run without
+     *
+     * @param localInput
+     *            the local player's input, for the tick {@link #getInputDelay()} ticks after the next
+     * @throws IllegalStateException
+     *             if the next tick can't be run yet, see {@link #canAdvance()}
+     */
+    public void advance(int localInput)
+    {
+        catchUp();
+
+        final long tick = world.getTick();
+        if (!canAdvance())
+            throw new IllegalStateException("Tick " + tick + " would run more than " + MAX_PREDICTION + " ticks past tick " + getConfirmedTick() + ", the latest with every input in");
+
+        store(localPlayer, ++localTick, localInput);
+        snapshots[(int) tick & (SNAPSHOTS - 1)].save(world);
+        run(tick);
+        checkSyncs();
+    }
+
+    /**
+     * Roll back and run again the ticks that were run without inputs that have since turned up, if there are any
+     */
+    public void catchUp()
+    {
+        if (rollbackTick != Long.MAX_VALUE)
+        {
+            final long from = rollbackTick;
+            final long to = world.getTick();
+            rollbackTick = Long.MAX_VALUE;
+
+            final long startTime = System.nanoTime();
+            snapshots[(int) from & (SNAPSHOTS - 1)].restore(world);
+            for (long tick = from; tick < to; tick++)
+            {
+                if (tick > from)
+                    snapshots[(int) tick & (SNAPSHOTS - 1)].save(world);
+                run(tick);
+            }
+            rollbackLatency.record(System.nanoTime() - startTime);
+
+            rollbacks++;
+            rolledBackTicks += to - from;
+            maxRollback = (int) Math.max(maxRollback, to - from);
+        }
+        checkSyncs();
+    }
+
+    /**
+     * Apply every player's input for a tick, predicting no input for those that haven't turned up, and run it
+     *
+     * @param tick
+     */
+    private void run(long tick)
+    {
+        final int slot = (int) tick & (INPUT_HISTORY - 1);
+        for (int p = 0; p < inputs.length; p++)
+        {
+            if (inputTicks[p][slot] == tick)
+                NetInput.apply(world, p, inputs[p][slot]);
+        }
+        world.update();
+    }
+
+    /**
+     * Take in an input from another player. Inputs can turn up more than once and in any order.
+     *
+     * @param player
+     * @param tick
+     * @param input
+     * @return whether the input was new, and could be kept
+     */
+    public boolean addRemoteInput(int player, long tick, int input)
+    {
+        if (player == localPlayer)
+            throw new IllegalArgumentException("Player " + player + " is the local player");
+        return store(player, tick, input);
+    }
+
+    /**
+     * Keep a player's input, noting whether the world has to roll back for it
+     *
+     * @param player
+     * @param tick
+     * @param input
+     * @return whether the input was new, and could be kept
+     */
+    private boolean store(int player, long tick, int input)
+    {
+        // Inputs too far ahead are left for the player to send again, rather than overwrite any that could still be needed
+        final int slot = (int) tick & (INPUT_HISTORY - 1);
+        if (tick <= confirmed[player] || inputTicks[player][slot] == tick || tick >= world.getTick() - MAX_PREDICTION + INPUT_HISTORY)
+            return false;
+
+        inputs[player][slot] = input;
+        inputTicks[player][slot] = tick;
+        while (inputTicks[player][(int) (confirmed[player] + 1) & (INPUT_HISTORY - 1)] == confirmed[player] + 1)
+            confirmed[player]++;
+
+        if (tick < world.getTick() && input != NetInput.NONE)
+            rollbackTick = Math.min(rollbackTick, tick);
+        return true;
+    }
+
+    /**
+     * Take the checksums of the snapshots due one, once every input before them is in and any rollback for them is
+     * done, and check them against any other player's checksums for the same ticks
+     */
+    private void checkSyncs()
+    {
+        final long lastFinal = Math.min(getConfirmedTick() + 1L, world.getTick() - 1L);
+        while (nextSyncTick <= lastFinal)
+        {
+            final long tick = nextSyncTick;
+            nextSyncTick += SYNC_INTERVAL;
+            if (tick <= world.getTick() - SNAPSHOTS)
+                continue;
+
+            final int slot = (int) (tick / SYNC_INTERVAL) & (SYNC_HISTORY - 1);
+            syncTicks[slot] = tick;
+            syncChecksums[slot] = snapshots[(int) tick & (SNAPSHOTS - 1)].checksum();
+            syncTick = tick;
+            for (int p = 0; p < remoteSyncTicks.length; p++)
+            {
+                if (remoteSyncTicks[p] == tick)
+                    checkSync(p, tick, remoteSyncChecksums[p]);
+            }
+        }
+    }
+
+    /**
+     * Take in the checksum of another player's snapshot of a tick, and check it against this session's once it has
+     * one
+     *
+     * @param player
+     * @param tick
+     * @param checksum
+     */
+    public void checkSync(int player, long tick, long checksum)
+    {
+        if (tick <= checkedSyncTicks[player])
+            return;
+
+        final int slot = (int) (tick / SYNC_INTERVAL) & (SYNC_HISTORY - 1);
+        if (syncTicks[slot] == tick)
+        {
+            checkedSyncTicks[player] = tick;
+            if (syncChecksums[slot] != checksum)
+            {
+                desyncs++;
+                if (desyncTick < 0L)
+                    desyncTick = tick;
+            }
+        }
+        else if (tick > remoteSyncTicks[player])
+        {
+            remoteSyncTicks[player] = tick;
+            remoteSyncChecksums[player] = checksum;
+        }
+    }
+
+    /**
+     * Take a checksum of the world as it stands, to compare with the other players' at the end of a game once every
+     * input is in
+     *
+     * @return checksum
+     */
+    public long checksum()
+    {
+        final WorldSnapshot snapshot = snapshots[(int) world.getTick() & (SNAPSHOTS - 1)];
+        snapshot.save(world);
+        return snapshot.checksum();
+    }
+
+    public World getWorld()
+    {
+        return world;
+    }
+
+    public int getLocalPlayer()
+    {
+        return localPlayer;
+    }
+
+    public int getInputDelay()
+    {
+        return inputDelay;
+    }
+
+    /**
+     * Get the latest tick through which every player's inputs are in
+     *
+     * @return tick
+     */
+    public long getConfirmedTick()
+    {
+        long tick = Long.MAX_VALUE;
+        for (int p = 0; p < confirmed.length; p++)
+            tick = Math.min(tick, confirmed[p]);
+        return tick;
+    }
+
+    /**
+     * Get the latest tick through which every one of a player's inputs is in
+     *
+     * @param player
+     * @return tick
+     */
+    public long getConfirmedTick(int player)
+    {
+        return confirmed[player];
+    }
+
+    /**
+     * Get the latest tick the local player has given an input for
+     *
+     * @return tick
+     */
+    public long getLocalTick()
+    {
+        return localTick;
+    }
+
+    /**
+     * Get the local player's input for one of the latest ticks, to send to the other players
+     *
+     * @param tick
+     *            a tick from {@link #INPUT_HISTORY} ticks before {@link #getLocalTick()} up to it
+     * @return input
+     */
+    public int getLocalInput(long tick)
+    {
+        final int slot = (int) tick & (INPUT_HISTORY - 1);
+        if (inputTicks[localPlayer][slot] != tick)
+            throw new IllegalArgumentException("No local input kept for tick " + tick);
+        return inputs[localPlayer][slot];
+    }
+
+    /**
+     * Get the tick of the latest checksum taken, to send to the other players, or -1 if none has been yet
+     *
+     * @return tick
+     */
+    public long getSyncTick()
+    {
+        return syncTick;
+    }
+
+    /**
+     * Get the latest checksum taken
+     *
+     * @return checksum
+     */
+    public long getSyncChecksum()
+    {
+        return syncTick >= 0L ? syncChecksums[(int) (syncTick / SYNC_INTERVAL) & (SYNC_HISTORY - 1)] : 0L;
+    }
+
+    public long getRollbacks()
+    {
+        return rollbacks;
+    }
+
+    public long getRolledBackTicks()
+    {
+        return rolledBackTicks;
+    }
+
+    public int getMaxRollback()
+    {
+        return maxRollback;
+    }
+
+    public long getDesyncs()
+    {
+        return desyncs;
+    }
+
+    public long getDesyncTick()
+    {
+        return desyncTick;
+    }
+
+    public LatencyHistogram getRollbackLatency()
+    {
+        return rollbackLatency;
+    }
+}
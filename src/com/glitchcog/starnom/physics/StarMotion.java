@@ -0,0 +1,56 @@
+package com.glitchcog.starnom.physics;
+
+/**
+ * The available ways of moving the stars, selectable by name for a run
+ * 
+ * @author Matt Yanos
+ */
+public enum StarMotion
+{
+    /**
+     * Add each star's acceleration to its velocity and its velocity to its position every tick, checking whether it has
+     * flown out of bounds as it goes
+     */
+    INTEGRATED("integrated"),
+
+    /**
+     * Keep only where, when and how fast each star was launched, and work out where it is in closed form whenever its
+     * position is needed. The tick each star flies out of bounds at is worked out at launch and scheduled, so a star costs
+     * nothing per tick unless something looks at it.
+     */
+    CLOSED_FORM("closed-form");
+
+    /**
+     * The name used to select this motion
+     */
+    private final String label;
+
+    private StarMotion(String label)
+    {
+        this.label = label;
+    }
+
+    /**
+     * Get the motion with the specified name
+     * 
+     * @param label
+     * @return motion
+     * @throws IllegalArgumentException
+     *             if no motion has the specified name
+     */
+    public static StarMotion fromLabel(String label)
+    {
+        for (StarMotion motion : values())
+        {
+            if (motion.label.equalsIgnoreCase(label))
+                return motion;
+        }
+        throw new IllegalArgumentException("Unknown star motion: " + label);
+    }
+
+    @Override
+    public String toString()
+    {
+        return label;
+    }
+}
@@ -0,0 +1,51 @@
+package com.glitchcog.starnom.physics;
+
+/**
+ * Converts between real time and simulation ticks. The game was tuned for one tick every {@link #BASE_TICK_MILLIS}
+ * milliseconds, so all the physics constants and timer lengths are expressed per base tick, and a simulation running at
+ * a different rate scales them by dt, the length of its tick in base ticks.
+ * 
+ * @author Matt Yanos
+ */
+public final class Timestep
+{
+    /**
+     * The length in milliseconds of the tick the game was tuned for
+     */
+    public static final int BASE_TICK_MILLIS = 24;
+
+    /**
+     * The tick rate the game was tuned for, in ticks per second
+     */
+    public static final double BASE_TICK_RATE = 1000.0 / BASE_TICK_MILLIS;
+
+    private Timestep()
+    {
+    }
+
+    /**
+     * Get dt for a simulation running at the specified tick rate
+     * 
+     * @param tickRate
+     *            ticks per second
+     * @return the length of a tick in base ticks
+     */
+    public static float dt(double tickRate)
+    {
+        return (float) (BASE_TICK_RATE / tickRate);
+    }
+
+    /**
+     * Get the number of ticks to count down for a timer of the specified length
+     * 
+     * @param baseTicks
+     *            the length of the timer in base ticks
+     * @param dt
+     *            the length of a tick in base ticks
+     * @return the length of the timer in ticks
+     */
+    public static int ticks(int baseTicks, float dt)
+    {
+        return Math.round(baseTicks / dt);
+    }
+}
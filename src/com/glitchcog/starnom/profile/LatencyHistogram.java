@@ -0,0 +1,142 @@
+package com.glitchcog.starnom.profile;
+
+import java.util.Arrays;
+
+/**
+ * Counts latencies into buckets that grow exponentially, with eight buckets for each power of two, so any latency is
+ * kept to within an eighth of its size in a fixed amount of memory. Histograms can be added together, so latencies
+ * counted separately can be summarized together.
+ *
+ * @author Matt Yanos
+ */
+public class LatencyHistogram
+{
+    /**
+     * The number of bits of each latency kept below its highest set bit
+     */
+    private static final int SUB_BITS = 3;
+
+    /**
+     * The number of buckets for each power of two
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * The number of buckets, enough for any positive long
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+
+    /**
+     * The number of latencies in each bucket
+     */
+    private final long[] counts = new long[BUCKETS];
+
+    /**
+     * The number of latencies counted
+     */
+    private long count;
+
+    /**
+     * The largest latency counted
+     */
+    private long max;
+
+    /**
+     * Count a latency
+     *
+     * @param nanos
+     */
+    public void record(long nanos)
+    {
+        final long latency = Math.max(0L, nanos);
+        counts[bucket(latency)]++;
+        count++;
+        max = Math.max(max, latency);
+    }
+
+    /**
+     * Add all the latencies counted by another histogram to this one
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int b = 0; b < BUCKETS; b++)
+            counts[b] += other.counts[b];
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Forget every latency counted
+     */
+    public void clear()
+    {
+        Arrays.fill(counts, 0L);
+        count = 0L;
+        max = 0L;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * Find the latency that the specified fraction of the latencies counted are no larger than, rounded up to the top of
+     * its bucket
+     *
+     * @param fraction
+     *            from 0 to 1, such as 0.5 for the median or 0.99 for the 99th percentile
+     * @return nanoseconds, or zero if nothing has been counted
+     */
+    public long percentile(double fraction)
+    {
+        if (count == 0L)
+            return 0L;
+
+        final long rank = Math.max(1L, (long) Math.ceil(count * fraction));
+        long seen = 0L;
+        for (int b = 0; b < BUCKETS; b++)
+        {
+            seen += counts[b];
+            if (seen >= rank)
+                return Math.min(upperBound(b), max);
+        }
+        return max;
+    }
+
+    /**
+     * Get the bucket a latency is counted in
+     *
+     * @param latency
+     * @return bucket index
+     */
+    private static int bucket(long latency)
+    {
+        if (latency < SUB_BUCKETS)
+            return (int) latency;
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(latency);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((latency >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Get the largest latency counted in a bucket
+     *
+     * @param bucket
+     * @return nanoseconds
+     */
+    private static long upperBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        final int shift = bucket / SUB_BUCKETS - 1;
+        final long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
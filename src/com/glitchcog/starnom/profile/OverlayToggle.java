@@ -0,0 +1,49 @@
+package com.glitchcog.starnom.profile;
+
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+
+/**
+ * Shows and hides a profiler's overlay when {@link #KEY} is pressed
+ * 
+ * @author Matt Yanos
+ */
+public class OverlayToggle extends KeyAdapter
+{
+    /**
+     * The key that toggles the overlay
+     */
+    public static final int KEY = KeyEvent.VK_F3;
+
+    private final Profiler profiler;
+
+    /**
+     * The lock the profiler is used under
+     */
+    private final Object lock;
+
+    /**
+     * Construct a toggle for the specified profiler
+     * 
+     * @param profiler
+     * @param lock
+     *            the lock the profiler is used under, typically the world it times
+     */
+    public OverlayToggle(Profiler profiler, Object lock)
+    {
+        this.profiler = profiler;
+        this.lock = lock;
+    }
+
+    @Override
+    public void keyPressed(KeyEvent e)
+    {
+        if (e.getKeyCode() == KEY)
+        {
+            synchronized (lock)
+            {
+                profiler.setOverlayVisible(!profiler.isOverlayVisible());
+            }
+        }
+    }
+}
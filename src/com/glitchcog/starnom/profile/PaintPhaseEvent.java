@@ -0,0 +1,26 @@
+package com.glitchcog.starnom.profile;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event spanning one phase of painting a frame
+ * 
+ * @author Matt Yanos
+ */
+@Name("com.glitchcog.starnom.PaintPhase")
+@Label("Paint Phase")
+@Description("One phase of painting a frame of StarNom")
+@Category("StarNom")
+@StackTrace(false)
+public class PaintPhaseEvent extends jdk.jfr.Event
+{
+    @Label("Phase")
+    public String phase;
+
+    @Label("Tick")
+    public long tick;
+}
@@ -0,0 +1,28 @@
+package com.glitchcog.starnom.profile;
+
+/**
+ * The phases a tick of the world and a painted frame are timed in
+ * 
+ * @author Matt Yanos
+ */
+public enum Phase
+{
+    TIMERS("timers", true), INPUT("input", true), COLLISION("collision", true), GUY_UPDATE("guy update", true), STAR_UPDATE("star update", true), TELEMETRY("telemetry", true),
+    BACKGROUND("background", false), GUY_DRAW("guy draw", false), STAR_DRAW("star draw", false), HUD("hud", false);
+
+    /**
+     * The name shown for the phase in recordings and the overlay
+     */
+    public final String label;
+
+    /**
+     * Whether the phase is part of a tick, rather than part of painting a frame
+     */
+    public final boolean tick;
+
+    private Phase(String label, boolean tick)
+    {
+        this.label = label;
+        this.tick = tick;
+    }
+}
@@ -0,0 +1,242 @@
+package com.glitchcog.starnom.profile;
+
+import java.util.Arrays;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+
+/**
+ * Times the phases of each tick and painted frame, emitting a Flight Recorder event for each phase while such events are
+ * being recorded and keeping a rolling window of each phase's latencies and of the achieved tick rate while the overlay
+ * is shown. While neither is wanted, timing a phase costs no more than checking whether it is.
+ * <p>
+ * The phases of a tick and of a frame can be timed on different threads, as long as each phase is only ever timed on
+ * one. The overlay reads the latencies of the other thread's phases as they are being written, which at worst mixes in
+ * a latency from the next sample.
+ * 
+ * @author Matt Yanos
+ */
+public class Profiler
+{
+    /**
+     * The number of latest latencies kept for each phase
+     */
+    public static final int WINDOW = 256;
+
+    /**
+     * The number of tick rate samples kept
+     */
+    public static final int RATE_SAMPLES = 140;
+
+    /**
+     * The length of time the ticks are counted over for each tick rate sample, in nanoseconds
+     */
+    private static final long RATE_SAMPLE_NANOS = 250000000L;
+
+    /**
+     * Returned by {@link #begin(Phase, long)} when the phase isn't being timed
+     */
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+
+    private static final EventType TICK_EVENT = EventType.getEventType(TickPhaseEvent.class);
+
+    private static final EventType PAINT_EVENT = EventType.getEventType(PaintPhaseEvent.class);
+
+    /**
+     * The latest latencies of each phase in nanoseconds, in a ring
+     */
+    private final long[][] latencies = new long[Phase.values().length][WINDOW];
+
+    /**
+     * The number of latencies recorded for each phase, which wraps around the ring
+     */
+    private final long[] latencyCount = new long[Phase.values().length];
+
+    /**
+     * The Flight Recorder event of each phase that is in progress
+     */
+    private final Event[] pending = new Event[Phase.values().length];
+
+    /**
+     * Room to sort a window of latencies in to find its percentiles
+     */
+    private final long[] sorted = new long[WINDOW];
+
+    /**
+     * The latest tick rate samples in ticks per second, in a ring
+     */
+    private final float[] rates = new float[RATE_SAMPLES];
+
+    /**
+     * The number of tick rate samples taken, which wraps around the ring
+     */
+    private long rateCount;
+
+    /**
+     * The time the current tick rate sample started, or zero if it hasn't
+     */
+    private long rateStart;
+
+    /**
+     * The number of ticks counted in the current tick rate sample
+     */
+    private int rateTicks;
+
+    /**
+     * Whether the overlay is shown, which is toggled from the Swing event thread
+     */
+    private volatile boolean overlayVisible;
+
+    public boolean isOverlayVisible()
+    {
+        return overlayVisible;
+    }
+
+    /**
+     * Show or hide the overlay, starting afresh each time it is shown. The world should be locked while it is toggled.
+     * 
+     * @param visible
+     */
+    public void setOverlayVisible(boolean visible)
+    {
+        if (visible && !overlayVisible)
+        {
+            Arrays.fill(latencyCount, 0L);
+            rateCount = 0L;
+            rateStart = 0L;
+        }
+        overlayVisible = visible;
+    }
+
+    /**
+     * Start timing the specified phase
+     * 
+     * @param phase
+     * @param tick
+     *            the tick being run, or the latest tick run when painting
+     * @return the time the phase started, to be passed on to {@link #end(Phase, long)}
+     */
+    public long begin(Phase phase, long tick)
+    {
+        final boolean record = (phase.tick ? TICK_EVENT : PAINT_EVENT).isEnabled();
+        if (!record && !overlayVisible)
+            return NOT_TIMED;
+
+        if (record)
+        {
+            final Event event;
+            if (phase.tick)
+            {
+                TickPhaseEvent tickEvent = new TickPhaseEvent();
+                tickEvent.phase = phase.label;
+                tickEvent.tick = tick;
+                event = tickEvent;
+            }
+            else
+            {
+                PaintPhaseEvent paintEvent = new PaintPhaseEvent();
+                paintEvent.phase = phase.label;
+                paintEvent.tick = tick;
+                event = paintEvent;
+            }
+            event.begin();
+            pending[phase.ordinal()] = event;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Finish timing the specified phase
+     * 
+     * @param phase
+     * @param start
+     *            the time returned by {@link #begin(Phase, long)}
+     */
+    public void end(Phase phase, long start)
+    {
+        if (start == NOT_TIMED)
+            return;
+
+        final int p = phase.ordinal();
+        latencies[p][(int) (latencyCount[p] % WINDOW)] = System.nanoTime() - start;
+        latencyCount[p]++;
+
+        final Event event = pending[p];
+        if (event != null)
+        {
+            pending[p] = null;
+            event.commit();
+        }
+    }
+
+    /**
+     * Count a tick towards the achieved tick rate, to be run at the end of each tick
+     */
+    public void countTick()
+    {
+        if (!overlayVisible)
+            return;
+
+        final long now = System.nanoTime();
+        if (rateStart == 0L)
+        {
+            rateStart = now;
+            return;
+        }
+
+        rateTicks++;
+        final long elapsed = now - rateStart;
+        if (elapsed >= RATE_SAMPLE_NANOS)
+        {
+            rates[(int) (rateCount % RATE_SAMPLES)] = (float) (rateTicks * 1e9 / elapsed);
+            rateCount++;
+            rateStart = now;
+            rateTicks = 0;
+        }
+    }
+
+    /**
+     * Find the median, 99th percentile and maximum of the latest latencies of the specified phase
+     * 
+     * @param phase
+     * @param stats
+     *            filled with the median, 99th percentile and maximum in nanoseconds
+     * @return the number of latencies the statistics are over, zero if the phase hasn't been timed
+     */
+    public int latencyStats(Phase phase, long[] stats)
+    {
+        final int p = phase.ordinal();
+        final int n = (int) Math.min(latencyCount[p], WINDOW);
+        if (n == 0)
+            return 0;
+
+        System.arraycopy(latencies[p], 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        stats[0] = sorted[(n - 1) / 2];
+        stats[1] = sorted[(int) Math.ceil(n * 0.99) - 1];
+        stats[2] = sorted[n - 1];
+        return n;
+    }
+
+    /**
+     * Get the number of tick rate samples available, up to {@link #RATE_SAMPLES}
+     * 
+     * @return count
+     */
+    public int getRateSampleCount()
+    {
+        return (int) Math.min(rateCount, RATE_SAMPLES);
+    }
+
+    /**
+     * Get a tick rate sample
+     * 
+     * @param age
+     *            zero for the latest sample, up to one less than {@link #getRateSampleCount()} for the oldest
+     * @return ticks per second
+     */
+    public float getRateSample(int age)
+    {
+        return rates[(int) ((rateCount - 1 - age) % RATE_SAMPLES)];
+    }
+}
@@ -0,0 +1,121 @@
+package com.glitchcog.starnom.profile;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+
+/**
+ * Draws a profiler's rolling latency percentiles for each phase, and a graph of the achieved tick rate against the
+ * target tick rate, over the top of the game
+ * 
+ * @author Matt Yanos
+ */
+public class ProfilerOverlay
+{
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+    private static final Color BACKGROUND = new Color(0, 0, 0, 160);
+
+    private static final Color TARGET_COLOR = Color.YELLOW;
+
+    private static final Color RATE_COLOR = Color.GREEN;
+
+    private static final int MARGIN = 8;
+
+    private static final int LINE_HEIGHT = 14;
+
+    private static final int PANEL_WIDTH = 2 * Profiler.RATE_SAMPLES + 2 * MARGIN;
+
+    private static final int GRAPH_HEIGHT = 60;
+
+    private static final int PANEL_HEIGHT = MARGIN + LINE_HEIGHT * (Phase.values().length + 2) + GRAPH_HEIGHT + 2 * MARGIN;
+
+    /**
+     * The median, 99th percentile and maximum latency of the phase being drawn
+     */
+    private final long[] stats = new long[3];
+
+    /**
+     * Horizontal coordinates of the tick rate graph's points
+     */
+    private final int[] graphX = new int[Profiler.RATE_SAMPLES];
+
+    /**
+     * Vertical coordinates of the tick rate graph's points
+     */
+    private final int[] graphY = new int[Profiler.RATE_SAMPLES];
+
+    /**
+     * Get the bounds the overlay is drawn within
+     * 
+     * @param width
+     *            the width of the area being drawn
+     * @param bounds
+     *            set to the bounds
+     */
+    public void getBounds(int width, Rectangle bounds)
+    {
+        bounds.setBounds(width - PANEL_WIDTH - MARGIN, MARGIN, PANEL_WIDTH, PANEL_HEIGHT);
+    }
+
+    /**
+     * Draw the overlay in the top right corner of the specified area
+     * 
+     * @param g2d
+     * @param profiler
+     * @param targetTickRate
+     *            the tick rate the simulation is meant to run at, in ticks per second
+     * @param width
+     *            the width of the area being drawn
+     */
+    public void draw(Graphics2D g2d, Profiler profiler, double targetTickRate, int width)
+    {
+        final Phase[] phases = Phase.values();
+        final int left = width - PANEL_WIDTH - MARGIN;
+        final int top = MARGIN;
+
+        g2d.setColor(BACKGROUND);
+        g2d.fillRect(left, top, PANEL_WIDTH, PANEL_HEIGHT);
+
+        g2d.setFont(FONT);
+        g2d.setColor(Color.WHITE);
+        int y = top + MARGIN + LINE_HEIGHT - 3;
+        g2d.drawString(String.format("%-11s %7s %7s %7s", "phase (us)", "p50", "p99", "max"), left + MARGIN, y);
+        for (Phase phase : phases)
+        {
+            y += LINE_HEIGHT;
+            if (profiler.latencyStats(phase, stats) > 0)
+                g2d.drawString(String.format("%-11s %7.1f %7.1f %7.1f", phase.label, stats[0] / 1e3, stats[1] / 1e3, stats[2] / 1e3), left + MARGIN, y);
+            else
+                g2d.drawString(String.format("%-11s %7s %7s %7s", phase.label, "-", "-", "-"), left + MARGIN, y);
+        }
+
+        final int samples = profiler.getRateSampleCount();
+        y += LINE_HEIGHT;
+        g2d.drawString(String.format("tick rate %6.1f / %6.1f Hz", samples > 0 ? profiler.getRateSample(0) : 0.0f, targetTickRate), left + MARGIN, y);
+
+        // Scale the graph so the target sits two thirds of the way up unless the rate overshoots it
+        double graphMax = targetTickRate * 1.5;
+        for (int i = 0; i < samples; i++)
+            graphMax = Math.max(graphMax, profiler.getRateSample(i));
+
+        final int graphLeft = left + MARGIN;
+        final int graphBottom = y + MARGIN + GRAPH_HEIGHT;
+        g2d.setColor(Color.DARK_GRAY);
+        g2d.drawRect(graphLeft, graphBottom - GRAPH_HEIGHT, 2 * Profiler.RATE_SAMPLES, GRAPH_HEIGHT);
+
+        g2d.setColor(TARGET_COLOR);
+        final int targetY = graphBottom - (int) (targetTickRate / graphMax * GRAPH_HEIGHT);
+        g2d.drawLine(graphLeft, targetY, graphLeft + 2 * Profiler.RATE_SAMPLES, targetY);
+
+        // Oldest sample on the left, latest on the right
+        for (int i = 0; i < samples; i++)
+        {
+            graphX[i] = graphLeft + 2 * (Profiler.RATE_SAMPLES - samples + i);
+            graphY[i] = graphBottom - (int) (profiler.getRateSample(samples - 1 - i) / graphMax * GRAPH_HEIGHT);
+        }
+        g2d.setColor(RATE_COLOR);
+        g2d.drawPolyline(graphX, graphY, samples);
+    }
+}
@@ -0,0 +1,26 @@
+package com.glitchcog.starnom.profile;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event spanning one phase of a tick of the world
+ * 
+ * @author Matt Yanos
+ */
+@Name("com.glitchcog.starnom.TickPhase")
+@Label("Tick Phase")
+@Description("One phase of a tick of the StarNom world")
+@Category("StarNom")
+@StackTrace(false)
+public class TickPhaseEvent extends jdk.jfr.Event
+{
+    @Label("Phase")
+    public String phase;
+
+    @Label("Tick")
+    public long tick;
+}
@@ -0,0 +1,133 @@
+package com.glitchcog.starnom.random;
+
+/**
+ * A small, fast random number generator whose whole state is a single long, the same algorithm
+ * {@link java.util.SplittableRandom} uses. Streams are split off by seeding them from a parent stream, and because the
+ * state is just a long, a stream can be kept in a primitive array element, copied and restored for free.
+ * 
+ * @author Matt Yanos
+ */
+public class SplitMix64
+{
+    /**
+     * The amount the state advances by for each number drawn, the odd integer closest to 2^64 divided by the golden ratio
+     */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * The state of this stream
+     */
+    private long state;
+
+    /**
+     * Construct a stream with the specified seed
+     * 
+     * @param seed
+     */
+    public SplitMix64(long seed)
+    {
+        this.state = seed;
+    }
+
+    public long getState()
+    {
+        return state;
+    }
+
+    public void setState(long state)
+    {
+        this.state = state;
+    }
+
+    /**
+     * Draw 64 random bits
+     * 
+     * @return random long
+     */
+    public long nextLong()
+    {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * Draw a random int from zero, inclusive, to the specified bound, exclusive
+     * 
+     * @param bound
+     *            must be positive
+     * @return random int
+     */
+    public int nextInt(int bound)
+    {
+        return bounded(nextLong(), bound);
+    }
+
+    /**
+     * Split off a new stream seeded from this one
+     * 
+     * @return stream
+     */
+    public SplitMix64 split()
+    {
+        return new SplitMix64(nextLong());
+    }
+
+    /**
+     * Draw a random int from zero, inclusive, to the specified bound, exclusive, from the stream whose state is held in
+     * the specified array element
+     * 
+     * @param states
+     *            stream states
+     * @param i
+     *            the index of the stream's state
+     * @param bound
+     *            must be positive
+     * @return random int
+     */
+    public static int nextInt(long[] states, int i, int bound)
+    {
+        states[i] += GOLDEN_GAMMA;
+        return bounded(mix64(states[i]), bound);
+    }
+
+    /**
+     * Seed a stream for each element of the specified array, each split off a stream with the specified seed
+     * 
+     * @param states
+     *            stream states to seed
+     * @param seed
+     */
+    public static void seed(long[] states, long seed)
+    {
+        for (int i = 0; i < states.length; i++)
+        {
+            seed += GOLDEN_GAMMA;
+            states[i] = mix64(seed);
+        }
+    }
+
+    /**
+     * Scramble the bits of the specified value, from David Stafford's variant 13 of the MurmurHash3 finalizer
+     * 
+     * @param z
+     * @return mixed bits
+     */
+    public static long mix64(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Scale random bits into the range from zero, inclusive, to the specified bound, exclusive
+     * 
+     * @param bits
+     * @param bound
+     * @return random int
+     */
+    private static int bounded(long bits, int bound)
+    {
+        return (int) (((bits >>> 32) * bound) >>> 32);
+    }
+}
@@ -0,0 +1,245 @@
+package com.glitchcog.starnom.spectator;
+
+import java.nio.ByteBuffer;
+
+import com.glitchcog.starnom.io.Varint;
+
+/**
+ * Decodes the frames written by a {@link SpectatorEncoder} for a viewer, keeping the latest frame decoded. A keyframe
+ * can be decoded at any time, and a delta on top of its base frame or any later one, so frames can be lost. Frames
+ * older than the latest one decoded, and deltas against frames newer than it, are passed over. Once a frame is
+ * decoded, the viewer is to acknowledge it to the encoder, see {@link #getFrame()}, so later deltas are against it.
+ * Decoding doesn't allocate, other than for the guys of the first keyframe.
+ *
+ * @author Matt Yanos
+ */
+public class SpectatorDecoder
+{
+    /**
+     * The track of each star slot as of the latest frame
+     */
+    private final StarTracks tracks;
+
+    /**
+     * The pixel position of each star as of the latest frame
+     */
+    private final int[] starX;
+
+    private final int[] starY;
+
+    /**
+     * The pixel position of each guy as of the latest frame
+     */
+    private int[] guyX = new int[0];
+
+    private int[] guyY = new int[0];
+
+    private int[] points = new int[0];
+
+    private int width;
+
+    private int height;
+
+    /**
+     * The number of stars in play as of the latest frame
+     */
+    private int count;
+
+    /**
+     * The latest frame decoded, or -1 before the first keyframe
+     */
+    private long frame = -1L;
+
+    /**
+     * Construct a decoder for frames of up to the specified number of stars
+     *
+     * @param starCapacity
+     *            the most stars in play
+     */
+    public SpectatorDecoder(int starCapacity)
+    {
+        tracks = new StarTracks(starCapacity);
+        starX = new int[starCapacity];
+        starY = new int[starCapacity];
+    }
+
+    /**
+     * Forget every frame decoded, so that only a keyframe can be decoded next
+     */
+    public void reset()
+    {
+        frame = -1L;
+        count = 0;
+    }
+
+    /**
+     * Decode a frame, and work out where every star is as of it
+     *
+     * @param buffer
+     *            the frame, from the buffer's position, which is moved past it if it is decoded
+     * @return whether the frame was decoded, rather than passed over
+     * @throws IllegalStateException
+     *             if the frame is malformed or holds more stars than the capacity
+     */
+    public boolean decode(ByteBuffer buffer)
+    {
+        final int start = buffer.position();
+        final byte type = buffer.get();
+        if (type != SpectatorFormat.KEYFRAME && type != SpectatorFormat.DELTA)
+            throw new IllegalStateException("Unknown frame type " + type);
+
+        final long next = Varint.getUnsigned(buffer);
+        final boolean keyframe = type == SpectatorFormat.KEYFRAME;
+        int players = guyX.length;
+        if (keyframe)
+        {
+            if (next < frame)
+            {
+                buffer.position(start);
+                return false;
+            }
+            width = (int) Varint.getUnsigned(buffer);
+            height = (int) Varint.getUnsigned(buffer);
+            players = (int) Varint.getUnsigned(buffer);
+            if (players > SpectatorEncoder.MAX_PLAYERS)
+                throw new IllegalStateException("A frame can hold at most " + SpectatorEncoder.MAX_PLAYERS + " players: " + players);
+        }
+        else
+        {
+            final long base = next - Varint.getUnsigned(buffer);
+            if (frame < 0L || next <= frame || base > frame)
+            {
+                buffer.position(start);
+                return false;
+            }
+        }
+
+        final long stars = Varint.getUnsigned(buffer);
+        if (stars > tracks.getCapacity())
+            throw new IllegalStateException(stars + " stars is past the capacity of " + tracks.getCapacity());
+        if (players != guyX.length)
+        {
+            guyX = new int[players];
+            guyY = new int[players];
+            points = new int[players];
+        }
+
+        final long mask = Varint.getUnsigned(buffer);
+        for (int p = 0; p < players; p++)
+        {
+            if ((mask & (1L << p)) != 0L)
+            {
+                guyX[p] = (int) Varint.getSigned(buffer);
+                guyY[p] = (int) Varint.getSigned(buffer);
+                points[p] = (int) Varint.getUnsigned(buffer);
+            }
+        }
+
+        int i = -1;
+        while ((i = tracks.read(buffer, i, next)) >= 0)
+        {
+            if (i >= stars)
+                throw new IllegalStateException("Star " + i + " is past the " + stars + " stars in play");
+        }
+
+        frame = next;
+        count = (int) stars;
+        for (int s = 0; s < count; s++)
+        {
+            starX[s] = tracks.pixelX(s, frame, width);
+            starY[s] = tracks.pixelY(s, frame, height);
+        }
+        return true;
+    }
+
+    /**
+     * Get the latest frame decoded, for the viewer to acknowledge to the encoder
+     *
+     * @return frame, or -1 before the first keyframe
+     */
+    public long getFrame()
+    {
+        return frame;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getPlayers()
+    {
+        return guyX.length;
+    }
+
+    /**
+     * Get the number of stars in play, which are the stars at indices up to but not including it
+     *
+     * @return count
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Get the pixel the specified star is on horizontally
+     *
+     * @param i
+     *            star index
+     * @return pixel
+     */
+    public int getStarX(int i)
+    {
+        return starX[i];
+    }
+
+    /**
+     * Get the pixel the specified star is on vertically
+     *
+     * @param i
+     *            star index
+     * @return pixel
+     */
+    public int getStarY(int i)
+    {
+        return starY[i];
+    }
+
+    public int getStarSize(int i)
+    {
+        return tracks.size[i];
+    }
+
+    /**
+     * Get the specified star's colour, as an index into {@link com.glitchcog.starnom.agent.Star#COLORS}
+     *
+     * @param i
+     *            star index
+     * @return colour index
+     */
+    public int getStarColor(int i)
+    {
+        return tracks.color[i];
+    }
+
+    public int getGuyX(int player)
+    {
+        return guyX[player];
+    }
+
+    public int getGuyY(int player)
+    {
+        return guyY[player];
+    }
+
+    public int getPoints(int player)
+    {
+        return points[player];
+    }
+}
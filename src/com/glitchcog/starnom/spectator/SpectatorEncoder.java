@@ -0,0 +1,317 @@
+package com.glitchcog.starnom.spectator;
+
+import java.nio.ByteBuffer;
+
+import com.glitchcog.starnom.StarNom;
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.agent.Guy;
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.io.Varint;
+
+/**
+ * Encodes a world's state for spectators, as a frame per tick in the layout of {@link SpectatorFormat}. After each tick
+ * the encoder follows the world along with {@link #update()}, checking every star against the track it has sent for
+ * it, and then writes a frame for each viewer with {@link #encode(ByteBuffer, long)} against the latest frame that
+ * viewer acknowledged. A new viewer gets a keyframe, and after that only the stars whose tracks changed since the frame
+ * it acknowledged, which for most stars is only when they respawn and when they launch.
+ * <p>
+ * Each star slot notes the frame its track last changed on, so a delta against an acknowledged frame holds what changed
+ * since it, and can be decoded on top of that frame or any later one. That way a viewer only has to keep its latest
+ * frame, and frames that are lost just make the next delta a little bigger. Neither updating nor encoding allocates.
+ *
+ * @author Matt Yanos
+ */
+public class SpectatorEncoder
+{
+    /**
+     * The most players whose guys a frame can hold, one for each bit of the mask of the guys in it
+     */
+    public static final int MAX_PLAYERS = 63;
+
+    private final World world;
+
+    /**
+     * The width of the grid positions are quantized to
+     */
+    private final int width;
+
+    /**
+     * The height of the grid positions are quantized to
+     */
+    private final int height;
+
+    /**
+     * The track sent for each star slot
+     */
+    private final StarTracks tracks;
+
+    /**
+     * The state of each star slot's random stream as of the latest frame, which moves on whenever the star respawns or
+     * another star is moved into its slot
+     */
+    private final long[] rng;
+
+    /**
+     * The frame each star slot's track last changed on
+     */
+    private final long[] trackFrame;
+
+    /**
+     * The frame each star slot last respawned on
+     */
+    private final long[] appearanceFrame;
+
+    /**
+     * The pixel position of each guy
+     */
+    private final int[] guyX;
+
+    private final int[] guyY;
+
+    private final int[] points;
+
+    /**
+     * The frame each guy last moved or scored on
+     */
+    private final long[] guyFrame;
+
+    /**
+     * The number of stars in play as of the latest frame
+     */
+    private int count;
+
+    /**
+     * The latest frame, counting up from 0 with every update
+     */
+    private long frame = -1L;
+
+    /**
+     * The number of star tracks sent because the star respawned, and because it strayed from its track
+     */
+    private long respawns;
+
+    private long corrections;
+
+    /**
+     * Construct an encoder that quantizes a world's positions to the pixels of the screen
+     *
+     * @param world
+     */
+    public SpectatorEncoder(World world)
+    {
+        this(world, StarNom.SCREEN_WIDTH, StarNom.SCREEN_HEIGHT);
+    }
+
+    /**
+     * Construct an encoder that quantizes a world's positions to a grid of the specified size
+     *
+     * @param world
+     * @param width
+     *            the width of the grid
+     * @param height
+     *            the height of the grid
+     */
+    public SpectatorEncoder(World world, int width, int height)
+    {
+        if (world.getPlayers() > MAX_PLAYERS)
+            throw new IllegalArgumentException("A frame can hold at most " + MAX_PLAYERS + " players");
+
+        this.world = world;
+        this.width = width;
+        this.height = height;
+        final int capacity = world.getStars().getCapacity();
+        tracks = new StarTracks(capacity);
+        rng = new long[capacity];
+        trackFrame = new long[capacity];
+        appearanceFrame = new long[capacity];
+        guyX = new int[world.getPlayers()];
+        guyY = new int[world.getPlayers()];
+        points = new int[world.getPlayers()];
+        guyFrame = new long[world.getPlayers()];
+    }
+
+    /**
+     * Follow the world to its latest tick as a new frame, sending a new track for every star that respawned or strayed
+     * off its track. This is to be called once after every tick.
+     */
+    public void update()
+    {
+        frame++;
+
+        for (int p = 0; p < guyX.length; p++)
+        {
+            final Guy guy = world.getGuy(p);
+            final int x = SpectatorFormat.quantize(guy.mo.pos.x, width);
+            final int y = SpectatorFormat.quantize(guy.mo.pos.y, height);
+            final int score = world.getPoints(p);
+            if (frame == 0L || x != guyX[p] || y != guyY[p] || score != points[p])
+            {
+                guyX[p] = x;
+                guyY[p] = y;
+                points[p] = score;
+                guyFrame[p] = frame;
+            }
+        }
+
+        final StarField stars = world.getStars();
+        stars.evaluate(true);
+        count = stars.getCount();
+        final float change = world.getTimestep() * world.getTimestep();
+        for (int i = 0; i < count; i++)
+        {
+            if (frame == 0L || stars.rng[i] != rng[i])
+            {
+                rng[i] = stars.rng[i];
+                tracks.size[i] = stars.size[i];
+                tracks.color[i] = stars.color[i];
+                appearanceFrame[i] = frame;
+                anchor(stars, i, change);
+                respawns++;
+            }
+            else if (tracks.pixelX(i, frame, width) != SpectatorFormat.quantize(stars.posX[i], width) || tracks.pixelY(i, frame, height) != SpectatorFormat.quantize(stars.posY[i], height))
+            {
+                anchor(stars, i, change);
+                corrections++;
+            }
+        }
+    }
+
+    /**
+     * Anchor a new track for the specified star where it is now. A star that isn't in flight, or that didn't move in the
+     * latest tick, is taken to be staying put.
+     *
+     * @param stars
+     * @param i
+     *            star index
+     * @param change
+     *            the length of a tick squared, which scales acceleration to the change in step each tick
+     */
+    private void anchor(StarField stars, int i, float change)
+    {
+        tracks.anchorFrame[i] = frame;
+        tracks.anchorX[i] = SpectatorFormat.toPosition(stars.posX[i]);
+        tracks.anchorY[i] = SpectatorFormat.toPosition(stars.posY[i]);
+        if (!stars.isInFlight(i) || (stars.posX[i] == stars.prevX[i] && stars.posY[i] == stars.prevY[i]))
+        {
+            tracks.stepX[i] = 0;
+            tracks.stepY[i] = 0;
+            tracks.changeX[i] = 0;
+            tracks.changeY[i] = 0;
+        }
+        else
+        {
+            tracks.stepX[i] = SpectatorFormat.toStep(stars.posX[i] - stars.prevX[i] + stars.accX[i] * change);
+            tracks.stepY[i] = SpectatorFormat.toStep(stars.posY[i] - stars.prevY[i] + stars.accY[i] * change);
+            tracks.changeX[i] = SpectatorFormat.toChange(stars.accX[i] * change);
+            tracks.changeY[i] = SpectatorFormat.toChange(stars.accY[i] * change);
+        }
+        trackFrame[i] = frame;
+    }
+
+    /**
+     * Write the latest frame for a viewer, as a delta against the latest frame the viewer acknowledged, or as a keyframe
+     * if it hasn't acknowledged one
+     *
+     * @param buffer
+     *            the buffer to write the frame to, with room for {@link SpectatorFormat#maxFrameSize(int, int)} bytes
+     * @param ack
+     *            the latest frame the viewer acknowledged decoding, or -1 for none
+     * @return whether a keyframe was written
+     * @throws IllegalStateException
+     *             if there are no frames yet
+     */
+    public boolean encode(ByteBuffer buffer, long ack)
+    {
+        if (frame < 0L)
+            throw new IllegalStateException("There are no frames until the encoder is updated");
+
+        final boolean keyframe = ack < 0L || ack > frame;
+        buffer.put(keyframe ? SpectatorFormat.KEYFRAME : SpectatorFormat.DELTA);
+        Varint.putUnsigned(buffer, frame);
+        if (keyframe)
+        {
+            Varint.putUnsigned(buffer, width);
+            Varint.putUnsigned(buffer, height);
+            Varint.putUnsigned(buffer, guyX.length);
+        }
+        else
+        {
+            Varint.putUnsigned(buffer, frame - ack);
+        }
+        Varint.putUnsigned(buffer, count);
+
+        long mask = 0L;
+        for (int p = 0; p < guyX.length; p++)
+        {
+            if (keyframe || guyFrame[p] > ack)
+                mask |= 1L << p;
+        }
+        Varint.putUnsigned(buffer, mask);
+        for (int p = 0; p < guyX.length; p++)
+        {
+            if ((mask & (1L << p)) != 0L)
+            {
+                Varint.putSigned(buffer, guyX[p]);
+                Varint.putSigned(buffer, guyY[p]);
+                Varint.putUnsigned(buffer, points[p]);
+            }
+        }
+
+        int previous = -1;
+        for (int i = 0; i < count; i++)
+        {
+            if (keyframe || trackFrame[i] > ack)
+            {
+                tracks.write(buffer, i, previous, frame, keyframe || appearanceFrame[i] > ack);
+                previous = i;
+            }
+        }
+        Varint.putUnsigned(buffer, 0L);
+        return keyframe;
+    }
+
+    public World getWorld()
+    {
+        return world;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Get the latest frame
+     *
+     * @return frame, or -1 before the first update
+     */
+    public long getFrame()
+    {
+        return frame;
+    }
+
+    /**
+     * Get the number of new tracks sent because a star respawned, or was moved into another slot
+     *
+     * @return tracks
+     */
+    public long getRespawns()
+    {
+        return respawns;
+    }
+
+    /**
+     * Get the number of new tracks sent because a star strayed a pixel off its track
+     *
+     * @return tracks
+     */
+    public long getCorrections()
+    {
+        return corrections;
+    }
+}
@@ -0,0 +1,216 @@
+package com.glitchcog.starnom.spectator;
+
+import com.glitchcog.starnom.io.Varint;
+
+/**
+ * The layout of spectator frames, and the quantization and prediction that the encoder and decoder share so that they
+ * always agree on where a star is.
+ * <p>
+ * Every position a viewer sees is a whole pixel on the grid of the screen, clamped to a {@link #GUTTER} around it.
+ * Each star is sent as a track rather than as a position: where it was as of the frame the track was anchored, how far
+ * it moves in the frame after and how much that changes each frame, all in fixed point, so both ends can work out
+ * where it is on any later frame in exactly the same way. The encoder only sends a new track when the
+ * star respawns or strays off its track by a pixel.
+ * <p>
+ * A frame is the frame type as a byte, then varints: the frame number, for a keyframe the grid width, height and
+ * number of players, or for a delta how many frames before it the base frame is, and the number of stars in play. Then
+ * a bitmask of the players whose guy moved or scored since the base frame, each followed by their guy's pixel position
+ * and score, then the star records, each headed by a varint of the gap in index since the previous record plus one,
+ * shifted up over the {@link #MOVING} and {@link #APPEARANCE} flags, and ended by a 0. A record holds the age of the
+ * track in frames, its anchor position, then its step and its change in step if {@link #MOVING}, then the star's size
+ * and colour if {@link #APPEARANCE}, which is sent for stars that respawned. A keyframe holds a record for every star
+ * in play, and a delta one for every star whose track changed since the base frame.
+ *
+ * @author Matt Yanos
+ */
+public final class SpectatorFormat
+{
+    /**
+     * The frame type of a frame that holds every star
+     */
+    public static final byte KEYFRAME = 1;
+
+    /**
+     * The frame type of a frame that holds what changed since a base frame
+     */
+    public static final byte DELTA = 2;
+
+    /**
+     * The number of fractional bits in the fixed point positions of tracks
+     */
+    public static final int FRACTION_BITS = 8;
+
+    /**
+     * The number of fractional bits in the fixed point steps of tracks, finer than positions as each is added up over
+     * every frame of a track
+     */
+    public static final int STEP_BITS = 16;
+
+    /**
+     * The number of fractional bits in the fixed point changes in step of tracks, and in the positions tracks predict,
+     * finer again as each change is added up over every frame of a track twice over
+     */
+    public static final int CHANGE_BITS = 24;
+
+    /**
+     * The number of pixels around the screen that positions are clamped to, enough to take in where stars wait to
+     * launch from
+     */
+    public static final int GUTTER = 128;
+
+    /**
+     * The flag in a record's header marking a star that is on the move, whose record holds its step
+     */
+    public static final int MOVING = 1 << 1;
+
+    /**
+     * The flag in a record's header marking a record that holds the star's size and colour
+     */
+    public static final int APPEARANCE = 1;
+
+    /**
+     * The number of bits in a record's header below the gap in index
+     */
+    public static final int FLAG_BITS = 2;
+
+    /**
+     * The most frames a track is followed for, which keeps the prediction from overflowing. Any star still on the move
+     * by then is sent a new track.
+     */
+    public static final int MAX_TRACK_AGE = 1 << 16;
+
+    /**
+     * The furthest from the origin a fixed point position goes, in pixels
+     */
+    private static final float MAX_POSITION = 1 << 20;
+
+    /**
+     * The furthest a fixed point step goes, in pixels
+     */
+    private static final float MAX_STEP = 1 << 14;
+
+    /**
+     * The furthest a fixed point change in step goes, in pixels
+     */
+    private static final float MAX_CHANGE = 1 << 6;
+
+    /**
+     * The most bytes an int takes up as a varint
+     */
+    private static final int INT_BYTES = 5;
+
+    private SpectatorFormat()
+    {
+    }
+
+    /**
+     * Convert a position in pixels to fixed point with {@link #FRACTION_BITS} fractional bits
+     *
+     * @param pixels
+     * @return fixed point position
+     */
+    public static int toPosition(float pixels)
+    {
+        return toFixed(pixels, FRACTION_BITS, MAX_POSITION);
+    }
+
+    /**
+     * Convert a step in pixels to fixed point with {@link #STEP_BITS} fractional bits
+     *
+     * @param pixels
+     * @return fixed point step
+     */
+    public static int toStep(float pixels)
+    {
+        return toFixed(pixels, STEP_BITS, MAX_STEP);
+    }
+
+    /**
+     * Convert a change in step in pixels to fixed point with {@link #CHANGE_BITS} fractional bits
+     *
+     * @param pixels
+     * @return fixed point change in step
+     */
+    public static int toChange(float pixels)
+    {
+        return toFixed(pixels, CHANGE_BITS, MAX_CHANGE);
+    }
+
+    /**
+     * Convert pixels to fixed point, clamped so that predictions can't overflow
+     *
+     * @param pixels
+     * @param bits
+     *            the number of fractional bits
+     * @param max
+     *            the furthest from 0 to go, in pixels
+     * @return fixed point value
+     */
+    private static int toFixed(float pixels, int bits, float max)
+    {
+        // Scaling by a power of two is exact, so this rounds the position itself, half up
+        return (int) Math.floor((double) Math.max(-max, Math.min(max, pixels)) * (1 << bits) + 0.5);
+    }
+
+    /**
+     * Get the pixel a predicted position falls on along an axis of the grid
+     *
+     * @param fixed
+     *            fixed point position with {@link #CHANGE_BITS} fractional bits
+     * @param extent
+     *            the width or height of the grid
+     * @return pixel
+     */
+    public static int pixel(long fixed, int extent)
+    {
+        final long pixel = (fixed + (1L << (CHANGE_BITS - 1))) >> CHANGE_BITS;
+        return (int) Math.max(-GUTTER, Math.min(extent + GUTTER, pixel));
+    }
+
+    /**
+     * Get the pixel a position falls on along an axis of the grid
+     *
+     * @param position
+     * @param extent
+     *            the width or height of the grid
+     * @return pixel
+     */
+    public static int quantize(float position, int extent)
+    {
+        final int pixel = (toPosition(position) + (1 << (FRACTION_BITS - 1))) >> FRACTION_BITS;
+        return Math.max(-GUTTER, Math.min(extent + GUTTER, pixel));
+    }
+
+    /**
+     * Work out where a track puts a star along one axis after the specified number of frames, the same as adding the
+     * change in step to the step and then the step to the position that many times
+     *
+     * @param anchor
+     *            fixed point position as of the frame the track was anchored, see {@link #toPosition(float)}
+     * @param step
+     *            fixed point distance moved in the frame after that, see {@link #toStep(float)}
+     * @param change
+     *            fixed point change in step each frame, see {@link #toChange(float)}
+     * @param age
+     *            frames since the track was anchored
+     * @return fixed point position with {@link #CHANGE_BITS} fractional bits
+     */
+    public static long predict(int anchor, int step, int change, long age)
+    {
+        final long n = Math.min(age, MAX_TRACK_AGE);
+        return ((long) anchor << (CHANGE_BITS - FRACTION_BITS)) + n * ((long) step << (CHANGE_BITS - STEP_BITS)) + change * (n * (n - 1L) >> 1);
+    }
+
+    /**
+     * Get the most bytes a frame can take up
+     *
+     * @param starCapacity
+     *            the most stars in play
+     * @param players
+     * @return bytes
+     */
+    public static int maxFrameSize(int starCapacity, int players)
+    {
+        return 1 + 6 * Varint.MAX_BYTES + players * 3 * INT_BYTES + starCapacity * (Varint.MAX_BYTES + 8 * INT_BYTES + 1) + 1;
+    }
+}
@@ -0,0 +1,183 @@
+package com.glitchcog.starnom.spectator;
+
+import java.nio.ByteBuffer;
+
+import com.glitchcog.starnom.io.Varint;
+
+/**
+ * The track of every star slot, as the encoder has sent them and a viewer has them, along with the star records that
+ * carry them, see {@link SpectatorFormat}
+ *
+ * @author Matt Yanos
+ */
+final class StarTracks
+{
+    /**
+     * The frame each track was anchored on
+     */
+    final long[] anchorFrame;
+
+    /**
+     * The fixed point horizontal position of each star as of the frame its track was anchored on
+     */
+    final int[] anchorX;
+
+    /**
+     * The fixed point vertical position of each star as of the frame its track was anchored on
+     */
+    final int[] anchorY;
+
+    /**
+     * The fixed point horizontal distance each star moves in the frame after its track was anchored
+     */
+    final int[] stepX;
+
+    /**
+     * The fixed point vertical distance each star moves in the frame after its track was anchored
+     */
+    final int[] stepY;
+
+    /**
+     * The fixed point change in each star's horizontal step each frame
+     */
+    final int[] changeX;
+
+    /**
+     * The fixed point change in each star's vertical step each frame
+     */
+    final int[] changeY;
+
+    final int[] size;
+
+    final byte[] color;
+
+    StarTracks(int capacity)
+    {
+        anchorFrame = new long[capacity];
+        anchorX = new int[capacity];
+        anchorY = new int[capacity];
+        stepX = new int[capacity];
+        stepY = new int[capacity];
+        changeX = new int[capacity];
+        changeY = new int[capacity];
+        size = new int[capacity];
+        color = new byte[capacity];
+    }
+
+    int getCapacity()
+    {
+        return anchorFrame.length;
+    }
+
+    /**
+     * Get the pixel the specified star's track puts it on horizontally as of the specified frame
+     *
+     * @param i
+     *            star index
+     * @param frame
+     * @param width
+     *            the width of the grid
+     * @return pixel
+     */
+    int pixelX(int i, long frame, int width)
+    {
+        return SpectatorFormat.pixel(SpectatorFormat.predict(anchorX[i], stepX[i], changeX[i], frame - anchorFrame[i]), width);
+    }
+
+    /**
+     * Get the pixel the specified star's track puts it on vertically as of the specified frame
+     *
+     * @param i
+     *            star index
+     * @param frame
+     * @param height
+     *            the height of the grid
+     * @return pixel
+     */
+    int pixelY(int i, long frame, int height)
+    {
+        return SpectatorFormat.pixel(SpectatorFormat.predict(anchorY[i], stepY[i], changeY[i], frame - anchorFrame[i]), height);
+    }
+
+    /**
+     * Write the record of the specified star's track
+     *
+     * @param buffer
+     * @param i
+     *            star index
+     * @param previous
+     *            the index of the star in the previous record, or -1 if this is the first
+     * @param frame
+     *            the frame being written
+     * @param appearance
+     *            whether to include the star's size and colour
+     */
+    void write(ByteBuffer buffer, int i, int previous, long frame, boolean appearance)
+    {
+        final boolean moving = stepX[i] != 0 || stepY[i] != 0 || changeX[i] != 0 || changeY[i] != 0;
+        Varint.putUnsigned(buffer, ((long) (i - previous) << SpectatorFormat.FLAG_BITS) | (moving ? SpectatorFormat.MOVING : 0) | (appearance ? SpectatorFormat.APPEARANCE : 0));
+        Varint.putUnsigned(buffer, frame - anchorFrame[i]);
+        Varint.putSigned(buffer, anchorX[i]);
+        Varint.putSigned(buffer, anchorY[i]);
+        if (moving)
+        {
+            Varint.putSigned(buffer, stepX[i]);
+            Varint.putSigned(buffer, stepY[i]);
+            Varint.putSigned(buffer, changeX[i]);
+            Varint.putSigned(buffer, changeY[i]);
+        }
+        if (appearance)
+        {
+            Varint.putUnsigned(buffer, size[i]);
+            buffer.put(color[i]);
+        }
+    }
+
+    /**
+     * Read the next star record into the track of the star it is for
+     *
+     * @param buffer
+     * @param previous
+     *            the index of the star in the previous record, or -1 if this is the first
+     * @param frame
+     *            the frame being read
+     * @return the index of the star, or -1 at the end of the records
+     * @throws IllegalStateException
+     *             if the record is for a star past the capacity
+     */
+    int read(ByteBuffer buffer, int previous, long frame)
+    {
+        final long header = Varint.getUnsigned(buffer);
+        if (header == 0L)
+            return -1;
+
+        final long index = previous + (header >>> SpectatorFormat.FLAG_BITS);
+        if (index >= getCapacity())
+            throw new IllegalStateException("Star " + index + " is past the capacity of " + getCapacity());
+        final int i = (int) index;
+
+        anchorFrame[i] = frame - Varint.getUnsigned(buffer);
+        anchorX[i] = (int) Varint.getSigned(buffer);
+        anchorY[i] = (int) Varint.getSigned(buffer);
+        if ((header & SpectatorFormat.MOVING) != 0L)
+        {
+            stepX[i] = (int) Varint.getSigned(buffer);
+            stepY[i] = (int) Varint.getSigned(buffer);
+            changeX[i] = (int) Varint.getSigned(buffer);
+            changeY[i] = (int) Varint.getSigned(buffer);
+        }
+        else
+        {
+            stepX[i] = 0;
+            stepY[i] = 0;
+            changeX[i] = 0;
+            changeY[i] = 0;
+        }
+        if ((header & SpectatorFormat.APPEARANCE) != 0L)
+        {
+            size[i] = (int) Varint.getUnsigned(buffer);
+            color[i] = buffer.get();
+        }
+        return i;
+    }
+}
@@ -0,0 +1,170 @@
+package com.glitchcog.starnom.telemetry;
+
+/**
+ * The layout of telemetry segment files. Each segment is a header followed by fixed width records, one per tick, all
+ * little endian. A record holds the tick, the score and the guy's motion, then the position and velocity of every star
+ * slot as four arrays as long as the star capacity, then a bitmap of the stars eaten during the tick. Only the first
+ * star count slots of a record are meaningful.
+ *
+ * @author Matt Yanos
+ */
+public final class TelemetryFormat
+{
+    /**
+     * The first int of every segment, "SNTL" in ASCII
+     */
+    public static final int MAGIC = 0x534e544c;
+
+    /**
+     * The version of the layout, to be bumped whenever it changes
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The number of bytes before the first record
+     */
+    public static final int HEADER_SIZE = 64;
+
+    public static final int MAGIC_OFFSET = 0;
+
+    public static final int VERSION_OFFSET = 4;
+
+    /**
+     * The offset of the number of star slots in each record
+     */
+    public static final int STAR_CAPACITY_OFFSET = 8;
+
+    /**
+     * The offset of the number of bytes in each record
+     */
+    public static final int RECORD_SIZE_OFFSET = 12;
+
+    /**
+     * The offset of the segment's number, counting up from 0 as segments roll
+     */
+    public static final int SEGMENT_OFFSET = 16;
+
+    /**
+     * The offset of the number of records written to the segment so far, which is kept up to date as they are written
+     */
+    public static final int RECORD_COUNT_OFFSET = 20;
+
+    /**
+     * The offset within a record of the tick, as a long
+     */
+    public static final int TICK = 0;
+
+    /**
+     * The offset within a record of the score as of the end of the tick, as an int
+     */
+    public static final int POINTS = 8;
+
+    /**
+     * The offset within a record of the number of stars in play, as an int
+     */
+    public static final int STAR_COUNT = 12;
+
+    /**
+     * The offset within a record of the guy's horizontal position, followed by his vertical position and his horizontal
+     * and vertical velocity, as floats
+     */
+    public static final int GUY = 16;
+
+    /**
+     * The offset within a record of the star arrays
+     */
+    public static final int STARS = 32;
+
+    private TelemetryFormat()
+    {
+    }
+
+    /**
+     * Get the number of bytes in each record for the specified number of star slots
+     *
+     * @param starCapacity
+     * @return bytes
+     */
+    public static long recordSize(int starCapacity)
+    {
+        return eatenOffset(starCapacity) + eatenWords(starCapacity) * (long) Long.BYTES;
+    }
+
+    /**
+     * Get the offset within a record of the stars' horizontal positions
+     *
+     * @param starCapacity
+     * @return offset
+     */
+    public static long starXOffset(int starCapacity)
+    {
+        return STARS;
+    }
+
+    /**
+     * Get the offset within a record of the stars' vertical positions
+     *
+     * @param starCapacity
+     * @return offset
+     */
+    public static long starYOffset(int starCapacity)
+    {
+        return STARS + starCapacity * (long) Float.BYTES;
+    }
+
+    /**
+     * Get the offset within a record of the stars' horizontal velocities
+     *
+     * @param starCapacity
+     * @return offset
+     */
+    public static long starVelXOffset(int starCapacity)
+    {
+        return STARS + starCapacity * 2L * Float.BYTES;
+    }
+
+    /**
+     * Get the offset within a record of the stars' vertical velocities
+     *
+     * @param starCapacity
+     * @return offset
+     */
+    public static long starVelYOffset(int starCapacity)
+    {
+        return STARS + starCapacity * 3L * Float.BYTES;
+    }
+
+    /**
+     * Get the offset within a record of the bitmap of stars eaten, which is long aligned, with star i at bit i % 64 of
+     * long i / 64
+     *
+     * @param starCapacity
+     * @return offset
+     */
+    public static long eatenOffset(int starCapacity)
+    {
+        return (STARS + starCapacity * 4L * Float.BYTES + Long.BYTES - 1) & -Long.BYTES;
+    }
+
+    /**
+     * Get the number of longs in the bitmap of stars eaten
+     *
+     * @param starCapacity
+     * @return longs
+     */
+    public static int eatenWords(int starCapacity)
+    {
+        return (starCapacity + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Get the file name of the specified segment
+     *
+     * @param segment
+     * @return file name
+     */
+    public static String segmentName(int segment)
+    {
+        return String.format("telemetry-%06d.snt", segment);
+    }
+}
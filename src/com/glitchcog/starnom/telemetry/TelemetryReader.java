@@ -0,0 +1,255 @@
+package com.glitchcog.starnom.telemetry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a telemetry segment written by {@link TelemetryWriter}, mapped straight into memory so that scanning its records
+ * runs at the speed of memory rather than of parsing. Records can be read from a segment that is still being written,
+ * up to the count as of when the reader was opened.
+ *
+ * @author Matt Yanos
+ */
+public class TelemetryReader
+{
+    /**
+     * The mapped segment
+     */
+    private final MappedByteBuffer segment;
+
+    /**
+     * The number of star slots in each record
+     */
+    private final int starCapacity;
+
+    /**
+     * The number of bytes in each record
+     */
+    private final int recordSize;
+
+    /**
+     * The number of the segment, counting up from 0 as segments rolled
+     */
+    private final int segmentIndex;
+
+    /**
+     * The number of records in the segment
+     */
+    private final int recordCount;
+
+    private final int starXOffset;
+
+    private final int starYOffset;
+
+    private final int starVelXOffset;
+
+    private final int starVelYOffset;
+
+    private final int eatenOffset;
+
+    /**
+     * Open a segment file
+     *
+     * @param file
+     * @throws IOException
+     *             if the file can't be read or isn't a telemetry segment of this version
+     */
+    public TelemetryReader(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        }
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (segment.capacity() < TelemetryFormat.HEADER_SIZE || segment.getInt(TelemetryFormat.MAGIC_OFFSET) != TelemetryFormat.MAGIC)
+            throw new IOException("Not a telemetry segment: " + file);
+        final int version = segment.getInt(TelemetryFormat.VERSION_OFFSET);
+        if (version != TelemetryFormat.VERSION)
+            throw new IOException("Unsupported telemetry version " + version + " in " + file);
+
+        starCapacity = segment.getInt(TelemetryFormat.STAR_CAPACITY_OFFSET);
+        recordSize = segment.getInt(TelemetryFormat.RECORD_SIZE_OFFSET);
+        segmentIndex = segment.getInt(TelemetryFormat.SEGMENT_OFFSET);
+        recordCount = Math.min(segment.getInt(TelemetryFormat.RECORD_COUNT_OFFSET), (segment.capacity() - TelemetryFormat.HEADER_SIZE) / recordSize);
+        starXOffset = (int) TelemetryFormat.starXOffset(starCapacity);
+        starYOffset = (int) TelemetryFormat.starYOffset(starCapacity);
+        starVelXOffset = (int) TelemetryFormat.starVelXOffset(starCapacity);
+        starVelYOffset = (int) TelemetryFormat.starVelYOffset(starCapacity);
+        eatenOffset = (int) TelemetryFormat.eatenOffset(starCapacity);
+    }
+
+    public int getStarCapacity()
+    {
+        return starCapacity;
+    }
+
+    public int getSegmentIndex()
+    {
+        return segmentIndex;
+    }
+
+    public int getRecordCount()
+    {
+        return recordCount;
+    }
+
+    /**
+     * Get the byte offset of a record
+     *
+     * @param record
+     * @return offset
+     */
+    private int base(int record)
+    {
+        return TelemetryFormat.HEADER_SIZE + record * recordSize;
+    }
+
+    public long getTick(int record)
+    {
+        return segment.getLong(base(record) + TelemetryFormat.TICK);
+    }
+
+    public int getPoints(int record)
+    {
+        return segment.getInt(base(record) + TelemetryFormat.POINTS);
+    }
+
+    public int getStarCount(int record)
+    {
+        return segment.getInt(base(record) + TelemetryFormat.STAR_COUNT);
+    }
+
+    public float getGuyX(int record)
+    {
+        return segment.getFloat(base(record) + TelemetryFormat.GUY);
+    }
+
+    public float getGuyY(int record)
+    {
+        return segment.getFloat(base(record) + TelemetryFormat.GUY + 4);
+    }
+
+    public float getGuyVelX(int record)
+    {
+        return segment.getFloat(base(record) + TelemetryFormat.GUY + 8);
+    }
+
+    public float getGuyVelY(int record)
+    {
+        return segment.getFloat(base(record) + TelemetryFormat.GUY + 12);
+    }
+
+    public float getStarX(int record, int star)
+    {
+        return segment.getFloat(base(record) + starXOffset + star * Float.BYTES);
+    }
+
+    public float getStarY(int record, int star)
+    {
+        return segment.getFloat(base(record) + starYOffset + star * Float.BYTES);
+    }
+
+    public float getStarVelX(int record, int star)
+    {
+        return segment.getFloat(base(record) + starVelXOffset + star * Float.BYTES);
+    }
+
+    public float getStarVelY(int record, int star)
+    {
+        return segment.getFloat(base(record) + starVelYOffset + star * Float.BYTES);
+    }
+
+    /**
+     * Whether the specified star was eaten during a record's tick
+     *
+     * @param record
+     * @param star
+     * @return eaten
+     */
+    public boolean isEaten(int record, int star)
+    {
+        return (segment.getLong(base(record) + eatenOffset + (star >>> 6) * Long.BYTES) & (1L << star)) != 0L;
+    }
+
+    /**
+     * Count the stars eaten during a record's tick
+     *
+     * @param record
+     * @return stars
+     */
+    public int countEaten(int record)
+    {
+        final int offset = base(record) + eatenOffset;
+        int eaten = 0;
+        for (int w = 0; w < TelemetryFormat.eatenWords(starCapacity); w++)
+            eaten += Long.bitCount(segment.getLong(offset + w * Long.BYTES));
+        return eaten;
+    }
+
+    /**
+     * Scan every record of the segments given as files or directories of segments, and report what they hold and how
+     * fast they were scanned
+     *
+     * @param args
+     * @throws IOException
+     *             if a segment can't be read
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length == 0)
+        {
+            System.out.println("Usage: TelemetryReader <segment file or directory>...");
+            return;
+        }
+
+        for (String arg : args)
+        {
+            File file = new File(arg);
+            File[] segments = file.isDirectory() ? file.listFiles() : new File[] { file };
+            Arrays.sort(segments);
+            for (File segment : segments)
+            {
+                if (segment.isFile() && (!file.isDirectory() || segment.getName().endsWith(".snt")))
+                    scan(new TelemetryReader(segment), segment);
+            }
+        }
+    }
+
+    /**
+     * Scan every star of every record of a segment, and report the ticks it covers, the stars eaten, the mean star speed
+     * and how fast it was scanned
+     *
+     * @param reader
+     * @param file
+     */
+    private static void scan(TelemetryReader reader, File file)
+    {
+        final long startTime = System.nanoTime();
+        long eaten = 0L;
+        long stars = 0L;
+        double speed = 0.0;
+        for (int r = 0; r < reader.getRecordCount(); r++)
+        {
+            final int count = reader.getStarCount(r);
+            for (int i = 0; i < count; i++)
+            {
+                final float velX = reader.getStarVelX(r, i);
+                final float velY = reader.getStarVelY(r, i);
+                speed += Math.sqrt(velX * velX + velY * velY);
+            }
+            stars += count;
+            eaten += reader.countEaten(r);
+        }
+        final long elapsed = System.nanoTime() - startTime;
+
+        final int records = reader.getRecordCount();
+        final long bytes = (long) records * reader.recordSize;
+        System.out.println(String.format("%s: segment %d, %d records of %d star slots, ticks %d to %d, final score %d, %d stars eaten, mean star speed %.2f, scanned %.1f MB in %.1f ms (%.0f MB/s)", file, reader.getSegmentIndex(), records, reader.getStarCapacity(), records > 0 ? reader.getTick(0) : 0L, records > 0 ? reader.getTick(records - 1) : 0L, records > 0 ? reader.getPoints(records - 1) : 0, eaten, speed / Math.max(stars, 1L), bytes / 1e6, elapsed / 1e6, bytes / 1e6 / Math.max(elapsed / 1e9, 1e-9)));
+    }
+}
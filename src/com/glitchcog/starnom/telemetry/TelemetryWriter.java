@@ -0,0 +1,494 @@
+package com.glitchcog.starnom.telemetry;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.glitchcog.starnom.World;
+import com.glitchcog.starnom.agent.Guy;
+import com.glitchcog.starnom.agent.StarField;
+import com.glitchcog.starnom.physics.StarMotion;
+
+/**
+ * Writes a record of every tick of a world to memory mapped segment files, laid out as described by
+ * {@link TelemetryFormat}, for analysing runs offline.
+ * <p>
+ * The simulation thread only copies each tick into the next free record of a ring allocated up front, in a few bulk
+ * copies of the star arrays, and never waits on the disk. If the ring is full the tick's record is dropped and counted
+ * instead. A flusher thread copies the records from the ring to the current segment, which is mapped with
+ * {@link FileChannel#map}, and rolls on to a new segment file each time one fills up. Each segment is mapped at its
+ * full size up front, then unmapped and cut down to the records written to it when the writer rolls on or is closed,
+ * so a short run doesn't leave a full size file behind. A world without a writer doesn't record anything, so telemetry
+ * costs nothing while it is off.
+ *
+ * @author Matt Yanos
+ */
+public class TelemetryWriter implements Closeable
+{
+    /**
+     * The default most bytes in each segment file
+     */
+    public static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+
+    /**
+     * The default most bytes of records the ring holds
+     */
+    public static final int DEFAULT_RING_BYTES = 16 << 20;
+
+    /**
+     * How long the flusher waits for more records when it has caught up, in nanoseconds
+     */
+    private static final long IDLE_NANOS = 1000000L;
+
+    /**
+     * The directory the segment files are written to
+     */
+    private final File directory;
+
+    /**
+     * The number of star slots in each record
+     */
+    private final int starCapacity;
+
+    /**
+     * The number of bytes in each record
+     */
+    private final int recordSize;
+
+    /**
+     * The number of records in each segment file
+     */
+    private final int segmentRecords;
+
+    /**
+     * The number of records the ring holds
+     */
+    private final int ringRecords;
+
+    /**
+     * The records waiting to be flushed
+     */
+    private final ByteBuffer ring;
+
+    /**
+     * The ring viewed as floats, for copying the star arrays in bulk
+     */
+    private final FloatBuffer ringFloats;
+
+    /**
+     * The ring viewed as longs, for copying the bitmap of stars eaten in bulk
+     */
+    private final LongBuffer ringLongs;
+
+    /**
+     * The number of records the simulation has put in the ring
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * The number of records the flusher has taken out of the ring
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * The stars eaten during the tick being run, as a bitmap
+     */
+    private final long[] eaten;
+
+    /**
+     * Room to work out the stars' velocities in with closed form motion
+     */
+    private final float[] velX;
+
+    /**
+     * Room to work out the stars' vertical velocities in with closed form motion
+     */
+    private final float[] velY;
+
+    /**
+     * The number of records dropped because the ring was full, counted by the simulation thread
+     */
+    private long dropped;
+
+    /**
+     * Copies the records from the ring to the segment files
+     */
+    private final Thread flusher;
+
+    /**
+     * Set when the writer is closed, after which the flusher finishes once the ring is empty
+     */
+    private volatile boolean closing;
+
+    /**
+     * What stopped the flusher, or null
+     */
+    private volatile IOException failure;
+
+    /**
+     * The flusher's own view of the ring, which it copies records out of
+     */
+    private final ByteBuffer ringReader;
+
+    /**
+     * The file of the segment being written to, kept open so it can be cut down once the segment is finished, or null
+     * before the first record
+     */
+    private FileChannel segmentChannel;
+
+    /**
+     * The segment being written to, or null before the first record
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * The number of the segment being written to
+     */
+    private int segmentIndex = -1;
+
+    /**
+     * The number of records written to the segment being written to
+     */
+    private int segmentCount;
+
+    /**
+     * The number of records written to the segment files
+     */
+    private volatile long written;
+
+    /**
+     * Construct a writer with the default segment and ring sizes
+     *
+     * @param directory
+     *            the directory to write the segment files to, which is created if need be
+     * @param starCapacity
+     *            the most stars the recorded world can have in play
+     * @throws IOException
+     *             if the directory can't be created
+     */
+    public TelemetryWriter(File directory, int starCapacity) throws IOException
+    {
+        this(directory, starCapacity, DEFAULT_SEGMENT_BYTES, DEFAULT_RING_BYTES);
+    }
+
+    /**
+     * Construct a writer and start its flusher
+     *
+     * @param directory
+     *            the directory to write the segment files to, which is created if need be
+     * @param starCapacity
+     *            the most stars the recorded world can have in play
+     * @param segmentBytes
+     *            the most bytes in each segment file, which always has room for at least one record
+     * @param ringBytes
+     *            the most bytes of records to hold while they wait to be flushed, which is always room for at least two
+     * @throws IOException
+     *             if the directory can't be created
+     */
+    public TelemetryWriter(File directory, int starCapacity, long segmentBytes, int ringBytes) throws IOException
+    {
+        final long size = TelemetryFormat.recordSize(starCapacity);
+        if (size * 2L > Integer.MAX_VALUE - TelemetryFormat.HEADER_SIZE)
+            throw new IllegalArgumentException("Records of " + starCapacity + " stars are too big to map");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create the telemetry directory " + directory);
+
+        this.directory = directory;
+        this.starCapacity = starCapacity;
+        this.recordSize = (int) size;
+        this.segmentRecords = (int) Math.max(1L, (Math.min(segmentBytes, Integer.MAX_VALUE) - TelemetryFormat.HEADER_SIZE) / recordSize);
+        this.ringRecords = Math.max(2, ringBytes / recordSize);
+
+        ring = ByteBuffer.allocateDirect(ringRecords * recordSize).order(ByteOrder.LITTLE_ENDIAN);
+        ringFloats = ring.asFloatBuffer();
+        ringLongs = ring.asLongBuffer();
+        ringReader = ring.duplicate();
+        eaten = new long[TelemetryFormat.eatenWords(starCapacity)];
+        velX = new float[starCapacity];
+        velY = new float[starCapacity];
+
+        flusher = new Thread("StarNom telemetry flusher")
+        {
+            @Override
+            public void run()
+            {
+                flush();
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public int getStarCapacity()
+    {
+        return starCapacity;
+    }
+
+    /**
+     * Get the number of records dropped because the flusher fell behind, from the thread the world is ticked on
+     *
+     * @return records
+     */
+    public long getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Get the number of records written to the segment files so far
+     *
+     * @return records
+     */
+    public long getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * Note that the specified star was eaten during the tick being run
+     *
+     * @param star
+     *            star index
+     */
+    public void eaten(int star)
+    {
+        eaten[star >>> 6] |= 1L << star;
+    }
+
+    /**
+     * Put a record of the tick the world just ran in the ring, or drop it if the ring is full, to be run at the end of
+     * each tick
+     *
+     * @param world
+     */
+    public void record(World world)
+    {
+        final long h = head.get();
+        if (h - tail.get() >= ringRecords)
+        {
+            dropped++;
+            Arrays.fill(eaten, 0L);
+            return;
+        }
+
+        final Guy guy = world.getGuy();
+        final StarField stars = world.getStars();
+        final int count = stars.getCount();
+        final int base = (int) (h % ringRecords) * recordSize;
+        ring.putLong(base + TelemetryFormat.TICK, world.getTick());
+        ring.putInt(base + TelemetryFormat.POINTS, world.getPoints());
+        ring.putInt(base + TelemetryFormat.STAR_COUNT, count);
+        ring.putFloat(base + TelemetryFormat.GUY, guy.mo.pos.x);
+        ring.putFloat(base + TelemetryFormat.GUY + 4, guy.mo.pos.y);
+        ring.putFloat(base + TelemetryFormat.GUY + 8, guy.mo.vel.x);
+        ring.putFloat(base + TelemetryFormat.GUY + 12, guy.mo.vel.y);
+
+        stars.evaluate(false);
+        putFloats(base + TelemetryFormat.starXOffset(starCapacity), stars.posX, count);
+        putFloats(base + TelemetryFormat.starYOffset(starCapacity), stars.posY, count);
+        if (stars.getMotion() == StarMotion.CLOSED_FORM)
+        {
+            stars.evaluateVelocities(velX, velY);
+            putFloats(base + TelemetryFormat.starVelXOffset(starCapacity), velX, count);
+            putFloats(base + TelemetryFormat.starVelYOffset(starCapacity), velY, count);
+        }
+        else
+        {
+            putFloats(base + TelemetryFormat.starVelXOffset(starCapacity), stars.velX, count);
+            putFloats(base + TelemetryFormat.starVelYOffset(starCapacity), stars.velY, count);
+        }
+
+        ringLongs.position((base + (int) TelemetryFormat.eatenOffset(starCapacity)) / Long.BYTES);
+        ringLongs.put(eaten);
+        Arrays.fill(eaten, 0L);
+
+        // Hand the record over to the flusher only once it is whole
+        head.lazySet(h + 1L);
+    }
+
+    /**
+     * Copy the first values of an array into the ring in one pass
+     *
+     * @param offset
+     *            byte offset into the ring
+     * @param values
+     * @param count
+     */
+    private void putFloats(long offset, float[] values, int count)
+    {
+        ringFloats.position((int) offset / Float.BYTES);
+        ringFloats.put(values, 0, count);
+    }
+
+    /**
+     * Stop recording, waiting for the flusher to write out the records left in the ring
+     *
+     * @throws IOException
+     *             if the flusher couldn't write a segment
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closing = true;
+        LockSupport.unpark(flusher);
+        try
+        {
+            flusher.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Copy records from the ring to the segment files as they come in, until the writer is closed and the ring is empty
+     */
+    private void flush()
+    {
+        try
+        {
+            while (true)
+            {
+                final long t = tail.get();
+                final long h = head.get();
+                if (t == h)
+                {
+                    if (closing)
+                        break;
+                    LockSupport.parkNanos(IDLE_NANOS);
+                    continue;
+                }
+
+                for (long r = t; r < h; r++)
+                    append((int) (r % ringRecords) * recordSize);
+                segment.putInt(TelemetryFormat.RECORD_COUNT_OFFSET, segmentCount);
+                written += h - t;
+                tail.lazySet(h);
+            }
+            finish();
+        }
+        catch (IOException e)
+        {
+            failure = e;
+            try
+            {
+                finish();
+            }
+            catch (IOException suppressed)
+            {
+                e.addSuppressed(suppressed);
+            }
+        }
+    }
+
+    /**
+     * Copy a record from the ring to the end of the segment, rolling on to a new segment if it is full
+     *
+     * @param base
+     *            byte offset of the record in the ring
+     * @throws IOException
+     *             if a new segment can't be mapped
+     */
+    private void append(int base) throws IOException
+    {
+        if (segment == null || segmentCount == segmentRecords)
+            roll();
+
+        ringReader.clear().position(base).limit(base + recordSize);
+        segment.position(TelemetryFormat.HEADER_SIZE + segmentCount * recordSize);
+        segment.put(ringReader);
+        segmentCount++;
+    }
+
+    /**
+     * Finish the segment being written to, if any, and map the next one
+     *
+     * @throws IOException
+     */
+    private void roll() throws IOException
+    {
+        finish();
+
+        segmentIndex++;
+        final File file = new File(directory, TelemetryFormat.segmentName(segmentIndex));
+        segmentChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0L, TelemetryFormat.HEADER_SIZE + (long) segmentRecords * recordSize);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(TelemetryFormat.MAGIC_OFFSET, TelemetryFormat.MAGIC);
+        segment.putInt(TelemetryFormat.VERSION_OFFSET, TelemetryFormat.VERSION);
+        segment.putInt(TelemetryFormat.STAR_CAPACITY_OFFSET, starCapacity);
+        segment.putInt(TelemetryFormat.RECORD_SIZE_OFFSET, recordSize);
+        segment.putInt(TelemetryFormat.SEGMENT_OFFSET, segmentIndex);
+        segmentCount = 0;
+        segment.putInt(TelemetryFormat.RECORD_COUNT_OFFSET, 0);
+    }
+
+    /**
+     * Finish the segment being written to, if any: write its record count, flush it to the disk, unmap it and cut the
+     * file down to the records written to it
+     *
+     * @throws IOException
+     */
+    private void finish() throws IOException
+    {
+        if (segmentChannel == null)
+            return;
+
+        final FileChannel channel = segmentChannel;
+        segmentChannel = null;
+        try
+        {
+            if (segment != null)
+            {
+                segment.putInt(TelemetryFormat.RECORD_COUNT_OFFSET, segmentCount);
+                segment.force();
+                unmap(segment);
+                segment = null;
+            }
+            channel.truncate(TelemetryFormat.HEADER_SIZE + (long) segmentCount * recordSize);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Unmap a segment right away rather than whenever it is garbage collected, so its file can be cut down on every
+     * platform. There's no public way to do this, so it goes through the JDK's own cleaner where it can be reached, and
+     * otherwise leaves the mapping to the garbage collector, which is all that's needed where a mapped file can be cut
+     * down anyway. The segment mustn't be used again.
+     *
+     * @param buffer
+     */
+    private static void unmap(MappedByteBuffer buffer)
+    {
+        try
+        {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            // Left for the garbage collector
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.glitchcog.starnom.text;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Keeps multi-line text laid out and measured, keyed by the text and the font, so text that is drawn every frame is only
+ * split into lines, measured and turned into glyphs the first time it is drawn
+ * 
+ * @author Matt Yanos
+ */
+public class TextLayoutCache
+{
+    /**
+     * Multi-line text split into lines, measured and turned into glyphs for a particular font
+     */
+    public static class Layout
+    {
+        /**
+         * The text that was laid out
+         */
+        public final String text;
+
+        /**
+         * The font the text was laid out in
+         */
+        public final Font font;
+
+        /**
+         * The rendering context the glyphs were made for
+         */
+        public final FontRenderContext frc;
+
+        /**
+         * The text of each line
+         */
+        public final String[] lines;
+
+        /**
+         * The glyphs of each line
+         */
+        public final GlyphVector[] glyphs;
+
+        /**
+         * The width in pixels of each line
+         */
+        public final int[] lineWidths;
+
+        /**
+         * The width in pixels of the widest line
+         */
+        public final int width;
+
+        /**
+         * The height in pixels of a line
+         */
+        public final int lineHeight;
+
+        /**
+         * The height in pixels of all the lines, with half a line to spare
+         */
+        public final int height;
+
+        /**
+         * Lay out the specified text in the font and rendering context of the specified Graphics2D object
+         * 
+         * @param text
+         *            the text, with lines separated by newlines
+         * @param g2d
+         */
+        public Layout(String text, Graphics2D g2d)
+        {
+            this.text = text;
+            this.font = g2d.getFont();
+            this.frc = g2d.getFontRenderContext();
+
+            final FontMetrics metrics = g2d.getFontMetrics();
+
+            StringTokenizer tokenizer = new StringTokenizer(text, "\n");
+            lines = new String[tokenizer.countTokens()];
+            glyphs = new GlyphVector[lines.length];
+            lineWidths = new int[lines.length];
+
+            int widest = 0;
+            for (int i = 0; i < lines.length; i++)
+            {
+                lines[i] = tokenizer.nextToken();
+                glyphs[i] = font.createGlyphVector(frc, lines[i]);
+                lineWidths[i] = metrics.stringWidth(lines[i]);
+                if (widest < lineWidths[i])
+                    widest = lineWidths[i];
+            }
+
+            width = widest;
+            lineHeight = metrics.getHeight();
+            height = (int) (lineHeight * (lines.length + 0.5f));
+        }
+
+        /**
+         * Whether this layout is of the specified text for the font and rendering context of the specified Graphics2D
+         * object
+         * 
+         * @param text
+         * @param g2d
+         * @return whether the layout can be used
+         */
+        public boolean matches(String text, Graphics2D g2d)
+        {
+            return this.text.equals(text) && font.equals(g2d.getFont()) && frc.equals(g2d.getFontRenderContext());
+        }
+    }
+
+    /**
+     * Identifies a layout by its text and font
+     */
+    private static class Key
+    {
+        private final String text;
+
+        private final Font font;
+
+        private Key(String text, Font font)
+        {
+            this.text = text;
+            this.font = font;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return text.equals(key.text) && font.equals(key.font);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return text.hashCode() * 31 + font.hashCode();
+        }
+    }
+
+    /**
+     * The layouts, with the least recently used first
+     */
+    private final Map<Key, Layout> layouts;
+
+    /**
+     * Construct a cache that keeps up to the specified number of layouts, forgetting the least recently used beyond that
+     * 
+     * @param capacity
+     */
+    public TextLayoutCache(final int capacity)
+    {
+        layouts = new LinkedHashMap<Key, Layout>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Layout> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Get the layout of the specified text in the font and rendering context of the specified Graphics2D object, laying
+     * it out if it isn't already cached
+     * 
+     * @param text
+     * @param g2d
+     * @return layout
+     */
+    public synchronized Layout get(String text, Graphics2D g2d)
+    {
+        final Key key = new Key(text, g2d.getFont());
+        Layout layout = layouts.get(key);
+        if (layout == null || !layout.matches(text, g2d))
+        {
+            layout = new Layout(text, g2d);
+            layouts.put(key, layout);
+        }
+        return layout;
+    }
+}